@@ -6,43 +6,80 @@ NetworkStateChangeManager::NetworkStateChangeManager()
 
 void
 NetworkStateChangeManager::onPlayerLeft(
+    const std::string& networkId,
     PartyString playerId
     )
 {
-    OnChatControlDestroyed(GetUserName(playerId));
-    m_userMap.erase(playerId);
+    OnChatControlDestroyed(networkId, GetUserName(playerId));
+    // Keep the display name while the player is still with us in another network.
+    if (!PartySample::Managers::Get<PartySample::NetworkManager>()->IsMemberOfAnyNetwork(playerId))
+    {
+        std::lock_guard<std::mutex> lock(m_userMapLock);
+        m_userMap.erase(playerId);
+    }
 }
 
 void
 NetworkStateChangeManager::ProcessEndpointMessage(
+    const std::string& networkId,
     std::string& sender,
     std::string& message
     )
 {
 
     //OnEndpointMessageReceived(GetUserName(sender).c_str(), message.c_str());
-    m_userMap.emplace(sender, message);
-    OnChatControlCreated(GetUserName(sender).c_str());
+    AddUser(sender, message);
+    OnChatControlCreated(networkId, GetUserName(sender).c_str());
 }
 
 // Called when a text chat message is sent to the chat control.
 void
 NetworkStateChangeManager::ProcessTextMessage(
+    const std::string& networkId,
     std::string& sender,
     std::string& message
     )
 {
-    OnEndpointMessageReceived(GetUserName(sender).c_str(), message.c_str());
+    OnEndpointMessageReceived(networkId, GetUserName(sender).c_str(), message.c_str());
 }
 
 // Called when a voice transcription is sent to the chat control.
 void
 NetworkStateChangeManager::ProcessVoiceMessage(
+    const std::string& networkId,
     std::string& sender,
     std::string& message
     )
 {
-    OnVoiceChatTranscriptionReceived(GetUserName(sender).c_str(), message.c_str());
+    OnVoiceChatTranscriptionReceived(networkId, GetUserName(sender).c_str(), message.c_str());
+}
+
+// Called on each statistics sample of the active network.
+void
+NetworkStateChangeManager::ProcessNetworkStatistics(
+    const PartySample::NetworkStatisticsSample& network,
+    const std::vector<PartySample::EndpointStatisticsSample>& endpoints
+    )
+{
+    std::vector<std::string> peers;
+    peers.reserve(endpoints.size());
+    for (const PartySample::EndpointStatisticsSample& endpoint : endpoints)
+    {
+        peers.push_back(GetUserName(endpoint.entityId));
+    }
+    OnNetworkStatistics(network, peers, endpoints);
+}
+
+// Called each time a pong refreshes a peer's round trip and clock offset.
+void
+NetworkStateChangeManager::ProcessPeerClock(
+    const std::string& networkId,
+    const std::string& peer,
+    int64_t roundTripUs,
+    int64_t offsetUs
+    )
+{
+    OnPeerClock(networkId, GetUserName(peer), roundTripUs, offsetUs);
 }
 
 const
@@ -51,6 +88,7 @@ NetworkStateChangeManager::GetUserName(
     const std::string& sender
     )
 {
+    std::lock_guard<std::mutex> lock(m_userMapLock);
     auto search = m_userMap.find(sender);
     if (search != m_userMap.end())
     {
@@ -62,8 +100,31 @@ NetworkStateChangeManager::GetUserName(
     }
 }
 
-std::map<const std::string, const std::string>*
-NetworkStateChangeManager::GetUserMap()
+void
+NetworkStateChangeManager::AddUser(
+    const std::string& entityId,
+    const std::string& userName
+    )
+{
+    std::lock_guard<std::mutex> lock(m_userMapLock);
+    m_userMap.emplace(entityId, userName);
+}
+
+std::map<std::string, std::string>
+NetworkStateChangeManager::GetUsers()
+{
+    std::lock_guard<std::mutex> lock(m_userMapLock);
+    return std::map<std::string, std::string>(m_userMap.begin(), m_userMap.end());
+}
+
+std::map<std::string, std::string>
+NetworkStateChangeManager::GetEntityIdsByName()
 {
-    return &m_userMap;
+    std::lock_guard<std::mutex> lock(m_userMapLock);
+    std::map<std::string, std::string> entityIdsByName;
+    for (auto& item : m_userMap)
+    {
+        entityIdsByName.emplace(item.second, item.first);
+    }
+    return entityIdsByName;
 }
\ No newline at end of file
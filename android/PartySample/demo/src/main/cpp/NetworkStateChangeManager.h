@@ -4,8 +4,9 @@ public:
 
     NetworkStateChangeManager();
 
-    // Called when a chat control has been destroyed
+    // Called when a chat control has left a network, or has been destroyed while in it.
     void onPlayerLeft(
+        const std::string& networkId,
         PartyString playerId
         );
 
@@ -13,27 +14,55 @@ public:
     // Used to send the user display name to other chat controls. Replaces the onPlayerJoin functionality.
     void
     ProcessEndpointMessage(
+        const std::string& networkId,
         std::string& sender,
         std::string& message
         );
 
     // Called when a text chat message is sent to the chat control.
     void ProcessTextMessage(
+        const std::string& networkId,
         std::string& sender,
         std::string &message
         );
 
     // Called when a voice transcription is sent to the chat control.
     void ProcessVoiceMessage(
+        const std::string& networkId,
         std::string& sender,
         std::string &message
         );
 
-    std::map<const std::string, const std::string>*
-    GetUserMap();
+    // Called on each statistics sample of the active network.
+    void ProcessNetworkStatistics(
+        const PartySample::NetworkStatisticsSample& network,
+        const std::vector<PartySample::EndpointStatisticsSample>& endpoints
+        );
+
+    // Called each time a pong refreshes a peer's round trip and clock offset.
+    void ProcessPeerClock(
+        const std::string& networkId,
+        const std::string& peer,
+        int64_t roundTripUs,
+        int64_t offsetUs
+        );
+
+    void AddUser(
+        const std::string& entityId,
+        const std::string& userName
+        );
+
+    // Copies of the user map, by entity id and by user name. The map is written from Party
+    // callbacks, so it is only read under its lock.
+    std::map<std::string, std::string>
+    GetUsers();
+
+    std::map<std::string, std::string>
+    GetEntityIdsByName();
 
 private:
 
+    std::mutex m_userMapLock;
     std::map<const std::string, const std::string> m_userMap;
 
     const std::string GetUserName(
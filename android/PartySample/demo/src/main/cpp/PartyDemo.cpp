@@ -5,21 +5,40 @@ using namespace Party;
 using namespace PartySample;
 
 std::string g_playfabTitleId ="";
+std::string g_sessionCachePath;
 
 std::string g_customId;
+// Network being joined, or the one being reconnected after it dropped.
 std::string g_networkName;
-std::string g_networkDescriptor;
+// Descriptors by network name, kept so any network we are in can be rejoined.
+std::map<std::string, std::string> g_networkDescriptors;
 
-std::mutex g_mtx;
-std::condition_variable g_cv;
+// Every JNI entry point below runs on the NetworkManager actor thread (see NativeActor.java), and
+// so do the callbacks made from DoWork, so these flags need no lock.
 bool g_isSpinDone = false;
 bool g_isRunning = false;
 bool g_shouldShutdown = false;
 bool g_reconnecting = false;
-bool g_connected = false;
 constexpr uint32_t c_maxReconnectAttempts = 10;
+// How often HoldSpin does the work while an operation is in flight.
+constexpr uint32_t c_spinWorkPeriodMs = 50;
 uint32_t g_reconnectsRemaining = 0;
 bool g_initializeCompleted = false;
+// Set while the chat screen is not visible; per-member state polling is skipped. Atomic, since
+// the UI decides it and the work loop reads it, whichever threads those run on.
+std::atomic_bool g_isBackground(false);
+
+// Last talking state reported to Java per user, so only transitions cross JNI.
+std::map<std::string, bool> g_reportedTalking;
+std::mutex g_reportedTalkingLock;
+
+// Further local users on this device, display name to entity id, once signed in.
+std::map<std::string, std::string> g_localUsers;
+std::mutex g_localUsersLock;
+
+// Send modes for sendTextMessage; keep in sync with NetworkManager.java.
+constexpr jint c_sendModeText = 0;
+constexpr jint c_sendModeVoice = 1;
 
 JavaVM* g_jvm;
 jobject g_javaNetworkManager ;
@@ -88,7 +107,7 @@ ResetChat(
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call resetChat method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "resetChat", 0);
             env->CallVoidMethod(g_javaNetworkManager, jmethodId, env->NewStringUTF(error));
         });
 }
@@ -104,7 +123,7 @@ ResetMessage()
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call resetMessage method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "resetMessage", 0);
             env->CallVoidMethod(g_javaNetworkManager, jmethodId);
         });
 }
@@ -131,7 +150,7 @@ SendSysLogToUI(
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call addErrorMessage method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "addErrorMessage", 0);
 
             env->CallVoidMethod(
                 g_javaNetworkManager,
@@ -146,7 +165,10 @@ OnNetworkConnected(
     std::string network
     )
 {
-    g_connected = true;
+    {
+        std::lock_guard<std::mutex> lock(g_reportedTalkingLock);
+        g_reportedTalking.clear();
+    }
     RunJavaMethod(
         "onNetworkCreated",
         "(Ljava/lang/String;)V",
@@ -155,29 +177,67 @@ OnNetworkConnected(
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call onNetworkCreated method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onNetworkCreated", 0);
             env->CallVoidMethod(g_javaNetworkManager, jmethodId, env->NewStringUTF(network.c_str()));
         });
 }
 
+void
+OnNetworkLeft(
+    std::string network
+    )
+{
+    RunJavaMethod(
+        "onNetworkLeft",
+        "(Ljava/lang/String;)V",
+        [network](
+            JNIEnv* env,
+            jmethodID jmethodId
+            )
+        {
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onNetworkLeft", 0);
+            env->CallVoidMethod(g_javaNetworkManager, jmethodId, env->NewStringUTF(network.c_str()));
+        });
+}
+
+void
+OnLocalUserAdded(
+    std::string name
+    )
+{
+    RunJavaMethod(
+        "onLocalUserAdded",
+        "(Ljava/lang/String;)V",
+        [name](
+            JNIEnv* env,
+            jmethodID jmethodId
+            )
+        {
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onLocalUserAdded", 0);
+            env->CallVoidMethod(g_javaNetworkManager, jmethodId, env->NewStringUTF(name.c_str()));
+        });
+}
+
 void
 OnEndpointMessageReceived(
+    std::string networkId,
     std::string sender,
     std::string message
     )
 {
     RunJavaMethod(
         "onMessageReceived",
-        "(Ljava/lang/String;Ljava/lang/String;)V",
-        [sender, message](
+        "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V",
+        [networkId, sender, message](
             JNIEnv* env,
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call onMessageReceived method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onMessageReceived", 0);
             env->CallVoidMethod(
                 g_javaNetworkManager,
                 jmethodId,
+                env->NewStringUTF(networkId.c_str()),
                 env->NewStringUTF(sender.c_str()),
                 env->NewStringUTF(message.c_str()));
         });
@@ -185,22 +245,24 @@ OnEndpointMessageReceived(
 
 void
 OnVoiceChatTranscriptionReceived(
+    std::string networkId,
     std::string sender,
     std::string message
     )
 {
     RunJavaMethod(
         "onTranscriptMessageReceived",
-        "(Ljava/lang/String;Ljava/lang/String;)V",
-        [sender, message](
+        "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V",
+        [networkId, sender, message](
             JNIEnv* env,
             jmethodID jmethodId
             )
         {
-            DbgLog(TAG, "call onTranscriptMessageReceived method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onTranscriptMessageReceived", 0);
             env->CallVoidMethod(
                 g_javaNetworkManager,
                 jmethodId,
+                env->NewStringUTF(networkId.c_str()),
                 env->NewStringUTF(sender.c_str()),
                 env->NewStringUTF(message.c_str()));
         });
@@ -208,21 +270,23 @@ OnVoiceChatTranscriptionReceived(
 
 void
 OnChatControlCreated(
+    std::string networkId,
     std::string sender
     )
 {
     RunJavaMethod(
         "onPlayerJoined",
-        "(Ljava/lang/String;Ljava/lang/String;)V",
-        [sender](
+        "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V",
+        [networkId, sender](
             JNIEnv* env,
             jmethodID jmethodId
         )
         {
-            DbgLog(TAG, "call onPlayerJoined method");
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onPlayerJoined", 0);
             env->CallVoidMethod(
                 g_javaNetworkManager,
                 jmethodId,
+                env->NewStringUTF(networkId.c_str()),
                 env->NewStringUTF(sender.c_str()),
                 env->NewStringUTF(sender.c_str()));
         });
@@ -230,19 +294,29 @@ OnChatControlCreated(
 
 void
 OnChatControlDestroyed(
+    std::string networkId,
     std::string sender
     )
 {
+    {
+        std::lock_guard<std::mutex> lock(g_reportedTalkingLock);
+        g_reportedTalking.erase(sender);
+    }
+
     RunJavaMethod(
             "onPlayerLeft",
-            "(Ljava/lang/String;)V",
-            [sender](
+            "(Ljava/lang/String;Ljava/lang/String;)V",
+            [networkId, sender](
                 JNIEnv* env,
                 jmethodID jmethodId
                 )
             {
-                DbgLog(TAG, "call onPlayerLeft method");
-                env->CallVoidMethod(g_javaNetworkManager, jmethodId, env->NewStringUTF(sender.c_str()));
+                TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onPlayerLeft", 0);
+                env->CallVoidMethod(
+                    g_javaNetworkManager,
+                    jmethodId,
+                    env->NewStringUTF(networkId.c_str()),
+                    env->NewStringUTF(sender.c_str()));
             });
 
 }
@@ -268,11 +342,142 @@ OnPlayerStateChange(
         });
 }
 
+void
+OnNetworkStatistics(
+    const NetworkStatisticsSample& network,
+    const std::vector<std::string>& peers,
+    const std::vector<EndpointStatisticsSample>& endpoints
+    )
+{
+    RunJavaMethod(
+        "onNetworkStatistics",
+        "(JJJJJ[J[Ljava/lang/String;[J[J[J)V",
+        [&network, &peers, &endpoints](
+            JNIEnv* env,
+            jmethodID jmethodId)
+        {
+            jsize count = static_cast<jsize>(endpoints.size());
+            jobjectArray peerArray = env->NewObjectArray(count, env->FindClass("java/lang/String"), nullptr);
+            std::vector<jlong> latencies(endpoints.size());
+            std::vector<jlong> queued(endpoints.size());
+            std::vector<jlong> losses(endpoints.size());
+            for (jsize i = 0; i < count; ++i)
+            {
+                jstring peer = env->NewStringUTF(peers[i].c_str());
+                env->SetObjectArrayElement(peerArray, i, peer);
+                env->DeleteLocalRef(peer);
+                latencies[i] = static_cast<jlong>(endpoints[i].roundTripLatencyMs);
+                queued[i] = static_cast<jlong>(endpoints[i].queuedSendMessages);
+                losses[i] = static_cast<jlong>(endpoints[i].probeLossPermille);
+            }
+            jlongArray latencyArray = env->NewLongArray(count);
+            env->SetLongArrayRegion(latencyArray, 0, count, latencies.data());
+            jlongArray queuedArray = env->NewLongArray(count);
+            env->SetLongArrayRegion(queuedArray, 0, count, queued.data());
+            jlongArray lossArray = env->NewLongArray(count);
+            env->SetLongArrayRegion(lossArray, 0, count, losses.data());
+
+            // Indexed by the MESSAGE_STAT_* constants of NativeCallbacks.java.
+            const MessageStatisticsSample& messages = network.messages;
+            const jlong messageStats[] =
+            {
+                static_cast<jlong>(messages.sentMessages),
+                static_cast<jlong>(messages.sentPayloadBytes),
+                static_cast<jlong>(messages.sentWireBytes),
+                static_cast<jlong>(messages.compressedMessages),
+                static_cast<jlong>(messages.fragmentedMessages),
+                static_cast<jlong>(messages.reassembledMessages),
+                static_cast<jlong>(messages.totalReassemblyMs),
+                static_cast<jlong>(messages.maxReassemblyMs),
+                static_cast<jlong>(messages.expiredReassemblies),
+                static_cast<jlong>(messages.droppedPackets),
+                static_cast<jlong>(messages.evictedReassemblies)
+            };
+            jsize messageStatCount = static_cast<jsize>(sizeof(messageStats) / sizeof(messageStats[0]));
+            jlongArray messageStatArray = env->NewLongArray(messageStatCount);
+            env->SetLongArrayRegion(messageStatArray, 0, messageStatCount, messageStats);
+
+            env->CallVoidMethod(
+                g_javaNetworkManager,
+                jmethodId,
+                static_cast<jlong>(network.relayRoundTripLatencyMs),
+                static_cast<jlong>(network.sentPackets),
+                static_cast<jlong>(network.retriedPackets),
+                static_cast<jlong>(network.droppedPackets),
+                static_cast<jlong>(network.queuedSendMessages),
+                messageStatArray,
+                peerArray,
+                latencyArray,
+                queuedArray,
+                lossArray);
+
+            env->DeleteLocalRef(messageStatArray);
+            env->DeleteLocalRef(peerArray);
+            env->DeleteLocalRef(latencyArray);
+            env->DeleteLocalRef(queuedArray);
+            env->DeleteLocalRef(lossArray);
+        });
+}
+
+void
+OnPeerClock(
+    std::string networkId,
+    std::string peer,
+    int64_t roundTripUs,
+    int64_t offsetUs
+    )
+{
+    RunJavaMethod(
+        "onPeerClock",
+        "(Ljava/lang/String;Ljava/lang/String;JJ)V",
+        [networkId, peer, roundTripUs, offsetUs](
+            JNIEnv* env,
+            jmethodID jmethodId
+            )
+        {
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onPeerClock", 0);
+            jstring networkIdString = env->NewStringUTF(networkId.c_str());
+            jstring peerString = env->NewStringUTF(peer.c_str());
+            env->CallVoidMethod(
+                g_javaNetworkManager,
+                jmethodId,
+                networkIdString,
+                peerString,
+                static_cast<jlong>(roundTripUs),
+                static_cast<jlong>(offsetUs));
+            env->DeleteLocalRef(networkIdString);
+            env->DeleteLocalRef(peerString);
+        });
+}
+
+void
+OnSignInComplete(
+    bool success
+    )
+{
+    RunJavaMethod(
+        "onSignInComplete",
+        "(Z)V",
+        [success](
+            JNIEnv* env,
+            jmethodID jmethodId
+            )
+        {
+            TRACE_EVENT(TraceLevel::Debug, TraceEvent::JavaCallback, "onSignInComplete", success);
+            env->CallVoidMethod(g_javaNetworkManager, jmethodId, static_cast<jboolean>(success));
+        });
+}
+
 template <typename TSignInCallback>
 void
 SignInToPlayFab(TSignInCallback onComplete)
 {
     Managers::Get<PlayFabManager>()->Initialize(g_playfabTitleId.c_str());
+    Managers::Get<PlayFabManager>()->SetSessionCachePath(g_sessionCachePath);
+    Managers::Get<PlayFabManager>()->SetOnEntityTokenRefreshed([](std::string entityToken)
+    {
+        Managers::Get<NetworkManager>()->UpdateEntityToken(entityToken);
+    });
     Managers::Get<PlayFabManager>()->SignIn(
         [onComplete](
             bool isSuccess,
@@ -283,8 +488,7 @@ SignInToPlayFab(TSignInCallback onComplete)
             if (isSuccess)
             {
                 SendSysLogToUI("PlayFab SignIn: OK");
-                std::map<const std::string, const std::string>* map = Managers::Get<NetworkStateChangeManager>()->GetUserMap();
-                map->emplace(Managers::Get<PlayFabManager>()->EntityId(), Managers::Get<PlayFabManager>()->displayName());
+                Managers::Get<NetworkStateChangeManager>()->AddUser(Managers::Get<PlayFabManager>()->EntityId(), Managers::Get<PlayFabManager>()->displayName());
                 g_initializeCompleted = true;
                 onComplete(true);
             }
@@ -293,6 +497,7 @@ SignInToPlayFab(TSignInCallback onComplete)
                 SendSysLogToUI("SignIn Failed! error=\"%s\"", message.c_str());
                 onComplete(false);
             }
+            OnSignInComplete(isSuccess);
         },
         g_customId);
 }
@@ -303,21 +508,45 @@ InitializePlayFabParty()
     Managers::Get<NetworkManager>()->Initialize(g_playfabTitleId.c_str());
 }
 
+void
+DoWork();
+
+// Waits for an operation that completes from DoWork. That is the thread we are on, so rather
+// than wait for it, do the work here until the operation is done.
 void
 HoldSpin()
 {
-    std::unique_lock <std::mutex> lck(g_mtx);
-    g_cv.wait(lck,[]{ return g_isSpinDone; });
+    while (!g_isSpinDone)
+    {
+        DoWork();
+        std::this_thread::sleep_for(std::chrono::milliseconds(c_spinWorkPeriodMs));
+    }
 }
 
 void
 ReleaseSpin()
+{
+    g_isSpinDone = true;
+}
+
+// Forwards a user's chat indicator to Java only when it differs from the last one reported.
+void
+ReportPlayerTalking(
+    const std::string& userName,
+    bool talking
+    )
 {
     {
-        std::unique_lock<std::mutex> lck(g_mtx);
-        g_isSpinDone = true;
+        std::lock_guard<std::mutex> lock(g_reportedTalkingLock);
+        auto search = g_reportedTalking.find(userName);
+        if (search != g_reportedTalking.end() && search->second == talking)
+        {
+            return;
+        }
+        g_reportedTalking[userName] = talking;
     }
-    g_cv.notify_one();
+
+    OnPlayerStateChange(userName, talking ? "talking" : "silent");
 }
 
 void
@@ -328,7 +557,7 @@ GetPlayerState()
     PartyLocalChatControl* localChatControl = manager->GetLocalChatControl();
     RETURN_VOID_IF(localChatControl == nullptr);
 
-    for (auto& item : *(Managers::Get<NetworkStateChangeManager>()->GetUserMap()))
+    for (auto& item : Managers::Get<NetworkStateChangeManager>()->GetUsers())
     {
         std::string userIdentifier = item.first;
 
@@ -337,24 +566,24 @@ GetPlayerState()
         {
             std::string userName = item.second;
 
-            if (g_customId == userName)
+            // The local user and any local guests report their own indicator.
+            PartyLocalChatControl* ownChatControl = g_customId == userName ?
+                localChatControl :
+                manager->GetLocalChatControl(userIdentifier);
+            if (ownChatControl != nullptr)
             {
                 Party::PartyLocalChatControlChatIndicator indicator;
-                localChatControl->GetLocalChatIndicator(&indicator);
+                ownChatControl->GetLocalChatIndicator(&indicator);
+                TRACE_EVENT(TraceLevel::Verbose, TraceEvent::LocalChatIndicator, userName.c_str(), indicator);
                 switch (indicator)
                 {
                     case Party::PartyLocalChatControlChatIndicator::AudioInputMuted:
                     case Party::PartyLocalChatControlChatIndicator::NoAudioInput:
                     case Party::PartyLocalChatControlChatIndicator::Silent:
-                        DbgLog(
-                            TAG,
-                            "GetLocalChatIndicator: %s AudioInputMuted|NoAudioInput|Silent",
-                            userName.c_str());
-                        OnPlayerStateChange(userName, "silent");
+                        ReportPlayerTalking(userName, false);
                         break;
                     case Party::PartyLocalChatControlChatIndicator::Talking:
-                        DbgLog(TAG, "GetLocalChatIndicator: %s Talking", userName.c_str());
-                        OnPlayerStateChange(userName, "talking");
+                        ReportPlayerTalking(userName, true);
                         break;
                 }
             }
@@ -362,6 +591,7 @@ GetPlayerState()
             {
                 Party::PartyChatControlChatIndicator indicator;
                 localChatControl->GetChatIndicator(chatControl, &indicator);
+                TRACE_EVENT(TraceLevel::Verbose, TraceEvent::RemoteChatIndicator, userName.c_str(), indicator);
                 switch (indicator)
                 {
                     case Party::PartyChatControlChatIndicator::IncomingCommunicationsMuted:
@@ -369,15 +599,10 @@ GetPlayerState()
                     case Party::PartyChatControlChatIndicator::NoRemoteInput:
                     case Party::PartyChatControlChatIndicator::RemoteAudioInputMuted:
                     case Party::PartyChatControlChatIndicator::Silent:
-                        DbgLog(
-                            TAG,
-                            "PartyChatControlChatIndicator: %s IncomingCommunicationsMuted|IncomingVoiceDisabled|Silent",
-                            userName.c_str());
-                        OnPlayerStateChange(userName, "silent");
+                        ReportPlayerTalking(userName, false);
                         break;
                     case Party::PartyChatControlChatIndicator::Talking:
-                        DbgLog(TAG, "PartyChatControlChatIndicator: %s Talking", userName.c_str());
-                        OnPlayerStateChange(userName, "talking");
+                        ReportPlayerTalking(userName, true);
                         break;
                 }
             }
@@ -396,47 +621,81 @@ SetLanguage(
             );
 }
 
+// Leaves every open network; the UI is reset once the last one has been left.
 void
 DoLeave(
     std::string message
     )
 {
     g_isSpinDone = false;
-    Managers::Get<NetworkManager>()->LeaveNetwork(
-            [message]()
-            {
-                ResetMessage();
-                SendSysLogToUI(message.c_str());
-                g_shouldShutdown = true;
-            });
+    std::vector<std::string> networkIds = Managers::Get<NetworkManager>()->GetNetworkIds();
+    if (networkIds.empty())
+    {
+        // Nothing to leave; LeaveNetwork calls straight back.
+        networkIds.push_back(std::string());
+    }
+
+    // Callbacks run on the DoWork thread, so the count needs no lock.
+    std::shared_ptr<size_t> remaining = std::make_shared<size_t>(networkIds.size());
+    for (const std::string& networkId : networkIds)
+    {
+        Managers::Get<NetworkManager>()->LeaveNetwork(
+                networkId,
+                [message, remaining]()
+                {
+                    if (--(*remaining) == 0)
+                    {
+                        ResetMessage();
+                        SendSysLogToUI(message.c_str());
+                        g_shouldShutdown = true;
+                    }
+                });
+    }
 }
 
 void
 OnDisconnect(
+        std::string networkId,
         bool disconnectWasExpected
         )
 {
-    g_connected = false;
+    OnNetworkLeft(networkId);
     if(!disconnectWasExpected)
     {
+        // Only one network is rejoined at a time.
         if(!g_reconnecting && g_reconnectsRemaining == 0)
         {
+            g_networkName = networkId;
             g_reconnecting = true;
             g_reconnectsRemaining = c_maxReconnectAttempts;
         }
     }
-    else
+    else if (Managers::Get<NetworkManager>()->GetNetworkIds().empty())
     {
         g_shouldShutdown = true;
     }
 
 }
 
+// Returns whether the network is already open, in which case it must not be created or joined again.
+bool
+IsNetworkOpen(
+    const std::string& networkId
+    )
+{
+    if (Managers::Get<NetworkManager>()->State(networkId) != NetworkManagerState::Initialize)
+    {
+        SendSysLogToUI("Already in network %s", networkId.c_str());
+        return true;
+    }
+    return false;
+}
+
 extern "C"
 {
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_disconnectAudioInput(
+    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_nativeDisconnectAudioInput(
         JNIEnv *env,
         jobject thiz
         )
@@ -446,7 +705,7 @@ extern "C"
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_connectAudioInput(
+    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_nativeConnectAudioInput(
         JNIEnv *env,
         jobject thiz
         )
@@ -456,7 +715,27 @@ extern "C"
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_setLanguage(
+    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_nativeSetAudioInputPaused(
+        JNIEnv *env,
+        jobject thiz,
+        jboolean paused
+        )
+    {
+        Managers::Get<NetworkManager>()->SetAudioInputPaused(paused == JNI_TRUE);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_demo_PartySampleFocusService_nativeSetRenderDucking(
+        JNIEnv *env,
+        jobject thiz,
+        jfloat volumeScale
+        )
+    {
+        Managers::Get<NetworkManager>()->SetRenderDucking(volumeScale);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetLanguage(
             JNIEnv* env,
             jobject thiz,
             jint idx
@@ -465,8 +744,20 @@ extern "C"
         SetLanguage(idx);
     }
 
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeWarmUp(
+        JNIEnv* env,
+        jobject thiz,
+        jstring titleId
+        )
+    {
+        const char* titleCStr = env->GetStringUTFChars(titleId, NULL);
+        Managers::Get<NetworkManager>()->InitializePartyManager(titleCStr);
+        env->ReleaseStringUTFChars(titleId, titleCStr);
+    }
+
     JNIEXPORT jboolean JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_initialize(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeInitialize(
         JNIEnv* env,
         jobject thiz,
         jstring playerId
@@ -503,7 +794,7 @@ extern "C"
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_setPlayerVolume(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetPlayerVolume(
         JNIEnv* env,
         jobject thiz,
         jfloat volumeZeroToOne
@@ -512,8 +803,73 @@ extern "C"
         Managers::Get<NetworkManager>()->SetPlayerVolume(volumeZeroToOne);
     }
 
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetPlayerAttenuations(
+        JNIEnv* env,
+        jobject thiz,
+        jobjectArray playerIds,
+        jfloatArray attenuations,
+        jint count
+        )
+    {
+        // Java only knows players by name, so map names back to entity ids once per batch.
+        std::map<std::string, std::string> entityIdsByName = Managers::Get<NetworkStateChangeManager>()->GetEntityIdsByName();
+
+        std::vector<std::string> entityIds;
+        std::vector<float> values;
+        entityIds.reserve(count);
+        values.reserve(count);
+
+        jfloat* attenuationValues = env->GetFloatArrayElements(attenuations, NULL);
+        for (jint i = 0; i < count; i++)
+        {
+            jstring playerId = static_cast<jstring>(env->GetObjectArrayElement(playerIds, i));
+            const char* playerIdCStr = env->GetStringUTFChars(playerId, NULL);
+            auto search = entityIdsByName.find(playerIdCStr);
+            if (search != entityIdsByName.end())
+            {
+                entityIds.push_back(search->second);
+                values.push_back(attenuationValues[i]);
+            }
+            env->ReleaseStringUTFChars(playerId, playerIdCStr);
+            env->DeleteLocalRef(playerId);
+        }
+        env->ReleaseFloatArrayElements(attenuations, attenuationValues, JNI_ABORT);
+
+        Managers::Get<NetworkManager>()->SetPeerAttenuations(entityIds, values);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetTranscriptionPolicy(
+        JNIEnv* env,
+        jobject thiz,
+        jint scope,
+        jobjectArray playerIds
+        )
+    {
+        // Players that have not joined yet have no entity id; the policy is applied again as they do.
+        std::map<std::string, std::string> entityIdsByName = Managers::Get<NetworkStateChangeManager>()->GetEntityIdsByName();
+
+        std::vector<std::string> entityIds;
+        jsize count = playerIds != nullptr ? env->GetArrayLength(playerIds) : 0;
+        for (jsize i = 0; i < count; i++)
+        {
+            jstring playerId = static_cast<jstring>(env->GetObjectArrayElement(playerIds, i));
+            const char* playerIdCStr = env->GetStringUTFChars(playerId, NULL);
+            auto search = entityIdsByName.find(playerIdCStr);
+            if (search != entityIdsByName.end())
+            {
+                entityIds.push_back(search->second);
+            }
+            env->ReleaseStringUTFChars(playerId, playerIdCStr);
+            env->DeleteLocalRef(playerId);
+        }
+
+        Managers::Get<NetworkManager>()->SetTranscriptionPolicy(static_cast<TranscriptionScope>(scope), entityIds);
+    }
+
     JNIEXPORT jboolean JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_createAndConnectToNetwork(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeCreateAndConnectToNetwork(
         JNIEnv* env,
         jobject thiz,
         jstring type,
@@ -524,29 +880,40 @@ extern "C"
         {
 
             const char* networkNameCStr = env->GetStringUTFChars(type, NULL);
-            g_networkName = networkNameCStr;
+            std::string networkName = networkNameCStr;
             env->ReleaseStringUTFChars(type, networkNameCStr);
+            if (IsNetworkOpen(networkName))
+            {
+                return false;
+            }
+
+            g_networkName = networkName;
             g_isSpinDone = false;
             DbgLog(TAG, "CreateAndConnectToNetwork()");
             Managers::Get<NetworkManager>()->CreateAndConnectToNetwork(
-                    g_networkName.c_str(),
-                    [](std::string message)
+                    networkName.c_str(),
+                    [networkName](std::string message)
                     {
                         SendSysLogToUI("create network: %s", message.c_str());
-                        Managers::Get<PlayFabManager>()->SetDescriptor(g_networkName, message.c_str(),
+                        g_networkDescriptors[networkName] = message;
+                        Managers::Get<PlayFabManager>()->SetDescriptor(networkName, message.c_str(),
                                                                        []()
                         {
                             SendSysLogToUI("set network descriptor succeeded");
                             ReleaseSpin();
                         });
 
-                        OnNetworkConnected(g_networkName);
+                        OnNetworkConnected(networkName);
                     },
                     [](PartyError error)
                     {
                         SendSysLogToUI("create network failed: %s",  GetErrorMessage(error));
                         ReleaseSpin();
-                        ResetChat(GetErrorMessage(error));
+                        // Networks we are already in stay up.
+                        if (Managers::Get<NetworkManager>()->GetActiveNetworkId().empty())
+                        {
+                            ResetChat(GetErrorMessage(error));
+                        }
                     }
             );
 
@@ -561,32 +928,37 @@ extern "C"
     }
 
     JNIEXPORT jboolean JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_connectedToNetwork(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_setActiveNetwork(
         JNIEnv* env,
-        jobject thiz
+        jobject thiz,
+        jstring networkId
         )
     {
-        return g_connected;
+        const char* networkIdCStr = env->GetStringUTFChars(networkId, NULL);
+        bool switched = Managers::Get<NetworkManager>()->SetActiveNetwork(networkIdCStr);
+        env->ReleaseStringUTFChars(networkId, networkIdCStr);
+        return switched;
     }
 
     bool joinNetwork(bool rejoining)
     {
         if (g_isRunning && g_initializeCompleted)
         {
+            std::string networkName = g_networkName;
             if (!rejoining)
             {
                 Managers::Get<NetworkManager>()->Initialize(g_playfabTitleId.c_str());
                 g_isSpinDone = false;
                 Managers::Get<PlayFabManager>()->GetDescriptor(
-                        g_networkName,
-                        [rejoining](std::string networkDescriptor)
+                        networkName,
+                        [rejoining, networkName](std::string networkDescriptor)
                         {
                             if (!rejoining)
                             {
                                 SendSysLogToUI("OnGetDescriptorForConnectTo : %s",
                                                networkDescriptor.c_str());
                             }
-                            g_networkDescriptor = networkDescriptor;
+                            g_networkDescriptors[networkName] = networkDescriptor;
                             ReleaseSpin();
                         }
                 );
@@ -596,9 +968,9 @@ extern "C"
             // When network connection is not stable, waiting for ConnectToNetwork callback will cost longer time.
             // To avoid App UI busy waiting, return to UI after ConnectToNetwork returns.
             Managers::Get<NetworkManager>()->ConnectToNetwork(
-                    g_networkName.c_str(),
-                    g_networkDescriptor.c_str(),
-                    [rejoining]()
+                    networkName.c_str(),
+                    g_networkDescriptors[networkName].c_str(),
+                    [rejoining, networkName]()
                     {
                         g_reconnectsRemaining = 0;
                         g_reconnecting = false;
@@ -612,13 +984,17 @@ extern "C"
                             SendSysLogToUI("ConnectToNetwork succeeded.");
                         }
 
-                        OnNetworkConnected(g_networkName);
+                        OnNetworkConnected(networkName);
                     },
                     [rejoining](PartyError error)
                     {
                         if (!rejoining || g_reconnectsRemaining == 0)
                         {
-                            ResetChat(GetErrorMessage(error));
+                            // Networks we are already in stay up.
+                            if (Managers::Get<NetworkManager>()->GetActiveNetworkId().empty())
+                            {
+                                ResetChat(GetErrorMessage(error));
+                            }
                             SendSysLogToUI("OnConnectToNetworkFailed %s", GetErrorMessage(error));
                         }
                         else
@@ -638,7 +1014,7 @@ extern "C"
     }
 
     JNIEXPORT jboolean JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_joinNetwork(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeJoinNetwork(
         JNIEnv* env,
         jobject thiz,
         jstring networkId
@@ -646,8 +1022,13 @@ extern "C"
     {
         if (g_isRunning && g_initializeCompleted) {
             const char *networkNameCStr = env->GetStringUTFChars(networkId, NULL);
-            g_networkName = networkNameCStr;
+            std::string networkName = networkNameCStr;
             env->ReleaseStringUTFChars(networkId, networkNameCStr);
+            if (IsNetworkOpen(networkName))
+            {
+                return false;
+            }
+            g_networkName = networkName;
             return joinNetwork(false);
         }
         else {
@@ -657,7 +1038,7 @@ extern "C"
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_leaveNetwork(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeLeaveNetwork(
         JNIEnv* env,
         jobject thiz
         )
@@ -672,51 +1053,156 @@ extern "C"
         jobject thiz
         )
     {
-        if (g_isRunning)
+        DoWork();
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSendTextMessage(
+        JNIEnv* env,
+        jobject thiz,
+        jstring message,
+        jint sendMode
+        )
+    {
+        const char* chatTextCStr = env->GetStringUTFChars(message, NULL);
+
+        if (sendMode == c_sendModeVoice)
         {
-            Managers::Get<PlayFabManager>()->Tick();
-            Managers::Get<NetworkManager>()->DoWork();
-            GetPlayerState();
+            Managers::Get<NetworkManager>()->SendTextAsVoice(chatTextCStr);
         }
+        else if (sendMode == c_sendModeText)
+        {
+            Managers::Get<NetworkManager>()->SendTextMessage(chatTextCStr);
+        }
+
+        env->ReleaseStringUTFChars(message, chatTextCStr);
+    }
 
-        if (g_shouldShutdown)
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSendQuickPhrase(
+        JNIEnv* env,
+        jobject thiz,
+        jint phraseId,
+        jint sendMode
+        )
+    {
+        if (phraseId < 0 || phraseId >= static_cast<jint>(QuickPhrase::Count))
         {
-            g_shouldShutdown = false;
-            Managers::Get<NetworkManager>()->Shutdown();
-            Managers::Get<NetworkManager>()->Initialize(g_playfabTitleId.c_str());
-            ReleaseSpin();
+            return;
+        }
+
+        Managers::Get<NetworkManager>()->SendQuickPhrase(static_cast<uint32_t>(phraseId), sendMode == c_sendModeVoice);
+    }
+
+    JNIEXPORT jboolean JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeAddLocalUser(
+        JNIEnv* env,
+        jobject thiz,
+        jstring name
+        )
+    {
+        if (!g_isRunning)
+        {
+            SendSysLogToUI("Please waiting for initialization done.");
+            return false;
         }
-        else if(Managers::Get<NetworkManager>()->IsConnecting() == false)
+
+        const char* nameCStr = env->GetStringUTFChars(name, NULL);
+        std::string userName = nameCStr;
+        env->ReleaseStringUTFChars(name, nameCStr);
         {
-            if (g_reconnectsRemaining > 0)
+            std::lock_guard<std::mutex> lock(g_localUsersLock);
+            if (userName == g_customId || g_localUsers.find(userName) != g_localUsers.end())
             {
-                SendSysLogToUI("Trying to reconnect with %i attempts remaining...", g_reconnectsRemaining);
-                --g_reconnectsRemaining;
-                joinNetwork(true);
+                return false;
             }
-            else if (g_reconnecting)
+        }
+
+        // Signing in completes on the doWork thread.
+        Managers::Get<PlayFabManager>()->SignInLocalUser(
+            userName,
+            [userName](
+                bool isSuccess,
+                const PlayFabEntityCredentials& credentials,
+                std::string& message
+                )
             {
-                SendSysLogToUI("Failed attempting to reconnect after %i attempts!", c_maxReconnectAttempts);
-                g_reconnecting = false;
-                g_shouldShutdown = true;
+                if (!isSuccess)
+                {
+                    SendSysLogToUI("Local user %s sign-in failed! error=\"%s\"", userName.c_str(), message.c_str());
+                    return;
+                }
+
+                {
+                    std::lock_guard<std::mutex> lock(g_localUsersLock);
+                    g_localUsers[userName] = credentials.entityId;
+                }
+                Managers::Get<NetworkStateChangeManager>()->AddUser(credentials.entityId, userName);
+                Managers::Get<NetworkManager>()->AddLocalUser(credentials.entityId, credentials.entityToken, userName);
+                SendSysLogToUI("Local user %s signed in", userName.c_str());
+                OnLocalUserAdded(userName);
+            });
+        return true;
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeRemoveLocalUser(
+        JNIEnv* env,
+        jobject thiz,
+        jstring name
+        )
+    {
+        const char* nameCStr = env->GetStringUTFChars(name, NULL);
+        std::string entityId;
+        {
+            std::lock_guard<std::mutex> lock(g_localUsersLock);
+            auto search = g_localUsers.find(nameCStr);
+            if (search != g_localUsers.end())
+            {
+                entityId = search->second;
+                g_localUsers.erase(search);
             }
         }
+        env->ReleaseStringUTFChars(name, nameCStr);
+
+        if (!entityId.empty())
+        {
+            Managers::Get<NetworkManager>()->RemoveLocalUser(entityId);
+        }
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_sendTextMessage(
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSendTextMessageAs(
         JNIEnv* env,
         jobject thiz,
+        jstring name,
         jstring message,
-        jboolean isTTS
+        jint sendMode
         )
     {
-        const char* chatTextCStr = env->GetStringUTFChars(message, NULL);
+        const char* nameCStr = env->GetStringUTFChars(name, NULL);
+        std::string entityId;
+        {
+            std::lock_guard<std::mutex> lock(g_localUsersLock);
+            auto search = g_localUsers.find(nameCStr);
+            if (search != g_localUsers.end())
+            {
+                entityId = search->second;
+            }
+        }
+        env->ReleaseStringUTFChars(name, nameCStr);
+        RETURN_VOID_IF(entityId.empty());
 
-        Party::PartyChatControlArray chatControls;
-        uint32_t chatControlCount;
+        const char* chatTextCStr = env->GetStringUTFChars(message, NULL);
 
-        Managers::Get<NetworkManager>()->SendTextAsVoice(chatTextCStr);
+        if (sendMode == c_sendModeVoice)
+        {
+            Managers::Get<NetworkManager>()->SendTextAsVoiceAs(entityId, chatTextCStr);
+        }
+        else if (sendMode == c_sendModeText)
+        {
+            Managers::Get<NetworkManager>()->SendTextMessageAs(entityId, chatTextCStr);
+        }
 
         env->ReleaseStringUTFChars(message, chatTextCStr);
     }
@@ -734,7 +1220,90 @@ extern "C"
     }
 
     JNIEXPORT void JNICALL
-    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_setPlayFabTitleID (
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetBackgroundMode(
+        JNIEnv* env,
+        jobject thiz,
+        jboolean background
+        )
+    {
+        g_isBackground = background;
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetStatisticsSampleInterval(
+        JNIEnv* env,
+        jobject thiz,
+        jint intervalMs
+        )
+    {
+        Managers::Get<NetworkManager>()->SetStatisticsSampleInterval(intervalMs > 0 ? static_cast<uint32_t>(intervalMs) : 0);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetClockProbeInterval(
+        JNIEnv* env,
+        jobject thiz,
+        jint intervalMs
+        )
+    {
+        Managers::Get<NetworkManager>()->SetClockProbeInterval(intervalMs > 0 ? static_cast<uint32_t>(intervalMs) : 0);
+    }
+
+    JNIEXPORT jint JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeGetVoiceQualityTier(
+        JNIEnv* env,
+        jobject thiz
+        )
+    {
+        return static_cast<jint>(Managers::Get<NetworkManager>()->GetVoiceQualityTier());
+    }
+
+    // Each transition is five longs: time in ms, from tier, to tier, loss permille and round trip ms.
+    JNIEXPORT jlongArray JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_getVoiceQualityHistory(
+        JNIEnv* env,
+        jobject thiz
+        )
+    {
+        std::vector<VoiceQualityTransition> history = Managers::Get<NetworkManager>()->GetVoiceQualityHistory();
+        std::vector<jlong> values;
+        values.reserve(history.size() * 5);
+        for (const VoiceQualityTransition& transition : history)
+        {
+            values.push_back(static_cast<jlong>(transition.timeMs));
+            values.push_back(static_cast<jlong>(transition.from));
+            values.push_back(static_cast<jlong>(transition.to));
+            values.push_back(static_cast<jlong>(transition.lossPermille));
+            values.push_back(static_cast<jlong>(transition.roundTripMs));
+        }
+
+        jsize count = static_cast<jsize>(values.size());
+        jlongArray valueArray = env->NewLongArray(count);
+        env->SetLongArrayRegion(valueArray, 0, count, values.data());
+        return valueArray;
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_setNativeTraceLevel(
+        JNIEnv* env,
+        jobject thiz,
+        jint level
+        )
+    {
+        Trace::SetLevel(static_cast<TraceLevel>(level));
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_dumpNativeTrace(
+        JNIEnv* env,
+        jobject thiz
+        )
+    {
+        Trace::Dump();
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetPlayFabTitleID(
         JNIEnv* env,
         jobject thiz,
         jstring titleID
@@ -744,4 +1313,69 @@ extern "C"
         g_playfabTitleId = titleCStr;
         env->ReleaseStringUTFChars(titleID, titleCStr);
     }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetPlayFabSessionCachePath(
+        JNIEnv* env,
+        jobject thiz,
+        jstring path
+        )
+    {
+        const char* pathCStr = env->GetStringUTFChars(path, NULL);
+        g_sessionCachePath = pathCStr;
+        env->ReleaseStringUTFChars(path, pathCStr);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_microsoft_playfab_partysample_sdk_NetworkManager_nativeSetTextToSpeechProfileCachePath(
+        JNIEnv* env,
+        jobject thiz,
+        jstring path
+        )
+    {
+        const char* pathCStr = env->GetStringUTFChars(path, NULL);
+        Managers::Get<NetworkManager>()->SetTextToSpeechProfileCachePath(pathCStr);
+        env->ReleaseStringUTFChars(path, pathCStr);
+    }
+}
+
+void
+DoWork()
+{
+    if (g_isRunning)
+    {
+        Managers::Get<PlayFabManager>()->Tick();
+        Managers::Get<NetworkManager>()->DoWork();
+        if (!g_isBackground)
+        {
+            GetPlayerState();
+        }
+    }
+
+    if (g_shouldShutdown)
+    {
+        g_shouldShutdown = false;
+        // A network that failed to reconnect does not take the others down with it.
+        if (Managers::Get<NetworkManager>()->GetNetworkIds().empty())
+        {
+            Managers::Get<NetworkManager>()->Shutdown();
+            Managers::Get<NetworkManager>()->Initialize(g_playfabTitleId.c_str());
+        }
+        ReleaseSpin();
+    }
+    else if(Managers::Get<NetworkManager>()->IsConnecting() == false)
+    {
+        if (g_reconnectsRemaining > 0)
+        {
+            SendSysLogToUI("Trying to reconnect with %i attempts remaining...", g_reconnectsRemaining);
+            --g_reconnectsRemaining;
+            joinNetwork(true);
+        }
+        else if (g_reconnecting)
+        {
+            SendSysLogToUI("Failed attempting to reconnect after %i attempts!", c_maxReconnectAttempts);
+            g_reconnecting = false;
+            g_shouldShutdown = true;
+        }
+    }
 }
@@ -4,16 +4,19 @@
 
 void
 OnChatControlDestroyed(
+    std::string networkId,
     std::string sender
     );
 
 void
 OnChatControlCreated(
+    std::string networkId,
     std::string sender
     );
 
 void
 OnEndpointMessageReceived(
+    std::string networkId,
     std::string sender,
     std::string message
     );
@@ -26,10 +29,26 @@ OnPlayerStateChange(
 
 void
 OnVoiceChatTranscriptionReceived(
+    std::string networkId,
     std::string sender,
     std::string message
     );
 
+void
+OnNetworkStatistics(
+    const PartySample::NetworkStatisticsSample& network,
+    const std::vector<std::string>& peers,
+    const std::vector<PartySample::EndpointStatisticsSample>& endpoints
+    );
+
+void
+OnPeerClock(
+    std::string networkId,
+    std::string peer,
+    int64_t roundTripUs,
+    int64_t offsetUs
+    );
+
 void
 SendSysLogToUI(
     const char* format,
@@ -1,6 +1,7 @@
 #include <jni.h>
 #include <memory>
 #include <thread>
+#include <atomic>
 #include <errno.h>
 
 #include "PartyPal.h"
@@ -10,6 +11,8 @@
 #include "NetworkStateChangeManager.h"
 #include "Managers.h"
 #include "LanguageOptions.h"
+#include "QuickPhrases.h"
+#include "Trace.h"
 
 #define RETURN_VOID_IF(expr) \
     do {                     \
@@ -1,8 +1,9 @@
 package com.microsoft.playfab.partysample.adapter;
 
 import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,8 +17,9 @@ import com.microsoft.playfab.partysample.demo.R;
 import com.microsoft.playfab.partysample.model.ChatMember;
 import com.microsoft.playfab.partysample.sdk.MessageManager;
 import com.microsoft.playfab.partysample.sdk.NetworkManager;
+import com.microsoft.playfab.partysample.sdk.NetworkQualityMonitor;
+import com.microsoft.playfab.partysample.sdk.TraceLog;
 
-import java.util.Iterator;
 import java.util.List;
 
 public class MemberAdapter extends RecyclerView.Adapter<MemberAdapter.ViewHolder> {
@@ -31,7 +33,7 @@ public class MemberAdapter extends RecyclerView.Adapter<MemberAdapter.ViewHolder
     @NonNull
     @Override
     public MemberAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int i) {
-        Log.d("member adapter","onCreateViewHolder");
+        TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_CREATE_MEMBER_VIEW, null, 0);
         View view = LayoutInflater.from(viewGroup.getContext()).inflate(R.layout.chat_member_item, viewGroup, false);
         final ViewHolder viewHolder = new ViewHolder(view);
         return viewHolder;
@@ -39,10 +41,11 @@ public class MemberAdapter extends RecyclerView.Adapter<MemberAdapter.ViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull MemberAdapter.ViewHolder viewHolder, int i) {
-        Log.d("member adapter","onBindViewHolder");
+        TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_BIND_MEMBER_VIEW, null, i);
         final ChatMember member = members.get(i);
         viewHolder.memberNameView.setText(member.getName());
         viewHolder.voiceIconView.getDrawable().setLevel(member.isTalking() ? 1 : 0);
+        bindQuality(viewHolder.qualityView, member.getQuality());
 
         if (member.isCurrent()) {
             viewHolder.leaveBtn.setVisibility(View.VISIBLE);
@@ -53,8 +56,18 @@ public class MemberAdapter extends RecyclerView.Adapter<MemberAdapter.ViewHolder
                     MessageManager.getInstance().sendLeaveMessage();
                 }
             });
+            viewHolder.itemView.setOnLongClickListener(null);
         } else {
             viewHolder.leaveBtn.setVisibility(View.GONE);
+
+            // Long-pressing a local user's row signs them out.
+            viewHolder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    MessageManager.getInstance().sendRemoveLocalUserMessage(member.getId());
+                    return true;
+                }
+            });
         }
     }
 
@@ -66,91 +79,70 @@ public class MemberAdapter extends RecyclerView.Adapter<MemberAdapter.ViewHolder
     static class ViewHolder extends RecyclerView.ViewHolder {
         ImageView voiceIconView;
         TextView memberNameView;
+        TextView qualityView;
         Button leaveBtn;
 
         public ViewHolder(View view) {
             super(view);
             voiceIconView = view.findViewById(R.id.imageView);
             memberNameView = view.findViewById(R.id.nameTextView1);
+            qualityView = view.findViewById(R.id.qualityView);
             leaveBtn = view.findViewById(R.id.buttonLeave);
         }
 
     }
 
-    public void addMember(String id, String name) {
-        synchronized (members) {
-            for (ChatMember member : members) {
-                if (id.equals(member.getId())) {
-                    return;
-                }
-            }
-
-            ChatMember member = new ChatMember();
-            member.setId(id);
-            member.setName(name);
-            members.add(member);
-        }
-
-        this.notifyDataSetChanged();
-    }
-
-    public void removeMember(String id) {
-        synchronized (members) {
-            Iterator<ChatMember> iterator = members.iterator();
-            while (iterator.hasNext()) {
-                ChatMember member = iterator.next();
-                if (id.equals(member.getId())) {
-                    iterator.remove();
-                }
-            }
-        }
-
-        this.notifyDataSetChanged();
-    }
-
-    public void updateMemberState(String id, String state) {
-        ChatMember member = getMemberById(id);
-        if (member == null) {
+    /**
+     * Shows the members of a newer ChatStateStore snapshot, updating only the rows that differ.
+     * The store never changes a member in place, so a row showing a different object has changed.
+     */
+    public void setMembers(final List<ChatMember> newMembers) {
+        final List<ChatMember> oldMembers = members;
+        if (oldMembers == newMembers) {
             return;
         }
-
-        switch (state) {
-            case ChatMember.STATE_MUTED: {
-                member.setMute(true);
-                member.setTalking(false);
-                break;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldMembers.size();
             }
-            case ChatMember.STATE_SILENT: {
-                member.setTalking(false);
-                break;
-            }
-            case ChatMember.STATE_TALKING: {
-                member.setMute(false);
-                member.setTalking(true);
+
+            @Override
+            public int getNewListSize() {
+                return newMembers.size();
             }
-        }
-        this.notifyDataSetChanged();
-    }
 
-    public ChatMember getMemberById(String id) {
-        synchronized (members) {
-            for (ChatMember member : members) {
-                if (id.equals(member.getId())) {
-                    return member;
-                }
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldMembers.get(oldPosition).getId().equals(newMembers.get(newPosition).getId());
             }
-        }
 
-        return null;
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldMembers.get(oldPosition) == newMembers.get(newPosition);
+            }
+        }, true);
+        members = newMembers;
+        diff.dispatchUpdatesTo(this);
     }
 
-    public void clear() {
-        synchronized (members) {
-            ChatMember member = members.get(0);
-            member.setTalking(false);
-            members.clear();
-            members.add(member);
+    private static void bindQuality(TextView qualityView, int quality) {
+        int color;
+        switch (quality) {
+            case NetworkQualityMonitor.QUALITY_GOOD:
+                color = R.color.qualityGood;
+                break;
+            case NetworkQualityMonitor.QUALITY_FAIR:
+                color = R.color.qualityFair;
+                break;
+            case NetworkQualityMonitor.QUALITY_POOR:
+                color = R.color.qualityPoor;
+                break;
+            default:
+                qualityView.setVisibility(View.GONE);
+                return;
         }
-        this.notifyDataSetChanged();
+        qualityView.setVisibility(View.VISIBLE);
+        qualityView.setTextColor(ContextCompat.getColor(qualityView.getContext(), color));
     }
 }
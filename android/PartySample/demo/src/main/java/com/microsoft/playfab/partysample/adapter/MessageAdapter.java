@@ -1,8 +1,10 @@
 package com.microsoft.playfab.partysample.adapter;
 
 import android.support.annotation.NonNull;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.widget.TextViewCompat;
+import android.support.v7.widget.AppCompatTextView;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,37 +13,72 @@ import android.widget.TextView;
 
 import com.microsoft.playfab.partysample.demo.R;
 import com.microsoft.playfab.partysample.model.ChatMessage;
+import com.microsoft.playfab.partysample.sdk.ChatSearchIndex;
+import com.microsoft.playfab.partysample.sdk.ChatStateStore;
+import com.microsoft.playfab.partysample.sdk.TraceLog;
 
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+/**
+ * Rows are the messages of the latest ChatStateStore snapshot handed to setMessages. Message text
+ * is laid out on a background thread as soon as a message is shown, so binding a row
+ * only hands the finished layout to its TextView. Every row shares one layout, so the text metrics
+ * of the first row inflated apply to all of them.
+ *
+ * Every message is also added to a search index. While search results are shown, the rows are
+ * the matching messages, newest first, and messages that arrive are indexed but not shown.
+ */
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.ViewHolder> {
 
-    List<ChatMessage> messages;
+    private static final Executor layoutExecutor = Executors.newSingleThreadExecutor();
 
-    public MessageAdapter(List<ChatMessage> messages) {
+    ChatStateStore.Snapshot messages;
+    private PrecomputedTextCompat.Params textParams;
+
+    private final ChatSearchIndex searchIndex = new ChatSearchIndex();
+    // Positions in messages of the results shown so far, or null when not searching.
+    private int[] results;
+    private int resultCount;
+    private int resultTotal;
+
+    public MessageAdapter(ChatStateStore.Snapshot messages) {
         this.messages = messages;
     }
 
     @NonNull
     @Override
     public MessageAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int i) {
-        Log.d("message adapter","onCreateViewHolder");
+        TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_CREATE_MESSAGE_VIEW, null, 0);
         View view = LayoutInflater.from(viewGroup.getContext()).inflate(R.layout.chat_message_item, viewGroup, false);
         final ViewHolder viewHolder = new ViewHolder(view);
+        if (textParams == null && viewHolder.msgView instanceof AppCompatTextView) {
+            textParams = TextViewCompat.getTextMetricsParams(viewHolder.msgView);
+            for (int position = 0; position < messages.messageCount; position++) {
+                startLayout(messages.getMessage(position));
+            }
+        }
         return viewHolder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull MessageAdapter.ViewHolder viewHolder, int i) {
-        Log.d("message adapter","onBindViewHolder");
-        ChatMessage message = messages.get(i);
+        TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_BIND_MESSAGE_VIEW, null, i);
+        ChatMessage message = messages.getMessage(results != null ? results[i] : i);
         viewHolder.nameView.setText(message.getName());
-        viewHolder.msgView.setText(message.getMessage());
+        if (message.getMessageLayout() != null) {
+            ((AppCompatTextView) viewHolder.msgView).setTextFuture(message.getMessageLayout());
+        } else {
+            viewHolder.msgView.setText(message.getMessage());
+        }
     }
 
     @Override
     public int getItemCount() {
-        return messages != null ? messages.size() : 0;
+        if (results != null) {
+            return resultCount;
+        }
+        return messages != null ? messages.messageCount : 0;
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
@@ -55,16 +92,92 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.ViewHold
         }
     }
 
-    public void addMessage(String name, String text) {
-        ChatMessage message = new ChatMessage();
-        message.setMessage(text);
-        message.setName(name);
-        messages.add(message);
+    /**
+     * Shows the messages of a newer snapshot. Within a generation messages are only ever
+     * appended, so only the new ones are indexed and inserted; a new generation replaces them all.
+     * @return whether any messages were added
+     */
+    public boolean setMessages(ChatStateStore.Snapshot snapshot) {
+        ChatStateStore.Snapshot old = messages;
+        messages = snapshot;
+        if (snapshot.messageGeneration != old.messageGeneration) {
+            searchIndex.clear();
+            if (results != null) {
+                resultCount = 0;
+                resultTotal = 0;
+            }
+            showMessages(0, snapshot.messageCount);
+            this.notifyDataSetChanged();
+            return snapshot.messageCount > 0;
+        }
+
+        int start = old.messageCount;
+        if (snapshot.messageCount == start) {
+            return false;
+        }
+        showMessages(start, snapshot.messageCount);
+        if (results == null) {
+            this.notifyItemRangeInserted(start, snapshot.messageCount - start);
+        }
+        return true;
+    }
+
+    // Search index numbers match positions, since both start at zero with each generation.
+    private void showMessages(int start, int end) {
+        for (int i = start; i < end; i++) {
+            ChatMessage message = messages.getMessage(i);
+            startLayout(message);
+            searchIndex.add(message.getSenderId(), message.getMessage());
+        }
+    }
+
+    /**
+     * Shows the first page of matches for the query in place of the chat history.
+     */
+    public void search(String query, int pageSize) {
+        ChatSearchIndex.Page page = searchIndex.search(query, searchIndex.end(), pageSize);
+        results = page.messageIds;
+        resultCount = page.messageIds.length;
+        resultTotal = page.total;
         this.notifyDataSetChanged();
     }
 
-    public void clear() {
-        messages.clear();
+    /**
+     * Appends the next page of matches for the query shown; returns false if every match is shown.
+     */
+    public boolean loadMoreResults(String query, int pageSize) {
+        if (results == null || resultCount >= resultTotal) {
+            return false;
+        }
+        ChatSearchIndex.Page page = searchIndex.search(query, results[resultCount - 1], pageSize);
+        if (results.length < resultCount + page.messageIds.length) {
+            int[] grown = new int[Math.max(results.length * 2, resultCount + page.messageIds.length)];
+            System.arraycopy(results, 0, grown, 0, resultCount);
+            results = grown;
+        }
+        System.arraycopy(page.messageIds, 0, results, resultCount, page.messageIds.length);
+        int start = resultCount;
+        resultCount += page.messageIds.length;
+        this.notifyItemRangeInserted(start, page.messageIds.length);
+        return true;
+    }
+
+    public boolean isSearching() {
+        return results != null;
+    }
+
+    // Back to the chat history, including anything that arrived while searching.
+    public void clearSearch() {
+        if (results == null) {
+            return;
+        }
+        results = null;
         this.notifyDataSetChanged();
     }
+
+    private void startLayout(ChatMessage message) {
+        if (textParams != null && message.getMessageLayout() == null) {
+            message.setMessageLayout(PrecomputedTextCompat.getTextFuture(message.getMessage(), textParams, layoutExecutor));
+        }
+    }
 }
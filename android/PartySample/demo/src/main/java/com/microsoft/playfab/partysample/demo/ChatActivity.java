@@ -11,6 +11,9 @@ import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.support.constraint.ConstraintLayout;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -25,6 +28,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.Spinner;
@@ -35,17 +39,71 @@ import android.widget.Toast;
 import com.microsoft.playfab.partysample.adapter.MemberAdapter;
 import com.microsoft.playfab.partysample.adapter.MessageAdapter;
 import com.microsoft.playfab.partysample.model.ChatMember;
-import com.microsoft.playfab.partysample.model.ChatMessage;
+import com.microsoft.playfab.partysample.sdk.ActiveSpeakerTracker;
+import com.microsoft.playfab.partysample.sdk.ChatStateStore;
 import com.microsoft.playfab.partysample.sdk.MessageManager;
+import com.microsoft.playfab.partysample.sdk.NativeActor;
 import com.microsoft.playfab.partysample.sdk.NetworkManager;
+import com.microsoft.playfab.partysample.sdk.StartupOrchestrator;
+import com.microsoft.playfab.partysample.sdk.TraceLog;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 
 public class ChatActivity extends AppCompatActivity {
 
+    // How often native code samples network statistics for the member quality badges.
+    private static final int STATISTICS_SAMPLE_INTERVAL_MS = 1000;
+    // How often every peer is pinged for its round trip and clock offset.
+    private static final int CLOCK_PROBE_INTERVAL_MS = 2000;
+
+    // doWork period while the chat screen is visible, and while it is in the background.
+    private static final long PARTY_WORK_PERIOD_MS = 800;
+    private static final long PARTY_WORK_BACKGROUND_PERIOD_MS = 2400;
+    // doWork period in the background while a permanent focus loss has released the microphone,
+    // so there is no voice to keep up with.
+    private static final long PARTY_WORK_IDLE_PERIOD_MS = 4800;
+    private static final long PARTY_WORK_DELAY_MS = 200;
+    // How often every member's chat indicator is polled while connected and visible.
+    private static final long PLAYER_STATE_PERIOD_MS = 800;
+    private static final long PLAYER_STATE_DELAY_MS = 100;
+
+    // Speakers pinned below the local member, and how long the talking indicator has to stay
+    // on before a member counts as speaking and off before they stop.
+    private static final int PINNED_SPEAKERS = 4;
+    private static final long SPEAKER_ATTACK_MS = 200;
+    private static final long SPEAKER_RELEASE_MS = 1600;
+
+    // Message rows kept bound off screen, so a burst scrolling through reuses them without rebinding.
+    private static final int MESSAGE_VIEW_CACHE_SIZE = 20;
+
+    // Under getFilesDir(), which only this app can read.
+    static final String PLAYFAB_SESSION_FILE = "playfab_session";
+
+    // How long other apps get to release audio devices after we take focus, before we create a network.
+    private static final long FOCUS_SETTLE_MS = 1000;
+
+    // Room MainActivity asks us to create as soon as sign-in completes, for the startup benchmark.
+    static final String EXTRA_BENCHMARK_ROOM = "startupBenchmarkRoom";
+    // Scenario for ScenarioRunner to play instead of signing in, and when MainActivity was created.
+    static final String EXTRA_BENCHMARK_SCENARIO = "benchmarkScenario";
+    static final String EXTRA_BENCHMARK_LAUNCH_TIME = "benchmarkLaunchTime";
+    // Records every Party callback to CALLBACK_RECORDING_FILE, under getFilesDir(), while the chat
+    // screen is open. The replay scenarios play that file back.
+    static final String EXTRA_RECORD_CALLBACKS = "recordCallbacks";
+    static final String CALLBACK_RECORDING_FILE = "callbacks.rec";
+
+    // Matches from:system in a chat search.
+    private static final String SYSTEM_SENDER_ID = "System";
+    // Quiet time after the last keystroke before the search runs, and results shown per page.
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int SEARCH_PAGE_SIZE = 50;
+
     private RecyclerView memberRecyclerView;
     private RecyclerView messageRecyclerView;
 
@@ -61,24 +119,34 @@ public class ChatActivity extends AppCompatActivity {
     private Button btnImScared;
     private Button btnGoodLuck;
     private SeekBar seekBarVolume;
+    private EditText searchEditText;
 
     private ConstraintLayout progressLayout;
     private TextView progressText;
 
-    private List<ChatMember> members;
+    // Members and messages; the adapters show its snapshots.
+    private ChatStateStore chatState;
     private MemberAdapter memberAdapter;
-    private List<ChatMessage> messages;
+    private ActiveSpeakerTracker speakerTracker;
     private MessageAdapter messageAdapter;
 
     private String memberName;
     private String memberId;
+    // Other users signed in on this device; they share its Party device but not its microphone.
+    private String[] guestNames;
+    private final List<String> localUsers = new ArrayList<>();
+    // Sender labels by player id, for text and for transcripts, built once per sender.
+    private final Map<String, String> textSenderNames = new HashMap<>();
+    private final Map<String, String> transcriptSenderNames = new HashMap<>();
 
     private Handler messageHandler;
     private NetworkManager networkManager;
 
     PartyInitializeTask partyInitializeTask;
-    Timer partyWorkTimer;
-    Timer playerStateTimer;
+    boolean playerStatePolling = false;
+    boolean partyInitialized = false;
+    boolean isInBackground = false;
+    boolean resumePlayerStatePolling = false;
 
     String networkType;
     boolean isCreate = false;
@@ -98,6 +166,7 @@ public class ChatActivity extends AppCompatActivity {
 
         memberId = getIntent().getStringExtra("name");
         memberName = memberId;
+        guestNames = getIntent().getStringArrayExtra("guests");
 
         btnCreate = findViewById(R.id.btnCreate);
         btnJoin = findViewById(R.id.btnJoin);
@@ -107,6 +176,18 @@ public class ChatActivity extends AppCompatActivity {
         btnGoodLuck = findViewById(R.id.btnGoodLuck);
         seekBarVolume = findViewById(R.id.seekBar);
 
+        // Long-pressing a quick message sends it from every local user as well.
+        View.OnLongClickListener sendFromLocalUsers = new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                onQuickMsgBtnLongClick((Button) view);
+                return true;
+            }
+        };
+        btnHeyTeam.setOnLongClickListener(sendFromLocalUsers);
+        btnImScared.setOnLongClickListener(sendFromLocalUsers);
+        btnGoodLuck.setOnLongClickListener(sendFromLocalUsers);
+
         ttsSwitch = findViewById(R.id.switchTTS);
 
         ttsSwitch.setChecked(true);
@@ -115,6 +196,20 @@ public class ChatActivity extends AppCompatActivity {
         progressText = findViewById(R.id.progressText);
 
         roomSpinner = findViewById(R.id.roomSpinner);
+        roomSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                String room = parent.getItemAtPosition(position).toString().trim();
+                if (networkManager.isInNetwork(room) && !room.equals(networkManager.getActiveNetworkId())) {
+                    switchToRoom(room);
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                // No action
+            }
+        });
 
         languageSpinner = findViewById(R.id.languageSpinner);
 
@@ -170,9 +265,22 @@ public class ChatActivity extends AppCompatActivity {
         memberRecyclerView.setFocusableInTouchMode(true);
         memberRecyclerView.setOnTouchListener(onTouchListener);
 
-        initMembers();
-        memberAdapter = new MemberAdapter(members);
+        initChatState();
+        memberAdapter = new MemberAdapter(chatState.getSnapshot().members);
         memberRecyclerView.setAdapter(memberAdapter);
+        speakerTracker = new ActiveSpeakerTracker(PINNED_SPEAKERS, SPEAKER_ATTACK_MS, SPEAKER_RELEASE_MS,
+                new ActiveSpeakerTracker.Listener() {
+                    @Override
+                    public void onSpeakingChanged(String id, boolean speaking) {
+                        chatState.setMemberTalking(id, speaking);
+                    }
+
+                    @Override
+                    public void onRecentSpeakersChanged(List<String> ids) {
+                        chatState.applySpeakerOrder(ids);
+                        networkManager.getTranscriptionPolicy().setRecentSpeakers(ids);
+                    }
+                });
 
         LinearLayoutManager memberLayoutManager = new LinearLayoutManager(this);
         memberLayoutManager.setOrientation(LinearLayoutManager.VERTICAL);
@@ -186,20 +294,75 @@ public class ChatActivity extends AppCompatActivity {
         messageRecyclerView.setFocusableInTouchMode(true);
         messageRecyclerView.setOnTouchListener(onTouchListener);
 
-        messages = new ArrayList<>();
-        messageAdapter = new MessageAdapter(messages);
+        messageAdapter = new MessageAdapter(chatState.getSnapshot());
         messageRecyclerView.setAdapter(messageAdapter);
         LinearLayoutManager messageLayoutManager = new LinearLayoutManager(this);
         messageLayoutManager.setOrientation(LinearLayoutManager.VERTICAL);
         messageRecyclerView.setLayoutManager(messageLayoutManager);
+        messageRecyclerView.setItemViewCacheSize(MESSAGE_VIEW_CACHE_SIZE);
+        messageRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Results are newest first, so reaching the bottom asks for older ones.
+                if (messageAdapter.isSearching() && !recyclerView.canScrollVertically(1)) {
+                    messageAdapter.loadMoreResults(searchEditText.getText().toString(), SEARCH_PAGE_SIZE);
+                }
+            }
+        });
+
+        searchEditText = findViewById(R.id.searchEditText);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                messageHandler.removeCallbacks(runSearch);
+                messageHandler.postDelayed(runSearch, SEARCH_DEBOUNCE_MS);
+            }
+        });
 
         initManagers();
+        PartySampleFocusService.setVoiceListener(onVoiceReleasedChanged);
+
+        String benchmarkScenario = getIntent().getStringExtra(EXTRA_BENCHMARK_SCENARIO);
+        if (benchmarkScenario != null) {
+            // The scenario's fake transport stands in for Party, so there is nothing to sign in to.
+            long launchTime = getIntent().getLongExtra(EXTRA_BENCHMARK_LAUNCH_TIME, SystemClock.elapsedRealtime());
+            new ScenarioRunner(this, networkManager, messageHandler, benchmarkScenario, launchTime).start();
+            return;
+        }
 
-        partyWorkTimer = new Timer("party-work");
-        playerStateTimer = new Timer("party-state");
+        if (getIntent().getBooleanExtra(EXTRA_RECORD_CALLBACKS, false)) {
+            try {
+                networkManager.startRecording(new File(getFilesDir(), CALLBACK_RECORDING_FILE));
+            } catch (IOException e) {
+                Log.w(ChatActivity.class.getSimpleName(), "Could not record callbacks: " + e);
+            }
+        }
 
         partyInitializeTask = new PartyInitializeTask(this);
         partyInitializeTask.execute(NetworkManager.getInstance());
+
+        final String benchmarkRoom = getIntent().getStringExtra(EXTRA_BENCHMARK_ROOM);
+        if (benchmarkRoom != null) {
+            StartupOrchestrator.getInstance().whenReached(StartupOrchestrator.PHASE_SIGNED_IN, new Runnable() {
+                @Override
+                public void run() {
+                    messageHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            createRoom(benchmarkRoom);
+                        }
+                    });
+                }
+            });
+        }
     }
 
     private void setPlayerVolume(float volumeZeroToOne) {
@@ -225,31 +388,27 @@ public class ChatActivity extends AppCompatActivity {
         startFocusService();
     }
 
+    @Override
+    protected void onPause() {
+        setBackgroundMode(true);
+        super.onPause();
+    }
+
     @Override
     protected void onDestroy() {
         stopFocusService();
+        PartySampleFocusService.setVoiceListener(null);
+        networkManager.stopRecording();
+        chatState.close();
         super.onDestroy();
     }
 
     private void restoreFocus() {
         // Request focus so other apps are notified that they need to tear down their audio devices.
+        // Once it is granted the service resumes voice: at once if the input device was kept, or
+        // after giving other apps time to tear down theirs if it was released.
         MessageManager.getInstance().sendErrorMessage("Restoring focus...");
         focusService.requestFocus();
-
-        // Note: it is important to wait a bit before trying to set up our own input devices so
-        // other applications have time to tear down their devices!
-        waitMillisecondsThenConnectAudioInput(1000);
-    }
-
-    private void waitMillisecondsThenConnectAudioInput(long millisecondsToWait) {
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                focusService.connectAudioInput();
-            }
-        };
-        Timer timer = new Timer(true);
-        timer.schedule(task, millisecondsToWait);
     }
 
     // Note: There is a juggling act here between onServiceConnected and onResume.  A bound service
@@ -259,6 +418,7 @@ public class ChatActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        setBackgroundMode(false);
         final boolean needsFocus = networkManager.connectedToNetwork() && !focusService.hasFocus();
         if(focusService == null) {
             shouldRequestFocusWhenServiceConnects = needsFocus;
@@ -274,6 +434,13 @@ public class ChatActivity extends AppCompatActivity {
             Toast.makeText(ChatActivity.this, "FocusService connected", Toast.LENGTH_SHORT).show();
             PartySampleFocusService.LocalBinder binder = (PartySampleFocusService.LocalBinder)service;
             focusService = binder.getServiceInstance();
+
+            // Take focus at startup, while sign-in is still in flight, so creating a network
+            // does not have to wait for other apps to release their audio devices.
+            StartupOrchestrator startup = StartupOrchestrator.getInstance();
+            if (!startup.hasReached(StartupOrchestrator.PHASE_AUDIO_FOCUS) && focusService.requestFocus()) {
+                startup.markPhase(StartupOrchestrator.PHASE_AUDIO_FOCUS);
+            }
             if(shouldRequestFocusWhenServiceConnects) {
                 shouldRequestFocusWhenServiceConnects = false;
                 restoreFocus();
@@ -322,25 +489,48 @@ public class ChatActivity extends AppCompatActivity {
 
     public void initManagers() {
         networkManager = NetworkManager.getInstance();
-        networkManager.setPlayFabTitleID(getIntent().getStringExtra(MainActivity.cCachedPlayFabTitleIDKey));
         messageHandler = new MessageHandler();
         MessageManager.getInstance().setHandler(messageHandler);
     }
 
-    public void initMembers() {
-        members = new ArrayList<>();
+    // Local users are in every network we are in, so they survive network switches.
+    private void addLocalUserMembers() {
+        for (String name : localUsers) {
+            chatState.addMember(name, name + " (local)");
+        }
+    }
+
+    public void initChatState() {
         ChatMember member = new ChatMember();
         member.setId(memberId);
         member.setName(memberName);
         member.setCurrent(true);
-        members.add(member);
+        chatState = new ChatStateStore(member, new ChatStateStore.Listener() {
+            @Override
+            public void onChatStateChanged(ChatStateStore.Snapshot snapshot) {
+                memberAdapter.setMembers(snapshot.members);
+                networkManager.getTranscriptionPolicy().setRemoteMemberCount(snapshot.members.size() - 1);
+                if (messageAdapter.setMessages(snapshot)) {
+                    scrollToLatestMessage();
+                }
+            }
+        });
     }
 
     public void onBtnCreateClick(View view) {
         Log.d("chat", "create");
 
+        createRoom(roomSpinner.getSelectedItem().toString().trim());
+    }
+
+    private void createRoom(String room) {
+        if (networkManager.isInNetwork(room)) {
+            switchToRoom(room);
+            return;
+        }
+
         isCreate = true;
-        networkType = roomSpinner.getSelectedItem().toString().trim();
+        networkType = room;
         languageCode = Integer.toString(languageSpinner.getSelectedItemPosition());
 
         CreateChatTask task = new CreateChatTask();
@@ -350,7 +540,13 @@ public class ChatActivity extends AppCompatActivity {
     public void onBtnJoinClick(View view) {
         Log.d("chat", "join");
 
-        networkType = roomSpinner.getSelectedItem().toString().trim();
+        String room = roomSpinner.getSelectedItem().toString().trim();
+        if (networkManager.isInNetwork(room)) {
+            switchToRoom(room);
+            return;
+        }
+
+        networkType = room;
 
         isCreate = false;
 
@@ -358,6 +554,11 @@ public class ChatActivity extends AppCompatActivity {
         task.execute(networkType);
     }
 
+    // Rooms we are already in are switched to rather than joined again.
+    private void switchToRoom(String room) {
+        networkManager.switchNetwork(room);
+    }
+
     public void onQucikMsgBtnClick(View view) {
 
         Button button = (Button) view;
@@ -366,7 +567,39 @@ public class ChatActivity extends AppCompatActivity {
 
         boolean isTTS = ttsSwitch.isChecked();
 
-        sendMessage(memberName, text, isTTS);
+        sendQuickPhrase(getQuickPhrase(button), text, isTTS);
+    }
+
+    private void onQuickMsgBtnLongClick(Button button) {
+        String text = button.getText().toString();
+        boolean isTTS = ttsSwitch.isChecked();
+
+        sendQuickPhrase(getQuickPhrase(button), text, isTTS);
+        // Phrase ids arrive from this device's endpoint, which receivers show as us, so local users
+        // still send the text.
+        for (String name : localUsers) {
+            sendMessageAs(name, text, isTTS);
+        }
+    }
+
+    private int getQuickPhrase(Button button) {
+        if (button == btnImScared) {
+            return NetworkManager.QUICK_PHRASE_IM_SCARED;
+        } else if (button == btnGoodLuck) {
+            return NetworkManager.QUICK_PHRASE_GOOD_LUCK;
+        }
+        return NetworkManager.QUICK_PHRASE_HEY_TEAM;
+    }
+
+    /**
+     * Sends a quick message as its phrase id; receivers show it in their own language.
+     * @param text : the button label, shown here as what we sent
+     */
+    private void sendQuickPhrase(int phraseId, String text, boolean isTTS) {
+        networkManager.sendQuickPhrase(phraseId,
+                isTTS ? NetworkManager.SEND_MODE_VOICE : NetworkManager.SEND_MODE_TEXT);
+
+        chatState.addMessage(memberId, memberName, text);
     }
 
     public void onBtnLeaveClick(View view) {
@@ -390,21 +623,19 @@ public class ChatActivity extends AppCompatActivity {
         return loadingDialog;
     }
 
-    public void sendMessage(String name, final String msg, final boolean isTTS) {
-        // Call sendTextMessage in a new thread to separate UI thread and SDK call thread
-        new Thread() {
-            public void run() {
-                networkManager.sendTextMessage(msg, isTTS);
-            }
-        }.start();
+    public void sendMessage(String name, String msg, boolean isTTS) {
+        // Queued for the native actor thread, so the UI thread never waits on the SDK.
+        networkManager.sendTextMessage(msg,
+                isTTS ? NetworkManager.SEND_MODE_VOICE : NetworkManager.SEND_MODE_TEXT);
 
-        messageAdapter.addMessage(name, msg);
-        messageRecyclerView.post(new Runnable() {
-            @Override
-            public void run() {
-                messageRecyclerView.scrollToPosition(messageRecyclerView.getAdapter().getItemCount() - 1);
-            }
-        });
+        chatState.addMessage(memberId, name, msg);
+    }
+
+    private void sendMessageAs(String name, String msg, boolean isTTS) {
+        networkManager.sendTextMessageAs(name, msg,
+                isTTS ? NetworkManager.SEND_MODE_VOICE : NetworkManager.SEND_MODE_TEXT);
+
+        chatState.addMessage(name, name, msg);
     }
 
     public void leaveChat() {
@@ -419,7 +650,7 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     public void resetMessage() {
-        messageAdapter.clear();
+        chatState.clearMessages();
     }
 
     public void resetChat() {
@@ -427,37 +658,168 @@ public class ChatActivity extends AppCompatActivity {
 
         networkType = null;
 
-        if (playerStateTimer != null) {
-            playerStateTimer.cancel();
-            playerStateTimer = null;
+        synchronized (this) {
+            if (playerStatePolling) {
+                networkManager.schedulePlayerStatePolling(0, 0);
+                playerStatePolling = false;
+            }
+            resumePlayerStatePolling = false;
         }
 
-        memberAdapter.clear();
+        clearSpeakers();
+        chatState.clearMembers();
     }
 
+    // Create, Join and the room list stay enabled so more rooms can be joined while connected.
     public void setChatConnected(boolean isConnected) {
-        btnCreate.setEnabled(!isConnected);
-        btnJoin.setEnabled(!isConnected);
         btnLeave.setEnabled(isConnected);
         btnHeyTeam.setEnabled(isConnected);
         btnImScared.setEnabled(isConnected);
         btnGoodLuck.setEnabled(isConnected);
-        roomSpinner.setEnabled(!isConnected);
         languageSpinner.setEnabled(!isConnected);
         seekBarVolume.setEnabled(isConnected);
     }
 
-    public synchronized void updatePlayerState() {
-        if (playerStateTimer != null) {
-            playerStateTimer.cancel();
+    // While the chat screen is not visible, doWork runs less often (less often still once the
+    // focus service has released the microphone), per-member state polling stops, no one is
+    // transcribed, and incoming chat lines are queued by MessageManager until we come back.
+    private synchronized void setBackgroundMode(boolean background) {
+        if (isInBackground == background) {
+            return;
+        }
+        isInBackground = background;
+
+        networkManager.setBackgroundMode(background);
+        networkManager.getTranscriptionPolicy().setVisible(!background);
+        MessageManager.getInstance().setBackgroundMode(background);
+        if (partyInitialized) {
+            startPartyWork(getPartyWorkPeriod());
+        }
+
+        if (background) {
+            if (playerStatePolling) {
+                networkManager.schedulePlayerStatePolling(0, 0);
+                playerStatePolling = false;
+                resumePlayerStatePolling = true;
+            }
+        } else if (resumePlayerStatePolling) {
+            resumePlayerStatePolling = false;
+            updatePlayerState();
+        }
+    }
+
+    private synchronized void onPartyInitialized() {
+        partyInitialized = true;
+        startPartyWork(getPartyWorkPeriod());
+    }
+
+    // The focus service decides whether voice is live; we decide whether the screen is visible.
+    private synchronized long getPartyWorkPeriod() {
+        if (!isInBackground) {
+            return PARTY_WORK_PERIOD_MS;
+        }
+        return PartySampleFocusService.isVoiceReleased() ? PARTY_WORK_IDLE_PERIOD_MS : PARTY_WORK_BACKGROUND_PERIOD_MS;
+    }
+
+    private final PartySampleFocusService.VoiceListener onVoiceReleasedChanged =
+            new PartySampleFocusService.VoiceListener() {
+        @Override
+        public void onVoiceReleasedChanged(boolean released) {
+            synchronized (ChatActivity.this) {
+                if (partyInitialized && isInBackground) {
+                    startPartyWork(getPartyWorkPeriod());
+                }
+            }
         }
-        playerStateTimer = new Timer("party-state");
-        playerStateTimer.scheduleAtFixedRate(new TimerTask() {
+    };
+
+    // Replaces the previous schedule, so changing the period just schedules the work again.
+    private synchronized void startPartyWork(long period) {
+        networkManager.scheduleWork(PARTY_WORK_DELAY_MS, period);
+    }
+
+    private final Runnable evaluateSpeakers = new Runnable() {
+        @Override
+        public void run() {
+            long next = speakerTracker.evaluate(SystemClock.uptimeMillis());
+            if (next >= 0) {
+                messageHandler.postAtTime(this, next);
+            }
+        }
+    };
+
+    private void clearSpeakers() {
+        messageHandler.removeCallbacks(evaluateSpeakers);
+        speakerTracker.clear();
+        networkManager.getTranscriptionPolicy().setRecentSpeakers(Collections.<String>emptyList());
+    }
+
+    // Speaking state only changes once a hold time runs out, so evaluate again when the next one does.
+    private void scheduleSpeakerEvaluation() {
+        messageHandler.removeCallbacks(evaluateSpeakers);
+        evaluateSpeakers.run();
+    }
+
+    // Messages in the chat history, whether or not search results are shown instead.
+    int getMessageCount() {
+        return chatState.getSnapshot().messageCount;
+    }
+
+    ChatStateStore getChatState() {
+        return chatState;
+    }
+
+    private final Runnable runSearch = new Runnable() {
+        @Override
+        public void run() {
+            String query = searchEditText.getText().toString().trim();
+            if (query.isEmpty()) {
+                messageAdapter.clearSearch();
+                scrollToLatestMessage();
+            } else {
+                messageAdapter.search(query, SEARCH_PAGE_SIZE);
+                messageRecyclerView.scrollToPosition(0);
+            }
+        }
+    };
+
+    // Follows new messages, except while search results are shown in their place.
+    private void scrollToLatestMessage() {
+        if (messageAdapter.isSearching()) {
+            return;
+        }
+        messageRecyclerView.post(new Runnable() {
             @Override
             public void run() {
-                networkManager.getPlayerState();
+                messageRecyclerView.scrollToPosition(messageRecyclerView.getAdapter().getItemCount() - 1);
             }
-        }, 100, 800);
+        });
+    }
+
+    private String formatSenderName(String playerId, int kind) {
+        if (kind == MessageManager.TEXT_KIND_SYSTEM) {
+            return "System [Text]:";
+        }
+        if (memberId.equals(playerId)) {
+            return playerId;
+        }
+        boolean isTranscript = kind == MessageManager.TEXT_KIND_TRANSCRIPT;
+        Map<String, String> names = isTranscript ? transcriptSenderNames : textSenderNames;
+        String name = names.get(playerId);
+        if (name == null) {
+            name = playerId + (isTranscript ? " [Transcript]:" : " [Text]:");
+            names.put(playerId, name);
+        }
+        return name;
+    }
+
+    public synchronized void updatePlayerState() {
+        if (isInBackground) {
+            resumePlayerStatePolling = true;
+            return;
+        }
+        playerStatePolling = true;
+        networkManager.schedulePlayerStatePolling(PLAYER_STATE_DELAY_MS, PLAYER_STATE_PERIOD_MS);
     }
 
     private class PartyInitializeTask extends AsyncTask<NetworkManager, Integer, Integer> {
@@ -477,16 +839,23 @@ public class ChatActivity extends AppCompatActivity {
         @Override
         protected Integer doInBackground(NetworkManager... networkManagers) {
             final NetworkManager networkManager = networkManagers[0];
-            if (!networkManager.initialize(memberId)) {
+            // Usually already started by MainActivity when the user was picked.
+            String titleId = getIntent().getStringExtra(MainActivity.cCachedPlayFabTitleIDKey);
+            String sessionCachePath = new File(getFilesDir(), PLAYFAB_SESSION_FILE).getAbsolutePath();
+            if (!StartupOrchestrator.getInstance().awaitSignIn(memberId, titleId, sessionCachePath)) {
                 return 1;
             }
+            networkManager.setStatisticsSampleInterval(STATISTICS_SAMPLE_INTERVAL_MS);
+            networkManager.setClockProbeInterval(CLOCK_PROBE_INTERVAL_MS);
 
-            partyWorkTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    networkManager.doWork();
+            onPartyInitialized();
+
+            // Guests sign in once doWork is running, since that is what completes the sign-in.
+            if (guestNames != null) {
+                for (String guest : guestNames) {
+                    networkManager.addLocalUser(guest);
                 }
-            }, 200, 800);
+            }
 
             return 0;
         }
@@ -527,7 +896,7 @@ public class ChatActivity extends AppCompatActivity {
             final NetworkManager networkManager = networkManagers[0];
 
             Log.d("chat", "doInBackground ");
-            networkManager.leaveNetwork();
+            NativeActor.await(networkManager.leaveNetwork(), null);
 
             return 0;
         }
@@ -573,7 +942,7 @@ public class ChatActivity extends AppCompatActivity {
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
-            if(networkManager.createAndConnectToNetwork(networkId, languageCode))
+            if(NativeActor.await(networkManager.createAndConnectToNetwork(networkId, languageCode), false))
             {
                 return 1;
             }
@@ -587,13 +956,20 @@ public class ChatActivity extends AppCompatActivity {
         protected Integer doInBackground(String... params) {
             String networkId = params[0];
             String languageCode = params[1];
-            MessageManager.getInstance().sendErrorMessage("Requesting focus...");
-            focusService.requestFocus();
 
             // Note: When requesting focus it is important that we wait until focus requests
             // have been handled by any other applications holding device resources so they have
-            // time to tear their devices down and free us to claim them.
-            return waitForMillisecondsThenCreateAndConnectToNetwork(networkId, languageCode, 1000);
+            // time to tear their devices down and free us to claim them. Focus taken at startup
+            // has usually been held long enough already.
+            long sinceFocus = StartupOrchestrator.getInstance().elapsedSince(StartupOrchestrator.PHASE_AUDIO_FOCUS);
+            long wait = FOCUS_SETTLE_MS;
+            if (sinceFocus >= 0 && focusService.hasFocus()) {
+                wait = Math.max(0, FOCUS_SETTLE_MS - sinceFocus);
+            } else {
+                MessageManager.getInstance().sendErrorMessage("Requesting focus...");
+                focusService.requestFocus();
+            }
+            return waitForMillisecondsThenCreateAndConnectToNetwork(networkId, languageCode, wait);
         }
 
         @Override
@@ -618,7 +994,7 @@ public class ChatActivity extends AppCompatActivity {
         protected Integer doInBackground(String... networkIds) {
             String networkId = networkIds[0];
 
-            if(networkManager.joinNetwork(networkId)) {
+            if(NativeActor.await(networkManager.joinNetwork(networkId), false)) {
                 return 1;
             }
             else {
@@ -638,7 +1014,7 @@ public class ChatActivity extends AppCompatActivity {
     class MessageHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            Log.d("chat", "handleMessage");
+            TraceLog.record(TraceLog.LEVEL_DEBUG, TraceLog.EVENT_HANDLE_MESSAGE, null, msg.what);
 
             Bundle data = msg.getData();
             switch (msg.what) {
@@ -647,26 +1023,65 @@ public class ChatActivity extends AppCompatActivity {
 
                     updatePlayerState();
                     setChatConnected(true);
+                    addLocalUserMembers();
+                    break;
+                }
+                case MessageManager.MSG_NETWORK_SWITCHED: {
+                    String[] playerIds = data.getStringArray("playerIds");
+                    String[] names = data.getStringArray("names");
+                    networkType = data.getString("network");
+
+                    clearSpeakers();
+                    chatState.clearMembers();
+                    for (int i = 0; i < playerIds.length; i++) {
+                        if (!memberId.equals(playerIds[i])) {
+                            chatState.addMember(playerIds[i], names[i]);
+                        }
+                    }
+                    addLocalUserMembers();
+                    break;
+                }
+                case MessageManager.MSG_LOCAL_USER_ADDED: {
+                    String name = data.getString("name");
+                    if (!localUsers.contains(name)) {
+                        localUsers.add(name);
+                    }
+                    addLocalUserMembers();
+                    break;
+                }
+                case MessageManager.MSG_REMOVE_LOCAL_USER: {
+                    String name = data.getString("name");
+                    if (localUsers.remove(name)) {
+                        networkManager.removeLocalUser(name);
+                        chatState.removeMember(name);
+                        Toast.makeText(ChatActivity.this, name + " signed out", Toast.LENGTH_SHORT).show();
+                    }
                     break;
                 }
                 case MessageManager.MSG_TEXT_RECEIVED: {
                     String playerId = data.getString("playerId");
                     String text = data.getString("text");
                     boolean isTranscriptor = data.getBoolean("isTranscriptor");
-                    String name = playerId;
-                    if (!memberId.equals(playerId)) {
-                        String tag = isTranscriptor ? "Transcript" : "Text";
-                        name += " [" + tag + "]:";
+                    String name = formatSenderName(playerId,
+                            isTranscriptor ? MessageManager.TEXT_KIND_TRANSCRIPT : MessageManager.TEXT_KIND_TEXT);
+                    chatState.addMessage(playerId, name, text);
+                    break;
+                }
+                case MessageManager.MSG_TEXT_BATCH: {
+                    String[] playerIds = data.getStringArray("playerIds");
+                    String[] texts = data.getStringArray("texts");
+                    int[] kinds = data.getIntArray("kinds");
+                    int dropped = data.getInt("dropped");
+
+                    String[] names = new String[texts.length];
+                    for (int i = 0; i < texts.length; i++) {
+                        names[i] = formatSenderName(playerIds[i], kinds[i]);
                     }
-                    messageAdapter.addMessage(name, text);
-
-                    messageRecyclerView.post(new Runnable() {
-                        @Override
-                        public void run() {
-                        messageRecyclerView.scrollToPosition(messageRecyclerView.getAdapter().getItemCount() - 1);
-                        }
-                    });
-
+                    if (dropped > 0) {
+                        chatState.addMessage(SYSTEM_SENDER_ID, formatSenderName(null, MessageManager.TEXT_KIND_SYSTEM),
+                                dropped + " older messages were dropped while in the background");
+                    }
+                    chatState.addMessages(playerIds, names, texts);
                     break;
                 }
                 case MessageManager.MSG_PLAYER_JOIN: {
@@ -675,8 +1090,7 @@ public class ChatActivity extends AppCompatActivity {
                     if (memberId.equals(playerId)) {
                         break;
                     }
-                    memberAdapter.addMember(playerId, name);
-
+                    chatState.addMember(playerId, name);
                     break;
                 }
                 case MessageManager.MSG_PLAYER_LEFT: {
@@ -684,13 +1098,29 @@ public class ChatActivity extends AppCompatActivity {
                     if (memberId.equals(playerId)) {
                         break;
                     }
-                    memberAdapter.removeMember(playerId);
+                    speakerTracker.remove(playerId);
+                    chatState.removeMember(playerId);
                     break;
                 }
                 case MessageManager.MSG_PLAYER_STATUS: {
                     String playerId = data.getString("playerId");
                     String state = data.getString("state");
-                    memberAdapter.updateMemberState(playerId, state);
+                    chatState.updateMemberState(playerId, state);
+                    speakerTracker.onIndicator(playerId, ChatMember.STATE_TALKING.equals(state), SystemClock.uptimeMillis());
+                    scheduleSpeakerEvaluation();
+                    break;
+                }
+                case MessageManager.MSG_FLOOD_SUMMARY: {
+                    String playerId = data.getString("playerId");
+                    int count = data.getInt("count");
+                    chatState.addMessage(SYSTEM_SENDER_ID, formatSenderName(null, MessageManager.TEXT_KIND_SYSTEM),
+                            MessageManager.formatFloodSummary(playerId, count));
+                    break;
+                }
+                case MessageManager.MSG_PLAYER_QUALITY: {
+                    String playerId = data.getString("playerId");
+                    int quality = data.getInt("quality");
+                    chatState.updateMemberQuality(playerId, quality);
                     break;
                 }
                 case MessageManager.MSG_TOAST_MSG: {
@@ -712,15 +1142,8 @@ public class ChatActivity extends AppCompatActivity {
                 }
                 case MessageManager.MSG_ERROR: {
                     String text = data.getString("error");
-                    String name = "System [Text]:";
-                    messageAdapter.addMessage(name, text);
-
-                    messageRecyclerView.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            messageRecyclerView.scrollToPosition(messageRecyclerView.getAdapter().getItemCount() - 1);
-                        }
-                    });
+                    String name = formatSenderName(null, MessageManager.TEXT_KIND_SYSTEM);
+                    chatState.addMessage(SYSTEM_SENDER_ID, name, text);
                     break;
                 }
                 case MessageManager.MSG_LEAVE: {
@@ -9,6 +9,7 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.View;
@@ -18,19 +19,35 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.content.SharedPreferences;
 
+import com.microsoft.playfab.partysample.sdk.StartupOrchestrator;
+
+import java.io.File;
 import java.util.ArrayList;
 
 public class MainActivity extends AppCompatActivity {
 
     static final int AUDIO_PERMISSION_REQUEST_CODE = 10;
     public static final String cCachedPlayFabTitleIDKey = "cached_playfab_title_id";
+    // Startup benchmark: launch with this extra set to a user button's name to sign in as that user
+    // and create ChatActivity's default room without any taps, e.g.
+    // adb shell am start -W -n com.microsoft.playfab.partysample/.demo.MainActivity -e startupBenchmarkUser android_user_1
+    // The phase times are logged under the PartyStartup tag once connected.
+    static final String cStartupBenchmarkUserKey = "startupBenchmarkUser";
+    static final String cStartupBenchmarkRoom = "Room_1";
+    // App-layer benchmark: launch with this extra set to a ScenarioRunner scenario to open the chat
+    // screen as the first user, without signing in, and play it there.
+    static final String cBenchmarkScenarioKey = "benchmarkScenario";
     private boolean hasPermission;
     EditText titleIdEditText;
     TextView titleIdWarningTextView;
     ArrayList<Button> buttons;
+    // Users picked with a long press join on this device alongside the one clicked.
+    ArrayList<String> guests = new ArrayList<>();
+    private long launchTime;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        launchTime = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -38,7 +55,44 @@ public class MainActivity extends AppCompatActivity {
         configureTitleIDEditor();
         tryLoadCachedTitleID();
 
+        String benchmarkScenario = getIntent().getStringExtra(cBenchmarkScenarioKey);
+        if(benchmarkScenario != null) {
+            runBenchmarkScenario(benchmarkScenario);
+            return;
+        }
+
+        // Load the native library and warm up Party while the user picks who to be.
+        StartupOrchestrator.getInstance().prepare(titleIdEditText.getText().toString());
+
         checkPermissions();
+
+        String benchmarkUser = getIntent().getStringExtra(cStartupBenchmarkUserKey);
+        if(benchmarkUser != null) {
+            runStartupBenchmark(benchmarkUser);
+        }
+    }
+
+    private void runStartupBenchmark(String user) {
+        if (!hasPermission) {
+            Toast.makeText(this, "Please grant audio permission for app", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        for(Button btn : buttons) {
+            if(user.equals(btn.getText().toString()) && btn.isEnabled()) {
+                startChat(btn, cStartupBenchmarkRoom);
+                return;
+            }
+        }
+        Toast.makeText(this, "No startup benchmark user " + user, Toast.LENGTH_SHORT).show();
+    }
+
+    private void runBenchmarkScenario(String scenario) {
+        Intent intent = new Intent(this, ChatActivity.class);
+        intent.putExtra("name", buttons.get(0).getText());
+        intent.putExtra(ChatActivity.EXTRA_BENCHMARK_SCENARIO, scenario);
+        intent.putExtra(ChatActivity.EXTRA_BENCHMARK_LAUNCH_TIME, launchTime);
+        startActivity(intent);
     }
 
     private void configureTitleIDEditor() {
@@ -104,6 +158,27 @@ public class MainActivity extends AppCompatActivity {
         buttons.add((Button)findViewById(R.id.btnUser3));
         buttons.add((Button)findViewById(R.id.btnUser4));
 
+        for(Button btn : buttons) {
+            btn.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    toggleGuest((Button)view);
+                    return true;
+                }
+            });
+        }
+    }
+
+    private void toggleGuest(Button button) {
+        String name = button.getText().toString();
+        if(guests.remove(name)) {
+            button.setAlpha(1f);
+            Toast.makeText(this, name + " will not join as a local user", Toast.LENGTH_SHORT).show();
+        } else {
+            guests.add(name);
+            button.setAlpha(0.6f);
+            Toast.makeText(this, name + " will join as a local user", Toast.LENGTH_SHORT).show();
+        }
     }
 
     private void enableButtons(Boolean enable) {
@@ -123,10 +198,28 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        Button button = (Button)view;
+        startChat((Button)view, null);
+    }
+
+    private void startChat(Button button, String benchmarkRoom) {
+        String name = button.getText().toString();
+        String titleId = titleIdEditText.getText().toString();
+        // Sign-in runs while ChatActivity is being created.
+        StartupOrchestrator.getInstance().startSignIn(name, titleId,
+                new File(getFilesDir(), ChatActivity.PLAYFAB_SESSION_FILE).getAbsolutePath());
 
         Intent intent = new Intent(this, ChatActivity.class);
         intent.putExtra("name", button.getText());
+        if(benchmarkRoom != null) {
+            intent.putExtra(ChatActivity.EXTRA_BENCHMARK_ROOM, benchmarkRoom);
+        }
+        // e.g. adb shell am start -n com.microsoft.playfab.partysample/.demo.MainActivity --ez recordCallbacks true
+        intent.putExtra(ChatActivity.EXTRA_RECORD_CALLBACKS,
+                getIntent().getBooleanExtra(ChatActivity.EXTRA_RECORD_CALLBACKS, false));
+
+        ArrayList<String> otherGuests = new ArrayList<>(guests);
+        otherGuests.remove(button.getText().toString());
+        intent.putExtra("guests", otherGuests.toArray(new String[otherGuests.size()]));
         intent.putExtra(cCachedPlayFabTitleIDKey, titleIdEditText.getText().toString());
         startActivity(intent);
     }
@@ -6,21 +6,67 @@ import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.microsoft.playfab.partysample.sdk.NativeActor;
+import com.microsoft.playfab.partysample.sdk.NetworkManager;
+
 
 // A note to library consumers: In order to be a well-behaving audio application on Android, your
 // application is expected to both request audio focus as needed and handle notifications for audio
 // focus loss. This class is provided as an example for how to cooperatively respond to focus
-// changes when using this library.  In this case, when losing focus we disconnect the audio input
-// because it frees up contentious microphone resources under the hood, thereby allowing other
-// applications to properly initialize their own resources and offer the best possible user experience.
+// changes when using this library.  In this case, how much we give up depends on the loss. When we
+// may duck, remote voices are attenuated and capture continues. On a transient loss, capture is
+// muted and remote voices silenced in place, so the input device survives and voice resumes as soon
+// as focus is back. Only on a permanent loss do we disconnect the audio input, because it frees up
+// contentious microphone resources under the hood, thereby allowing other applications to properly
+// initialize their own resources and offer the best possible user experience.
+// How long voice took to come back after each interruption is logged under the PartyFocus tag.
 // For more information on handling audio focus for Android, please see their documentation here:
 // https://developer.android.com/guide/topics/media-apps/audio-focus
 public class PartySampleFocusService extends Service {
 
+    private static final String TAG = "PartyFocus";
+
+    // Share of remote voice volume kept while another app plays over us.
+    private static final float DUCK_VOLUME = 0.2f;
+    // After a permanent loss, how long other apps get to tear down their audio devices once we
+    // have focus again, before we set up our own input device.
+    private static final long RECONNECT_SETTLE_MS = 1000;
+
+    // Keep in sync with INTERRUPTION_NAMES.
+    private static final int INTERRUPTION_NONE = 0;
+    private static final int INTERRUPTION_DUCKED = 1;
+    private static final int INTERRUPTION_PAUSED = 2;
+    private static final int INTERRUPTION_RELEASED = 3;
+
+    private static final String[] INTERRUPTION_NAMES = {
+            "none",
+            "ducked",
+            "paused",
+            "released",
+    };
+
+    // Static, since the audio devices this describes outlive any one bound instance of the service.
+    private static final Object sInterruptionLock = new Object();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    private static int sInterruption = INTERRUPTION_NONE;
+    private static long sInterruptedAt;
+    private static Runnable sPendingReconnect;
+    private static VoiceListener sVoiceListener;
+
+    /**
+     * Told when the audio input device is released on a permanent focus loss, and when it is set
+     * up again. Called on the main thread.
+     */
+    public interface VoiceListener {
+        void onVoiceReleasedChanged(boolean released);
+    }
 
     private AudioManager mAudioManager;
     private AudioFocusRequest mFocusRequest;
@@ -40,27 +86,31 @@ public class PartySampleFocusService extends Service {
                 case AudioManager.AUDIOFOCUS_GAIN:
                     Log.d("AudioFocusService", "AUDIOFOCUS_GAIN");
                     mHasFocus = true;
-                    connectAudioInput();
+                    resumeAudio();
                     break;
                 case AudioManager.AUDIOFOCUS_LOSS:
                     Log.d("AudioFocusService", "AUDIOFOCUS_LOSS");
                     mHasFocus = false;
-                    disconnectAudioInput();
+                    interruptAudio(INTERRUPTION_RELEASED);
                     break;
                 case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
                     Log.d("AudioFocusService", "AUDIOFOCUS_LOSS_TRANSIENT");
                     mHasFocus = false;
-                    disconnectAudioInput();
+                    interruptAudio(INTERRUPTION_PAUSED);
                     break;
                 case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
                     Log.d("AudioFocusService", "AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK");
                     mHasFocus = false;
-                    disconnectAudioInput();
+                    interruptAudio(INTERRUPTION_DUCKED);
                     break;
             }
         }
     };
 
+    /**
+     * Requests focus and, once it is granted, resumes voice if a focus loss interrupted it. May be
+     * called from any thread.
+     */
     public boolean requestFocus() {
         // Request audio focus for playback
         int result;
@@ -81,9 +131,91 @@ public class PartySampleFocusService extends Service {
                     AudioManager.AUDIOFOCUS_GAIN);
         }
         mHasFocus = result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        if (mHasFocus) {
+            resumeAudio();
+        }
         return mHasFocus;
     }
 
+    // Gives up as much of the audio path as the loss calls for. An input device already released
+    // stays released until focus comes back.
+    private void interruptAudio(int interruption) {
+        synchronized (sInterruptionLock) {
+            if (sPendingReconnect != null) {
+                // Focus went again before the device was set up; it is still released.
+                sHandler.removeCallbacks(sPendingReconnect);
+                sPendingReconnect = null;
+            }
+            if (sInterruption == INTERRUPTION_NONE) {
+                sInterruptedAt = SystemClock.elapsedRealtime();
+            }
+            if (sInterruption == INTERRUPTION_RELEASED) {
+                interruption = INTERRUPTION_RELEASED;
+            }
+
+            setRenderDucking(interruption == INTERRUPTION_DUCKED ? DUCK_VOLUME : 0f);
+            setAudioInputPaused(interruption != INTERRUPTION_DUCKED);
+            boolean released = interruption == INTERRUPTION_RELEASED && sInterruption != INTERRUPTION_RELEASED;
+            if (released) {
+                disconnectAudioInput();
+            }
+            sInterruption = interruption;
+            if (released) {
+                notifyVoiceReleased(true);
+            }
+        }
+    }
+
+    // Undoes the last interruption: at once if the input device was kept, after the settle time
+    // if it was released.
+    private void resumeAudio() {
+        synchronized (sInterruptionLock) {
+            if (sInterruption == INTERRUPTION_NONE || sPendingReconnect != null) {
+                return;
+            }
+            final int interruption = sInterruption;
+            final long gainedAt = SystemClock.elapsedRealtime();
+            if (interruption != INTERRUPTION_RELEASED) {
+                restoreAudio(interruption, gainedAt);
+                return;
+            }
+
+            sPendingReconnect = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (sInterruptionLock) {
+                        if (sPendingReconnect != this) {
+                            return;
+                        }
+                        sPendingReconnect = null;
+                        connectAudioInput();
+                        restoreAudio(interruption, gainedAt);
+                        notifyVoiceReleased(false);
+                    }
+                }
+            };
+            sHandler.postDelayed(sPendingReconnect, RECONNECT_SETTLE_MS);
+        }
+    }
+
+    private void restoreAudio(final int interruption, final long gainedAt) {
+        setAudioInputPaused(false);
+        setRenderDucking(1f);
+        sInterruption = INTERRUPTION_NONE;
+
+        // Commands run in the order they were posted, so by the time this one runs the voice is
+        // back on natively; resumeMs includes any time spent waiting in the actor's queue.
+        final long interruptedAt = sInterruptedAt;
+        getActor().post("logResume", new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.elapsedRealtime();
+                Log.i(TAG, "resume interruption=" + INTERRUPTION_NAMES[interruption]
+                        + " interruptedMs=" + (now - interruptedAt) + " resumeMs=" + (now - gainedAt));
+            }
+        });
+    }
+
     public void abandonFocus() {
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             if (mFocusRequest != null) {
@@ -99,6 +231,35 @@ public class PartySampleFocusService extends Service {
         return mHasFocus;
     }
 
+    /**
+     * Whether a permanent focus loss released the audio input device and it has not been set up again.
+     */
+    public static boolean isVoiceReleased() {
+        synchronized (sInterruptionLock) {
+            return sInterruption == INTERRUPTION_RELEASED;
+        }
+    }
+
+    public static void setVoiceListener(VoiceListener listener) {
+        synchronized (sInterruptionLock) {
+            sVoiceListener = listener;
+        }
+    }
+
+    // Called with sInterruptionLock held; the listener runs on the main thread after it is released.
+    private static void notifyVoiceReleased(final boolean released) {
+        final VoiceListener listener = sVoiceListener;
+        if (listener == null) {
+            return;
+        }
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onVoiceReleasedChanged(released);
+            }
+        });
+    }
+
     IBinder mBinder = new LocalBinder();
 
     public class LocalBinder extends Binder {
@@ -114,6 +275,52 @@ public class PartySampleFocusService extends Service {
     }
 
 
-  public native void disconnectAudioInput();
-  public native void connectAudioInput();
+    // Party is only called from the NetworkManager actor thread, so these queue the native call
+    // there and return at once.
+    private void disconnectAudioInput() {
+        getActor().post("disconnectAudioInput", new Runnable() {
+            @Override
+            public void run() {
+                nativeDisconnectAudioInput();
+            }
+        });
+    }
+
+    private void connectAudioInput() {
+        getActor().post("connectAudioInput", new Runnable() {
+            @Override
+            public void run() {
+                nativeConnectAudioInput();
+            }
+        });
+    }
+
+    // Mutes or unmutes capture without touching the input device.
+    private void setAudioInputPaused(final boolean paused) {
+        getActor().post("setAudioInputPaused", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetAudioInputPaused(paused);
+            }
+        });
+    }
+
+    // Scales every remote voice; 1 is full volume.
+    private void setRenderDucking(final float volumeScale) {
+        getActor().post("setRenderDucking", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetRenderDucking(volumeScale);
+            }
+        });
+    }
+
+    private static NativeActor getActor() {
+        return NetworkManager.getInstance().getActor();
+    }
+
+    private native void nativeDisconnectAudioInput();
+    private native void nativeConnectAudioInput();
+    private native void nativeSetAudioInputPaused(boolean paused);
+    private native void nativeSetRenderDucking(float volumeScale);
 }
@@ -0,0 +1,282 @@
+package com.microsoft.playfab.partysample.demo;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.Toast;
+
+import com.microsoft.playfab.partysample.model.ChatMember;
+import com.microsoft.playfab.partysample.sdk.CallbackReplayer;
+import com.microsoft.playfab.partysample.sdk.MessageManager;
+import com.microsoft.playfab.partysample.sdk.NetworkManager;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Scripted benchmarks of the app layer that need no network. A fake transport thread calls
+ * NetworkManager's callbacks the way native code does, so everything from there through
+ * MessageManager to the adapters is measured, but nothing below. Frame intervals are recorded with
+ * Choreographer while a scenario runs. The result is logged as one JSON line under the
+ * PartyBenchmark tag and appended to benchmark_results.jsonl in the app's files directory.
+ *
+ * Start a scenario through MainActivity, e.g.
+ * adb shell am start -S -W -n com.microsoft.playfab.partysample/.demo.MainActivity -e benchmarkScenario messageBurst
+ * -S stops the app first, for a cold start; leave it out, with the app in the background, for a warm one.
+ */
+class ScenarioRunner implements Choreographer.FrameCallback {
+
+    // Launch to the first chat frame. Whether it is cold or warm depends on how the app was started.
+    static final String SCENARIO_START = "start";
+    static final String SCENARIO_CREATE_ROOM = "createRoom";
+    static final String SCENARIO_JOIN_ROOM = "joinRoom";
+    static final String SCENARIO_MESSAGE_BURST = "messageBurst";
+    static final String SCENARIO_TALKING_STORM = "talkingStorm";
+    // Plays ChatActivity.CALLBACK_RECORDING_FILE back with its recorded timing, or as fast as possible.
+    static final String SCENARIO_REPLAY = "replay";
+    static final String SCENARIO_REPLAY_FAST = "replayFast";
+
+    private static final String TAG = "PartyBenchmark";
+    private static final String RESULTS_FILE = "benchmark_results.jsonl";
+    private static final String NETWORK_ID = "Benchmark_Room";
+
+    // Members already in the room being joined, and senders in the message burst.
+    private static final int ROOM_MEMBERS = 8;
+    private static final int BURST_MESSAGES = 1000;
+    private static final int STORM_MEMBERS = 32;
+    private static final long STORM_DURATION_MS = 5000;
+    // Each tick flips a few members between talking and silent.
+    private static final long STORM_TICK_MS = 20;
+    private static final int STORM_FLIPS_PER_TICK = 4;
+    // Frames are still counted this long after the UI has taken the last event, for the layout it causes.
+    private static final long SETTLE_MS = 500;
+    // A frame longer than this missed a 60 Hz vsync.
+    private static final long JANK_THRESHOLD_NANOS = 17000000;
+
+    private final ChatActivity activity;
+    private final NetworkManager networkManager;
+    private final String scenario;
+    private final long launchTime;
+    private final Handler handler;
+
+    private long[] frameIntervals = new long[256];
+    private int frameCount;
+    private long lastFrameNanos = -1;
+    private boolean recording = true;
+    private long firstFrameTime = -1;
+    private long scriptStartTime;
+    private long drainedTime;
+    private int itemsBefore;
+
+    /**
+     * @param launchTime : elapsedRealtime when MainActivity was created
+     */
+    ScenarioRunner(ChatActivity activity, NetworkManager networkManager, Handler handler,
+                   String scenario, long launchTime) {
+        this.activity = activity;
+        this.networkManager = networkManager;
+        this.handler = handler;
+        this.scenario = scenario;
+        this.launchTime = launchTime;
+    }
+
+    // Call on the main thread once the chat screen is created; the script starts after the first frame.
+    void start() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (firstFrameTime < 0) {
+            firstFrameTime = SystemClock.elapsedRealtime();
+            // After this frame is drawn.
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    runScript();
+                }
+            });
+        } else if (lastFrameNanos >= 0) {
+            if (frameCount == frameIntervals.length) {
+                frameIntervals = Arrays.copyOf(frameIntervals, frameCount * 2);
+            }
+            frameIntervals[frameCount++] = frameTimeNanos - lastFrameNanos;
+        }
+        lastFrameNanos = frameTimeNanos;
+        if (recording) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private void runScript() {
+        if (SCENARIO_START.equals(scenario)) {
+            recording = false;
+            report(firstFrameTime - launchTime, "");
+            return;
+        }
+
+        itemsBefore = activity.getMessageCount();
+        frameCount = 0;
+        scriptStartTime = SystemClock.elapsedRealtime();
+        new Thread("benchmark-transport") {
+            public void run() {
+                if (!playTransport()) {
+                    return;
+                }
+                // Runs once the UI has handled everything posted before it, and the lists show
+                // the chat state it changed.
+                MessageManager.getInstance().postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        activity.getChatState().whenApplied(new Runnable() {
+                            @Override
+                            public void run() {
+                                drainedTime = SystemClock.elapsedRealtime();
+                                handler.postDelayed(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        recording = false;
+                                        report(drainedTime - scriptStartTime,
+                                                ",\"shownMessages\":" + (activity.getMessageCount() - itemsBefore));
+                                    }
+                                }, SETTLE_MS);
+                            }
+                        });
+                    }
+                }, 0);
+            }
+        }.start();
+    }
+
+    // Plays the scenario's events from this thread, as native callbacks would arrive; false if unknown.
+    private boolean playTransport() {
+        switch (scenario) {
+            case SCENARIO_CREATE_ROOM:
+                networkManager.onNetworkCreated(NETWORK_ID);
+                return true;
+            case SCENARIO_JOIN_ROOM:
+                networkManager.onNetworkCreated(NETWORK_ID);
+                joinMembers(ROOM_MEMBERS);
+                return true;
+            case SCENARIO_MESSAGE_BURST:
+                networkManager.onNetworkCreated(NETWORK_ID);
+                joinMembers(ROOM_MEMBERS);
+                for (int i = 0; i < BURST_MESSAGES; i++) {
+                    String sender = memberName(i % ROOM_MEMBERS);
+                    String text = "Benchmark message " + i + " from " + sender;
+                    // Every fourth line is a transcript, which skips flood control.
+                    if (i % 4 == 3) {
+                        networkManager.onTranscriptMessageReceived(NETWORK_ID, sender, text);
+                    } else {
+                        networkManager.onMessageReceived(NETWORK_ID, sender, text);
+                    }
+                }
+                return true;
+            case SCENARIO_TALKING_STORM:
+                networkManager.onNetworkCreated(NETWORK_ID);
+                joinMembers(STORM_MEMBERS);
+                playTalkingStorm();
+                return true;
+            case SCENARIO_REPLAY:
+            case SCENARIO_REPLAY_FAST:
+                return replay(SCENARIO_REPLAY.equals(scenario));
+            default:
+                Log.w(TAG, "Unknown benchmark scenario " + scenario);
+                return false;
+        }
+    }
+
+    private boolean replay(boolean realTime) {
+        try {
+            CallbackReplayer replayer = new CallbackReplayer(activity.openFileInput(ChatActivity.CALLBACK_RECORDING_FILE));
+            Log.i(TAG, "Replayed " + replayer.replay(networkManager, realTime) + " callbacks");
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not replay " + ChatActivity.CALLBACK_RECORDING_FILE + ": " + e);
+            return false;
+        }
+    }
+
+    private void joinMembers(int count) {
+        for (int i = 0; i < count; i++) {
+            networkManager.onPlayerJoined(NETWORK_ID, memberName(i), memberName(i));
+        }
+    }
+
+    private void playTalkingStorm() {
+        // Seeded so every run flips the same members in the same order.
+        Random random = new Random(STORM_MEMBERS);
+        boolean[] talking = new boolean[STORM_MEMBERS];
+        long end = SystemClock.elapsedRealtime() + STORM_DURATION_MS;
+        while (SystemClock.elapsedRealtime() < end) {
+            for (int i = 0; i < STORM_FLIPS_PER_TICK; i++) {
+                int member = random.nextInt(STORM_MEMBERS);
+                talking[member] = !talking[member];
+                networkManager.updatePlayerState(memberName(member),
+                        talking[member] ? ChatMember.STATE_TALKING : ChatMember.STATE_SILENT);
+            }
+            SystemClock.sleep(STORM_TICK_MS);
+        }
+    }
+
+    private static String memberName(int index) {
+        return "benchmark_user_" + index;
+    }
+
+    private void report(long durationMs, String extra) {
+        long[] frames = Arrays.copyOf(frameIntervals, frameCount);
+        Arrays.sort(frames);
+        int janky = 0;
+        for (long frame : frames) {
+            if (frame > JANK_THRESHOLD_NANOS) {
+                janky++;
+            }
+        }
+
+        // Process start time is only available from API 24; -1 before that.
+        long sinceProcessStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? firstFrameTime - Process.getStartElapsedRealtime() : -1;
+
+        String result = String.format(Locale.US,
+                "{\"scenario\":\"%s\",\"sdk\":%d,\"durationMs\":%d,\"firstFrameSinceProcessStartMs\":%d,"
+                        + "\"frames\":%d,\"jankyFrames\":%d,\"frameMs\":{\"p50\":%.1f,\"p90\":%.1f,\"p95\":%.1f,"
+                        + "\"p99\":%.1f,\"max\":%.1f}%s}",
+                scenario, Build.VERSION.SDK_INT, durationMs, sinceProcessStart, frames.length, janky,
+                percentileMs(frames, 50), percentileMs(frames, 90), percentileMs(frames, 95),
+                percentileMs(frames, 99), percentileMs(frames, 100), extra);
+
+        Log.i(TAG, result);
+        FileOutputStream out = null;
+        try {
+            out = activity.openFileOutput(RESULTS_FILE, Context.MODE_APPEND);
+            out.write((result + "\n").getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save benchmark result: " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing more to do.
+                }
+            }
+        }
+        Toast.makeText(activity, "Benchmark " + scenario + " done", Toast.LENGTH_SHORT).show();
+    }
+
+    // Nearest-rank percentile of sorted frame intervals, in milliseconds.
+    private static double percentileMs(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
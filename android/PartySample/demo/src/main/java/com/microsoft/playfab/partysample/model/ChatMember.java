@@ -12,6 +12,24 @@ public class ChatMember {
     int voiceLevel;
     boolean isCurrent;
     boolean isMute;
+    int quality;
+    int joinOrder;
+
+    /**
+     * Members in a ChatStateStore snapshot are never changed; the store changes a copy instead.
+     */
+    public ChatMember copy() {
+        ChatMember member = new ChatMember();
+        member.id = id;
+        member.name = name;
+        member.isTalking = isTalking;
+        member.voiceLevel = voiceLevel;
+        member.isCurrent = isCurrent;
+        member.isMute = isMute;
+        member.quality = quality;
+        member.joinOrder = joinOrder;
+        return member;
+    }
 
     public String getId() {
         return id;
@@ -53,6 +71,28 @@ public class ChatMember {
         isMute = mute;
     }
 
+    /**
+     * @return one of the NetworkQualityMonitor.QUALITY_* tiers
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * @return the order in which the member was added to the list; the local member is 0
+     */
+    public int getJoinOrder() {
+        return joinOrder;
+    }
+
+    public void setJoinOrder(int joinOrder) {
+        this.joinOrder = joinOrder;
+    }
+
     public boolean isTalking() {
         return isTalking;
     }
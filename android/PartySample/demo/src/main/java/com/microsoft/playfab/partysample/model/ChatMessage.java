@@ -1,9 +1,28 @@
 package com.microsoft.playfab.partysample.model;
 
+import android.support.v4.text.PrecomputedTextCompat;
+
+import java.util.concurrent.Future;
+
 public class ChatMessage {
 
+    String senderId;
     String name;
     String message;
+    // Layout of message, measured off the UI thread; null until the list knows its text metrics.
+    // Only the UI thread sets it, so it is the one field that may change after the message is stored.
+    Future<PrecomputedTextCompat> messageLayout;
+
+    /**
+     * @return who the search index files the message under, for from: filters
+     */
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(String senderId) {
+        this.senderId = senderId;
+    }
 
     public String getName() {
         return name;
@@ -20,4 +39,12 @@ public class ChatMessage {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public Future<PrecomputedTextCompat> getMessageLayout() {
+        return messageLayout;
+    }
+
+    public void setMessageLayout(Future<PrecomputedTextCompat> messageLayout) {
+        this.messageLayout = messageLayout;
+    }
 }
@@ -0,0 +1,248 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Smooths raw talking indicator transitions into a stable speaking state and keeps the most
+ * recent speakers. A member counts as speaking once the indicator has stayed on for the attack
+ * time, and stops once it has stayed off for the release time, so sampling noise in between
+ * never reaches the UI. The recent speakers are held in a small min-heap keyed by the time each
+ * was last heard, indexed by member id, so updates and evictions cost O(log K).
+ *
+ * Not thread safe; call it from the UI thread.
+ */
+public class ActiveSpeakerTracker {
+
+    public interface Listener {
+        void onSpeakingChanged(String id, boolean speaking);
+
+        // Most recent speaker first.
+        void onRecentSpeakersChanged(List<String> ids);
+    }
+
+    private static class Speaker {
+        final String id;
+        boolean rawTalking;
+        boolean speaking;
+        long deadline = -1;
+
+        Speaker(String id) {
+            this.id = id;
+        }
+    }
+
+    private final long attackMs;
+    private final long releaseMs;
+    private final Listener listener;
+    private final Map<String, Speaker> speakers = new HashMap<>();
+    private final List<Speaker> pending = new ArrayList<>();
+    private final RecentSpeakerHeap recent;
+    private List<String> lastRecent = new ArrayList<>();
+
+    public ActiveSpeakerTracker(int maxRecentSpeakers, long attackMs, long releaseMs, Listener listener) {
+        this.attackMs = attackMs;
+        this.releaseMs = releaseMs;
+        this.listener = listener;
+        this.recent = new RecentSpeakerHeap(maxRecentSpeakers);
+    }
+
+    public void onIndicator(String id, boolean talking, long now) {
+        Speaker speaker = speakers.get(id);
+        if (speaker == null) {
+            speaker = new Speaker(id);
+            speakers.put(id, speaker);
+        }
+        if (speaker.rawTalking == talking) {
+            return;
+        }
+        speaker.rawTalking = talking;
+
+        if (talking == speaker.speaking) {
+            // Back to the smoothed state before the hold time ran out; nothing to report.
+            speaker.deadline = -1;
+            pending.remove(speaker);
+        } else {
+            speaker.deadline = now + (talking ? attackMs : releaseMs);
+            if (!pending.contains(speaker)) {
+                pending.add(speaker);
+            }
+        }
+    }
+
+    /**
+     * Applies every transition whose hold time has elapsed.
+     * @return the time of the next pending transition, or -1 if none is pending
+     */
+    public long evaluate(long now) {
+        long next = -1;
+        boolean recentChanged = false;
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            Speaker speaker = pending.get(i);
+            if (speaker.deadline <= now) {
+                pending.remove(i);
+                speaker.deadline = -1;
+                speaker.speaking = speaker.rawTalking;
+                listener.onSpeakingChanged(speaker.id, speaker.speaking);
+                recent.touch(speaker.id, now);
+                recentChanged = true;
+            } else if (next < 0 || speaker.deadline < next) {
+                next = speaker.deadline;
+            }
+        }
+        if (recentChanged) {
+            publishRecentSpeakers();
+        }
+        return next;
+    }
+
+    public void remove(String id) {
+        Speaker speaker = speakers.remove(id);
+        if (speaker != null) {
+            pending.remove(speaker);
+        }
+        if (recent.remove(id)) {
+            publishRecentSpeakers();
+        }
+    }
+
+    public void clear() {
+        speakers.clear();
+        pending.clear();
+        recent.clear();
+        lastRecent = new ArrayList<>();
+    }
+
+    private void publishRecentSpeakers() {
+        List<String> ids = recent.sortedByRecency();
+        if (!ids.equals(lastRecent)) {
+            lastRecent = ids;
+            listener.onRecentSpeakersChanged(ids);
+        }
+    }
+
+    /**
+     * Min-heap of at most K member ids keyed by when they were last heard, with an index from id
+     * to heap slot so a member's key can be updated in place.
+     */
+    private static class RecentSpeakerHeap {
+        private final String[] ids;
+        private final long[] keys;
+        private final Map<String, Integer> index = new HashMap<>();
+        private int size;
+
+        RecentSpeakerHeap(int capacity) {
+            ids = new String[capacity];
+            keys = new long[capacity];
+        }
+
+        void touch(String id, long time) {
+            Integer slot = index.get(id);
+            if (slot != null) {
+                // Keys only grow, so the entry can only need to move down.
+                keys[slot] = time;
+                siftDown(slot);
+            } else if (size < ids.length) {
+                ids[size] = id;
+                keys[size] = time;
+                index.put(id, size);
+                siftUp(size++);
+            } else if (ids.length > 0 && time > keys[0]) {
+                // Evict the least recently heard speaker.
+                index.remove(ids[0]);
+                ids[0] = id;
+                keys[0] = time;
+                index.put(id, 0);
+                siftDown(0);
+            }
+        }
+
+        boolean remove(String id) {
+            Integer slot = index.remove(id);
+            if (slot == null) {
+                return false;
+            }
+            int last = --size;
+            if (slot != last) {
+                ids[slot] = ids[last];
+                keys[slot] = keys[last];
+                index.put(ids[slot], slot);
+                siftDown(slot);
+                siftUp(slot);
+            }
+            ids[last] = null;
+            return true;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                ids[i] = null;
+            }
+            index.clear();
+            size = 0;
+        }
+
+        List<String> sortedByRecency() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(keys[b], keys[a]);
+                }
+            });
+            List<String> result = new ArrayList<>(size);
+            for (Integer slot : order) {
+                result.add(ids[slot]);
+            }
+            return result;
+        }
+
+        private void siftUp(int slot) {
+            while (slot > 0) {
+                int parent = (slot - 1) / 2;
+                if (keys[parent] <= keys[slot]) {
+                    break;
+                }
+                swap(slot, parent);
+                slot = parent;
+            }
+        }
+
+        private void siftDown(int slot) {
+            while (true) {
+                int smallest = slot;
+                int left = 2 * slot + 1;
+                int right = left + 1;
+                if (left < size && keys[left] < keys[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && keys[right] < keys[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == slot) {
+                    return;
+                }
+                swap(slot, smallest);
+                slot = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            String id = ids[a];
+            long key = keys[a];
+            ids[a] = ids[b];
+            keys[a] = keys[b];
+            ids[b] = id;
+            keys[b] = key;
+            index.put(ids[a], a);
+            index.put(ids[b], b);
+        }
+    }
+}
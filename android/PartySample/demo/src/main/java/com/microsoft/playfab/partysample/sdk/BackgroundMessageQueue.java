@@ -0,0 +1,116 @@
+package com.microsoft.playfab.partysample.sdk;
+
+/**
+ * Holds chat lines that arrive while the chat screen is in the background so they can be
+ * replayed in one batch on resume. Lines are kept in parallel arrays rather than per-line
+ * objects, consecutive transcript phrases from the same speaker are folded into one line,
+ * and once the capacity is reached the oldest lines are dropped and counted.
+ */
+class BackgroundMessageQueue {
+
+    static final int KIND_TEXT = 0;
+    static final int KIND_TRANSCRIPT = 1;
+    static final int KIND_SYSTEM = 2;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxEntries;
+
+    private String[] senders = new String[INITIAL_CAPACITY];
+    private String[] texts = new String[INITIAL_CAPACITY];
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private int dropped;
+
+    BackgroundMessageQueue(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    void add(String sender, String text, int kind) {
+        if (size > 0 && kind == KIND_TRANSCRIPT) {
+            int last = (head + size - 1) % senders.length;
+            if (kinds[last] == KIND_TRANSCRIPT && sender != null && sender.equals(senders[last])) {
+                texts[last] = texts[last] + " " + text;
+                return;
+            }
+        }
+
+        if (size == senders.length) {
+            if (size < maxEntries) {
+                grow();
+            } else {
+                // Full: overwrite the oldest line.
+                senders[head] = null;
+                texts[head] = null;
+                head = (head + 1) % senders.length;
+                size--;
+                dropped++;
+            }
+        }
+
+        int tail = (head + size) % senders.length;
+        senders[tail] = sender;
+        texts[tail] = text;
+        kinds[tail] = kind;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getDroppedCount() {
+        return dropped;
+    }
+
+    String[] copySenders() {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = senders[(head + i) % senders.length];
+        }
+        return result;
+    }
+
+    String[] copyTexts() {
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = texts[(head + i) % texts.length];
+        }
+        return result;
+    }
+
+    int[] copyKinds() {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = kinds[(head + i) % kinds.length];
+        }
+        return result;
+    }
+
+    void clear() {
+        senders = new String[INITIAL_CAPACITY];
+        texts = new String[INITIAL_CAPACITY];
+        kinds = new int[INITIAL_CAPACITY];
+        head = 0;
+        size = 0;
+        dropped = 0;
+    }
+
+    private void grow() {
+        int capacity = Math.min(senders.length * 2, maxEntries);
+        String[] newSenders = new String[capacity];
+        String[] newTexts = new String[capacity];
+        int[] newKinds = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % senders.length;
+            newSenders[i] = senders[index];
+            newTexts[i] = texts[index];
+            newKinds[i] = kinds[index];
+        }
+        senders = newSenders;
+        texts = newTexts;
+        kinds = newKinds;
+        head = 0;
+    }
+}
@@ -0,0 +1,262 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes every native callback NetworkManager receives to a compact binary file, so a session
+ * from the field can be played back with CallbackReplayer.
+ *
+ * The file starts with MAGIC and VERSION. Each record is an event byte, the microseconds since
+ * the previous record as a varint, then the call's arguments: strings as a varint byte count and
+ * their UTF-8 bytes, so any length fits (null is written as an empty string), booleans as one
+ * byte, and longs as zigzag varints. Arrays are a varint count followed by their elements.
+ *
+ * Apart from logging a failed write, it uses only java.io and System.nanoTime.
+ */
+public class CallbackRecorder implements NativeCallbacks {
+
+    static final int MAGIC = 0x50435243;
+    static final int VERSION = 4;
+
+    // Keep in sync with CallbackReplayer.
+    static final int EVENT_SIGN_IN_COMPLETE = 0;
+    static final int EVENT_NETWORK_CREATED = 1;
+    static final int EVENT_NETWORK_LEFT = 2;
+    static final int EVENT_LOCAL_USER_ADDED = 3;
+    static final int EVENT_MESSAGE_RECEIVED = 4;
+    static final int EVENT_TRANSCRIPT_RECEIVED = 5;
+    static final int EVENT_PLAYER_JOINED = 6;
+    static final int EVENT_PLAYER_LEFT = 7;
+    static final int EVENT_RESET_CHAT = 8;
+    static final int EVENT_RESET_MESSAGE = 9;
+    static final int EVENT_ERROR_MESSAGE = 10;
+    static final int EVENT_PLAYER_STATE = 11;
+    static final int EVENT_NETWORK_STATISTICS = 12;
+    static final int EVENT_PEER_CLOCK = 13;
+
+    private static final String TAG = "CallbackRecorder";
+
+    // Checked before taking the lock, so a callback costs one volatile read while not recording.
+    private volatile boolean recording;
+    private DataOutputStream out;
+    private long lastNanos;
+    private int recordCount;
+
+    /**
+     * Starts a new recording, replacing the file, and stops any recording in progress.
+     */
+    public synchronized void start(File file) throws IOException {
+        stop();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        lastNanos = System.nanoTime();
+        recordCount = 0;
+        recording = true;
+    }
+
+    /**
+     * Flushes and closes the recording. Returns how many callbacks it holds.
+     */
+    public synchronized int stop() {
+        recording = false;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // The records already written are still readable.
+            }
+            out = null;
+        }
+        return recordCount;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    // Starts a record; false if not recording.
+    private boolean begin(int event) throws IOException {
+        if (out == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        out.writeByte(event);
+        writeVarLong(out, (now - lastNanos) / 1000);
+        lastNanos = now;
+        recordCount++;
+        return true;
+    }
+
+    // Stops recording rather than throwing into the callback that is being recorded.
+    private void fail(IOException e) {
+        Log.w(TAG, "Recording stopped", e);
+        stop();
+    }
+
+    @Override
+    public void onSignInComplete(boolean success) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (begin(EVENT_SIGN_IN_COMPLETE)) {
+                    out.writeBoolean(success);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void onNetworkCreated(String network) {
+        recordStrings(EVENT_NETWORK_CREATED, network);
+    }
+
+    @Override
+    public void onNetworkLeft(String networkId) {
+        recordStrings(EVENT_NETWORK_LEFT, networkId);
+    }
+
+    @Override
+    public void onLocalUserAdded(String name) {
+        recordStrings(EVENT_LOCAL_USER_ADDED, name);
+    }
+
+    @Override
+    public void onMessageReceived(String networkId, String sender, String message) {
+        recordStrings(EVENT_MESSAGE_RECEIVED, networkId, sender, message);
+    }
+
+    @Override
+    public void onTranscriptMessageReceived(String networkId, String sender, String message) {
+        recordStrings(EVENT_TRANSCRIPT_RECEIVED, networkId, sender, message);
+    }
+
+    @Override
+    public void onPlayerJoined(String networkId, String playerId, String name) {
+        recordStrings(EVENT_PLAYER_JOINED, networkId, playerId, name);
+    }
+
+    @Override
+    public void onPlayerLeft(String networkId, String playerId) {
+        recordStrings(EVENT_PLAYER_LEFT, networkId, playerId);
+    }
+
+    @Override
+    public void resetChat(String error) {
+        recordStrings(EVENT_RESET_CHAT, error);
+    }
+
+    @Override
+    public void resetMessage() {
+        recordStrings(EVENT_RESET_MESSAGE);
+    }
+
+    @Override
+    public void addErrorMessage(String message) {
+        recordStrings(EVENT_ERROR_MESSAGE, message);
+    }
+
+    @Override
+    public void updatePlayerState(String playerId, String state) {
+        recordStrings(EVENT_PLAYER_STATE, playerId, state);
+    }
+
+    @Override
+    public void onNetworkStatistics(long relayLatencyMs, long sentPackets, long retriedPackets, long droppedPackets,
+                                    long queuedSends, long[] messageStats, String[] peerIds, long[] peerLatencyMs,
+                                    long[] peerQueuedSends, long[] peerLossPermille) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (!begin(EVENT_NETWORK_STATISTICS)) {
+                    return;
+                }
+                writeVarLong(out, relayLatencyMs);
+                writeVarLong(out, sentPackets);
+                writeVarLong(out, retriedPackets);
+                writeVarLong(out, droppedPackets);
+                writeVarLong(out, queuedSends);
+                writeVarLong(out, messageStats.length);
+                for (long value : messageStats) {
+                    writeVarLong(out, value);
+                }
+                writeVarLong(out, peerIds.length);
+                for (int i = 0; i < peerIds.length; i++) {
+                    writeString(out, peerIds[i]);
+                    writeVarLong(out, peerLatencyMs[i]);
+                    writeVarLong(out, peerQueuedSends[i]);
+                    writeVarLong(out, peerLossPermille[i]);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void onPeerClock(String networkId, String peer, long roundTripMicros, long offsetMicros) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (!begin(EVENT_PEER_CLOCK)) {
+                    return;
+                }
+                writeString(out, networkId);
+                writeString(out, peer);
+                writeVarLong(out, roundTripMicros);
+                writeVarLong(out, offsetMicros);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void recordStrings(int event, String... values) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (!begin(event)) {
+                    return;
+                }
+                for (String value : values) {
+                    writeString(out, value);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    // Zigzag, so small negative values such as clock offsets stay short too.
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long bits = (value << 1) ^ (value >> 63);
+        while ((bits & ~0x7FL) != 0) {
+            out.writeByte((int) ((bits & 0x7F) | 0x80));
+            bits >>>= 7;
+        }
+        out.writeByte((int) bits);
+    }
+}
@@ -0,0 +1,174 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plays a CallbackRecorder file back into a NativeCallbacks, on the calling thread, either with
+ * the recorded gaps between callbacks or as fast as the target takes them. It needs only java.io,
+ * so a capture can be decoded and replayed into a stand-in on any JVM.
+ */
+public class CallbackReplayer {
+
+    // A corrupt string length fails the replay rather than an enormous allocation.
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    private final DataInputStream in;
+
+    public CallbackReplayer(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * @param realTime : true to wait out each recorded gap, false to replay back to back
+     * @return the number of callbacks replayed
+     */
+    public int replay(NativeCallbacks target, boolean realTime) throws IOException {
+        if (in.readInt() != CallbackRecorder.MAGIC) {
+            throw new IOException("Not a callback recording");
+        }
+        int version = in.readShort();
+        if (version != CallbackRecorder.VERSION) {
+            throw new IOException("Unsupported callback recording version " + version);
+        }
+
+        long start = System.nanoTime();
+        long elapsedMicros = 0;
+        int count = 0;
+        while (true) {
+            int event = in.read();
+            if (event < 0) {
+                break;
+            }
+            elapsedMicros += readVarLong(in);
+            if (realTime) {
+                waitUntil(start + elapsedMicros * 1000);
+            }
+            dispatch(event, target);
+            count++;
+        }
+        in.close();
+        return count;
+    }
+
+    private void dispatch(int event, NativeCallbacks target) throws IOException {
+        switch (event) {
+            case CallbackRecorder.EVENT_SIGN_IN_COMPLETE:
+                target.onSignInComplete(in.readBoolean());
+                break;
+            case CallbackRecorder.EVENT_NETWORK_CREATED:
+                target.onNetworkCreated(readString(in));
+                break;
+            case CallbackRecorder.EVENT_NETWORK_LEFT:
+                target.onNetworkLeft(readString(in));
+                break;
+            case CallbackRecorder.EVENT_LOCAL_USER_ADDED:
+                target.onLocalUserAdded(readString(in));
+                break;
+            case CallbackRecorder.EVENT_MESSAGE_RECEIVED:
+                target.onMessageReceived(readString(in), readString(in), readString(in));
+                break;
+            case CallbackRecorder.EVENT_TRANSCRIPT_RECEIVED:
+                target.onTranscriptMessageReceived(readString(in), readString(in), readString(in));
+                break;
+            case CallbackRecorder.EVENT_PLAYER_JOINED:
+                target.onPlayerJoined(readString(in), readString(in), readString(in));
+                break;
+            case CallbackRecorder.EVENT_PLAYER_LEFT:
+                target.onPlayerLeft(readString(in), readString(in));
+                break;
+            case CallbackRecorder.EVENT_RESET_CHAT:
+                target.resetChat(readString(in));
+                break;
+            case CallbackRecorder.EVENT_RESET_MESSAGE:
+                target.resetMessage();
+                break;
+            case CallbackRecorder.EVENT_ERROR_MESSAGE:
+                target.addErrorMessage(readString(in));
+                break;
+            case CallbackRecorder.EVENT_PLAYER_STATE:
+                target.updatePlayerState(readString(in), readString(in));
+                break;
+            case CallbackRecorder.EVENT_NETWORK_STATISTICS: {
+                long relayLatencyMs = readVarLong(in);
+                long sentPackets = readVarLong(in);
+                long retriedPackets = readVarLong(in);
+                long droppedPackets = readVarLong(in);
+                long queuedSends = readVarLong(in);
+                int messageStatCount = (int) readVarLong(in);
+                if (messageStatCount < 0) {
+                    throw new IOException("Bad message stat count " + messageStatCount);
+                }
+                // Receivers index up to MESSAGE_STAT_COUNT, whatever count was recorded.
+                long[] messageStats = new long[Math.max(messageStatCount, NativeCallbacks.MESSAGE_STAT_COUNT)];
+                for (int i = 0; i < messageStatCount; i++) {
+                    messageStats[i] = readVarLong(in);
+                }
+                int peerCount = (int) readVarLong(in);
+                if (peerCount < 0) {
+                    throw new IOException("Bad peer count " + peerCount);
+                }
+                String[] peerIds = new String[peerCount];
+                long[] peerLatencyMs = new long[peerCount];
+                long[] peerQueuedSends = new long[peerCount];
+                long[] peerLossPermille = new long[peerCount];
+                for (int i = 0; i < peerCount; i++) {
+                    peerIds[i] = readString(in);
+                    peerLatencyMs[i] = readVarLong(in);
+                    peerQueuedSends[i] = readVarLong(in);
+                    peerLossPermille[i] = readVarLong(in);
+                }
+                target.onNetworkStatistics(relayLatencyMs, sentPackets, retriedPackets, droppedPackets,
+                        queuedSends, messageStats, peerIds, peerLatencyMs, peerQueuedSends, peerLossPermille);
+                break;
+            }
+            case CallbackRecorder.EVENT_PEER_CLOCK:
+                target.onPeerClock(readString(in), readString(in), readVarLong(in), readVarLong(in));
+                break;
+            default:
+                throw new IOException("Unknown callback event " + event);
+        }
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        while (remaining > 0) {
+            try {
+                Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadlineNanos - System.nanoTime();
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long bits = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            bits |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (bits >>> 1) ^ -(bits & 1);
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+}
@@ -0,0 +1,179 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over chat and transcript lines, updated one message at a time as they are shown.
+ * Messages are numbered in the order they are added, so every posting list is an ascending int
+ * array that only ever grows at the end. Words are lower-cased runs of letters and digits, kept
+ * in sorted order so a prefix is one range of the dictionary.
+ *
+ * A query is a list of words, each matched as a prefix, and optionally from:sender to keep only
+ * one sender's lines. Every part has to match. Results come newest first, one page at a time;
+ * each page after the first continues below the last message of the one before, so messages
+ * indexed in between do not shift the pages.
+ */
+public class ChatSearchIndex {
+
+    // Shorter query words only match whole words, so one letter does not expand to most of the dictionary.
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final String SENDER_FILTER = "from:";
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+    private final Map<String, Postings> senders = new HashMap<>();
+    private int messageCount;
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // A word repeated in one message is posted once.
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(ids, 0, grown, 0, size);
+                ids = grown;
+            }
+            ids[size++] = id;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(ids[i]);
+            }
+        }
+    }
+
+    public static final class Page {
+        // Message numbers, newest first.
+        public final int[] messageIds;
+        // Matches older than the cursor the page was asked for, including the ones on it.
+        public final int total;
+
+        Page(int[] messageIds, int total) {
+            this.messageIds = messageIds;
+            this.total = total;
+        }
+    }
+
+    /**
+     * Indexes the next message and returns its number, which is its position in the order added.
+     */
+    public synchronized int add(String sender, String text) {
+        int id = messageCount++;
+        postingsFor(senders, sender.toLowerCase()).add(id);
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                postingsFor(words, text.substring(start, i).toLowerCase()).add(id);
+                start = -1;
+            }
+        }
+        return id;
+    }
+
+    public synchronized void clear() {
+        words.clear();
+        senders.clear();
+        messageCount = 0;
+    }
+
+    // Cursor for the first page of a search: everything indexed so far.
+    public synchronized int end() {
+        return messageCount;
+    }
+
+    /**
+     * @param before : only messages numbered below this match; end() for the first page, then
+     *                 the last message number of the previous page
+     * @param limit : most matches to return
+     */
+    public synchronized Page search(String query, int before, int limit) {
+        BitSet matches = null;
+        for (String part : query.trim().split("\\s+")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            BitSet bits = new BitSet(messageCount);
+            if (part.regionMatches(true, 0, SENDER_FILTER, 0, SENDER_FILTER.length())) {
+                Postings postings = senders.get(part.substring(SENDER_FILTER.length()).toLowerCase());
+                if (postings != null) {
+                    postings.addTo(bits);
+                }
+            } else {
+                // Punctuation splits a query word the same way it splits the text.
+                boolean matched = false;
+                for (String word : part.toLowerCase().split("[^\\p{L}\\p{Nd}]+")) {
+                    if (word.isEmpty()) {
+                        continue;
+                    }
+                    BitSet wordBits = new BitSet(messageCount);
+                    addWordMatches(word, wordBits);
+                    if (matched) {
+                        bits.and(wordBits);
+                    } else {
+                        bits = wordBits;
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    continue;
+                }
+            }
+
+            if (matches == null) {
+                matches = bits;
+            } else {
+                matches.and(bits);
+            }
+        }
+
+        if (matches == null) {
+            return new Page(new int[0], 0);
+        }
+
+        before = Math.min(before, messageCount);
+        if (before < messageCount) {
+            matches.clear(before, messageCount);
+        }
+        int total = matches.cardinality();
+        int[] ids = new int[Math.min(limit, total)];
+        int found = 0;
+        for (int id = matches.previousSetBit(before - 1); id >= 0 && found < ids.length; id = matches.previousSetBit(id - 1)) {
+            ids[found++] = id;
+        }
+        return new Page(ids, total);
+    }
+
+    private void addWordMatches(String word, BitSet bits) {
+        if (word.length() < MIN_PREFIX_LENGTH) {
+            Postings postings = words.get(word);
+            if (postings != null) {
+                postings.addTo(bits);
+            }
+            return;
+        }
+        for (Postings postings : words.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+            postings.addTo(bits);
+        }
+    }
+
+    private static <K> Postings postingsFor(Map<K, Postings> map, K key) {
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        return postings;
+    }
+}
@@ -0,0 +1,353 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.microsoft.playfab.partysample.model.ChatMember;
+import com.microsoft.playfab.partysample.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The members and messages shown on the chat screen. Every change runs on the store's own thread,
+ * the only one that writes chat state, and ends by publishing a new Snapshot through a volatile
+ * field. A snapshot never changes once published, so the UI thread reads the latest one without
+ * a lock and compares it with the one it showed last to update the lists.
+ *
+ * Members are copied on write, since there are only a few of them. Messages are append only: a
+ * snapshot shares the writer's array but only sees its first messageCount entries, which are
+ * never written again. Clearing the messages starts a new array and a new generation.
+ *
+ * Changes made in a burst are coalesced, so the listener runs once on the UI thread for all of
+ * them with whatever snapshot is the latest by then.
+ */
+public class ChatStateStore {
+
+    private static final int INITIAL_MESSAGE_CAPACITY = 64;
+
+    public interface Listener {
+        /**
+         * Called on the UI thread after one or more snapshots have been published.
+         */
+        void onChatStateChanged(Snapshot snapshot);
+    }
+
+    public static final class Snapshot {
+        // Unmodifiable, with the local member first.
+        public final List<ChatMember> members;
+        // Changes each time the messages are cleared; positions from another generation are stale.
+        public final int messageGeneration;
+        public final int messageCount;
+        private final ChatMessage[] messages;
+
+        Snapshot(List<ChatMember> members, ChatMessage[] messages, int messageCount, int messageGeneration) {
+            this.members = members;
+            this.messages = messages;
+            this.messageCount = messageCount;
+            this.messageGeneration = messageGeneration;
+        }
+
+        public ChatMessage getMessage(int position) {
+            if (position < 0 || position >= messageCount) {
+                throw new IndexOutOfBoundsException("Message " + position + " of " + messageCount);
+            }
+            return messages[position];
+        }
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Listener listener;
+    private final AtomicBoolean changePosted = new AtomicBoolean(false);
+    private volatile Snapshot snapshot;
+
+    // Only touched on the writer thread.
+    private List<ChatMember> members;
+    private ChatMessage[] messages = new ChatMessage[INITIAL_MESSAGE_CAPACITY];
+    private int messageCount;
+    private int messageGeneration;
+    private int nextJoinOrder = 1;
+
+    private final Runnable notifyListener = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared before reading, so a snapshot published after this read is posted again.
+            changePosted.set(false);
+            listener.onChatStateChanged(snapshot);
+        }
+    };
+
+    public ChatStateStore(ChatMember localMember, Listener listener) {
+        this.listener = listener;
+        members = Collections.singletonList(localMember);
+        snapshot = new Snapshot(members, messages, messageCount, messageGeneration);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void addMember(final String id, final String name) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (getMemberPosition(id) >= 0) {
+                    return;
+                }
+
+                ChatMember member = new ChatMember();
+                member.setId(id);
+                member.setName(name);
+                member.setJoinOrder(nextJoinOrder++);
+                List<ChatMember> changed = new ArrayList<>(members);
+                changed.add(member);
+                publishMembers(changed);
+            }
+        });
+    }
+
+    public void removeMember(final String id) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int position = getMemberPosition(id);
+                if (position < 0) {
+                    return;
+                }
+                List<ChatMember> changed = new ArrayList<>(members);
+                changed.remove(position);
+                publishMembers(changed);
+            }
+        });
+    }
+
+    /**
+     * Records the mute state carried by a raw indicator update. The talking state is set by
+     * setMemberTalking once ActiveSpeakerTracker has smoothed the indicator.
+     */
+    public void updateMemberState(final String id, final String state) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int position = getMemberPosition(id);
+                if (position < 0) {
+                    return;
+                }
+
+                ChatMember member = members.get(position);
+                boolean mute = ChatMember.STATE_MUTED.equals(state)
+                        || (member.isMute() && !ChatMember.STATE_TALKING.equals(state));
+                if (mute != member.isMute()) {
+                    member = member.copy();
+                    member.setMute(mute);
+                    replaceMember(position, member);
+                }
+            }
+        });
+    }
+
+    public void setMemberTalking(final String id, final boolean talking) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int position = getMemberPosition(id);
+                if (position < 0) {
+                    return;
+                }
+
+                ChatMember member = members.get(position);
+                if (member.isTalking() != talking) {
+                    member = member.copy();
+                    member.setTalking(talking);
+                    replaceMember(position, member);
+                }
+            }
+        });
+    }
+
+    public void updateMemberQuality(final String id, final int quality) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                int position = getMemberPosition(id);
+                if (position < 0) {
+                    return;
+                }
+
+                ChatMember member = members.get(position);
+                if (member.getQuality() != quality) {
+                    member = member.copy();
+                    member.setQuality(quality);
+                    replaceMember(position, member);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pins the given speakers, most recent first, right below the local member and keeps
+     * everyone else in join order.
+     */
+    public void applySpeakerOrder(List<String> speakerIds) {
+        final List<String> ids = new ArrayList<>(speakerIds);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (members.size() < 3) {
+                    return;
+                }
+                final Map<String, Integer> pinned = new HashMap<>();
+                for (int i = 0; i < ids.size(); i++) {
+                    pinned.put(ids.get(i), i);
+                }
+                // The local member always stays first.
+                List<ChatMember> changed = new ArrayList<>(members);
+                Collections.sort(changed.subList(1, changed.size()), new Comparator<ChatMember>() {
+                    @Override
+                    public int compare(ChatMember a, ChatMember b) {
+                        Integer pinA = pinned.get(a.getId());
+                        Integer pinB = pinned.get(b.getId());
+                        if (pinA != null && pinB != null) {
+                            return pinA - pinB;
+                        }
+                        if (pinA != null || pinB != null) {
+                            return pinA != null ? -1 : 1;
+                        }
+                        return a.getJoinOrder() - b.getJoinOrder();
+                    }
+                });
+                if (!changed.equals(members)) {
+                    publishMembers(changed);
+                }
+            }
+        });
+    }
+
+    // Leaves only the local member, no longer talking or muted.
+    public void clearMembers() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                ChatMember member = members.get(0).copy();
+                member.setTalking(false);
+                member.setMute(false);
+                nextJoinOrder = 1;
+                publishMembers(Collections.singletonList(member));
+            }
+        });
+    }
+
+    /**
+     * @param senderId : who the search index files the message under, for from: filters
+     */
+    public void addMessage(final String senderId, final String name, final String text) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                appendMessage(senderId, name, text);
+                publish();
+            }
+        });
+    }
+
+    public void addMessages(final String[] senderIds, final String[] names, final String[] texts) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < texts.length; i++) {
+                    appendMessage(senderIds[i], names[i], texts[i]);
+                }
+                publish();
+            }
+        });
+    }
+
+    public void clearMessages() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                // Older snapshots keep the old array, so it is left as it is.
+                messages = new ChatMessage[INITIAL_MESSAGE_CAPACITY];
+                messageCount = 0;
+                messageGeneration++;
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Runs the action on the UI thread once every change requested before this call has been
+     * published and handed to the listener.
+     */
+    public void whenApplied(final Runnable action) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                // Posted after any pending notification, so the listener has run by then.
+                uiHandler.post(action);
+            }
+        });
+    }
+
+    // Changes requested after this are dropped.
+    public void close() {
+        writer.shutdownNow();
+        uiHandler.removeCallbacks(notifyListener);
+    }
+
+    private void execute(Runnable change) {
+        try {
+            writer.execute(change);
+        } catch (RejectedExecutionException e) {
+            // Closed along with the chat screen; there is nothing left to show the change.
+        }
+    }
+
+    private void appendMessage(String senderId, String name, String text) {
+        ChatMessage message = new ChatMessage();
+        message.setSenderId(senderId);
+        message.setName(name);
+        message.setMessage(text);
+        if (messageCount == messages.length) {
+            messages = Arrays.copyOf(messages, messageCount * 2);
+        }
+        messages[messageCount++] = message;
+    }
+
+    private int getMemberPosition(String id) {
+        for (int i = 0; i < members.size(); i++) {
+            if (id.equals(members.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void replaceMember(int position, ChatMember member) {
+        List<ChatMember> changed = new ArrayList<>(members);
+        changed.set(position, member);
+        publishMembers(changed);
+    }
+
+    private void publishMembers(List<ChatMember> changed) {
+        members = Collections.unmodifiableList(changed);
+        publish();
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(members, messages, messageCount, messageGeneration);
+        if (changePosted.compareAndSet(false, true)) {
+            uiHandler.post(notifyListener);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receive-side flood control for chat text. Each sender gets a token bucket; text that arrives
+ * with the bucket empty, or that repeats a recent line from the same sender, is not shown and is
+ * instead counted into a single "+N more from X" line posted once the burst is over.
+ */
+public class FloodController {
+
+    // A sender may burst this many lines, then one line per refill interval.
+    private static final int BUCKET_CAPACITY = 5;
+    private static final long REFILL_INTERVAL_MS = 1000;
+    // Number of recent (sender, text) hashes kept for duplicate detection, and how long a repeat counts as one.
+    private static final int DUPLICATE_WINDOW = 64;
+    private static final long DUPLICATE_WINDOW_MS = 10000;
+    // Suppressed lines are summarized this long after the first one of a burst.
+    private static final long SUMMARY_DELAY_MS = 2000;
+    // Idle senders are forgotten once this many are tracked; if none is idle, the one heard from least recently is.
+    private static final int MAX_TRACKED_SENDERS = 64;
+
+    private static class SenderState {
+        int tokens = BUCKET_CAPACITY;
+        long lastRefillMs;
+        int suppressed;
+    }
+
+    // In access order, so the first entry is the sender heard from least recently.
+    private final Map<String, SenderState> senders = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] recentHashes = new long[DUPLICATE_WINDOW];
+    private final long[] recentTimes = new long[DUPLICATE_WINDOW];
+    private int recentCount;
+    private int nextRecent;
+    private boolean summaryScheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushSummaries();
+        }
+    };
+
+    /**
+     * @return true if the line should be shown, false if it was suppressed and counted
+     */
+    public synchronized boolean accept(String sender, String text) {
+        long now = SystemClock.elapsedRealtime();
+        SenderState state = senders.get(sender);
+        if (state == null) {
+            if (senders.size() >= MAX_TRACKED_SENDERS) {
+                pruneIdleSenders(now);
+            }
+            if (senders.size() >= MAX_TRACKED_SENDERS) {
+                evictLeastRecentSender();
+            }
+            state = new SenderState();
+            state.lastRefillMs = now;
+            senders.put(sender, state);
+        } else {
+            refill(state, now);
+        }
+
+        long hash = ((long) sender.hashCode() << 32) ^ (text.hashCode() & 0xffffffffL);
+        if (state.tokens == 0 || isRecent(hash, now)) {
+            state.suppressed++;
+            if (!summaryScheduled) {
+                summaryScheduled = true;
+                MessageManager.getInstance().postDelayed(flushRunnable, SUMMARY_DELAY_MS);
+            }
+            return false;
+        }
+
+        state.tokens--;
+        remember(hash, now);
+        if (state.suppressed > 0) {
+            // Summarize the earlier burst before this line so the order stays readable.
+            MessageManager.getInstance().sendFloodSummaryMessage(sender, state.suppressed);
+            state.suppressed = 0;
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        senders.clear();
+        recentCount = 0;
+        nextRecent = 0;
+    }
+
+    private synchronized void flushSummaries() {
+        summaryScheduled = false;
+        for (Map.Entry<String, SenderState> entry : senders.entrySet()) {
+            SenderState state = entry.getValue();
+            if (state.suppressed > 0) {
+                MessageManager.getInstance().sendFloodSummaryMessage(entry.getKey(), state.suppressed);
+                state.suppressed = 0;
+            }
+        }
+    }
+
+    private static void refill(SenderState state, long now) {
+        long tokens = (now - state.lastRefillMs) / REFILL_INTERVAL_MS;
+        if (tokens > 0) {
+            state.tokens = (int) Math.min(BUCKET_CAPACITY, state.tokens + tokens);
+            state.lastRefillMs += tokens * REFILL_INTERVAL_MS;
+        }
+    }
+
+    private void pruneIdleSenders(long now) {
+        Iterator<SenderState> iterator = senders.values().iterator();
+        while (iterator.hasNext()) {
+            SenderState state = iterator.next();
+            refill(state, now);
+            if (state.suppressed == 0 && state.tokens == BUCKET_CAPACITY) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictLeastRecentSender() {
+        Iterator<Map.Entry<String, SenderState>> iterator = senders.entrySet().iterator();
+        Map.Entry<String, SenderState> eldest = iterator.next();
+        // Its burst is summarized now rather than lost with it.
+        if (eldest.getValue().suppressed > 0) {
+            MessageManager.getInstance().sendFloodSummaryMessage(eldest.getKey(), eldest.getValue().suppressed);
+        }
+        iterator.remove();
+    }
+
+    private boolean isRecent(long hash, long now) {
+        for (int i = 0; i < recentCount; i++) {
+            if (recentHashes[i] == hash && now - recentTimes[i] < DUPLICATE_WINDOW_MS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remember(long hash, long now) {
+        recentHashes[nextRecent] = hash;
+        recentTimes[nextRecent] = now;
+        nextRecent = (nextRecent + 1) % DUPLICATE_WINDOW;
+        if (recentCount < DUPLICATE_WINDOW) {
+            recentCount++;
+        }
+    }
+}
@@ -4,6 +4,9 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class MessageManager {
 
     public static final int MSG_NETWORK_CREATED = 1;
@@ -15,20 +18,31 @@ public class MessageManager {
     public static final int MSG_RESET_CHAT = 7;
     public static final int MSG_ERROR = 8;
     public static final int MSG_LEAVE = 9;
+    public static final int MSG_TEXT_BATCH = 10;
+    public static final int MSG_PLAYER_QUALITY = 11;
+    public static final int MSG_FLOOD_SUMMARY = 12;
+    public static final int MSG_NETWORK_SWITCHED = 13;
+    public static final int MSG_LOCAL_USER_ADDED = 14;
+    public static final int MSG_REMOVE_LOCAL_USER = 15;
+
+    public static final int TEXT_KIND_TEXT = BackgroundMessageQueue.KIND_TEXT;
+    public static final int TEXT_KIND_TRANSCRIPT = BackgroundMessageQueue.KIND_TRANSCRIPT;
+    public static final int TEXT_KIND_SYSTEM = BackgroundMessageQueue.KIND_SYSTEM;
+
+    // Upper bound on chat lines held while in the background.
+    private static final int MAX_BACKGROUND_MESSAGES = 1000;
 
-    private static MessageManager messageManager;
+    private static final MessageManager messageManager = new MessageManager();
 
     private MessageManager() {
     }
 
     public static MessageManager getInstance() {
-        if (messageManager == null) {
-            messageManager = new MessageManager();
-        }
         return messageManager;
     }
 
-    private Handler handler;
+    // Set on the UI thread and read from the callback threads that post to it.
+    private volatile Handler handler;
 
     public Handler getHandler() {
         return handler;
@@ -38,6 +52,54 @@ public class MessageManager {
         this.handler = handler;
     }
 
+    private boolean backgroundMode = false;
+    private final BackgroundMessageQueue pendingMessages = new BackgroundMessageQueue(MAX_BACKGROUND_MESSAGES);
+    private final Map<String, Integer> pendingQuality = new LinkedHashMap<>();
+    private final Map<String, String> pendingStatus = new LinkedHashMap<>();
+
+    /**
+     * While in background mode, text, transcripts and system lines are queued instead of being
+     * posted to the UI thread, and only the latest state and quality tier per player is kept.
+     * Leaving background mode posts everything queued as a single MSG_TEXT_BATCH message.
+     */
+    public synchronized void setBackgroundMode(boolean background) {
+        if (backgroundMode == background) {
+            return;
+        }
+        backgroundMode = background;
+        if (!background) {
+            postTextBatch(pendingMessages);
+            for (Map.Entry<String, Integer> entry : pendingQuality.entrySet()) {
+                postPlayerQualityMessage(entry.getKey(), entry.getValue());
+            }
+            pendingQuality.clear();
+            for (Map.Entry<String, String> entry : pendingStatus.entrySet()) {
+                postPlayerStatusMessage(entry.getKey(), entry.getValue());
+            }
+            pendingStatus.clear();
+        }
+    }
+
+    public synchronized boolean isBackgroundMode() {
+        return backgroundMode;
+    }
+
+    // Posts everything in the queue as one MSG_TEXT_BATCH message and empties it.
+    private void postTextBatch(BackgroundMessageQueue queue) {
+        if (queue.size() == 0) {
+            return;
+        }
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putStringArray("playerIds", queue.copySenders());
+        data.putStringArray("texts", queue.copyTexts());
+        data.putIntArray("kinds", queue.copyKinds());
+        data.putInt("dropped", queue.getDroppedCount());
+        message.setData(data);
+        message.what = MSG_TEXT_BATCH;
+        queue.clear();
+        handler.sendMessage(message);
+    }
 
     public void sendNetworkCreatedMessage(String network) {
         Message message = new Message();
@@ -48,6 +110,23 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
+    /**
+     * Replaces the member list with the members of the network switched to, then posts the lines
+     * that arrived for it while it was not shown.
+     */
+    synchronized void sendNetworkSwitchedMessage(String network, String[] playerIds, String[] names,
+                                                 BackgroundMessageQueue backlog) {
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putString("network", network);
+        data.putStringArray("playerIds", playerIds);
+        data.putStringArray("names", names);
+        message.setData(data);
+        message.what = MSG_NETWORK_SWITCHED;
+        handler.sendMessage(message);
+        postTextBatch(backlog);
+    }
+
     public void sendPlayerJoinMessage(String playerId, String name) {
         Message message = new Message();
         Bundle data = new Bundle();
@@ -58,6 +137,15 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
+    public void sendLocalUserAddedMessage(String name) {
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putString("name", name);
+        message.setData(data);
+        message.what = MSG_LOCAL_USER_ADDED;
+        handler.sendMessage(message);
+    }
+
     public void sendPlayerLeftMessage(String playerId) {
         Message message = new Message();
         Bundle data = new Bundle();
@@ -67,7 +155,16 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
-    public void sendPlayerStatusMessage(String playerId, String state) {
+    public synchronized void sendPlayerStatusMessage(String playerId, String state) {
+        if (backgroundMode) {
+            // Native code only reports transitions, so the latest state has to survive until resume.
+            pendingStatus.put(playerId, state);
+            return;
+        }
+        postPlayerStatusMessage(playerId, state);
+    }
+
+    private void postPlayerStatusMessage(String playerId, String state) {
         Message message = new Message();
         Bundle data = new Bundle();
         data.putString("playerId", playerId);
@@ -77,7 +174,52 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
-    public void sendTextMsgReceivedMessage(String playerId, String text, boolean isTranscriptor) {
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        handler.postDelayed(runnable, delayMillis);
+    }
+
+    public synchronized void sendFloodSummaryMessage(String playerId, int count) {
+        if (backgroundMode) {
+            pendingMessages.add(null, formatFloodSummary(playerId, count), TEXT_KIND_SYSTEM);
+            return;
+        }
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putString("playerId", playerId);
+        data.putInt("count", count);
+        message.setData(data);
+        message.what = MSG_FLOOD_SUMMARY;
+        handler.sendMessage(message);
+    }
+
+    public static String formatFloodSummary(String playerId, int count) {
+        return "+" + count + " more from " + playerId;
+    }
+
+    public synchronized void sendPlayerQualityMessage(String playerId, int quality) {
+        if (backgroundMode) {
+            // Only the latest tier per player matters on resume.
+            pendingQuality.put(playerId, quality);
+            return;
+        }
+        postPlayerQualityMessage(playerId, quality);
+    }
+
+    private void postPlayerQualityMessage(String playerId, int quality) {
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putString("playerId", playerId);
+        data.putInt("quality", quality);
+        message.setData(data);
+        message.what = MSG_PLAYER_QUALITY;
+        handler.sendMessage(message);
+    }
+
+    public synchronized void sendTextMsgReceivedMessage(String playerId, String text, boolean isTranscriptor) {
+        if (backgroundMode) {
+            pendingMessages.add(playerId, text, isTranscriptor ? TEXT_KIND_TRANSCRIPT : TEXT_KIND_TEXT);
+            return;
+        }
         Message message = new Message();
         Bundle data = new Bundle();
         data.putString("playerId", playerId);
@@ -97,7 +239,11 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
-    public void sendResetMessage(String error) {
+    public synchronized void sendResetMessage(String error) {
+        if (backgroundMode && "Left".equals(error)) {
+            // The message list is cleared on leave, so lines queued before it are stale.
+            pendingMessages.clear();
+        }
         Message message = new Message();
         Bundle data = new Bundle();
         data.putString("error", error);
@@ -106,7 +252,11 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
-    public void sendErrorMessage(String error) {
+    public synchronized void sendErrorMessage(String error) {
+        if (backgroundMode) {
+            pendingMessages.add(null, error, TEXT_KIND_SYSTEM);
+            return;
+        }
         Message message = new Message();
         Bundle data = new Bundle();
         data.putString("error", error);
@@ -115,6 +265,16 @@ public class MessageManager {
         handler.sendMessage(message);
     }
 
+    // Asks to sign out a local user added with NetworkManager.addLocalUser; other members are ignored.
+    public void sendRemoveLocalUserMessage(String name) {
+        Message message = new Message();
+        Bundle data = new Bundle();
+        data.putString("name", name);
+        message.setData(data);
+        message.what = MSG_REMOVE_LOCAL_USER;
+        handler.sendMessage(message);
+    }
+
     public void sendLeaveMessage() {
         Message message = new Message();
         message.what = MSG_LEAVE;
@@ -0,0 +1,253 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The one thread that calls into the native library. Party and the native globals around it are
+ * not safe to use from several threads at once, so every native call from NetworkManager and
+ * PartySampleFocusService is a command on this thread's queue, run in the order it was posted.
+ * Native callbacks are made from doWork, so they arrive on this thread too; a callback that needs
+ * native code again posts a command rather than calling in while native code holds its locks.
+ *
+ * Periodic work such as doWork runs on the same thread between commands. Due periodic work and
+ * queued commands take turns, so neither can hold off the other. When a command runs long, the
+ * periodic runs it missed are skipped rather than piling up behind it.
+ *
+ * Posting never blocks. Callers that need a result wait on the Future from submit, never on the
+ * UI thread and never on this one. How deep the queue got, and how long each kind of command
+ * waited and ran, is logged under the PartyActor tag by logStats.
+ */
+public final class NativeActor {
+
+    private static final String TAG = "PartyActor";
+    // Commands that wait or run longer than this are logged as they finish.
+    private static final long SLOW_COMMAND_MS = 250;
+
+    private static class Command {
+        final String name;
+        final Runnable action;
+        final long postedAt;
+
+        Command(String name, Runnable action, long postedAt) {
+            this.name = name;
+            this.action = action;
+            this.postedAt = postedAt;
+        }
+    }
+
+    private static class Periodic {
+        final Runnable action;
+        final long periodMs;
+        long nextRunAt;
+
+        Periodic(Runnable action, long periodMs, long nextRunAt) {
+            this.action = action;
+            this.periodMs = periodMs;
+            this.nextRunAt = nextRunAt;
+        }
+    }
+
+    private static class CommandStats {
+        long count;
+        long totalWaitMs;
+        long maxWaitMs;
+        long totalRunNanos;
+        long maxRunNanos;
+    }
+
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+    private final Map<String, Periodic> periodics = new LinkedHashMap<>();
+    private final Map<String, CommandStats> stats = new LinkedHashMap<>();
+    private int maxDepth;
+
+    NativeActor(String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runCommands();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the command and returns at once.
+     * @param name : what the command shows up as in the stats; use one name per kind of command
+     */
+    public void post(String name, Runnable action) {
+        synchronized (this) {
+            queue.add(new Command(name, action, SystemClock.uptimeMillis()));
+            maxDepth = Math.max(maxDepth, queue.size());
+            notify();
+        }
+    }
+
+    /**
+     * Queues the command and returns a Future for its result.
+     */
+    public <T> Future<T> submit(String name, Callable<T> action) {
+        FutureTask<T> task = new FutureTask<>(action);
+        post(name, task);
+        return task;
+    }
+
+    /**
+     * Runs the action every period, the first time after the delay, replacing whatever was
+     * scheduled under the name. A period of zero or less stops it.
+     */
+    public synchronized void schedule(String name, Runnable action, long delayMs, long periodMs) {
+        if (periodMs <= 0) {
+            periodics.remove(name);
+        } else {
+            periodics.put(name, new Periodic(action, periodMs, SystemClock.uptimeMillis() + delayMs));
+        }
+        notify();
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * The deepest the queue has been since the stats were last logged.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Logs one line per kind of command, then starts the stats over.
+     */
+    public void logStats() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (this) {
+            summary.append("queue depth=").append(queue.size()).append(" max=").append(maxDepth);
+            for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+                CommandStats command = entry.getValue();
+                summary.append('\n').append(entry.getKey())
+                        .append(" count=").append(command.count)
+                        .append(" avgWaitMs=").append(command.totalWaitMs / command.count)
+                        .append(" maxWaitMs=").append(command.maxWaitMs)
+                        .append(" avgRunUs=").append(command.totalRunNanos / command.count / 1000)
+                        .append(" maxRunUs=").append(command.maxRunNanos / 1000);
+            }
+            stats.clear();
+            maxDepth = queue.size();
+        }
+        for (String line : summary.toString().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+
+    /**
+     * Waits for a result submitted to the actor.
+     * @return the result, or valueOnFailure if the command threw or the wait was interrupted
+     */
+    public static <T> T await(Future<T> result, T valueOnFailure) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return valueOnFailure;
+        } catch (Exception e) {
+            Log.w(TAG, "Command failed: " + e);
+            return valueOnFailure;
+        }
+    }
+
+    private void runCommands() {
+        boolean ranPeriodic = false;
+        while (true) {
+            String name;
+            Runnable action;
+            long wait;
+            synchronized (this) {
+                while (true) {
+                    long now = SystemClock.uptimeMillis();
+                    Map.Entry<String, Periodic> due = nextDue();
+                    // Due periodic work goes first, so a burst of commands cannot hold off doWork, but
+                    // never twice in a row while commands wait, so periodic work cannot starve them.
+                    boolean commandsFirst = ranPeriodic && !queue.isEmpty();
+                    if (!commandsFirst && due != null && due.getValue().nextRunAt <= now) {
+                        Periodic periodic = due.getValue();
+                        name = due.getKey();
+                        action = periodic.action;
+                        wait = now - periodic.nextRunAt;
+                        periodic.nextRunAt += periodic.periodMs;
+                        if (periodic.nextRunAt <= now) {
+                            periodic.nextRunAt = now + periodic.periodMs;
+                        }
+                        ranPeriodic = true;
+                        break;
+                    }
+                    Command command = queue.poll();
+                    if (command != null) {
+                        name = command.name;
+                        action = command.action;
+                        wait = now - command.postedAt;
+                        ranPeriodic = false;
+                        break;
+                    }
+                    try {
+                        wait(due != null ? due.getValue().nextRunAt - now : 0);
+                    } catch (InterruptedException e) {
+                        // Only the actor itself waits here; keep serving.
+                    }
+                }
+            }
+
+            long start = System.nanoTime();
+            try {
+                action.run();
+            } catch (Throwable e) {
+                // One failed command must not take the only thread that can call native code with it.
+                Log.e(TAG, "Command " + name + " failed", e);
+            }
+            record(name, wait, System.nanoTime() - start);
+        }
+    }
+
+    private Map.Entry<String, Periodic> nextDue() {
+        Map.Entry<String, Periodic> next = null;
+        for (Map.Entry<String, Periodic> entry : periodics.entrySet()) {
+            if (next == null || entry.getValue().nextRunAt < next.getValue().nextRunAt) {
+                next = entry;
+            }
+        }
+        return next;
+    }
+
+    private void record(String name, long waitMs, long runNanos) {
+        int depth;
+        synchronized (this) {
+            CommandStats command = stats.get(name);
+            if (command == null) {
+                command = new CommandStats();
+                stats.put(name, command);
+            }
+            command.count++;
+            command.totalWaitMs += waitMs;
+            command.maxWaitMs = Math.max(command.maxWaitMs, waitMs);
+            command.totalRunNanos += runNanos;
+            command.maxRunNanos = Math.max(command.maxRunNanos, runNanos);
+            depth = queue.size();
+        }
+        if (TraceLog.isEnabled(TraceLog.LEVEL_VERBOSE)) {
+            TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_NATIVE_COMMAND, name, runNanos / 1000);
+        }
+
+        long runMs = runNanos / 1000000;
+        if (waitMs >= SLOW_COMMAND_MS || runMs >= SLOW_COMMAND_MS) {
+            Log.i(TAG, "slow command " + name + " waitMs=" + waitMs + " runMs=" + runMs + " queued=" + depth);
+        }
+    }
+}
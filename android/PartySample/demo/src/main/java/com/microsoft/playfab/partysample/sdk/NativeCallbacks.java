@@ -0,0 +1,57 @@
+package com.microsoft.playfab.partysample.sdk;
+
+/**
+ * The methods native code calls on NetworkManager. CallbackRecorder captures calls to them and
+ * CallbackReplayer plays a capture back into any implementation, including one outside Android.
+ */
+public interface NativeCallbacks {
+
+    // Endpoint message framing counters in onNetworkStatistics, by index. All are deltas since the
+    // previous sample except MESSAGE_STAT_MAX_REASSEMBLY_MS. Keep in sync with PartyDemo.cpp.
+    int MESSAGE_STAT_SENT = 0;
+    // Serialized size before compression, and what was handed to Party including fragment headers.
+    int MESSAGE_STAT_PAYLOAD_BYTES = 1;
+    int MESSAGE_STAT_WIRE_BYTES = 2;
+    int MESSAGE_STAT_COMPRESSED = 3;
+    int MESSAGE_STAT_FRAGMENTED = 4;
+    int MESSAGE_STAT_REASSEMBLED = 5;
+    // From the first fragment of a message arriving to the last.
+    int MESSAGE_STAT_TOTAL_REASSEMBLY_MS = 6;
+    int MESSAGE_STAT_MAX_REASSEMBLY_MS = 7;
+    // Partial messages that timed out, packets that could not be read, and partial messages dropped
+    // to stay under the reassembly byte limit.
+    int MESSAGE_STAT_EXPIRED = 8;
+    int MESSAGE_STAT_DROPPED_PACKETS = 9;
+    int MESSAGE_STAT_EVICTED = 10;
+    int MESSAGE_STAT_COUNT = 11;
+
+    void onSignInComplete(boolean success);
+
+    void onNetworkCreated(String network);
+
+    void onNetworkLeft(String networkId);
+
+    void onLocalUserAdded(String name);
+
+    void onMessageReceived(String networkId, String sender, String message);
+
+    void onTranscriptMessageReceived(String networkId, String sender, String message);
+
+    void onPlayerJoined(String networkId, String playerId, String name);
+
+    void onPlayerLeft(String networkId, String playerId);
+
+    void resetChat(String error);
+
+    void resetMessage();
+
+    void addErrorMessage(String message);
+
+    void updatePlayerState(String playerId, String state);
+
+    void onNetworkStatistics(long relayLatencyMs, long sentPackets, long retriedPackets, long droppedPackets,
+                             long queuedSends, long[] messageStats, String[] peerIds, long[] peerLatencyMs, long[] peerQueuedSends,
+                             long[] peerLossPermille);
+
+    void onPeerClock(String networkId, String peer, long roundTripMicros, long offsetMicros);
+}
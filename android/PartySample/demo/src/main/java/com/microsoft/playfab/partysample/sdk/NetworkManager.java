@@ -1,73 +1,637 @@
 package com.microsoft.playfab.partysample.sdk;
 
-import android.util.Log;
-import android.widget.Toast;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
-public class NetworkManager {
+public class NetworkManager implements NativeCallbacks {
     static {
         System.loadLibrary("partysample");
     }
 
+    // How sendTextMessage delivers the text: as a chat text message, or synthesized to speech and sent as voice.
+    public static final int SEND_MODE_TEXT = 0;
+    public static final int SEND_MODE_VOICE = 1;
+
+    // The quick message phrases sendQuickPhrase can send; keep in sync with PartySample::QuickPhrase.
+    public static final int QUICK_PHRASE_HEY_TEAM = 0;
+    public static final int QUICK_PHRASE_IM_SCARED = 1;
+    public static final int QUICK_PHRASE_GOOD_LUCK = 2;
+
+    // Voice encoding tiers, lowest bitrate first; keep in sync with PartySample::VoiceQualityTier.
+    public static final int VOICE_QUALITY_MINIMUM = 0;
+    public static final int VOICE_QUALITY_LOW = 1;
+    public static final int VOICE_QUALITY_MEDIUM = 2;
+    public static final int VOICE_QUALITY_HIGH = 3;
+
     private MessageManager messageManager;
 
-    private static NetworkManager networkManager;
+    // Every native call runs on this thread, and the callbacks it makes arrive on it.
+    private final NativeActor actor = new NativeActor("party-native");
+
+    private final NetworkQualityMonitor qualityMonitor = new NetworkQualityMonitor();
+
+    private final FloodController floodController = new FloodController();
+
+    private final SpatialVoiceAttenuator spatialVoice = new SpatialVoiceAttenuator(this);
+
+    private final PeerClocks peerClocks = new PeerClocks();
+
+    private final TranscriptionPolicy transcriptionPolicy = new TranscriptionPolicy(this);
+
+    // Captures every native callback while a recording is running; see startRecording.
+    private final CallbackRecorder recorder = new CallbackRecorder();
+
+    // Every network we are in, by id. Only the active one is shown; lines for the others are held
+    // in their session until switched to.
+    private final Map<String, NetworkSession> sessions = new LinkedHashMap<>();
+    private String activeNetworkId;
+
+    // Created with the class, after the library is loaded, so every thread sees the same instance.
+    private static final NetworkManager networkManager = new NetworkManager();
 
     private NetworkManager() {
     }
 
     public static NetworkManager getInstance() {
-        if (networkManager == null) {
-            networkManager = new NetworkManager();
-        }
         return networkManager;
     }
 
-    public native boolean initialize(String name);
+    /**
+     * Initializes the Party manager ahead of initialize, which then only has to sign in.
+     */
+    Future<Void> warmUp(final String titleId) {
+        return actor.submit("warmUp", new Callable<Void>() {
+            @Override
+            public Void call() {
+                nativeWarmUp(titleId);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Starts signing in; it completes from doWork, with onSignInComplete.
+     */
+    public Future<Boolean> initialize(final String name) {
+        return actor.submit("initialize", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return nativeInitialize(name);
+            }
+        });
+    }
+
+    /**
+     * @return a Future for whether the network was created
+     */
+    public Future<Boolean> createAndConnectToNetwork(final String type, final String languageCode) {
+        return actor.submit("createAndConnectToNetwork", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return nativeCreateAndConnectToNetwork(type, languageCode);
+            }
+        });
+    }
+
+    /**
+     * @return a Future for whether connecting started; onNetworkCreated follows once connected
+     */
+    public Future<Boolean> joinNetwork(final String networkId) {
+        return actor.submit("joinNetwork", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return nativeJoinNetwork(networkId);
+            }
+        });
+    }
 
-    public native boolean createAndConnectToNetwork(String type, String languageCode);
+    /**
+     * Leaves every network we are in.
+     * @return a Future that completes once they have all been left
+     */
+    public Future<Void> leaveNetwork() {
+        return actor.submit("leaveNetwork", new Callable<Void>() {
+            @Override
+            public Void call() {
+                nativeLeaveNetwork();
+                return null;
+            }
+        });
+    }
 
-    public native boolean joinNetwork(String networkId);
+    /**
+     * @param sendMode : SEND_MODE_TEXT or SEND_MODE_VOICE
+     */
+    public void sendTextMessage(final String message, final int sendMode) {
+        checkSendMode(sendMode);
+        actor.post("sendTextMessage", new Runnable() {
+            @Override
+            public void run() {
+                nativeSendTextMessage(message, sendMode);
+            }
+        });
+    }
 
-    public native void leaveNetwork();
+    /**
+     * Sends one of the QUICK_PHRASE_* phrases to the active network as its id. Receivers show it in
+     * their own language, and with SEND_MODE_VOICE read it aloud with their own voice.
+     * @param sendMode : SEND_MODE_TEXT or SEND_MODE_VOICE
+     */
+    public void sendQuickPhrase(final int phraseId, final int sendMode) {
+        checkSendMode(sendMode);
+        actor.post("sendQuickPhrase", new Runnable() {
+            @Override
+            public void run() {
+                nativeSendQuickPhrase(phraseId, sendMode);
+            }
+        });
+    }
 
-    public native void sendTextMessage(String message, boolean isTTS);
+    /**
+     * Signs in another user on this device and adds them to every network we are in, now and later.
+     * Completes asynchronously with onLocalUserAdded.
+     * @return a Future that is false if the name is already in use
+     */
+    public Future<Boolean> addLocalUser(final String name) {
+        return actor.submit("addLocalUser", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return nativeAddLocalUser(name);
+            }
+        });
+    }
 
-    public native void doWork();
+    public void removeLocalUser(final String name) {
+        actor.post("removeLocalUser", new Runnable() {
+            @Override
+            public void run() {
+                nativeRemoveLocalUser(name);
+            }
+        });
+    }
 
-    public native void getPlayerState();
+    /**
+     * Sends as a local user added with addLocalUser.
+     * @param sendMode : SEND_MODE_TEXT or SEND_MODE_VOICE
+     */
+    public void sendTextMessageAs(final String name, final String message, final int sendMode) {
+        checkSendMode(sendMode);
+        actor.post("sendTextMessageAs", new Runnable() {
+            @Override
+            public void run() {
+                nativeSendTextMessageAs(name, message, sendMode);
+            }
+        });
+    }
 
-    public native void setLanguage(int idx);
+    /**
+     * Runs doWork every period on the actor thread, the first time after the delay, replacing the
+     * previous schedule. Party callbacks are made from doWork.
+     */
+    public void scheduleWork(long delayMs, long periodMs) {
+        actor.schedule("doWork", new Runnable() {
+            @Override
+            public void run() {
+                doWork();
+            }
+        }, delayMs, periodMs);
+    }
 
-    public native void setPlayFabTitleID(String titleID);
+    /**
+     * Polls every member's chat indicator each period; a period of zero stops polling.
+     */
+    public void schedulePlayerStatePolling(long delayMs, long periodMs) {
+        actor.schedule("getPlayerState", new Runnable() {
+            @Override
+            public void run() {
+                getPlayerState();
+            }
+        }, delayMs, periodMs);
+    }
+
+    public void setLanguage(final int idx) {
+        actor.post("setLanguage", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetLanguage(idx);
+            }
+        });
+    }
+
+    public void setPlayFabTitleID(final String titleID) {
+        actor.post("setPlayFabTitleID", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetPlayFabTitleID(titleID);
+            }
+        });
+    }
+
+    // File the PlayFab session is kept in between launches; it must be in app-private storage.
+    public void setPlayFabSessionCachePath(final String path) {
+        actor.post("setPlayFabSessionCachePath", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetPlayFabSessionCachePath(path);
+            }
+        });
+    }
+
+    // File the text to speech profiles are kept in between launches, so the chat control set up
+    // after initialize gets its voice without waiting for Party to list them.
+    public void setTextToSpeechProfileCachePath(final String path) {
+        actor.post("setTextToSpeechProfileCachePath", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetTextToSpeechProfileCachePath(path);
+            }
+        });
+    }
+
+    public void setPlayerVolume(final float zeroToOne) {
+        actor.post("setPlayerVolume", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetPlayerVolume(zeroToOne);
+            }
+        });
+    }
+
+    // Applies the first count attenuations in one pass; see SpatialVoiceAttenuator. The arrays are
+    // copied, since the caller reuses them before the command runs.
+    void setPlayerAttenuations(String[] playerIds, float[] attenuations, final int count) {
+        final String[] ids = Arrays.copyOf(playerIds, count);
+        final float[] values = Arrays.copyOf(attenuations, count);
+        actor.post("setPlayerAttenuations", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetPlayerAttenuations(ids, values, count);
+            }
+        });
+    }
+
+    // Transcribes no one, everyone, or the local users and the given players; see TranscriptionPolicy.
+    void setTranscriptionPolicy(final int scope, final String[] playerIds) {
+        actor.post("setTranscriptionPolicy", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetTranscriptionPolicy(scope, playerIds);
+            }
+        });
+    }
+
+    /**
+     * Whether native code has an active network, as last reported by its callbacks; answered
+     * without calling native code, so it is safe from the UI thread.
+     */
+    public synchronized boolean connectedToNetwork() {
+        return activeNetworkId != null;
+    }
+
+    // Skips per-member state polling in doWork while the chat screen is not visible.
+    public void setBackgroundMode(final boolean background) {
+        actor.post("setBackgroundMode", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetBackgroundMode(background);
+            }
+        });
+    }
+
+    // How often native code samples Party network statistics; zero stops sampling.
+    public void setStatisticsSampleInterval(final int intervalMs) {
+        actor.post("setStatisticsSampleInterval", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetStatisticsSampleInterval(intervalMs);
+            }
+        });
+    }
+
+    // How often native code pings every peer to refresh PeerClocks; zero stops probing.
+    public void setClockProbeInterval(final int intervalMs) {
+        actor.post("setClockProbeInterval", new Runnable() {
+            @Override
+            public void run() {
+                nativeSetClockProbeInterval(intervalMs);
+            }
+        });
+    }
+
+    /**
+     * The voice encoding tier native code picked from the active network's loss and relay latency,
+     * one of the VOICE_QUALITY_* values. It only moves while statistics are sampled.
+     */
+    public Future<Integer> getVoiceQualityTier() {
+        return actor.submit("getVoiceQualityTier", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return nativeGetVoiceQualityTier();
+            }
+        });
+    }
+
+    /**
+     * The most recent voice tier changes, oldest first.
+     */
+    public Future<List<VoiceQualityTransition>> getVoiceQualityTransitions() {
+        return actor.submit("getVoiceQualityHistory", new Callable<List<VoiceQualityTransition>>() {
+            @Override
+            public List<VoiceQualityTransition> call() {
+                long[] values = getVoiceQualityHistory();
+                List<VoiceQualityTransition> transitions = new ArrayList<>(values.length / 5);
+                for (int i = 0; i + 5 <= values.length; i += 5) {
+                    transitions.add(new VoiceQualityTransition(values[i], (int) values[i + 1], (int) values[i + 2],
+                            values[i + 3], values[i + 4]));
+                }
+                return transitions;
+            }
+        });
+    }
+
+    /**
+     * Sets the trace level for both the Java and native trace rings.
+     * @param level : one of the TraceLog.LEVEL_* values
+     */
+    public void setTraceLevel(final int level) {
+        TraceLog.setLevel(level);
+        actor.post("setNativeTraceLevel", new Runnable() {
+            @Override
+            public void run() {
+                setNativeTraceLevel(level);
+            }
+        });
+    }
+
+    // Writes the Java and native trace rings, and the actor's queue stats, to logcat.
+    public void dumpTrace() {
+        TraceLog.dump();
+        actor.post("dumpNativeTrace", new Runnable() {
+            @Override
+            public void run() {
+                dumpNativeTrace();
+            }
+        });
+        actor.logStats();
+    }
+
+    /**
+     * The thread every native call runs on, for native code outside this class.
+     */
+    public NativeActor getActor() {
+        return actor;
+    }
 
-    public native void setPlayerVolume(float zeroToOne);
+    // Only ever called on the actor thread, through the methods above.
+    private native void nativeWarmUp(String titleId);
 
-    public native boolean connectedToNetwork();
+    private native boolean nativeInitialize(String name);
+
+    private native boolean nativeCreateAndConnectToNetwork(String type, String languageCode);
+
+    private native boolean nativeJoinNetwork(String networkId);
+
+    private native void nativeLeaveNetwork();
+
+    private native void nativeSendTextMessage(String message, int sendMode);
+
+    private native void nativeSendQuickPhrase(int phraseId, int sendMode);
+
+    private native boolean nativeAddLocalUser(String name);
+
+    private native void nativeRemoveLocalUser(String name);
+
+    private native void nativeSendTextMessageAs(String name, String message, int sendMode);
+
+    private native void doWork();
+
+    private native void getPlayerState();
+
+    private native void nativeSetLanguage(int idx);
+
+    private native void nativeSetPlayFabTitleID(String titleID);
+
+    private native void nativeSetPlayFabSessionCachePath(String path);
+
+    private native void nativeSetTextToSpeechProfileCachePath(String path);
+
+    private native void nativeSetPlayerVolume(float zeroToOne);
+
+    private native void nativeSetPlayerAttenuations(String[] playerIds, float[] attenuations, int count);
+
+    private native void nativeSetTranscriptionPolicy(int scope, String[] playerIds);
+
+    private native boolean setActiveNetwork(String networkId);
+
+    private native void nativeSetBackgroundMode(boolean background);
+
+    private native void nativeSetStatisticsSampleInterval(int intervalMs);
+
+    private native void nativeSetClockProbeInterval(int intervalMs);
+
+    private native int nativeGetVoiceQualityTier();
+
+    private native long[] getVoiceQualityHistory();
+
+    private native void setNativeTraceLevel(int level);
+
+    private native void dumpNativeTrace();
+
+    public synchronized boolean isInNetwork(String networkId) {
+        return sessions.containsKey(networkId);
+    }
+
+    public synchronized List<String> getNetworkIds() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    public synchronized String getActiveNetworkId() {
+        return activeNetworkId;
+    }
+
+    /**
+     * Shows another network we are already in: its members replace the member list and the lines
+     * held for it are posted. Text is sent to the active network; voice reaches every network.
+     * Returns at once; networks we are not connected to are ignored.
+     */
+    public void switchNetwork(final String networkId) {
+        actor.post("switchNetwork", new Runnable() {
+            @Override
+            public void run() {
+                switchNetworkOnActor(networkId);
+            }
+        });
+    }
+
+    private void switchNetworkOnActor(String networkId) {
+        NetworkSession session;
+        synchronized (this) {
+            session = sessions.get(networkId);
+        }
+        // Native code is called outside our lock; its callbacks take our lock while holding its own.
+        if (session == null || !setActiveNetwork(networkId)) {
+            return;
+        }
+        synchronized (this) {
+            activeNetworkId = networkId;
+            // Statistics are only sampled for the active network.
+            qualityMonitor.clear();
+            getMessageManager().sendNetworkSwitchedMessage(networkId, session.copyMemberIds(),
+                    session.copyMemberNames(), session.pending);
+        }
+        getMessageManager().sendErrorMessage("Switched to network: " + networkId);
+    }
+
+    // Native code silently ignores a mode it does not know, so reject it here where the caller sees it.
+    private static void checkSendMode(int sendMode) {
+        if (sendMode != SEND_MODE_TEXT && sendMode != SEND_MODE_VOICE) {
+            throw new IllegalArgumentException("Unknown send mode " + sendMode);
+        }
+    }
+
+    // Lines without a network, or for the active one, are shown; the rest wait in their session.
+    private boolean isShown(String networkId) {
+        return networkId.isEmpty() || activeNetworkId == null || activeNetworkId.equals(networkId);
+    }
+
+    public void onSignInComplete(boolean success) {
+        recorder.onSignInComplete(success);
+        if (success) {
+            StartupOrchestrator.getInstance().markPhase(StartupOrchestrator.PHASE_SIGNED_IN);
+        }
+    }
 
     public void onNetworkCreated(String network) {
-        Log.d(getClass().getSimpleName(), "onNetworkCreated: " + network);
+        recorder.onNetworkCreated(network);
+        TraceLog.record(TraceLog.LEVEL_INFO, TraceLog.EVENT_NETWORK_CREATED, network, 0);
+        StartupOrchestrator.getInstance().markPhase(StartupOrchestrator.PHASE_CONNECTED);
+        NetworkSession session = new NetworkSession(network);
+        boolean switched;
+        synchronized (this) {
+            // Native code makes each newly connected network the active one.
+            switched = activeNetworkId != null && !activeNetworkId.equals(network);
+            sessions.put(network, session);
+            activeNetworkId = network;
+        }
+        if (switched) {
+            qualityMonitor.clear();
+            getMessageManager().sendNetworkSwitchedMessage(network, new String[0], new String[0], session.pending);
+        }
         getMessageManager().sendNetworkCreatedMessage(network);
         getMessageManager().sendErrorMessage("Connected to network: " + network);
     }
 
-    public void onMessageReceived(String sender, String message) {
-        Log.d(getClass().getSimpleName(), "onMessageReceived: " + sender + ": " + message);
+    public void onNetworkLeft(String networkId) {
+        recorder.onNetworkLeft(networkId);
+        String next = null;
+        synchronized (this) {
+            sessions.remove(networkId);
+            if (!networkId.equals(activeNetworkId)) {
+                return;
+            }
+            activeNetworkId = null;
+            for (String id : sessions.keySet()) {
+                next = id;
+                break;
+            }
+        }
+        if (next != null) {
+            switchNetwork(next);
+        }
+    }
+
+    public void onLocalUserAdded(String name) {
+        recorder.onLocalUserAdded(name);
+        getMessageManager().sendLocalUserAddedMessage(name);
+    }
+
+    public void onMessageReceived(String networkId, String sender, String message) {
+        recorder.onMessageReceived(networkId, sender, message);
+        if (TraceLog.isEnabled(TraceLog.LEVEL_DEBUG)) {
+            TraceLog.record(TraceLog.LEVEL_DEBUG, TraceLog.EVENT_MESSAGE_RECEIVED, sender, message.length());
+        }
+        synchronized (this) {
+            if (!isShown(networkId)) {
+                // Held lines are bounded by the session queue rather than flood control, since a
+                // sender in several networks is reported once per network.
+                NetworkSession session = sessions.get(networkId);
+                if (session != null) {
+                    session.pending.add(sender, message, BackgroundMessageQueue.KIND_TEXT);
+                }
+                return;
+            }
+        }
+        if (!floodController.accept(sender, message)) {
+            return;
+        }
         getMessageManager().sendTextMsgReceivedMessage(sender, message, false);
     }
 
-    public void onTranscriptMessageReceived(String sender, String message) {
-        Log.d(getClass().getSimpleName(), "onTranscriptMessageReceived: " + sender + ": " + message);
+    public void onTranscriptMessageReceived(String networkId, String sender, String message) {
+        recorder.onTranscriptMessageReceived(networkId, sender, message);
+        if (TraceLog.isEnabled(TraceLog.LEVEL_DEBUG)) {
+            TraceLog.record(TraceLog.LEVEL_DEBUG, TraceLog.EVENT_TRANSCRIPT_RECEIVED, sender, message.length());
+        }
+        synchronized (this) {
+            if (!isShown(networkId)) {
+                NetworkSession session = sessions.get(networkId);
+                if (session != null) {
+                    session.pending.add(sender, message, BackgroundMessageQueue.KIND_TRANSCRIPT);
+                }
+                return;
+            }
+        }
         getMessageManager().sendTextMsgReceivedMessage(sender, message, true);
     }
 
-    public void onPlayerJoined(String playerId, String name) {
-        Log.d(getClass().getSimpleName(), "onPlayerJoined: " + playerId + ": " + name);
+    public void onPlayerJoined(String networkId, String playerId, String name) {
+        recorder.onPlayerJoined(networkId, playerId, name);
+        TraceLog.record(TraceLog.LEVEL_INFO, TraceLog.EVENT_PLAYER_JOINED, playerId, 0);
+        synchronized (this) {
+            NetworkSession session = sessions.get(networkId);
+            if (session != null) {
+                session.members.put(playerId, name);
+            }
+            if (!isShown(networkId)) {
+                return;
+            }
+        }
         getMessageManager().sendPlayerJoinMessage(playerId, name);
     }
 
-    public void onPlayerLeft(String playerId) {
-        Log.d(getClass().getSimpleName(), "onPlayerLeft: " + playerId);
-        getMessageManager().sendPlayerLeftMessage(playerId);
+    public void onPlayerLeft(String networkId, String playerId) {
+        recorder.onPlayerLeft(networkId, playerId);
+        TraceLog.record(TraceLog.LEVEL_INFO, TraceLog.EVENT_PLAYER_LEFT, playerId, 0);
+        boolean stillMember = false;
+        boolean shown;
+        synchronized (this) {
+            NetworkSession session = sessions.get(networkId);
+            if (session != null) {
+                session.members.remove(playerId);
+            }
+            for (NetworkSession other : sessions.values()) {
+                if (other.members.containsKey(playerId)) {
+                    stillMember = true;
+                    break;
+                }
+            }
+            shown = isShown(networkId);
+        }
+        if (!stillMember) {
+            qualityMonitor.removePeer(playerId);
+            spatialVoice.removePlayer(playerId);
+            peerClocks.remove(playerId);
+        }
+        if (shown) {
+            getMessageManager().sendPlayerLeftMessage(playerId);
+        }
     }
 
     public void toastMessage(String message) {
@@ -75,13 +639,31 @@ public class NetworkManager {
     }
 
     public void resetChat(String error) {
+        recorder.resetChat(error);
+        clearSessions();
+        qualityMonitor.clear();
+        floodController.clear();
+        spatialVoice.clear();
+        peerClocks.clear();
         getMessageManager().sendResetMessage(error);
     }
     public void resetMessage() {
+        recorder.resetMessage();
+        clearSessions();
+        qualityMonitor.clear();
+        floodController.clear();
+        spatialVoice.clear();
+        peerClocks.clear();
         getMessageManager().sendResetMessage("Left");
     }
 
+    private synchronized void clearSessions() {
+        sessions.clear();
+        activeNetworkId = null;
+    }
+
     public void addErrorMessage(String message) {
+        recorder.addErrorMessage(message);
         getMessageManager().sendErrorMessage(message);
     }
 
@@ -91,10 +673,62 @@ public class NetworkManager {
      * @param state : muted, slient, talking
      */
     public void updatePlayerState(String playerId, String state) {
-        Log.d(getClass().getSimpleName(), "updatePlayerState: " + playerId + ": " + state);
+        recorder.updatePlayerState(playerId, state);
+        if (TraceLog.isEnabled(TraceLog.LEVEL_VERBOSE)) {
+            TraceLog.record(TraceLog.LEVEL_VERBOSE, TraceLog.EVENT_PLAYER_STATE, playerId, "talking".equals(state) ? 1 : 0);
+        }
         getMessageManager().sendPlayerStatusMessage(playerId, state);
     }
 
+    /**
+     * Called by native code on each statistics sample. Packet counts are deltas since the previous sample;
+     * a peer's loss is the share of recent clock probes it left unanswered.
+     * @param messageStats : endpoint message framing counters, indexed by the MESSAGE_STAT_* constants
+     */
+    public void onNetworkStatistics(long relayLatencyMs, long sentPackets, long retriedPackets, long droppedPackets,
+                                    long queuedSends, long[] messageStats, String[] peerIds, long[] peerLatencyMs,
+                                    long[] peerQueuedSends, long[] peerLossPermille) {
+        recorder.onNetworkStatistics(relayLatencyMs, sentPackets, retriedPackets, droppedPackets,
+                queuedSends, messageStats, peerIds, peerLatencyMs, peerQueuedSends, peerLossPermille);
+        qualityMonitor.addSample(relayLatencyMs, sentPackets, retriedPackets, droppedPackets,
+                queuedSends, messageStats, peerIds, peerLatencyMs, peerQueuedSends, peerLossPermille);
+    }
+
+    public void onPeerClock(String networkId, String peer, long roundTripMicros, long offsetMicros) {
+        recorder.onPeerClock(networkId, peer, roundTripMicros, offsetMicros);
+        peerClocks.update(peer, roundTripMicros, offsetMicros);
+    }
+
+    public NetworkQualityMonitor getQualityMonitor() {
+        return qualityMonitor;
+    }
+
+    public SpatialVoiceAttenuator getSpatialVoice() {
+        return spatialVoice;
+    }
+
+    public PeerClocks getPeerClocks() {
+        return peerClocks;
+    }
+
+    public TranscriptionPolicy getTranscriptionPolicy() {
+        return transcriptionPolicy;
+    }
+
+    /**
+     * Records every callback from native code to the file until stopRecording, for CallbackReplayer.
+     */
+    public void startRecording(File file) throws IOException {
+        recorder.start(file);
+    }
+
+    /**
+     * @return the number of callbacks recorded
+     */
+    public int stopRecording() {
+        return recorder.stop();
+    }
+
     public MessageManager getMessageManager() {
         return MessageManager.getInstance();
     }
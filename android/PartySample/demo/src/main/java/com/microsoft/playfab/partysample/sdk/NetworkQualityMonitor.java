@@ -0,0 +1,214 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the network statistics sampled by the native NetworkManager and rates each peer's link.
+ * Network-wide relay latency, loss and send queue depth, and per-peer latency, queue depth and
+ * loss, each go into a fixed-size series. A peer's quality tier is posted to the UI only when it
+ * changes. The endpoint message layer's compression, fragmentation and reassembly counters get
+ * series of their own.
+ *
+ * Party reports loss only for the whole network, so a peer's loss is the share of recent clock
+ * probes it left unanswered. While clock probes are off it stays zero and the peer's tier rests
+ * on its latency alone.
+ */
+public class NetworkQualityMonitor {
+
+    public static final int QUALITY_UNKNOWN = 0;
+    public static final int QUALITY_GOOD = 1;
+    public static final int QUALITY_FAIR = 2;
+    public static final int QUALITY_POOR = 3;
+
+    // Two minutes of history at the default one second sample interval.
+    private static final int SERIES_CAPACITY = 120;
+    // Tiers are rated on the median of the most recent samples so one slow sample does not flip the badge.
+    private static final int TIER_WINDOW = 5;
+
+    private static final long GOOD_LATENCY_MS = 150;
+    private static final long FAIR_LATENCY_MS = 300;
+    private static final long GOOD_LOSS_PERMILLE = 20;
+    private static final long FAIR_LOSS_PERMILLE = 50;
+
+    private final NetworkQualitySeries relayLatency = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries lossPermille = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries queuedSends = new NetworkQualitySeries(SERIES_CAPACITY);
+    // Wire bytes per thousand payload bytes, and average reassembly time; only samples that sent or
+    // reassembled something add to these.
+    private final NetworkQualitySeries compressionPermille = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries reassemblyMs = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries fragmentedMessages = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries expiredReassemblies = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries evictedReassemblies = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final NetworkQualitySeries droppedMessagePackets = new NetworkQualitySeries(SERIES_CAPACITY);
+    private final Map<String, PeerQuality> peers = new HashMap<>();
+
+    private static class PeerQuality {
+        final NetworkQualitySeries latency = new NetworkQualitySeries(SERIES_CAPACITY);
+        final NetworkQualitySeries queuedSends = new NetworkQualitySeries(SERIES_CAPACITY);
+        final NetworkQualitySeries lossPermille = new NetworkQualitySeries(SERIES_CAPACITY);
+        int tier = QUALITY_UNKNOWN;
+    }
+
+    synchronized void addSample(long relayLatencyMs, long sentPackets, long retriedPackets, long droppedPackets,
+                                long networkQueuedSends, long[] messageStats, String[] peerIds, long[] peerLatencyMs, long[] peerQueuedSends,
+                                long[] peerLossPermille) {
+        long now = SystemClock.elapsedRealtime();
+        relayLatency.add(now, relayLatencyMs);
+        // Retried and dropped protocol packets are the best loss signal Party exposes.
+        long lost = retriedPackets + droppedPackets;
+        lossPermille.add(now, sentPackets > 0 ? Math.min(1000, lost * 1000 / sentPackets) : 0);
+        queuedSends.add(now, networkQueuedSends);
+
+        long payloadBytes = messageStats[NativeCallbacks.MESSAGE_STAT_PAYLOAD_BYTES];
+        if (payloadBytes > 0) {
+            compressionPermille.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_WIRE_BYTES] * 1000 / payloadBytes);
+        }
+        long reassembled = messageStats[NativeCallbacks.MESSAGE_STAT_REASSEMBLED];
+        if (reassembled > 0) {
+            reassemblyMs.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_TOTAL_REASSEMBLY_MS] / reassembled);
+        }
+        fragmentedMessages.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_FRAGMENTED]);
+        expiredReassemblies.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_EXPIRED]);
+        evictedReassemblies.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_EVICTED]);
+        droppedMessagePackets.add(now, messageStats[NativeCallbacks.MESSAGE_STAT_DROPPED_PACKETS]);
+
+        for (int i = 0; i < peerIds.length; i++) {
+            PeerQuality peer = peers.get(peerIds[i]);
+            if (peer == null) {
+                peer = new PeerQuality();
+                peers.put(peerIds[i], peer);
+            }
+            peer.latency.add(now, peerLatencyMs[i]);
+            peer.queuedSends.add(now, peerQueuedSends[i]);
+            peer.lossPermille.add(now, peerLossPermille[i]);
+
+            int tier = rate(peer.latency.percentile(50, TIER_WINDOW), peer.lossPermille.percentile(50, TIER_WINDOW));
+            if (tier != peer.tier) {
+                peer.tier = tier;
+                MessageManager.getInstance().sendPlayerQualityMessage(peerIds[i], tier);
+            }
+        }
+    }
+
+    private static int rate(long latencyMs, long lossPermille) {
+        if (latencyMs <= GOOD_LATENCY_MS && lossPermille <= GOOD_LOSS_PERMILLE) {
+            return QUALITY_GOOD;
+        }
+        if (latencyMs <= FAIR_LATENCY_MS && lossPermille <= FAIR_LOSS_PERMILLE) {
+            return QUALITY_FAIR;
+        }
+        return QUALITY_POOR;
+    }
+
+    public synchronized long getRelayLatencyMs() {
+        return relayLatency.latest();
+    }
+
+    public synchronized long getRelayLatencyPercentile(double p) {
+        return relayLatency.percentile(p);
+    }
+
+    public synchronized long getLossPermille() {
+        return lossPermille.latest();
+    }
+
+    public synchronized long getLossPermillePercentile(double p) {
+        return lossPermille.percentile(p);
+    }
+
+    public synchronized long getQueuedSendMessages() {
+        return queuedSends.latest();
+    }
+
+    public synchronized long getQueuedSendMessagesPercentile(double p) {
+        return queuedSends.percentile(p);
+    }
+
+    /**
+     * @return wire bytes per thousand payload bytes in the latest sample that sent messages; below
+     * 1000 when compression saved more than the fragment headers cost
+     */
+    public synchronized long getCompressionPermille() {
+        return compressionPermille.latest();
+    }
+
+    public synchronized long getCompressionPermillePercentile(double p) {
+        return compressionPermille.percentile(p);
+    }
+
+    public synchronized long getReassemblyMsPercentile(double p) {
+        return reassemblyMs.percentile(p);
+    }
+
+    public synchronized long getFragmentedMessages() {
+        return fragmentedMessages.latest();
+    }
+
+    public synchronized long getExpiredReassemblies() {
+        return expiredReassemblies.latest();
+    }
+
+    /**
+     * @return partial messages dropped in the latest sample to stay under the reassembly byte limit;
+     * ones that timed out are counted by getExpiredReassemblies
+     */
+    public synchronized long getEvictedReassemblies() {
+        return evictedReassemblies.latest();
+    }
+
+    public synchronized long getDroppedMessagePackets() {
+        return droppedMessagePackets.latest();
+    }
+
+    /**
+     * @return the peer's latest round trip latency, or -1 if the peer has not been sampled
+     */
+    public synchronized long getPeerLatencyMs(String peerId) {
+        PeerQuality peer = peers.get(peerId);
+        return peer != null ? peer.latency.latest() : -1;
+    }
+
+    public synchronized long getPeerLatencyPercentile(String peerId, double p) {
+        PeerQuality peer = peers.get(peerId);
+        return peer != null ? peer.latency.percentile(p) : -1;
+    }
+
+    public synchronized long getPeerQueuedSendMessages(String peerId) {
+        PeerQuality peer = peers.get(peerId);
+        return peer != null ? peer.queuedSends.latest() : -1;
+    }
+
+    /**
+     * @return the peer's latest probe loss, or -1 if the peer has not been sampled
+     */
+    public synchronized long getPeerLossPermille(String peerId) {
+        PeerQuality peer = peers.get(peerId);
+        return peer != null ? peer.lossPermille.latest() : -1;
+    }
+
+    public synchronized int getPeerQuality(String peerId) {
+        PeerQuality peer = peers.get(peerId);
+        return peer != null ? peer.tier : QUALITY_UNKNOWN;
+    }
+
+    synchronized void removePeer(String peerId) {
+        peers.remove(peerId);
+    }
+
+    synchronized void clear() {
+        relayLatency.clear();
+        lossPermille.clear();
+        queuedSends.clear();
+        compressionPermille.clear();
+        reassemblyMs.clear();
+        fragmentedMessages.clear();
+        expiredReassemblies.clear();
+        evictedReassemblies.clear();
+        droppedMessagePackets.clear();
+        peers.clear();
+    }
+}
@@ -0,0 +1,77 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size time series of one metric. The newest sample overwrites the oldest once the series
+ * is full, and percentiles are computed over the most recent samples with a reused scratch array,
+ * so adding and querying never allocate.
+ */
+public class NetworkQualitySeries {
+
+    private final long[] times;
+    private final long[] values;
+    private final long[] scratch;
+    private int next;
+    private int size;
+
+    public NetworkQualitySeries(int capacity) {
+        times = new long[capacity];
+        values = new long[capacity];
+        scratch = new long[capacity];
+    }
+
+    public synchronized void add(long timeMs, long value) {
+        times[next] = timeMs;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the newest value, or -1 if the series is empty
+     */
+    public synchronized long latest() {
+        return size == 0 ? -1 : values[(next - 1 + values.length) % values.length];
+    }
+
+    /**
+     * @return the time of the newest sample, or -1 if the series is empty
+     */
+    public synchronized long latestTime() {
+        return size == 0 ? -1 : times[(next - 1 + times.length) % times.length];
+    }
+
+    public long percentile(double p) {
+        return percentile(p, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Nearest-rank percentile over the newest {@code lastSamples} samples.
+     * @param p : 0 to 100
+     * @return the percentile value, or -1 if the series is empty
+     */
+    public synchronized long percentile(double p, int lastSamples) {
+        int count = Math.min(size, lastSamples);
+        if (count == 0) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            scratch[i] = values[(next - 1 - i + values.length) % values.length];
+        }
+        Arrays.sort(scratch, 0, count);
+        int rank = (int) Math.ceil(p / 100.0 * count);
+        return scratch[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+}
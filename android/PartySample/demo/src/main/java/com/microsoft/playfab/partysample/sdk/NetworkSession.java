@@ -0,0 +1,32 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One network the local user is in. Membership is tracked for every network so switching can
+ * rebuild the member list without asking native code, and chat lines that arrive for a network
+ * other than the active one are held here until it is switched to.
+ */
+class NetworkSession {
+
+    // Upper bound on chat lines held for a network that is not being shown.
+    private static final int MAX_PENDING_MESSAGES = 200;
+
+    final String networkId;
+    // Player id to display name, in join order.
+    final Map<String, String> members = new LinkedHashMap<>();
+    final BackgroundMessageQueue pending = new BackgroundMessageQueue(MAX_PENDING_MESSAGES);
+
+    NetworkSession(String networkId) {
+        this.networkId = networkId;
+    }
+
+    String[] copyMemberIds() {
+        return members.keySet().toArray(new String[members.size()]);
+    }
+
+    String[] copyMemberNames() {
+        return members.values().toArray(new String[members.size()]);
+    }
+}
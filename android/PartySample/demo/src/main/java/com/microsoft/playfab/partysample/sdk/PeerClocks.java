@@ -0,0 +1,73 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Each peer's round trip time and clock offset, as last estimated by the native Ping/Pong probes.
+ * Times are microseconds of the monotonic clock native code reads, which is System.nanoTime here.
+ * An event stamped with nowMicros() on one device can be put on another device's timeline with
+ * toLocalMicros(), so events from several peers can be ordered.
+ *
+ * The round trip includes the time each side takes to get to the probe in doWork, so it reads
+ * higher than the network latency alone.
+ */
+public class PeerClocks {
+
+    private final Map<String, Estimate> estimates = new HashMap<>();
+
+    private static class Estimate {
+        long roundTripMicros;
+        long offsetMicros;
+    }
+
+    public static long nowMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    synchronized void update(String peer, long roundTripMicros, long offsetMicros) {
+        Estimate estimate = estimates.get(peer);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimates.put(peer, estimate);
+        }
+        estimate.roundTripMicros = roundTripMicros;
+        estimate.offsetMicros = offsetMicros;
+    }
+
+    synchronized void remove(String peer) {
+        estimates.remove(peer);
+    }
+
+    synchronized void clear() {
+        estimates.clear();
+    }
+
+    public synchronized boolean hasEstimate(String peer) {
+        return estimates.containsKey(peer);
+    }
+
+    /**
+     * Smoothed round trip to the peer in microseconds, or -1 if it has not answered a probe yet.
+     */
+    public synchronized long getRoundTripMicros(String peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate != null ? estimate.roundTripMicros : -1;
+    }
+
+    /**
+     * The peer's clock minus ours in microseconds, or 0 if it has not answered a probe yet.
+     */
+    public synchronized long getOffsetMicros(String peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate != null ? estimate.offsetMicros : 0;
+    }
+
+    /**
+     * Converts a time the peer stamped with its nowMicros() to ours. Unchanged if there is no
+     * estimate for the peer yet.
+     */
+    public long toLocalMicros(String peer, long peerMicros) {
+        return peerMicros - getOffsetMicros(peer);
+    }
+}
@@ -16,31 +16,132 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PlayFabManager {
     static final String TITLE_ID = "";
 
+    private static final String TAG = PlayFabManager.class.getSimpleName();
+
+    // Each attempt is abandoned after the timeout; attempts after the first wait the retry delay,
+    // doubled each time.
+    private static final long LOGIN_TIMEOUT_MS = 15000;
+    private static final long LOGIN_RETRY_DELAY_MS = 1000;
+    private static final int MAX_LOGIN_ATTEMPTS = 3;
+
+    public interface LoginCallback {
+        /**
+         * Called on a background thread once login completes or every attempt has failed.
+         * @param entityToken : the signed in entity, or null on failure
+         */
+        void onLoginComplete(EntityTokenResponse entityToken);
+    }
+
     public PlayFabManager() {
         PlayFabSettings.TitleId = TITLE_ID;
     }
 
-    private EntityTokenResponse onLoginComplete(FutureTask<PlayFabResult<LoginResult>> loginTask) {
-        PlayFabErrors.PlayFabResult<PlayFabClientModels.LoginResult> result = null;
-        try {
-            result = loginTask.get();
-        } catch(Exception e) {
-            System.out.println("Exception in PlayFab api call: " + e);
-            return null;
+    public void loginWithCustomId(String customId, LoginCallback callback) {
+        LoginWithCustomIDRequest request = new LoginWithCustomIDRequest();
+        request.CustomId = customId;
+        request.CreateAccount = true;
+        new Login(request, callback).start(1);
+    }
+
+    /**
+     * One login and its retries. Each attempt's blocking call gets a thread of its own, so an
+     * attempt that hangs past its timeout cannot hold up the timer or the next attempt. The timer
+     * is shut down once the callback has been made.
+     */
+    private class Login {
+        final LoginWithCustomIDRequest request;
+        final LoginCallback callback;
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+
+        Login(LoginWithCustomIDRequest request, LoginCallback callback) {
+            this.request = request;
+            this.callback = callback;
+            // Timeouts still pending at the end belong to attempts already reported.
+            timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
         }
 
-        if (result.Result != null) {
-            PlayFabSettings.EntityToken = result.Result.EntityToken.EntityToken;
-            return result.Result.EntityToken;
-        } else if (result.Error != null) {
-            Log.w(getClass().getSimpleName(), compileErrorsFromResult(result));
+        void start(final int attempt) {
+            final FutureTask<PlayFabResult<LoginResult>> loginTask = PlayFabClientAPI.LoginWithCustomIDAsync(request);
+            // Whichever of completion and timeout comes first reports the attempt.
+            final AtomicBoolean reported = new AtomicBoolean(false);
+
+            Thread call = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loginTask.run();
+                    if (reported.compareAndSet(false, true)) {
+                        onComplete(loginTask, attempt);
+                    }
+                }
+            }, "playfab-login-" + attempt);
+            call.setDaemon(true);
+            call.start();
+
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (reported.compareAndSet(false, true)) {
+                        Log.w(TAG, "Login attempt " + attempt + " timed out");
+                        loginTask.cancel(true);
+                        retryOrFail(attempt);
+                    }
+                }
+            }, LOGIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         }
 
-        return null;
+        // Only runs once the task is done, so reading its result does not block.
+        private void onComplete(FutureTask<PlayFabResult<LoginResult>> loginTask, int attempt) {
+            PlayFabErrors.PlayFabResult<PlayFabClientModels.LoginResult> result = null;
+            try {
+                result = loginTask.get();
+            } catch(Exception e) {
+                Log.w(TAG, "Exception in PlayFab api call", e);
+                retryOrFail(attempt);
+                return;
+            }
+
+            if (result.Result != null) {
+                PlayFabSettings.EntityToken = result.Result.EntityToken.EntityToken;
+                finish(result.Result.EntityToken);
+                return;
+            }
+
+            if (result.Error != null) {
+                Log.w(TAG, compileErrorsFromResult(result));
+                // Only connection failures and server errors are worth another attempt.
+                if (result.Error.httpCode == 0 || result.Error.httpCode >= 500) {
+                    retryOrFail(attempt);
+                    return;
+                }
+            }
+            finish(null);
+        }
+
+        private void retryOrFail(final int attempt) {
+            if (attempt >= MAX_LOGIN_ATTEMPTS) {
+                finish(null);
+                return;
+            }
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    start(attempt + 1);
+                }
+            }, LOGIN_RETRY_DELAY_MS << (attempt - 1), TimeUnit.MILLISECONDS);
+        }
+
+        private void finish(EntityTokenResponse entityToken) {
+            // Not shutdownNow, which would interrupt this very thread when it is the timer's.
+            timer.shutdown();
+            callback.onLoginComplete(entityToken);
+        }
     }
 
     private <RT> String compileErrorsFromResult(PlayFabErrors.PlayFabResult<RT> result) {
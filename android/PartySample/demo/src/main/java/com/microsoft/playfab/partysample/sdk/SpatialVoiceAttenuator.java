@@ -0,0 +1,165 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Proximity voice: turns per-frame player positions into a render volume attenuation for each
+ * remote player. Every update computes all attenuations in one pass over primitive arrays, and
+ * only the players whose attenuation moved by at least the change threshold since it was last
+ * applied are handed to native code, in a single batched call.
+ *
+ * The attenuation scales the volume set with NetworkManager.setPlayerVolume, it does not replace it.
+ */
+public class SpatialVoiceAttenuator {
+
+    // Full volume up to the minimum distance and silence past the maximum distance; in between:
+    // a straight line, inverse distance, or inverse distance raised to the rolloff factor.
+    public static final int FALLOFF_LINEAR = 0;
+    public static final int FALLOFF_INVERSE = 1;
+    public static final int FALLOFF_EXPONENTIAL = 2;
+
+    private static final float DEFAULT_CHANGE_THRESHOLD = 0.02f;
+
+    private final NetworkManager networkManager;
+    private final Map<String, Integer> slots = new HashMap<>();
+    // Player and attenuation last applied per slot; slots stay packed as players are removed.
+    private String[] slotIds = new String[16];
+    private float[] appliedAttenuations = new float[16];
+
+    // Scratch batch handed to NetworkManager, which copies it; grown as needed.
+    private String[] batchIds = new String[16];
+    private float[] batchAttenuations = new float[16];
+
+    private int falloff = FALLOFF_INVERSE;
+    private float minDistance = 1f;
+    private float maxDistance = 50f;
+    private float rolloff = 1f;
+    private float changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+
+    SpatialVoiceAttenuator(NetworkManager networkManager) {
+        this.networkManager = networkManager;
+    }
+
+    /**
+     * @param falloff : one of the FALLOFF_* models
+     * @param minDistance : players closer than this are heard at full volume
+     * @param maxDistance : players farther than this are not heard
+     * @param rolloff : how fast the inverse and exponential models fall off; ignored by the linear model
+     */
+    public synchronized void setFalloff(int falloff, float minDistance, float maxDistance, float rolloff) {
+        if (minDistance <= 0 || maxDistance <= minDistance || rolloff <= 0) {
+            throw new IllegalArgumentException("Invalid falloff distances or rolloff");
+        }
+        this.falloff = falloff;
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        this.rolloff = rolloff;
+    }
+
+    public synchronized void setChangeThreshold(float changeThreshold) {
+        this.changeThreshold = changeThreshold;
+    }
+
+    /**
+     * Applies one frame of positions.
+     * @param playerIds : the players to attenuate, as reported by onPlayerJoined
+     * @param positions : x, y and z of each player, interleaved, 3 * count values
+     * @param count : number of players in this frame
+     */
+    public synchronized void update(float listenerX, float listenerY, float listenerZ,
+                                    String[] playerIds, float[] positions, int count) {
+        ensureBatchCapacity(count);
+        int batchSize = 0;
+        for (int i = 0; i < count; i++) {
+            float dx = positions[3 * i] - listenerX;
+            float dy = positions[3 * i + 1] - listenerY;
+            float dz = positions[3 * i + 2] - listenerZ;
+            float attenuation = attenuate((float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+
+            int slot = slotFor(playerIds[i]);
+            float applied = appliedAttenuations[slot];
+            // Always land exactly on silence and full volume, even when the step is below the threshold.
+            boolean reachedBound = (attenuation == 0f || attenuation == 1f) && attenuation != applied;
+            if (reachedBound || Math.abs(attenuation - applied) >= changeThreshold) {
+                appliedAttenuations[slot] = attenuation;
+                batchIds[batchSize] = playerIds[i];
+                batchAttenuations[batchSize] = attenuation;
+                batchSize++;
+            }
+        }
+
+        if (batchSize > 0) {
+            networkManager.setPlayerAttenuations(batchIds, batchAttenuations, batchSize);
+        }
+    }
+
+    // Called once the player is in none of our networks. Native code drops their attenuation at the
+    // same point, so if they rejoin, both sides start them unattenuated.
+    synchronized void removePlayer(String playerId) {
+        Integer slot = slots.remove(playerId);
+        if (slot == null) {
+            return;
+        }
+        int last = slots.size();
+        if (slot != last) {
+            slotIds[slot] = slotIds[last];
+            appliedAttenuations[slot] = appliedAttenuations[last];
+            slots.put(slotIds[slot], slot);
+        }
+        slotIds[last] = null;
+    }
+
+    synchronized void clear() {
+        slots.clear();
+        for (int i = 0; i < slotIds.length; i++) {
+            slotIds[i] = null;
+        }
+    }
+
+    private float attenuate(float distance) {
+        if (distance <= minDistance) {
+            return 1f;
+        }
+        if (distance >= maxDistance) {
+            return 0f;
+        }
+        switch (falloff) {
+            case FALLOFF_LINEAR:
+                return 1f - (distance - minDistance) / (maxDistance - minDistance);
+            case FALLOFF_EXPONENTIAL:
+                return (float) Math.pow(distance / minDistance, -rolloff);
+            case FALLOFF_INVERSE:
+            default:
+                return minDistance / (minDistance + rolloff * (distance - minDistance));
+        }
+    }
+
+    private int slotFor(String playerId) {
+        Integer slot = slots.get(playerId);
+        if (slot != null) {
+            return slot;
+        }
+        int next = slots.size();
+        if (next == slotIds.length) {
+            String[] grownIds = new String[next * 2];
+            float[] grown = new float[next * 2];
+            System.arraycopy(slotIds, 0, grownIds, 0, next);
+            System.arraycopy(appliedAttenuations, 0, grown, 0, next);
+            slotIds = grownIds;
+            appliedAttenuations = grown;
+        }
+        // Native code starts every player unattenuated.
+        slotIds[next] = playerId;
+        appliedAttenuations[next] = 1f;
+        slots.put(playerId, next);
+        return next;
+    }
+
+    private void ensureBatchCapacity(int count) {
+        if (batchIds.length < count) {
+            batchIds = new String[count];
+            batchAttenuations = new float[count];
+        }
+    }
+}
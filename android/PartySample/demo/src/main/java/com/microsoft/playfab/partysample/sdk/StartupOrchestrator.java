@@ -0,0 +1,222 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Overlaps the steps between launch and the first connected network. While MainActivity is showing,
+ * the native library is loaded on a background thread, which then has the NetworkManager actor
+ * initialize the Party manager. Sign-in starts as soon as a user is picked, before ChatActivity is
+ * created, and ChatActivity acquires audio focus while sign-in is in flight. Once signed in, initialize also sets up the chat control
+ * and its audio devices, so creating or joining a network only has to connect.
+ *
+ * The time each phase was first reached, relative to prepare(), is kept and logged under the
+ * PartyStartup tag once a network is connected.
+ */
+public final class StartupOrchestrator {
+
+    // Keep in sync with PHASE_NAMES.
+    public static final int PHASE_LIBRARY_LOADED = 0;
+    public static final int PHASE_PARTY_WARMED = 1;
+    public static final int PHASE_SIGN_IN_STARTED = 2;
+    public static final int PHASE_SIGNED_IN = 3;
+    public static final int PHASE_AUDIO_FOCUS = 4;
+    public static final int PHASE_CONNECTED = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "libraryLoaded",
+            "partyWarmed",
+            "signInStarted",
+            "signedIn",
+            "audioFocus",
+            "connected",
+    };
+
+    private static final String TAG = "PartyStartup";
+    // Kept next to the PlayFab session cache.
+    private static final String TTS_PROFILE_CACHE_FILE = "tts_profiles";
+
+    private static final StartupOrchestrator instance = new StartupOrchestrator();
+
+    // One thread, so sign-in always runs after the library load and warm-up it depends on.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Milliseconds after prepare() each phase was reached, or -1.
+    private final long[] phaseTimes = new long[PHASE_NAMES.length];
+    private final List<PhaseAction> pendingActions = new ArrayList<>();
+    private long startTime = -1;
+    private Future<Boolean> signIn;
+    private String signInName;
+
+    private static class PhaseAction {
+        final int phase;
+        final Runnable action;
+
+        PhaseAction(int phase, Runnable action) {
+            this.phase = phase;
+            this.action = action;
+        }
+    }
+
+    private StartupOrchestrator() {
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = -1;
+        }
+    }
+
+    public static StartupOrchestrator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Loads the native library and, if the title is known, initializes the Party manager. Returns
+     * at once; later calls only start the clock if it has not been started.
+     */
+    public void prepare(final String titleId) {
+        synchronized (this) {
+            if (startTime >= 0) {
+                return;
+            }
+            startTime = SystemClock.elapsedRealtime();
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // First use of the class runs its static initializer, which loads the library.
+                NetworkManager networkManager = NetworkManager.getInstance();
+                markPhase(PHASE_LIBRARY_LOADED);
+                if (titleId != null && !titleId.isEmpty()) {
+                    NativeActor.await(networkManager.warmUp(titleId), null);
+                    markPhase(PHASE_PARTY_WARMED);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts initialize and sign-in for the user in the background. ChatActivity picks the
+     * result up with awaitSignIn.
+     */
+    public synchronized void startSignIn(final String name, final String titleId, final String sessionCachePath) {
+        prepare(titleId);
+        signInName = name;
+        signIn = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                NetworkManager networkManager = NetworkManager.getInstance();
+                networkManager.setPlayFabTitleID(titleId);
+                networkManager.setPlayFabSessionCachePath(sessionCachePath);
+                networkManager.setTextToSpeechProfileCachePath(
+                        new File(new File(sessionCachePath).getParentFile(), TTS_PROFILE_CACHE_FILE).getAbsolutePath());
+                markPhase(PHASE_SIGN_IN_STARTED);
+                return NativeActor.await(networkManager.initialize(name), false);
+            }
+        });
+    }
+
+    /**
+     * Returns the result of initialize for the user, starting sign-in here if startSignIn was not
+     * called for them. Call from a background thread.
+     */
+    public boolean awaitSignIn(String name, String titleId, String sessionCachePath) {
+        Future<Boolean> pending;
+        synchronized (this) {
+            if (!name.equals(signInName)) {
+                startSignIn(name, titleId, sessionCachePath);
+            }
+            pending = signIn;
+            signIn = null;
+            signInName = null;
+        }
+
+        try {
+            return pending.get();
+        } catch (Exception e) {
+            Log.w(TAG, "Sign-in failed: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Records the first time a phase is reached and runs anything waiting for it on this thread.
+     * Reaching PHASE_CONNECTED logs every phase time.
+     */
+    public void markPhase(int phase) {
+        List<Runnable> ready = new ArrayList<>();
+        String summary = null;
+        synchronized (this) {
+            if (phaseTimes[phase] >= 0 || startTime < 0) {
+                return;
+            }
+            phaseTimes[phase] = SystemClock.elapsedRealtime() - startTime;
+
+            for (int i = pendingActions.size() - 1; i >= 0; i--) {
+                if (pendingActions.get(i).phase == phase) {
+                    ready.add(0, pendingActions.remove(i).action);
+                }
+            }
+            if (phase == PHASE_CONNECTED) {
+                summary = formatPhaseTimes();
+            }
+        }
+
+        if (summary != null) {
+            Log.i(TAG, summary);
+        }
+        for (Runnable action : ready) {
+            action.run();
+        }
+    }
+
+    public synchronized boolean hasReached(int phase) {
+        return phaseTimes[phase] >= 0;
+    }
+
+    /**
+     * Milliseconds since the phase was reached, or -1 if it has not been.
+     */
+    public synchronized long elapsedSince(int phase) {
+        if (phaseTimes[phase] < 0) {
+            return -1;
+        }
+        return SystemClock.elapsedRealtime() - startTime - phaseTimes[phase];
+    }
+
+    /**
+     * Runs the action once the phase is reached, on the thread that reaches it, or right away if
+     * it already has been.
+     */
+    public void whenReached(int phase, Runnable action) {
+        synchronized (this) {
+            if (phaseTimes[phase] < 0) {
+                pendingActions.add(new PhaseAction(phase, action));
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Milliseconds after prepare() for each phase, indexed by PHASE_*; -1 for phases not reached.
+     */
+    public synchronized long[] getPhaseTimes() {
+        return phaseTimes.clone();
+    }
+
+    // One line, so benchmark runs can be compared by grepping logcat.
+    private String formatPhaseTimes() {
+        StringBuilder builder = new StringBuilder("startup");
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            builder.append(' ').append(PHASE_NAMES[i]).append('=').append(phaseTimes[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.microsoft.playfab.partysample.demo.BuildConfig;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Level-gated tracing into a fixed-size in-memory ring, the Java counterpart of the native
+ * Trace facility. A record is an event id, a level, one long argument and one string reference;
+ * nothing is concatenated or formatted until {@link #dump()} is called, so tracing allocates
+ * nothing and a disabled level costs one volatile read. Callers whose arguments cost anything to
+ * compute check {@link #isEnabled(int)} first.
+ *
+ * Writers claim slots with a single atomic increment and never lock. Each slot carries the
+ * sequence number of the record in it, marked while the record is being written; a writer takes
+ * the mark with a compare-and-set, and drops its record in the rare case that one lapping the ring
+ * is still writing the slot, so only one writer is ever in a slot. The payload arrays are atomic
+ * too, so dump reads them in order between its two sequence checks and skips a record that was
+ * being written or was rewritten meanwhile instead of printing a torn one.
+ */
+public final class TraceLog {
+
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_INFO = 2;
+    public static final int LEVEL_DEBUG = 3;
+    public static final int LEVEL_VERBOSE = 4;
+
+    // Keep in sync with EVENT_NAMES.
+    public static final int EVENT_NETWORK_CREATED = 0;
+    public static final int EVENT_MESSAGE_RECEIVED = 1;
+    public static final int EVENT_TRANSCRIPT_RECEIVED = 2;
+    public static final int EVENT_PLAYER_JOINED = 3;
+    public static final int EVENT_PLAYER_LEFT = 4;
+    public static final int EVENT_PLAYER_STATE = 5;
+    public static final int EVENT_HANDLE_MESSAGE = 6;
+    public static final int EVENT_CREATE_MESSAGE_VIEW = 7;
+    public static final int EVENT_BIND_MESSAGE_VIEW = 8;
+    public static final int EVENT_CREATE_MEMBER_VIEW = 9;
+    public static final int EVENT_BIND_MEMBER_VIEW = 10;
+    public static final int EVENT_NATIVE_COMMAND = 11;
+
+    private static final String[] EVENT_NAMES = {
+            "NetworkCreated",
+            "MessageReceived",
+            "TranscriptReceived",
+            "PlayerJoined",
+            "PlayerLeft",
+            "PlayerState",
+            "HandleMessage",
+            "CreateMessageView",
+            "BindMessageView",
+            "CreateMemberView",
+            "BindMemberView",
+            "NativeCommand",
+    };
+
+    private static final String TAG = "PartyTrace";
+    private static final int RING_SIZE = 1024;
+
+    private static volatile int level = BuildConfig.DEBUG ? LEVEL_DEBUG : LEVEL_ERROR;
+
+    // Slot sequence while a record is being written into it.
+    private static final long WRITING = -1;
+
+    private static final AtomicLong next = new AtomicLong();
+    // Sequence number plus one of the record in each slot, zero if there is none yet, or WRITING.
+    private static final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLongArray timestamps = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLongArray args = new AtomicLongArray(RING_SIZE);
+    private static final AtomicIntegerArray headers = new AtomicIntegerArray(RING_SIZE);
+    private static final AtomicReferenceArray<String> texts = new AtomicReferenceArray<>(RING_SIZE);
+
+    private TraceLog() {
+    }
+
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(int eventLevel) {
+        return eventLevel <= level;
+    }
+
+    public static void record(int eventLevel, int event, String text, long arg) {
+        if (eventLevel > level) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        long sequence = next.getAndIncrement();
+        int index = (int) (sequence % RING_SIZE);
+        long previous = sequences.get(index);
+        if (previous == WRITING || !sequences.compareAndSet(index, previous, WRITING)) {
+            return;
+        }
+        timestamps.set(index, now);
+        args.set(index, arg);
+        headers.set(index, (eventLevel << 16) | event);
+        texts.set(index, text);
+        sequences.set(index, sequence + 1);
+    }
+
+    /**
+     * Writes the ring to logcat, oldest record first.
+     */
+    public static void dump() {
+        long end = next.get();
+        int count = (int) Math.min(end, RING_SIZE);
+        Log.i(TAG, "Trace dump: " + count + " records");
+        for (long i = end - count; i < end; i++) {
+            int index = (int) (i % RING_SIZE);
+            if (sequences.get(index) != i + 1) {
+                continue;
+            }
+            long timestamp = timestamps.get(index);
+            long arg = args.get(index);
+            int header = headers.get(index);
+            String text = texts.get(index);
+            if (sequences.get(index) != i + 1) {
+                continue;
+            }
+            int event = header & 0xffff;
+            String name = event < EVENT_NAMES.length ? EVENT_NAMES[event] : "Unknown";
+            Log.i(TAG, (timestamp / 1000) + " L" + (header >>> 16) + " " + name + " " + text + " " + arg);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides whose speech is transcribed and hands the decision to native code whenever it changes.
+ * Nothing is transcribed while the chat screen is hidden. In rooms with more remote members than
+ * the large room size, only recent speakers and followed players are; in smaller rooms everyone is.
+ *
+ * Party transcribes either every remote speaker or none, so selecting speakers drops the other
+ * transcriptions in native code before they become callbacks. Transcription traffic itself stops
+ * while the screen is hidden, or while a large room has no selected speaker.
+ *
+ * Native code gets the policy as a command on the NetworkManager actor, so it can be changed from
+ * any thread, native callbacks included.
+ */
+public class TranscriptionPolicy {
+
+    // Keep in sync with PartySample::TranscriptionScope.
+    static final int SCOPE_NOBODY = 0;
+    static final int SCOPE_EVERYONE = 1;
+    static final int SCOPE_SELECTED_SPEAKERS = 2;
+
+    private static final int DEFAULT_LARGE_ROOM_MEMBERS = 8;
+
+    private final NetworkManager networkManager;
+    private boolean visible = true;
+    private int remoteMembers;
+    private int largeRoomMembers = DEFAULT_LARGE_ROOM_MEMBERS;
+    private final Set<String> recentSpeakers = new HashSet<>();
+    private final Set<String> followed = new HashSet<>();
+
+    // What native code was last given; it starts out transcribing everyone.
+    private int appliedScope = SCOPE_EVERYONE;
+    private Set<String> appliedSpeakers = new HashSet<>();
+
+    TranscriptionPolicy(NetworkManager networkManager) {
+        this.networkManager = networkManager;
+    }
+
+    public synchronized void setVisible(boolean visible) {
+        this.visible = visible;
+        apply(false);
+    }
+
+    /**
+     * Rooms with more remote members than this only transcribe recent speakers and followed players.
+     */
+    public synchronized void setLargeRoomMembers(int largeRoomMembers) {
+        this.largeRoomMembers = largeRoomMembers;
+        apply(false);
+    }
+
+    /**
+     * Native code only knows the players who have joined, so the selection is handed over again
+     * whenever the count changes.
+     */
+    public synchronized void setRemoteMemberCount(int count) {
+        if (remoteMembers == count) {
+            return;
+        }
+        remoteMembers = count;
+        apply(true);
+    }
+
+    public synchronized void setRecentSpeakers(List<String> playerIds) {
+        recentSpeakers.clear();
+        recentSpeakers.addAll(playerIds);
+        apply(false);
+    }
+
+    /**
+     * Followed players are transcribed in large rooms whether or not they spoke recently, and
+     * stay followed across rooms.
+     */
+    public synchronized void follow(String playerId) {
+        if (followed.add(playerId)) {
+            apply(false);
+        }
+    }
+
+    public synchronized void unfollow(String playerId) {
+        if (followed.remove(playerId)) {
+            apply(false);
+        }
+    }
+
+    public synchronized boolean isFollowed(String playerId) {
+        return followed.contains(playerId);
+    }
+
+    private void apply(boolean membersChanged) {
+        int scope;
+        Set<String> speakers = new HashSet<>();
+        if (!visible) {
+            scope = SCOPE_NOBODY;
+        } else if (remoteMembers <= largeRoomMembers) {
+            scope = SCOPE_EVERYONE;
+        } else {
+            scope = SCOPE_SELECTED_SPEAKERS;
+            speakers.addAll(recentSpeakers);
+            speakers.addAll(followed);
+        }
+
+        boolean unchanged = scope == appliedScope && speakers.equals(appliedSpeakers);
+        if (unchanged && !(membersChanged && scope == SCOPE_SELECTED_SPEAKERS)) {
+            return;
+        }
+        appliedScope = scope;
+        appliedSpeakers = speakers;
+        networkManager.setTranscriptionPolicy(scope, speakers.toArray(new String[speakers.size()]));
+    }
+}
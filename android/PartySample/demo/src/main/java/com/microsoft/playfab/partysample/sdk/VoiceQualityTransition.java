@@ -0,0 +1,22 @@
+package com.microsoft.playfab.partysample.sdk;
+
+/**
+ * One change of the voice encoding tier, with the statistics sample that caused it.
+ */
+public class VoiceQualityTransition {
+    // On the native monotonic clock, which is System.nanoTime's clock in milliseconds.
+    public final long timeMs;
+    // NetworkManager.VOICE_QUALITY_* values.
+    public final int fromTier;
+    public final int toTier;
+    public final long lossPermille;
+    public final long roundTripMs;
+
+    VoiceQualityTransition(long timeMs, int fromTier, int toTier, long lossPermille, long roundTripMs) {
+        this.timeMs = timeMs;
+        this.fromTier = fromTier;
+        this.toTier = toTier;
+        this.lossPermille = lossPermille;
+        this.roundTripMs = roundTripMs;
+    }
+}
@@ -0,0 +1,131 @@
+package com.microsoft.playfab.partysample.sdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ChatSearchIndexTest {
+
+    // Several sessions' worth of chat and transcripts.
+    private static final int LARGE_HISTORY = 300000;
+    // Median time a query may take over LARGE_HISTORY messages.
+    private static final long QUERY_BUDGET_MS = 10;
+    private static final int QUERY_RUNS = 21;
+    private static final int PAGE_SIZE = 50;
+
+    @Test
+    public void matchesPrefixesSendersAndEveryPart() {
+        ChatSearchIndex index = new ChatSearchIndex();
+        index.add("Alice", "Ready for the raid?");
+        index.add("Bob", "Raiding now, ready-check please");
+        index.add("alice", "brb");
+        index.add("Carol", "READY");
+
+        assertArrayEquals(new int[] { 3, 1, 0 }, index.search("rea", index.end(), PAGE_SIZE).messageIds);
+        assertArrayEquals(new int[] { 1, 0 }, index.search("raid", index.end(), PAGE_SIZE).messageIds);
+        assertArrayEquals(new int[] { 1 }, index.search("ready-check", index.end(), PAGE_SIZE).messageIds);
+        assertArrayEquals(new int[] { 2, 0 }, index.search("from:ALICE", index.end(), PAGE_SIZE).messageIds);
+        assertArrayEquals(new int[] { 0 }, index.search("from:alice ready", index.end(), PAGE_SIZE).messageIds);
+        assertArrayEquals(new int[0], index.search("from:dave", index.end(), PAGE_SIZE).messageIds);
+
+        // A single letter only matches the whole word.
+        assertArrayEquals(new int[0], index.search("r", index.end(), PAGE_SIZE).messageIds);
+        assertEquals(0, index.search("  ", index.end(), PAGE_SIZE).total);
+    }
+
+    @Test
+    public void pagesStayPutWhileMessagesArrive() {
+        ChatSearchIndex index = new ChatSearchIndex();
+        for (int i = 0; i < 10; i++) {
+            index.add("Alice", "message " + i);
+        }
+
+        ChatSearchIndex.Page first = index.search("message", index.end(), 4);
+        assertArrayEquals(new int[] { 9, 8, 7, 6 }, first.messageIds);
+        assertEquals(10, first.total);
+
+        index.add("Bob", "message 10");
+        ChatSearchIndex.Page second = index.search("message", first.messageIds[first.messageIds.length - 1], 4);
+        assertArrayEquals(new int[] { 5, 4, 3, 2 }, second.messageIds);
+        assertEquals(6, second.total);
+
+        index.clear();
+        assertEquals(0, index.end());
+        assertEquals(0, index.search("message", index.end(), 4).total);
+    }
+
+    // Builds an index of LARGE_HISTORY generated chat lines and times the queries the search
+    // view makes on each keystroke: a short prefix, a longer one, a sender filter and both.
+    @Test
+    public void queriesLargeHistoryInMilliseconds() {
+        String[] vocabulary = vocabulary(5000);
+        String[] senders = new String[40];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = "player" + i;
+        }
+
+        ChatSearchIndex index = new ChatSearchIndex();
+        Random random = new Random(7);
+        StringBuilder line = new StringBuilder();
+        long buildStart = System.nanoTime();
+        for (int i = 0; i < LARGE_HISTORY; i++) {
+            line.setLength(0);
+            int words = 3 + random.nextInt(10);
+            for (int j = 0; j < words; j++) {
+                // Skewed toward the front of the vocabulary, as word use is.
+                int word = (int) (vocabulary.length * Math.pow(random.nextDouble(), 3));
+                line.append(vocabulary[word]).append(j % 4 == 3 ? ", " : " ");
+            }
+            index.add(senders[random.nextInt(senders.length)], line.toString());
+        }
+        long buildMs = (System.nanoTime() - buildStart) / 1000000;
+        System.out.println("Indexed " + LARGE_HISTORY + " messages in " + buildMs + " ms, "
+                + (LARGE_HISTORY * 1000L / Math.max(buildMs, 1)) + " per second");
+
+        String[] queries = {
+                vocabulary[0].substring(0, 2),
+                vocabulary[vocabulary.length / 2],
+                "from:" + senders[3],
+                "from:" + senders[3] + " " + vocabulary[1].substring(0, 3),
+        };
+        for (String query : queries) {
+            ChatSearchIndex.Page page = null;
+            long[] runs = new long[QUERY_RUNS];
+            for (int i = 0; i < runs.length; i++) {
+                long start = System.nanoTime();
+                page = index.search(query, index.end(), PAGE_SIZE);
+                runs[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(runs);
+            double medianMs = runs[runs.length / 2] / 1e6;
+            System.out.println(String.format("%-24s %8d matches %8.3f ms", query, page.total, medianMs));
+
+            assertTrue(query + " found nothing", page.total > 0);
+            assertTrue(query + " took " + medianMs + " ms", medianMs <= QUERY_BUDGET_MS);
+        }
+    }
+
+    // Distinct made-up words of two to four syllables.
+    private static String[] vocabulary(int size) {
+        String[] syllables = { "ka", "lo", "mi", "ra", "ten", "vu", "sho", "pel", "dri", "an", "qua", "zor" };
+        Random random = new Random(11);
+        Set<String> words = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        while (words.size() < size) {
+            word.setLength(0);
+            int count = 2 + random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            words.add(word.toString());
+        }
+        return words.toArray(new String[size]);
+    }
+}
@@ -1,6 +1,7 @@
 #pragma once
 
 #include "Manager.h"
+#include "NetworkStatistics.h"
 
 // Interface for handling messages resulting from network state changes.
 
@@ -10,18 +11,28 @@ namespace PartySample
     class INetworkStateChangeManager : public Manager
     {
     public:
-        // Called when a chat control has been destroyed
-        virtual void onPlayerLeft(PartyString playerId) = 0;
+        // Every callback names the network it belongs to, since the local user can be in several at once.
+        // System messages that do not belong to a network carry an empty network id.
+
+        // Called when a chat control has left a network, or has been destroyed while in it.
+        virtual void onPlayerLeft(const std::string& networkId, PartyString playerId) = 0;
         
         // Called when an endpoint message is received from another chat control.
         // Used to send the user display name to other chat controls. Replaces the onPlayerJoin functionality.
-        virtual void ProcessEndpointMessage(std::string& sender, std::string& message) = 0;
+        virtual void ProcessEndpointMessage(const std::string& networkId, std::string& sender, std::string& message) = 0;
         
         // Called when a text chat message is sent to the chat control.
-        virtual void ProcessTextMessage(std::string& sender, std::string &message) = 0;
+        virtual void ProcessTextMessage(const std::string& networkId, std::string& sender, std::string &message) = 0;
         
         // Called when a voice transcription is sent to the chat control.
-        virtual void ProcessVoiceMessage(std::string& sender, std::string &message) = 0;
+        virtual void ProcessVoiceMessage(const std::string& networkId, std::string& sender, std::string &message) = 0;
+
+        // Called on each statistics sample of the active network.
+        virtual void ProcessNetworkStatistics(const NetworkStatisticsSample& network, const std::vector<EndpointStatisticsSample>& endpoints) = 0;
+
+        // Called each time a pong refreshes a peer's estimates. The offset is the peer's monotonic clock
+        // minus ours, in microseconds.
+        virtual void ProcessPeerClock(const std::string& networkId, const std::string& peer, int64_t roundTripUs, int64_t offsetUs) = 0;
     };
     
 }
@@ -6,8 +6,13 @@
 // other endpoints and chat controls.
 
 #include "pch.h"
+#include <set>
 #include "PlayFabManager.h"
 #include "NetworkMessages.h"
+#include "NetworkStatistics.h"
+#include "PeerClock.h"
+#include "Roster.h"
+#include "VoiceQuality.h"
 
 namespace PartySample
 {
@@ -22,6 +27,60 @@ namespace PartySample
         Leaving
     };
 
+    // Whose speech NetworkManager::SetTranscriptionPolicy has transcribed.
+    enum class TranscriptionScope
+    {
+        // No one, including the local user; Party sends no transcriptions at all.
+        Nobody,
+        // Every chat control, local and remote.
+        Everyone,
+        // The local user and the given remote speakers.
+        SelectedSpeakers
+    };
+
+    // One network the local user is in. Each network has its own endpoint, connection callbacks
+    // and member registry; the local user and local chat control are shared by all of them.
+    struct NetworkSession
+    {
+        std::string networkId;
+        Party::PartyNetwork* network = nullptr;
+        Party::PartyLocalEndpoint* localEndpoint = nullptr;
+        NetworkManagerState state = NetworkManagerState::Initialize;
+        std::function<void(std::string)> onNetworkCreated;
+        std::function<void(PartyError)> onNetworkCreatedError;
+        std::function<void(PartyError)> onNetworkConnectedError;
+        std::function<void(void)> onNetworkConnected;
+        std::function<void(void)> onNetworkLeft;
+        // Remote chat controls that have joined this network; the recipients for SendTextMessage.
+        std::vector<Party::PartyChatControl*> remoteChatControls;
+        // Endpoints of the local guests in this network, by entity id; used to announce their display names.
+        std::map<std::string, Party::PartyLocalEndpoint*> guestEndpoints;
+        uint64_t lastSentPackets = 0;
+        uint64_t lastRetriedPackets = 0;
+        uint64_t lastDroppedPackets = 0;
+        // Compresses and fragments the endpoint messages sent to this network, and reassembles the ones received.
+        NetworkMessageAssembler messages;
+        // Round trip and clock offset estimates by remote entity id, from Ping/Pong messages.
+        std::map<std::string, PeerClock> peerClocks;
+        // Pings sent to this network; the number of the newest one.
+        uint32_t clockProbes = 0;
+        // Display names of the users with endpoints in this network, and the ones without a name yet;
+        // what a roster snapshot from us holds, along with our own names.
+        Roster roster;
+        // Set once our endpoint has announced itself and asked a peer for the roster.
+        bool rosterRequested = false;
+    };
+
+    // A further local user on this device. Guests share the local device, its audio render path and
+    // the work loop with the primary user, and each has its own chat control and endpoint.
+    struct LocalGuest
+    {
+        std::string entityToken;
+        std::string displayName;
+        Party::PartyLocalUser* user = nullptr;
+        Party::PartyLocalChatControl* chatControl = nullptr;
+    };
+
     class NetworkManager : public Manager
     {
     public:
@@ -33,22 +92,60 @@ namespace PartySample
         // And sets up chat controls for when the user is connected to a network.
         void Initialize(const char* titleId);
 
-        //Creates a new network and registers it with the playfab title, storing connection information by keying off the network Id.
+        // Initializes only the party manager, which needs no signed in user, so it can be done ahead of Initialize.
+        bool InitializePartyManager(const char* titleId);
+
+        // Creates a new network and registers it with the playfab title, storing connection information by keying off the network Id.
+        // Networks the user is already in are kept; the new network becomes the active one once connected.
+        // Does nothing if a network with this id is already open.
         void CreateAndConnectToNetwork(const char *networkId, std::function<void(std::string)> callback = nullptr, std::function<void(PartyError)> errorCallback = nullptr);
-        //Connects the current user and chat control to the specified network descriptor using the network Id as an invite Id.
+        // Connects the current user and chat control to the specified network descriptor using the network Id as an invite Id.
+        // Networks the user is already in are kept; the new network becomes the active one once connected.
+        // Does nothing if a network with this id is already open.
         void ConnectToNetwork(const char *networkId, const char* descriptor, std::function<void(void)> callback = nullptr, std::function<void(PartyError)> errorCallback = nullptr);
-        // Sends an endpoint message containing non chat information.
+        // Sends an endpoint message containing non chat information to the active network.
         void SendNetworkMessage(const NetworkMessage& message);
-        // Sends a message as a synthesized voice message to all available chat controls.
+        // Sends a message as a synthesized voice message. Voice goes to every network the chat control is in.
         void SendTextAsVoice(std::string text);
-        // Sends a message as plain text to all available chat controls.
+        // Sends a message as plain text to all remote chat controls in the active network.
         void SendTextMessage(PartyString text);
-        // Disconnects the chat control from the currently connected network.
+        // Sends a message as plain text to all remote chat controls in the given network.
+        void SendTextMessage(const std::string& networkId, PartyString text);
+        // Sends a phrase from QuickPhrases.h to the active network as its id. Receivers show it in
+        // their own language and, if narrate is set, read it aloud with their own voice.
+        void SendQuickPhrase(uint32_t phraseId, bool narrate);
+        // Disconnects the chat control from the active network.
         void LeaveNetwork(std::function<void(void)> callback = nullptr);
+        // Disconnects the chat control from the given network; other networks stay connected.
+        void LeaveNetwork(const std::string& networkId, std::function<void(void)> callback = nullptr);
+        // Makes a connected network the target of SendTextMessage, SendNetworkMessage and statistics sampling.
+        bool SetActiveNetwork(const std::string& networkId);
+        // Id of the active network, or an empty string if there is none.
+        std::string GetActiveNetworkId();
+        // Ids of every network that is open, in any state.
+        std::vector<std::string> GetNetworkIds();
+        // Returns whether a remote user is a member of any open network.
+        bool IsMemberOfAnyNetwork(const std::string& entityId);
         // Disposes of the local user and chat controls.
         void Shutdown();
         // Sets the volume
         void SetPlayerVolume(float volumeZeroToOne);
+        // Hands Party a new entity token for the local user, after the PlayFab session is refreshed.
+        void UpdateEntityToken(const std::string& entityToken);
+        // Adds a further local user with its own chat control; it joins every connected network, and
+        // every network connected to later. The credentials are kept, so the user is recreated
+        // after Shutdown and Initialize until RemoveLocalUser is called.
+        void AddLocalUser(const std::string& entityId, const std::string& entityToken, const std::string& displayName);
+        // Takes a local user added with AddLocalUser out of every network and destroys its chat control.
+        void RemoveLocalUser(const std::string& entityId);
+        // Entity ids of the local users added with AddLocalUser.
+        std::vector<std::string> GetLocalUserIds();
+        // Sends text to the active network, or text synthesized to voice to every network, from a local user added with AddLocalUser.
+        void SendTextMessageAs(const std::string& entityId, PartyString text);
+        void SendTextAsVoiceAs(const std::string& entityId, std::string text);
+        // Sets a per-peer attenuation, keyed by entity id, that scales the volume set by SetPlayerVolume.
+        // All values are applied in one pass under the network lock.
+        void SetPeerAttenuations(const std::vector<std::string>& entityIds, const std::vector<float>& attenuations);
 
         // Main update loop.
         void DoWork();
@@ -61,6 +158,8 @@ namespace PartySample
         // Allows access to currently connected chat controls.
         Party::PartyChatControl* GetChatControl(const std::string& peer);
         Party::PartyLocalChatControl* GetLocalChatControl() { return m_localChatControl; }
+        // Chat control of a local user added with AddLocalUser, or nullptr if it has none yet.
+        Party::PartyLocalChatControl* GetLocalChatControl(const std::string& entityId);
 
         // Mute or unmute the microphone.
         void setAudioInputEnabled(bool enabled);
@@ -71,21 +170,27 @@ namespace PartySample
         // Returns whether the text to speech profile has been set.
         bool getIsTextToSpeechProfileSet();
 
-        // Current network state.
-        inline NetworkManagerState State() { return m_state; }
+        // Where the text to speech profiles Party lists are kept between launches, so a new chat
+        // control gets its profile before Party has listed them again. The file is read at once.
+        void SetTextToSpeechProfileCachePath(const std::string& path);
+
+        // State of the active network, or Initialize if there is none.
+        NetworkManagerState State();
+        // State of the given network, or Initialize if it is not open.
+        NetworkManagerState State(const std::string& networkId);
 
         // Convert a party error to a human readable message.
         PartyString GetErrorMessage(PartyError error);
 
-        // Set callback to handle if the network gets destroyed for any reason
-        // The callback takes a bool param for if we expected the destruction
+        // Set callback to handle if a network gets destroyed for any reason
+        // The callback takes the network id and a bool param for if we expected the destruction
         // such as if the user initiated leaving the network.
         // In the event of an unanticipated disconnect, we apply reconnect logic
         // at the app layer.
-        void SetOnNetworkDestroyed(std::function<void(bool)> callback);
+        void SetOnNetworkDestroyed(std::function<void(std::string, bool)> callback);
 
-        // Check if network is currently trying to connect.
-        bool IsConnecting() const;
+        // Check if any network is currently trying to connect.
+        bool IsConnecting();
 
         // If Audio IO devices have been configured on ChatControls but disconnected
         // this method will restore them.
@@ -96,33 +201,122 @@ namespace PartySample
         // later if desired.
         void DisconnectAudioInput();
 
+        // Mutes capture in place, e.g. while another app holds transient audio focus. The input
+        // device stays configured, so unpausing resumes voice at once. Capture is only live when
+        // it is neither paused nor disabled with setAudioInputEnabled.
+        void SetAudioInputPaused(bool paused);
+
+        // Scales the render volume of every remote chat control, on top of SetPlayerVolume and any
+        // peer attenuation, while another app ducks us. 1 restores the full volume.
+        void SetRenderDucking(float volumeScale);
+
+        // Sets how often network and endpoint statistics are sampled and reported through
+        // INetworkStateChangeManager::ProcessNetworkStatistics. Zero disables sampling.
+        void SetStatisticsSampleInterval(uint32_t intervalMs);
+
+        // Sets how often every connected network is pinged to refresh each peer's round trip and
+        // clock offset, reported through INetworkStateChangeManager::ProcessPeerClock. Zero disables probing.
+        void SetClockProbeInterval(uint32_t intervalMs);
+
+        // Copies the latest estimate for the peer from any network it is in; false if there is none yet.
+        bool GetPeerClock(const std::string& entityId, PeerClock& clock);
+
+        // Chooses whose speech is transcribed; speakerIds are entity ids, used with SelectedSpeakers.
+        // Party transcribes either every remote chat control or none, so selected speakers still
+        // cost transcription traffic, but transcriptions from anyone else are dropped before they
+        // reach INetworkStateChangeManager. New options are only sent to Party when they differ
+        // from the ones in effect.
+        void SetTranscriptionPolicy(TranscriptionScope scope, const std::vector<std::string>& speakerIds);
+
+        // The voice encoding tier chosen from the active network's statistics, which are only read
+        // while SetStatisticsSampleInterval is on. Each change sets the local chat control's
+        // encoder bitrate, where Party supports it.
+        VoiceQualityTier GetVoiceQualityTier();
+        // The most recent tier changes, oldest first.
+        std::vector<VoiceQualityTransition> GetVoiceQualityHistory();
+
     private:
         PartyError CreateChatControlIfNecessary();
-        bool InternalConnectToNetwork(const Party::PartyNetworkDescriptor& descriptor, const char *networkId, std::function<void(PartyError)> errorCallback);
+        bool InternalConnectToNetwork(NetworkSession* session, const Party::PartyNetworkDescriptor& descriptor, std::function<void(PartyError)> errorCallback);
+        NetworkSession* OpenSession(const char* networkId);
+        void CloseSession(NetworkSession* session);
+        NetworkSession* FindSession(const std::string& networkId);
+        NetworkSession* FindSession(Party::PartyNetwork* network);
+        NetworkSession* FindSessionForChatControl(Party::PartyChatControl* chatControl);
+        void SendNetworkMessage(NetworkSession* session, const NetworkMessage& message);
+        void SendNetworkMessage(NetworkSession* session, Party::PartyLocalEndpoint* endpoint, const NetworkMessage& message);
+        void SendTextMessage(NetworkSession* session, Party::PartyLocalChatControl* sender, PartyString text);
+        PartyError CreateGuestUser(const std::string& entityId, LocalGuest& guest);
+        PartyError CreateGuestChatControl(LocalGuest& guest);
+        void ConnectGuest(NetworkSession* session, const std::string& entityId, LocalGuest& guest);
+        void SetGuestPermissions(LocalGuest& guest, Party::PartyChatControl* remote);
+        void LeaveNetwork(NetworkSession* session, std::function<void(void)> callback);
         void setTextToSpeechProfile();
+        void CacheTextToSpeechProfiles();
         bool isTranslationInTheLocalLanguage(Party::PartyTranslation translation);
         std::string findExpectedTranslation(Party::PartyTranslation *translations, int translationCount);
+        void SampleStatistics(NetworkSession* session);
+        void SendClockProbe(NetworkSession* session, Party::PartyEndpoint* target, const NetworkMessage& message);
+        void ProcessClockProbe(NetworkSession* session, Party::PartyEndpoint* sender, const std::string& senderId, NetworkMessage& message);
+        void ProcessQuickPhrase(NetworkSession* session, Party::PartyEndpoint* sender, const std::string& senderId, NetworkMessage& message);
+        void SendNetworkMessage(NetworkSession* session, Party::PartyLocalEndpoint* endpoint, Party::PartyEndpoint* target, const NetworkMessage& message);
+        void AnnounceDisplayName(NetworkSession* session, Party::PartyLocalEndpoint* endpoint, Party::PartyEndpoint* target);
+        void ProcessRosterMessage(NetworkSession* session, const Party::PartyEndpointMessageReceivedStateChange* received, const std::string& senderId, NetworkMessage& message);
+        void LearnDisplayName(NetworkSession* session, const std::string& entityId, const std::string& displayName);
+        void AskUnnamedEndpoints(NetworkSession* session);
+        void RequestRosterSnapshot(NetworkSession* session);
+        static void AddRemoteChatControl(NetworkSession* session, Party::PartyChatControl* chatControl);
+        static bool RemoveRemoteChatControl(NetworkSession* session, Party::PartyChatControl* chatControl);
+        void ForgetPeerAttenuation(const std::string& entityId, Party::PartyChatControl* chatControl);
+        float GetRenderVolume(const std::string& entityId) const;
+        void ApplyRenderVolumes();
+        Party::PartyVoiceChatTranscriptionOptions GetTranscriptionOptions() const;
+        void ApplyTranscriptionOptions();
+        void ApplyVoiceBitrate();
+        bool IsTranscribed(Party::PartyChatControl* sender, const std::string& senderId);
 
-        std::function<void(std::string)> m_onNetworkCreated;
-        std::function<void(PartyError)> m_onNetworkCreatedError;
-        std::function<void(PartyError)> m_onNetworkConnectedError;
-        std::function<void(void)> m_onNetworkConnected;
-        std::function<void(void)> m_onNetworkLeft;
-        std::function<void(bool)> m_onNetworkDestroyed;
-        NetworkManagerState m_state;
+        std::function<void(std::string, bool)> m_onNetworkDestroyed;
+        // Open networks by id, and by Party network so DoWork can route each state change with one lookup.
+        std::map<std::string, std::unique_ptr<NetworkSession>> m_sessions;
+        std::unordered_map<Party::PartyNetwork*, NetworkSession*> m_sessionsByNetwork;
+        NetworkSession* m_activeSession;
         std::map<std::string, Party::PartyChatControl*> m_chatControls;
         Party::PartyLocalUser* m_localUser;
-        Party::PartyLocalEndpoint* m_localEndpoint;
         Party::PartyLocalChatControl* m_localChatControl;
-        Party::PartyNetwork* m_network;
+        std::map<std::string, LocalGuest> m_localGuests;
         PartyString m_languageCode;
         PartyString m_languageName;
         bool m_isChatControlConnected;
         bool m_isTextToSpeechProfileSet;
+        // Whether the local chat control can narrate received quick phrases.
+        bool m_isNarrationProfileSet;
         bool m_partyInitialized;
+        std::string m_partyTitleId;
         bool m_populateProfilesCompleted;
         std::atomic_bool m_ttsProfileNeedsUpdate;
-        std::mutex m_networkLock;
+        std::string m_textToSpeechProfileCachePath;
+        // Profile identifiers by language code, the first listed for each.
+        std::map<std::string, std::string> m_textToSpeechProfiles;
+        // Identifier last set on the local chat control, so the same profile is not set again.
+        std::string m_textToSpeechProfileId;
+        // Recursive so that callbacks raised from DoWork can query the manager.
+        std::recursive_mutex m_networkLock;
         float m_renderVolume;
+        float m_renderDucking;
+        bool m_audioInputEnabled;
+        bool m_audioInputPaused;
+        // Peers without an entry are not attenuated.
+        std::map<std::string, float> m_peerAttenuations;
+        std::atomic<uint32_t> m_statisticsIntervalMs;
+        std::chrono::steady_clock::time_point m_lastStatisticsSample;
+        std::atomic<uint32_t> m_clockProbeIntervalMs;
+        std::chrono::steady_clock::time_point m_lastClockProbe;
+        TranscriptionScope m_transcriptionScope;
+        std::set<std::string> m_transcribedSpeakers;
+        // Options last set on the local chat control.
+        Party::PartyVoiceChatTranscriptionOptions m_transcriptionOptions;
+        VoiceQualityController m_voiceQuality;
+        // Cleared the first time Party refuses a bitrate, so it is not asked again on every change.
+        bool m_voiceBitrateSupported;
     };
 }
@@ -1,18 +1,39 @@
 #pragma once
 
+#include "NetworkStatistics.h"
+
 // Represents data that can be sent to endpoints.
-// Currently defines the UserDisplayName message to pass the display name to other chat controls.
+// Display names are passed between chat controls with the UserDisplayName and Roster messages.
+// NetworkMessageAssembler turns a message into the packets actually sent, compressing and splitting
+// large ones, and puts received packets back together.
 
 namespace PartySample
 {
 
-    // The type of message to be sent. Should always be UserDisplayName.
+    // The type of message to be sent. Compressed and Fragment only wrap another message on the wire.
+    // Ping carries the sender's monotonic time; Pong echoes it back with the responder's.
+    // QuickPhrase carries a phrase id from QuickPhrases.h that receivers show in their own language.
+    // A newcomer announces its UserDisplayName to everyone and sends one peer a RosterRequest for the
+    // rest, answered with a RosterSnapshot of every name that peer knows: one line per user, the
+    // entity id, a tab and the display name. A RosterRequest for c_rosterRequestOwnName is answered
+    // with only the UserDisplayName of the endpoint it was sent to; Roster decides when to send which.
     enum class NetworkMessageType
     {
         Unknown,
-        UserDisplayName
+        UserDisplayName,
+        Compressed,
+        Fragment,
+        Ping,
+        Pong,
+        QuickPhrase,
+        RosterRequest,
+        RosterSnapshot
     };
 
+    // RosterRequest payloads.
+    const unsigned c_rosterRequestSnapshot = 0;
+    const unsigned c_rosterRequestOwnName = 1;
+
     // The data class used to package the user display name for transfer as an endpoint message.
     class NetworkMessage
     {
@@ -50,4 +71,51 @@ namespace PartySample
         std::vector<uint8_t> m_data;
     };
 
+    // Packs messages for one network. Payloads over a threshold are deflated when that makes them
+    // smaller, and packets too large for one datagram are split into fragments. Small messages go out
+    // exactly as NetworkMessage::Serialize writes them.
+    // Received fragments are held per sender until the message is complete. Partial messages are
+    // dropped once they time out, or oldest first when the bytes held reach a limit.
+    class NetworkMessageAssembler
+    {
+    public:
+        NetworkMessageAssembler();
+
+        // Returns the packets to send in order, or none if the message is empty or too large.
+        std::vector<std::vector<uint8_t>> Encode(const NetworkMessage &message);
+
+        // Takes one received packet. Returns true and fills in message once a whole message is in.
+        bool Decode(
+            const std::string &sender,
+            const uint8_t *data,
+            size_t size,
+            NetworkMessage &message
+            );
+
+        // Drops partial messages from a sender that has left.
+        void RemoveSender(const std::string &sender);
+
+        // Returns the counters gathered since the last call and starts new ones.
+        MessageStatisticsSample TakeStatistics();
+
+    private:
+        struct Reassembly
+        {
+            std::vector<std::vector<uint8_t>> fragments;
+            uint16_t received = 0;
+            size_t bytes = 0;
+            std::chrono::steady_clock::time_point started;
+        };
+
+        bool Unpack(const uint8_t *data, size_t size, NetworkMessage &message);
+        void ExpireReassemblies(std::chrono::steady_clock::time_point now);
+        void DropOldestReassembly();
+
+        // Partial messages by sender entity id and message id.
+        std::map<std::pair<std::string, uint32_t>, Reassembly> m_reassemblies;
+        size_t m_reassemblyBytes;
+        uint32_t m_nextMessageId;
+        MessageStatisticsSample m_statistics;
+    };
+
 }
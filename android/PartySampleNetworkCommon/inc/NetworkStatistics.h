@@ -0,0 +1,51 @@
+#pragma once
+
+// Link health samples read from the Party network and endpoint statistics.
+// Packet counts are deltas since the previous sample; everything else is the current value.
+
+namespace PartySample
+{
+
+    // Endpoint message framing. Compression ratio is sentWireBytes / sentPayloadBytes; average
+    // reassembly latency is totalReassemblyMs / reassembledMessages.
+    struct MessageStatisticsSample
+    {
+        uint64_t sentMessages = 0;
+        // Serialized size before compression, and what was handed to Party including fragment headers.
+        uint64_t sentPayloadBytes = 0;
+        uint64_t sentWireBytes = 0;
+        uint64_t compressedMessages = 0;
+        uint64_t fragmentedMessages = 0;
+        uint64_t reassembledMessages = 0;
+        // From the first fragment of a message arriving to the last.
+        uint64_t totalReassemblyMs = 0;
+        uint64_t maxReassemblyMs = 0;
+        // Partial messages that timed out, ones dropped to stay under the reassembly byte limit,
+        // and packets that could not be read.
+        uint64_t expiredReassemblies = 0;
+        uint64_t evictedReassemblies = 0;
+        uint64_t droppedPackets = 0;
+    };
+
+    struct NetworkStatisticsSample
+    {
+        uint64_t relayRoundTripLatencyMs;
+        uint64_t sentPackets;
+        uint64_t retriedPackets;
+        uint64_t droppedPackets;
+        uint64_t queuedSendMessages;
+        MessageStatisticsSample messages;
+    };
+
+    // Statistics between the local endpoint and one remote endpoint.
+    struct EndpointStatisticsSample
+    {
+        std::string entityId;
+        uint64_t roundTripLatencyMs;
+        uint64_t queuedSendMessages;
+        // Recent clock probes this endpoint left unanswered; Party has no per-endpoint loss
+        // statistic. Zero until clock probes have been answered.
+        uint64_t probeLossPermille;
+    };
+
+}
@@ -0,0 +1,59 @@
+#pragma once
+
+// Round trip time and clock offset estimates for one remote peer, built from Ping/Pong endpoint
+// messages. Times are microseconds of each device's monotonic clock; MonotonicTimeMicros reads the
+// local one, which is the same clock as System.nanoTime on the Java side.
+
+namespace PartySample
+{
+
+    int64_t MonotonicTimeMicros();
+
+    class PeerClock
+    {
+    public:
+        PeerClock();
+
+        // sentUs and receivedUs are when the ping left and the pong arrived, on the local clock;
+        // peerUs is the peer's clock when it answered.
+        void AddSample(int64_t sentUs, int64_t peerUs, int64_t receivedUs);
+
+        bool HasEstimate() const { return m_sampleCount > 0; }
+
+        // Smoothed the way TCP smooths its round trip time, so one slow probe only moves it an eighth.
+        int64_t RoundTripUs() const { return m_smoothedRoundTripUs; }
+
+        // Peer clock minus local clock.
+        int64_t OffsetUs() const { return m_offsetUs; }
+
+        // Converts a time stamped by the peer to the local clock.
+        int64_t ToLocalTime(int64_t peerUs) const { return peerUs - m_offsetUs; }
+
+        // Pings are numbered per network from one. Marks the numbered ping as answered by this peer.
+        void AddAnswer(uint32_t probe);
+
+        // Share of the recent pings this peer left unanswered, in permille, counted from the first
+        // one it answered. lastProbe is the newest ping sent; it may still be in flight, so it is
+        // not counted. Zero until there is a ping to count.
+        uint64_t ProbeLossPermille(uint32_t lastProbe) const;
+
+    private:
+        static const size_t c_windowSize = 8;
+        static const uint32_t c_lossWindow = 16;
+
+        struct Sample
+        {
+            int64_t roundTripUs;
+            int64_t offsetUs;
+        };
+
+        Sample m_window[c_windowSize];
+        size_t m_sampleCount;
+        int64_t m_smoothedRoundTripUs;
+        int64_t m_offsetUs;
+        uint32_t m_firstAnswered;
+        // The answered ping numbers, each at its number modulo c_lossWindow.
+        uint32_t m_answered[c_lossWindow];
+    };
+
+}
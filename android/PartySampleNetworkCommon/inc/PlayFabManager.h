@@ -11,6 +11,7 @@
 #include "playfab/PlayFabEventsDataModels.h"
 #include "playfab/PlayFabMultiplayerDataModels.h"
 #include "playfab/PlayFabDataApi.h"
+#include "playfab/PlayFabClientInstanceApi.h"
 
 //#define USE_PUBLIC_PLAYFAB_SDK
 #ifndef USE_PUBLIC_PLAYFAB_SDK
@@ -20,6 +21,13 @@ namespace PlayFab=PlayFabInternal;
 namespace PartySample
 {
 
+    // The entity credentials Party needs to create a local user.
+    struct PlayFabEntityCredentials
+    {
+        std::string entityId;
+        std::string entityToken;
+    };
+
     class PlayFabManager : public Manager
     {
     public:
@@ -30,9 +38,21 @@ namespace PartySample
         void Initialize(const char* titleId);
 
         // Main function to get authorized with playfab before using the Party APIs.
+        // A session still valid for the user, in memory or in the session cache, is reused without a login call;
+        // otherwise the login is retried with backoff, each attempt timing out on its own.
         void SignIn(std::function<void(bool, std::string&)> callback, std::string userId);
 
-        //Main update loop
+        // Sets the file the signed in session is persisted to, so later launches can skip the login call.
+        // The file should be in app-private storage; it holds the session ticket and entity token.
+        void SetSessionCachePath(std::string path);
+
+        // Called with the new entity token whenever the session is refreshed in the background.
+        void SetOnEntityTokenRefreshed(std::function<void(std::string)> callback) { m_onEntityTokenRefreshed = callback; }
+
+        // Signs in a further local user through its own client instance, leaving the signed in user's session untouched.
+        void SignInLocalUser(std::string userId, std::function<void(bool, const PlayFabEntityCredentials&, std::string&)> callback);
+
+        //Main update loop, also drives login timeouts, retries and the background session refresh.
         void Tick();
 
         std::string& EntityId() { return m_entityKey.Id; }
@@ -51,11 +71,46 @@ namespace PartySample
         void onSetDescriptorSuccess(PlayFab::ClientModels::ExecuteCloudScriptResult& response, void* customData);
 
     private:
+        void StartLogin();
+        void OnLoginSucceeded(const PlayFab::ClientModels::LoginResult& loginResult);
+        void OnLoginFailed(const PlayFab::PlayFabError& error);
+        void CompleteSignIn(bool isSuccess, std::string message);
+        void StartRefresh();
+        void SaveSession(const PlayFab::ClientModels::LoginResult& loginResult);
+        bool RestoreSession(const std::string& userId);
+        void WriteSessionCache();
+        bool ReadSessionCache(const std::string& userId);
+
         PlayFab::ClientModels::LoginResult  m_loginResult;
         PlayFab::ClientModels::EntityKey  m_entityKey;
         std::string m_entityToken;
         std::string m_playfabId;
         std::string m_displayName;
+        std::string m_titleId;
+        std::string m_userId;
+        std::string m_sessionTicket;
+        // Wall clock times, since they are persisted; zero when no session is held.
+        time_t m_tokenIssued;
+        time_t m_tokenExpiration;
+
+        std::string m_sessionCachePath;
+        std::function<void(bool, std::string&)> m_signInCallback;
+        std::function<void(std::string)> m_onEntityTokenRefreshed;
+        // Bumped for every login call so a response that arrives after its attempt timed out is ignored.
+        uint32_t m_loginGeneration;
+        int m_loginAttempt;
+        bool m_isLoginPending;
+        bool m_isRetryScheduled;
+        // Set while the login in progress replaces a held session rather than signing in.
+        bool m_isRefreshing;
+        bool m_isSignedIn;
+        std::chrono::steady_clock::time_point m_loginDeadline;
+        std::chrono::steady_clock::time_point m_nextLoginAttempt;
+        std::chrono::steady_clock::time_point m_nextRefreshCheck;
+        // Client instances of further local users, by user id; each holds that user's session.
+        std::map<std::string, std::shared_ptr<PlayFab::PlayFabClientInstanceAPI>> m_localUserClients;
+        // Clients whose sign-in failed, erased on the next Tick rather than from inside their own callback.
+        std::vector<std::pair<std::string, PlayFab::PlayFabClientInstanceAPI*>> m_failedLocalUserClients;
 
         std::function<void()> m_onCompletedSettingDescriptor;
         std::function<void(std::string)> m_onCompletedGettingDescriptor;
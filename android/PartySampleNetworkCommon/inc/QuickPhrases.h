@@ -0,0 +1,39 @@
+#pragma once
+
+// The canned phrases behind the quick message buttons. A quick message goes out as a QuickPhrase
+// endpoint message carrying only the phrase id, and each receiver shows the phrase from this
+// catalog in its own language, so it needs no translation.
+
+namespace PartySample
+{
+
+    // Phrase ids are sent over the wire; add new phrases before Count and never reorder them.
+    enum class QuickPhrase : uint32_t
+    {
+        HeyTeam,
+        ImScared,
+        GoodLuck,
+        Count
+    };
+
+    // Returns the phrase in the given language, falling back to another region of the same
+    // language and then to English, or nullptr if the id is unknown.
+    const char* QuickPhraseText(uint32_t phraseId, const char* languageCode);
+
+    // Packs a phrase id and whether receivers should read it aloud into a QuickPhrase payload.
+    inline unsigned EncodeQuickPhrase(uint32_t phraseId, bool narrate)
+    {
+        return (phraseId << 1) | (narrate ? 1u : 0u);
+    }
+
+    inline uint32_t QuickPhraseId(unsigned payload)
+    {
+        return payload >> 1;
+    }
+
+    inline bool IsQuickPhraseNarrated(unsigned payload)
+    {
+        return (payload & 1u) != 0;
+    }
+
+}
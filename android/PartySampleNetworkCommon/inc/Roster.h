@@ -0,0 +1,53 @@
+#pragma once
+
+// The display names of the remote users in one network, and the ones still waiting for a name, as
+// used by the roster protocol described with NetworkMessageType. Users are keyed by entity id and
+// nothing here touches Party, so the protocol can be run without a network. Times are milliseconds
+// of the local monotonic clock.
+
+namespace PartySample
+{
+
+    class Roster
+    {
+    public:
+        Roster();
+
+        // How long a remote user may stay unnamed before its endpoint is asked for its name.
+        static const int64_t c_nameTimeoutMs = 2000;
+
+        // Records a user's display name. Returns false if the same name was already known.
+        bool Learn(const std::string& entityId, const std::string& displayName);
+
+        // A remote endpoint has appeared. Unless its user is named by then, it is due to be asked
+        // one timeout from nowMs.
+        void AddEndpoint(const std::string& entityId, int64_t nowMs);
+
+        // Forgets a user whose endpoint has gone.
+        void Remove(const std::string& entityId);
+
+        bool HasUnnamed() const { return !m_unnamed.empty(); }
+
+        // The users still unnamed whose time to be asked has come. Each is due again one timeout later.
+        // The first time any are due, none are returned and renewSnapshot is set instead: in a join
+        // storm their announcements crossed our roster request, and one fresh snapshot names them
+        // all. Only those it leaves unnamed are asked one by one.
+        std::vector<std::string> TakeDue(int64_t nowMs, bool& renewSnapshot);
+
+        // The names known so far, by entity id.
+        const std::map<std::string, std::string>& Names() const { return m_names; }
+
+        // The RosterSnapshot text for a requester: every known name and our own, but not the requester's.
+        std::string Snapshot(const std::map<std::string, std::string>& ownNames, const std::string& requesterId) const;
+
+        // The entity id and display name pairs in a RosterSnapshot text, skipping malformed lines.
+        static std::vector<std::pair<std::string, std::string>> ParseSnapshot(const std::string& snapshot);
+
+    private:
+        std::map<std::string, std::string> m_names;
+        // When each unnamed user is next due to be asked.
+        std::map<std::string, int64_t> m_unnamed;
+        bool m_snapshotRenewed;
+    };
+
+}
@@ -0,0 +1,69 @@
+#pragma once
+
+// Level-gated tracing into a fixed-size in-memory ring.
+// Each record is a fixed-size binary entry (timestamp, event id, level, one integer argument and a
+// short truncated string); nothing is formatted until Dump is called. Events above
+// PARTY_TRACE_MAX_LEVEL are compiled out, and events above the runtime level cost one relaxed load.
+
+#include <atomic>
+#include <cstdint>
+
+// Highest level that is compiled in. Release builds keep errors and info events only.
+#ifndef PARTY_TRACE_MAX_LEVEL
+#ifdef NDEBUG
+#define PARTY_TRACE_MAX_LEVEL 2
+#else
+#define PARTY_TRACE_MAX_LEVEL 4
+#endif
+#endif
+
+namespace PartySample
+{
+    enum class TraceLevel : int
+    {
+        Off = 0,
+        Error = 1,
+        Info = 2,
+        Debug = 3,
+        Verbose = 4
+    };
+
+    // Keep in sync with s_traceEventNames in Trace.cpp.
+    enum class TraceEvent : uint16_t
+    {
+        StateChange,            // arg: PartyStateChangeType
+        LocalChatIndicator,     // text: user, arg: PartyLocalChatControlChatIndicator
+        RemoteChatIndicator,    // text: user, arg: PartyChatControlChatIndicator
+        JavaCallback,           // text: Java method name
+        Count
+    };
+
+    class Trace
+    {
+    public:
+        static bool IsEnabled(TraceLevel level)
+        {
+            return static_cast<int>(level) <= s_level.load(std::memory_order_relaxed);
+        }
+
+        static void SetLevel(TraceLevel level);
+
+        // Appends a record to the ring, overwriting the oldest entry once it is full.
+        static void Record(TraceLevel level, TraceEvent event, const char* text, int64_t arg);
+
+        // Writes the ring, oldest entry first, to the debug log.
+        static void Dump();
+
+    private:
+        static std::atomic<int> s_level;
+    };
+}
+
+#define TRACE_EVENT(level, event, text, arg)                                                \
+    do {                                                                                    \
+        if (static_cast<int>(level) <= PARTY_TRACE_MAX_LEVEL &&                             \
+            PartySample::Trace::IsEnabled(level))                                           \
+        {                                                                                   \
+            PartySample::Trace::Record((level), (event), (text), static_cast<int64_t>(arg)); \
+        }                                                                                   \
+    } while (false)
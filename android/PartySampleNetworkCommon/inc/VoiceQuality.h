@@ -0,0 +1,70 @@
+#pragma once
+
+// Picks the voice encoding tier for the local chat control from the loss and relay round trip time
+// of each statistics sample. Links have to stay bad for a few samples before the tier steps down,
+// and good for much longer before it steps back up, so a link that hovers around a threshold does
+// not flap between tiers. Times are milliseconds of the local monotonic clock.
+
+namespace PartySample
+{
+
+    // Lowest first, so a higher value is a higher bitrate. Keep in sync with NetworkManager.VOICE_QUALITY_*.
+    enum class VoiceQualityTier
+    {
+        Minimum,
+        Low,
+        Medium,
+        High
+    };
+
+    // Encoder bitrate for a tier, in bits per second.
+    uint32_t VoiceQualityBitrate(VoiceQualityTier tier);
+
+    struct VoiceQualityTransition
+    {
+        int64_t timeMs;
+        VoiceQualityTier from;
+        VoiceQualityTier to;
+        // The sample that caused the change.
+        uint64_t lossPermille;
+        uint64_t roundTripMs;
+    };
+
+    class VoiceQualityController
+    {
+    public:
+        VoiceQualityController();
+
+        // Takes one statistics sample. Returns true if the tier changed.
+        bool AddSample(uint64_t lossPermille, uint64_t roundTripMs, int64_t nowMs);
+
+        VoiceQualityTier Tier() const { return m_tier; }
+
+        // The most recent tier changes, oldest first.
+        const std::deque<VoiceQualityTransition>& History() const { return m_history; }
+
+        // Forgets the samples counted so far, e.g. when samples start coming from another network.
+        // The tier and its history are kept.
+        void ResetSamples();
+
+    private:
+        static const uint64_t c_badLossPermille = 50;
+        static const uint64_t c_badRoundTripMs = 300;
+        static const uint64_t c_goodLossPermille = 20;
+        static const uint64_t c_goodRoundTripMs = 150;
+        static const int c_samplesToStepDown = 3;
+        static const int c_samplesToStepUp = 10;
+        // Minimum time at a tier before stepping up from it.
+        static const int64_t c_stepUpDwellMs = 15000;
+        static const size_t c_historySize = 16;
+
+        void Change(VoiceQualityTier tier, uint64_t lossPermille, uint64_t roundTripMs, int64_t nowMs);
+
+        VoiceQualityTier m_tier;
+        int m_badSamples;
+        int m_goodSamples;
+        int64_t m_lastChangeMs;
+        std::deque<VoiceQualityTransition> m_history;
+    };
+
+}
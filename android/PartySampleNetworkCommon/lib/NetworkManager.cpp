@@ -2,24 +2,35 @@
 #include "NetworkManager.h"
 #include "Managers.h"
 #include "PartyImpl.h"
+#include "QuickPhrases.h"
+#include <fstream>
 
 using namespace PartySample;
 using namespace Party;
 
+static const char* c_textToSpeechProfileCacheVersion = "1";
+
 NetworkManager::NetworkManager() :
-    m_state(NetworkManagerState::Initialize),
+    m_activeSession(nullptr),
     m_localUser(nullptr),
-    m_localEndpoint(nullptr),
     m_localChatControl(nullptr),
-    m_network(nullptr),
     m_isChatControlConnected(false),
     m_isTextToSpeechProfileSet(false),
+    m_isNarrationProfileSet(false),
     m_partyInitialized(false),
     m_populateProfilesCompleted(false),
     m_ttsProfileNeedsUpdate(false),
     m_languageCode("en-US"),
     m_languageName("English (United States)"),
-    m_renderVolume(1.f)
+    m_renderVolume(1.f),
+    m_renderDucking(1.f),
+    m_audioInputEnabled(true),
+    m_audioInputPaused(false),
+    m_statisticsIntervalMs(0),
+    m_clockProbeIntervalMs(0),
+    m_transcriptionScope(TranscriptionScope::Everyone),
+    m_transcriptionOptions(PartyVoiceChatTranscriptionOptions::None),
+    m_voiceBitrateSupported(true)
 {
 }
 
@@ -69,18 +80,9 @@ NetworkManager::Initialize(
     auto& partyManager = PartyManager::GetSingleton();
     PartyError err;
 
-    //Only initialize the party manager once.
-    if (m_partyInitialized == false)
+    if (!InitializePartyManager(titleId))
     {
-        // Initialize PlayFab Party
-        err = partyManager.Initialize(titleId);
-        if (PARTY_FAILED(err))
-        {
-            DEBUGLOG("Initialize failed: %s\n", GetErrorMessage(err));
-            return;
-        }
-
-        m_partyInitialized = true;
+        return;
     }
 
     //Only create a local user object if it doesn't exist.
@@ -102,35 +104,116 @@ NetworkManager::Initialize(
             return;
         }
     }
+
+    // Recreate any local guests, which Shutdown cleaned up along with the primary user.
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    for (auto& item : m_localGuests)
+    {
+        if (item.second.user == nullptr)
+        {
+            CreateGuestUser(item.first, item.second);
+        }
+    }
+
+    // Warm up: set up the chat control and its audio devices now, so creating or joining a
+    // network only has to connect. The microphone stays muted until a network is connected.
+    bool warmingUp = m_localChatControl == nullptr && m_sessions.empty();
+    PartyError chatControlError = CreateChatControlIfNecessary();
+    if (PARTY_FAILED(chatControlError))
+    {
+        // Create and join try again, and report the error if it happens again.
+        DEBUGLOG("Warming up the chat control failed: %s\n", GetErrorMessage(chatControlError));
+    }
+    else if (warmingUp)
+    {
+        setAudioInputEnabled(false);
+    }
+}
+
+bool
+NetworkManager::InitializePartyManager(
+    const char* titleId
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    auto& partyManager = PartyManager::GetSingleton();
+
+    // A warm-up for another title is thrown away, as long as nothing was created with it yet.
+    if (m_partyInitialized && m_partyTitleId != titleId && m_localUser == nullptr)
+    {
+        partyManager.Cleanup();
+        m_partyInitialized = false;
+    }
+
+    //Only initialize the party manager once.
+    if (m_partyInitialized == false)
+    {
+        // Initialize PlayFab Party
+        PartyError err = partyManager.Initialize(titleId);
+        if (PARTY_FAILED(err))
+        {
+            DEBUGLOG("Initialize failed: %s\n", GetErrorMessage(err));
+            return false;
+        }
+
+        m_partyInitialized = true;
+        m_partyTitleId = titleId;
+    }
+    return true;
 }
 
 void 
 NetworkManager::Shutdown()
 {
     DEBUGLOG("NetworkManager::Shutdown()\n");
-    std::unique_lock<std::mutex> lock(m_networkLock);
-    m_state = NetworkManagerState::Initialize;
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
 
     // This cleans up everything allocated in Initialize() and
     // should only be used when done with networking
     PartyManager::GetSingleton().Cleanup();
 
     m_localChatControl = nullptr;
-    m_localEndpoint = nullptr;
-    m_network = nullptr;
     m_localUser = nullptr;
+    for (auto& item : m_localGuests)
+    {
+        item.second.user = nullptr;
+        item.second.chatControl = nullptr;
+    }
+    m_sessions.clear();
+    m_sessionsByNetwork.clear();
+    m_activeSession = nullptr;
+    m_peerAttenuations.clear();
     m_partyInitialized = false;
     m_isChatControlConnected = false;
     m_isTextToSpeechProfileSet = false;
+    m_isNarrationProfileSet = false;
     m_populateProfilesCompleted = false;
     m_ttsProfileNeedsUpdate = false;
+    m_textToSpeechProfileId.clear();
+}
+
+void
+NetworkManager::UpdateEntityToken(
+    const std::string& entityToken
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_localUser == nullptr)
+    {
+        return;
+    }
+
+    PartyError err = m_localUser->UpdateEntityToken(entityToken.c_str());
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("UpdateEntityToken failed: %s\n", GetErrorMessage(err));
+    }
 }
 
-// Note: This PlayFabParty sample integration sets all chatControl objects to the same volume
-// attenuation.  As such, it also caches the volume setting so that newly created chatControls
-// (ie when a new user joins the chat room) can have their volume set to match. Note that it is
-// also possible to set volume on a per chatControl (that is, per user) basis provided that you have
-// the UI implemented to do so.
+// Note: This PlayFabParty sample integration sets all chatControl objects to the same volume,
+// scaled by any per-peer attenuation from SetPeerAttenuations.  As such, it also caches the volume
+// setting so that newly created chatControls (ie when a new user joins the chat room) can have their
+// volume set to match.
 void
 NetworkManager::SetPlayerVolume(
     float volumeZeroToOne
@@ -140,8 +223,36 @@ NetworkManager::SetPlayerVolume(
         return;
     }
 
-    std::unique_lock<std::mutex> lock(m_networkLock);
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
     m_renderVolume = volumeZeroToOne;
+    ApplyRenderVolumes();
+}
+
+void
+NetworkManager::SetRenderDucking(
+    float volumeScale
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_renderDucking == volumeScale)
+    {
+        return;
+    }
+
+    DEBUGLOG("Render ducking %.2f\n", volumeScale);
+    m_renderDucking = volumeScale;
+    ApplyRenderVolumes();
+}
+
+// Sets every remote chat control to its current render volume.
+void
+NetworkManager::ApplyRenderVolumes()
+{
+    if (m_localChatControl == nullptr)
+    {
+        return;
+    }
+
     for (auto cc : m_chatControls)
     {
         if(cc.second == m_localChatControl)
@@ -149,7 +260,7 @@ NetworkManager::SetPlayerVolume(
             continue;
         }
 
-        PartyError err = m_localChatControl->SetAudioRenderVolume(cc.second, volumeZeroToOne);
+        PartyError err = m_localChatControl->SetAudioRenderVolume(cc.second, GetRenderVolume(cc.first));
         if (PARTY_FAILED(err))
         {
             DEBUGLOG("SetAudioRenderVolume failed for chat control 0x%p: %s\n", cc.second, GetErrorMessage(err));
@@ -157,6 +268,160 @@ NetworkManager::SetPlayerVolume(
     }
 }
 
+void
+NetworkManager::SetPeerAttenuations(
+    const std::vector<std::string>& entityIds,
+    const std::vector<float>& attenuations
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    for (size_t i = 0; i < entityIds.size() && i < attenuations.size(); i++)
+    {
+        m_peerAttenuations[entityIds[i]] = attenuations[i];
+
+        // Peers that have not joined yet get the attenuation when their chat control is created.
+        PartyChatControl* chatControl = GetChatControl(entityIds[i]);
+        if (m_localChatControl == nullptr || chatControl == nullptr || chatControl == m_localChatControl)
+        {
+            continue;
+        }
+
+        PartyError err = m_localChatControl->SetAudioRenderVolume(chatControl, GetRenderVolume(entityIds[i]));
+        if (PARTY_FAILED(err))
+        {
+            DEBUGLOG("SetAudioRenderVolume failed for chat control 0x%p: %s\n", chatControl, GetErrorMessage(err));
+        }
+    }
+}
+
+// The render volume for a peer: the player volume scaled by any ducking and the peer's attenuation, if any.
+float
+NetworkManager::GetRenderVolume(
+    const std::string& entityId
+    ) const
+{
+    float volume = m_renderVolume * m_renderDucking;
+    auto search = m_peerAttenuations.find(entityId);
+    return search != m_peerAttenuations.end() ? volume * search->second : volume;
+}
+
+void
+NetworkManager::SetTranscriptionPolicy(
+    TranscriptionScope scope,
+    const std::vector<std::string>& speakerIds
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    m_transcriptionScope = scope;
+    m_transcribedSpeakers.clear();
+    if (scope == TranscriptionScope::SelectedSpeakers)
+    {
+        m_transcribedSpeakers.insert(speakerIds.begin(), speakerIds.end());
+    }
+    ApplyTranscriptionOptions();
+}
+
+// The transcription options for the current policy. Other chat controls are transcribed
+// regardless of language, unless no remote speaker is selected.
+PartyVoiceChatTranscriptionOptions
+NetworkManager::GetTranscriptionOptions() const
+{
+    if (m_transcriptionScope == TranscriptionScope::Nobody)
+    {
+        return PartyVoiceChatTranscriptionOptions::None;
+    }
+
+    PartyVoiceChatTranscriptionOptions options =
+            PartyVoiceChatTranscriptionOptions::TranslateToLocalLanguage |
+            PartyVoiceChatTranscriptionOptions::TranscribeSelf;
+    if (m_transcriptionScope == TranscriptionScope::Everyone || !m_transcribedSpeakers.empty())
+    {
+        options = options |
+                PartyVoiceChatTranscriptionOptions::TranscribeOtherChatControlsWithMatchingLanguages |
+                PartyVoiceChatTranscriptionOptions::TranscribeOtherChatControlsWithNonMatchingLanguages;
+    }
+    return options;
+}
+
+// Sets the options for the current policy on the local chat control, if they changed. A chat
+// control created later gets them when it is set up.
+void
+NetworkManager::ApplyTranscriptionOptions()
+{
+    if (m_localChatControl == nullptr)
+    {
+        return;
+    }
+
+    PartyVoiceChatTranscriptionOptions options = GetTranscriptionOptions();
+    if (options == m_transcriptionOptions)
+    {
+        return;
+    }
+
+    PartyError err = m_localChatControl->SetTranscriptionOptions(options, nullptr);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("SetTranscriptionOptions failed: %s\n", GetErrorMessage(err));
+        return;
+    }
+    m_transcriptionOptions = options;
+}
+
+// Sets the encoder bitrate for the current voice tier on the local chat control.
+void
+NetworkManager::ApplyVoiceBitrate()
+{
+    if (m_localChatControl == nullptr || !m_voiceBitrateSupported)
+    {
+        return;
+    }
+
+    uint32_t bitrate = VoiceQualityBitrate(m_voiceQuality.Tier());
+    PartyError err = m_localChatControl->SetAudioEncoderBitrate(bitrate, nullptr);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("SetAudioEncoderBitrate(%u) failed, the tier is only tracked from now on: %s\n", bitrate, GetErrorMessage(err));
+        m_voiceBitrateSupported = false;
+    }
+}
+
+VoiceQualityTier
+NetworkManager::GetVoiceQualityTier()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    return m_voiceQuality.Tier();
+}
+
+std::vector<VoiceQualityTransition>
+NetworkManager::GetVoiceQualityHistory()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    const std::deque<VoiceQualityTransition>& history = m_voiceQuality.History();
+    return std::vector<VoiceQualityTransition>(history.begin(), history.end());
+}
+
+// Whether the policy lets a transcription from the sender through. Local chat controls are
+// transcribed unless no one is.
+bool
+NetworkManager::IsTranscribed(
+    PartyChatControl* sender,
+    const std::string& senderId
+    )
+{
+    if (m_transcriptionScope != TranscriptionScope::SelectedSpeakers)
+    {
+        return m_transcriptionScope == TranscriptionScope::Everyone;
+    }
+
+    PartyLocalChatControl* local = nullptr;
+    if (PARTY_SUCCEEDED(sender->GetLocal(&local)) && local != nullptr)
+    {
+        return true;
+    }
+    return m_transcribedSpeakers.count(senderId) != 0;
+}
+
 void 
 NetworkManager::CreateAndConnectToNetwork(
     const char *networkId, 
@@ -166,6 +431,13 @@ NetworkManager::CreateAndConnectToNetwork(
 {
     DEBUGLOG("NetworkManager::CreateAndConnectToNetwork()\n");
 
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    NetworkSession* session = OpenSession(networkId);
+    if (session == nullptr)
+    {
+        return;
+    }
+
     PartyNetworkConfiguration cfg = {};
 
     // Setup the network to allow the maximum number of single-device players of any device type
@@ -182,6 +454,7 @@ NetworkManager::CreateAndConnectToNetwork(
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("GetUserIdentifier failed: %s\n", GetErrorMessage(err));
+        CloseSession(session);
         errorCallback(err);
         return;
     }
@@ -204,7 +477,7 @@ NetworkManager::CreateAndConnectToNetwork(
         0,                                          // Region List Count
         nullptr,                                    // Region List
         &invitationConfiguration,                   // Invitation configuration
-        nullptr,                                    // Async Identifier
+        session,                                    // Async Identifier; CreateNewNetworkCompleted has no network yet
         &networkDescriptor,                         // OUT network descriptor
         nullptr                                     // applied initialinvitationidentifier.
     );
@@ -212,17 +485,18 @@ NetworkManager::CreateAndConnectToNetwork(
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("CreateNewNetwork failed: %s\n", GetErrorMessage(err));
+        CloseSession(session);
         errorCallback(err);
         return;
     }
 
     // Connect to the new network
-    if (InternalConnectToNetwork(networkDescriptor, networkId, errorCallback))
+    if (InternalConnectToNetwork(session, networkDescriptor, errorCallback))
     {
-        m_state = NetworkManagerState::WaitingForNetwork;
-        m_onNetworkCreated = callback;
-        m_onNetworkCreatedError = errorCallback;
-        m_onNetworkConnectedError = errorCallback;
+        session->state = NetworkManagerState::WaitingForNetwork;
+        session->onNetworkCreated = callback;
+        session->onNetworkCreatedError = errorCallback;
+        session->onNetworkConnectedError = errorCallback;
     }
 }
 
@@ -236,6 +510,13 @@ NetworkManager::ConnectToNetwork(
 {
     DEBUGLOG("NetworkManager::ConnectToNetwork()\n");
 
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    NetworkSession* session = OpenSession(networkId);
+    if (session == nullptr)
+    {
+        return;
+    }
+
     PartyNetworkDescriptor networkDescriptor = {};
 
     // Deserialize the remote network's descriptor
@@ -244,17 +525,195 @@ NetworkManager::ConnectToNetwork(
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("ConnectToNetwork failed to deserialize descriptor: %s\n", GetErrorMessage(err));
+        CloseSession(session);
         errorCallback(err);
         return;
     }
 
     // Connect to the remote network
-    if (InternalConnectToNetwork(networkDescriptor, networkId, errorCallback))
+    if (InternalConnectToNetwork(session, networkDescriptor, errorCallback))
+    {
+        session->state = NetworkManagerState::WaitingForNetwork;
+        session->onNetworkConnected = callback;
+        session->onNetworkConnectedError = errorCallback;
+    }
+}
+
+// Adds a session for a network that is about to be created or joined.
+// Returns null if a network with this id is already open.
+NetworkSession*
+NetworkManager::OpenSession(
+    const char* networkId
+    )
+{
+    if (FindSession(networkId) != nullptr)
+    {
+        DEBUGLOG("Network %s is already open\n", networkId);
+        return nullptr;
+    }
+
+    std::unique_ptr<NetworkSession> session(new NetworkSession());
+    session->networkId = networkId;
+    NetworkSession* result = session.get();
+    m_sessions[result->networkId] = std::move(session);
+    return result;
+}
+
+// Forgets a network once it has been destroyed or could not be connected.
+void
+NetworkManager::CloseSession(
+    NetworkSession* session
+    )
+{
+    if (session->network != nullptr)
+    {
+        m_sessionsByNetwork.erase(session->network);
+    }
+
+    if (m_activeSession == session)
+    {
+        // Fall back to any other connected network so sends keep working.
+        m_activeSession = nullptr;
+        for (auto& item : m_sessions)
+        {
+            if (item.second.get() != session && item.second->state == NetworkManagerState::NetworkConnected)
+            {
+                m_activeSession = item.second.get();
+                break;
+            }
+        }
+    }
+
+    m_sessions.erase(session->networkId);
+
+    // With no network left there is nobody to attenuate; a later network starts clean.
+    if (m_sessions.empty())
+    {
+        m_peerAttenuations.clear();
+    }
+}
+
+NetworkSession*
+NetworkManager::FindSession(
+    const std::string& networkId
+    )
+{
+    auto search = m_sessions.find(networkId);
+    return search != m_sessions.end() ? search->second.get() : nullptr;
+}
+
+NetworkSession*
+NetworkManager::FindSession(
+    PartyNetwork* network
+    )
+{
+    auto search = m_sessionsByNetwork.find(network);
+    return search != m_sessionsByNetwork.end() ? search->second : nullptr;
+}
+
+// Chat text and transcriptions are addressed to chat controls, not networks, so they are attributed
+// to the active network if the sender is in it, otherwise to the first network that has the sender.
+NetworkSession*
+NetworkManager::FindSessionForChatControl(
+    PartyChatControl* chatControl
+    )
+{
+    auto contains = [chatControl](NetworkSession* session)
+    {
+        return std::find(session->remoteChatControls.begin(), session->remoteChatControls.end(), chatControl) != session->remoteChatControls.end();
+    };
+
+    if (m_activeSession != nullptr && contains(m_activeSession))
+    {
+        return m_activeSession;
+    }
+    for (auto& item : m_sessions)
+    {
+        if (contains(item.second.get()))
+        {
+            return item.second.get();
+        }
+    }
+    return m_activeSession;
+}
+
+bool
+NetworkManager::SetActiveNetwork(
+    const std::string& networkId
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    NetworkSession* session = FindSession(networkId);
+    if (session == nullptr || session->state != NetworkManagerState::NetworkConnected)
+    {
+        return false;
+    }
+    if (m_activeSession != session)
+    {
+        // Samples from the old network say nothing about the new one's link.
+        m_voiceQuality.ResetSamples();
+    }
+    m_activeSession = session;
+    return true;
+}
+
+std::string
+NetworkManager::GetActiveNetworkId()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    return m_activeSession != nullptr ? m_activeSession->networkId : std::string();
+}
+
+std::vector<std::string>
+NetworkManager::GetNetworkIds()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    std::vector<std::string> networkIds;
+    networkIds.reserve(m_sessions.size());
+    for (auto& item : m_sessions)
+    {
+        networkIds.push_back(item.first);
+    }
+    return networkIds;
+}
+
+bool
+NetworkManager::IsMemberOfAnyNetwork(
+    const std::string& entityId
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    PartyChatControl* chatControl = GetChatControl(entityId);
+    if (chatControl == nullptr)
+    {
+        return false;
+    }
+    for (auto& item : m_sessions)
     {
-        m_state = NetworkManagerState::WaitingForNetwork;
-        m_onNetworkConnected = callback;
-        m_onNetworkConnectedError = errorCallback;
+        const std::vector<PartyChatControl*>& members = item.second->remoteChatControls;
+        if (std::find(members.begin(), members.end(), chatControl) != members.end())
+        {
+            return true;
+        }
     }
+    return false;
+}
+
+NetworkManagerState
+NetworkManager::State()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    return m_activeSession != nullptr ? m_activeSession->state : NetworkManagerState::Initialize;
+}
+
+NetworkManagerState
+NetworkManager::State(
+    const std::string& networkId
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    NetworkSession* session = FindSession(networkId);
+    return session != nullptr ? session->state : NetworkManagerState::Initialize;
 }
 
 PartyError
@@ -325,12 +784,11 @@ NetworkManager::CreateChatControlIfNecessary()
             return err;
         }
 
-        // Set transcription options for transcribing other users regardless of language, and ourselves.
-        PartyVoiceChatTranscriptionOptions transcriptionOptions =
-                PartyVoiceChatTranscriptionOptions::TranscribeOtherChatControlsWithMatchingLanguages |
-                PartyVoiceChatTranscriptionOptions::TranscribeOtherChatControlsWithNonMatchingLanguages |
-                PartyVoiceChatTranscriptionOptions::TranslateToLocalLanguage |
-                PartyVoiceChatTranscriptionOptions::TranscribeSelf;
+        // A profile cached by an earlier launch can be set now, without waiting for the list.
+        setTextToSpeechProfile();
+
+        // Set transcription options for the current transcription policy.
+        PartyVoiceChatTranscriptionOptions transcriptionOptions = GetTranscriptionOptions();
 
         // Set the transcription options on our chat control.
         err = m_localChatControl->SetTranscriptionOptions(
@@ -343,6 +801,10 @@ NetworkManager::CreateChatControlIfNecessary()
             DEBUGLOG("SetTranscriptionOptions failed: %s\n", GetErrorMessage(err));
             return err;
         }
+        m_transcriptionOptions = transcriptionOptions;
+
+        // Start at the current voice tier, in case it dropped before this chat control was made.
+        ApplyVoiceBitrate();
 
         // Enable translation to local language in chat controls.
         err = m_localChatControl->SetTextChatOptions(
@@ -357,13 +819,24 @@ NetworkManager::CreateChatControlIfNecessary()
         }
     }
 
-    return c_partyErrorSuccess;
-}
-
-bool
+    // A guest without a chat control only misses out on chat; the primary user can still connect.
+    for (auto& item : m_localGuests)
+    {
+        if (item.second.user != nullptr && item.second.chatControl == nullptr)
+        {
+            CreateGuestChatControl(item.second);
+        }
+    }
+
+    return c_partyErrorSuccess;
+}
+
+// On failure the session is closed, unless Party already has a network for it; that network
+// is cleaned up when its NetworkDestroyed state change arrives.
+bool
 NetworkManager::InternalConnectToNetwork(
+    NetworkSession* session,
     const Party::PartyNetworkDescriptor& descriptor, 
-    const char *networkId,
     std::function<void(PartyError)> errorCallback
     )
 {
@@ -373,6 +846,7 @@ NetworkManager::InternalConnectToNetwork(
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("ConnectToNetwork failed when trying to create chat controls!");
+        CloseSession(session);
         errorCallback(err);
         return false;
     }
@@ -382,32 +856,38 @@ NetworkManager::InternalConnectToNetwork(
     err = PartyManager::GetSingleton().ConnectToNetwork(
         &descriptor,                                // Network descriptor
         nullptr,                                    // Async identifier
-        &m_network                                  // OUT network
+        &session->network                           // OUT network
     );
 
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("ConnectToNetwork failed: %s\n", GetErrorMessage(err));
+        CloseSession(session);
         errorCallback(err);
         return false;
     }
 
+    m_sessionsByNetwork[session->network] = session;
+
     // Authenticate the local user on the network so we can participate in it
-    err = m_network->AuthenticateLocalUser(
+    err = session->network->AuthenticateLocalUser(
         m_localUser,                                // Local user
-        networkId,                                  // Invitation Id
+        session->networkId.c_str(),                 // Invitation Id
         nullptr                                     // Async identifier
     );
 
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("AuthenticateLocalUser failed: %s\n", GetErrorMessage(err));
+        // Leave the half-connected network so its id can be joined again once it is destroyed.
+        session->state = NetworkManagerState::Leaving;
+        session->network->LeaveNetwork(nullptr);
         errorCallback(err);
         return false;
     }
 
     // Connect the local user chat control to the network so we can use VOIP
-    err = m_network->ConnectChatControl(
+    err = session->network->ConnectChatControl(
         m_localChatControl,                         // Local chat control
         nullptr                                     // Async identifier
     );
@@ -415,303 +895,772 @@ NetworkManager::InternalConnectToNetwork(
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("ConnectChatControl failed: %s\n", GetErrorMessage(err));
+        session->state = NetworkManagerState::Leaving;
+        session->network->LeaveNetwork(nullptr);
         errorCallback(err);
         return false;
     }
 
     // Establish a network endoint for game message traffic
-    err = m_network->CreateEndpoint(
+    err = session->network->CreateEndpoint(
         m_localUser,                                // Local user
         0,                                          // Property Count
         nullptr,                                    // Property name keys
         nullptr,                                    // Property Values
         nullptr,                                    // Async identifier
-        &m_localEndpoint                            // OUT local endpoint
+        &session->localEndpoint                     // OUT local endpoint
     );
 
     if (PARTY_FAILED(err))
     {
         DEBUGLOG("Failed to CreateEndpoint: %s\n", GetErrorMessage(err));
+        session->state = NetworkManagerState::Leaving;
+        session->network->LeaveNetwork(nullptr);
         errorCallback(err);
         return false;
     }
 
+    for (auto& item : m_localGuests)
+    {
+        ConnectGuest(session, item.first, item.second);
+    }
+
     return true;
 }
 
-void 
-NetworkManager::SendNetworkMessage(
-    const NetworkMessage & message
+// Creates the Party local user for a guest; the chat control follows with the primary user's.
+PartyError
+NetworkManager::CreateGuestUser(
+    const std::string& entityId,
+    LocalGuest& guest
     )
 {
-    if (m_localEndpoint && m_state == NetworkManagerState::NetworkConnected)
-    {
-        auto packet = message.Serialize();
-
-        // Form the data packet into a data buffer structure
-        PartyDataBuffer data[] = {
-            {
-                static_cast<const void*>(packet.data()),
-                static_cast<uint32_t>(packet.size())
-            },
-        };
-
-        // Set delivery options for guaranteed and sequential delivery.
-        PartySendMessageOptions deliveryOptions =
-            PartySendMessageOptions::GuaranteedDelivery |
-            PartySendMessageOptions::SequentialDelivery;
-
-        // Send out the message to all other peers
-        PartyError err = m_localEndpoint->SendMessage(
-            0,                                      // endpoint count; 0 = broadcast
-            nullptr,                                // endpoint list
-            deliveryOptions,                        // send message options
-            nullptr,                                // configuration
-            1,                                      // buffer count
-            data,                                   // buffer
-            nullptr                                 // async identifier
-        );
+    PartyError err = PartyManager::GetSingleton().CreateLocalUser(
+        entityId.c_str(),                           // User id
+        guest.entityToken.c_str(),                  // User entity token
+        &guest.user                                 // OUT local user object
+    );
 
-        if (PARTY_FAILED(err))
-        {
-            DEBUGLOG("Failed to SendMessage: %s\n", GetErrorMessage(err));
-        }
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("CreateLocalUser failed for guest %s: %s\n", entityId.c_str(), GetErrorMessage(err));
     }
+    return err;
 }
 
-void 
-NetworkManager::SendTextAsVoice(
-    std::string text
+// Creates a guest's chat control on the shared local device. Guests have no audio input or output
+// of their own: the primary user's chat control renders remote voice for everyone on the device,
+// and guests speak through text to speech.
+PartyError
+NetworkManager::CreateGuestChatControl(
+    LocalGuest& guest
     )
 {
-    if (m_localChatControl != nullptr)
+    PartyLocalDevice* localDevice = nullptr;
+    PartyError err = PartyManager::GetSingleton().GetLocalDevice(&localDevice);
+    if (PARTY_FAILED(err))
     {
-        DEBUGLOG("Requesting transcription of: %s\n", text.c_str());
+        DEBUGLOG("GetLocalDevice failed: %s\n", GetErrorMessage(err));
+        return err;
+    }
 
-        // Synthesize the text to speech.
-        PartyError err = m_localChatControl->SynthesizeTextToSpeech(
-            PartySynthesizeTextToSpeechType::VoiceChat,
-            text.c_str(),                        // Text to synthesize
-            nullptr                                 // Async identifier
-        );
+    err = localDevice->CreateChatControl(
+            guest.user,                                 // Local user object
+            m_languageCode,                             // Language id
+            nullptr,                                    // Async identifier
+            &guest.chatControl                          // OUT local chat control
+    );
 
-        if (PARTY_FAILED(err))
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("CreateChatControl failed for guest: %s\n", GetErrorMessage(err));
+        guest.chatControl = nullptr;
+        return err;
+    }
+
+    // The text to speech profile is applied with the primary user's once profiles are available.
+    err = guest.chatControl->PopulateAvailableTextToSpeechProfiles(nullptr);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("Populating available TextToSpeechProfiles failed for guest: %s \n", GetErrorMessage(err));
+    }
+
+    err = guest.chatControl->SetTextChatOptions(
+            PartyTextChatOptions::TranslateToLocalLanguage,
+            nullptr
+    );
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("SetTextChatOptions failed for guest: %s\n", GetErrorMessage(err));
+    }
+
+    // Remote chat controls seen before the guest arrived.
+    for (auto& item : m_chatControls)
+    {
+        PartyLocalChatControl* local = nullptr;
+        if (PARTY_SUCCEEDED(item.second->GetLocal(&local)) && local == nullptr)
         {
-            DEBUGLOG("Failed to SynthesizeTextToSpeech: %s\n", GetErrorMessage(err));
+            SetGuestPermissions(guest, item.second);
         }
     }
+    return c_partyErrorSuccess;
 }
 
+// Authenticates a guest on a network and connects its chat control and endpoint. Failures are
+// logged and leave the guest out of that network; the primary user is unaffected.
 void
-NetworkManager::SendTextMessage(
-    PartyString chatText
+NetworkManager::ConnectGuest(
+    NetworkSession* session,
+    const std::string& entityId,
+    LocalGuest& guest
     )
 {
-    // Convert the message into a raw data.
-    Party::PartyDataBuffer dataBuffers[] = { NetworkMessage::PartyStringAsDataBuffer(chatText) };
+    if (session->network == nullptr || guest.user == nullptr || guest.chatControl == nullptr)
+    {
+        return;
+    }
 
-    Party::PartyChatControlArray chatControls;
-    uint32_t chatControlCount;
+    PartyError err = session->network->AuthenticateLocalUser(
+        guest.user,                                 // Local user
+        session->networkId.c_str(),                 // Invitation Id
+        nullptr                                     // Async identifier
+    );
 
-    // Get all of the chat controls from the Party Manager
-    PartyError result = Party::PartyManager::GetSingleton().GetChatControls(&chatControlCount, &chatControls);
-    DEBUGLOG("Info: GetChatControls result: %d, count: %d", result, chatControlCount);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("AuthenticateLocalUser failed for guest %s: %s\n", entityId.c_str(), GetErrorMessage(err));
+        return;
+    }
 
-    // Get the current users entity id.
-    std::string entityString = Managers::Get<PlayFabManager>()->EntityId();
-    PartyString entityId = entityString.c_str();
+    err = session->network->ConnectChatControl(
+        guest.chatControl,                          // Local chat control
+        nullptr                                     // Async identifier
+    );
 
-    // Add all of the chat controls to a list except the local users chat control.
-    std::vector<PartyChatControl*> targetChatControls;
-    for (uint32_t chatControlIndex = 0; chatControlIndex < chatControlCount; ++chatControlIndex)
+    if (PARTY_FAILED(err))
     {
-        PartyChatControl* chatControl = chatControls[chatControlIndex];
-        PartyString user = nullptr;
-        chatControl->GetEntityId(&user);
-        if (strcmp(user, entityId) != 0)
-        {
-            targetChatControls.push_back(chatControls[chatControlIndex]);
-        }
+        DEBUGLOG("ConnectChatControl failed for guest %s: %s\n", entityId.c_str(), GetErrorMessage(err));
+        return;
     }
 
-    // If the local user has a chat control, use it to send the data buffer to the retrieved chat controls.
-    if (m_localChatControl != nullptr)
-    {
-        result = m_localChatControl->SendText(
-            static_cast<uint32_t>(targetChatControls.size()),
-            targetChatControls.data(),
-            chatText,
-            _countof(dataBuffers),
-            dataBuffers
-            );
+    // The guest's own endpoint announces its display name to the network.
+    PartyLocalEndpoint* endpoint = nullptr;
+    err = session->network->CreateEndpoint(
+        guest.user,                                 // Local user
+        0,                                          // Property Count
+        nullptr,                                    // Property name keys
+        nullptr,                                    // Property Values
+        nullptr,                                    // Async identifier
+        &endpoint                                   // OUT local endpoint
+    );
 
-        DEBUGLOG("Info: SendText and the result is:%d", result);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("Failed to CreateEndpoint for guest %s: %s\n", entityId.c_str(), GetErrorMessage(err));
+        return;
     }
-    else
+    session->guestEndpoints[entityId] = endpoint;
+}
+
+// Guests receive text from remote users and send them synthesized voice; the primary user's chat
+// control is the one that receives and renders remote audio.
+void
+NetworkManager::SetGuestPermissions(
+    LocalGuest& guest,
+    PartyChatControl* remote
+    )
+{
+    if (guest.chatControl == nullptr)
     {
-        DEBUGLOG("Info: SendText NO local chat control");
+        return;
     }
 
+    PartyError err = guest.chatControl->SetPermissions(
+        remote,
+        PartyChatPermissionOptions::ReceiveText |
+        PartyChatPermissionOptions::SendAudio
+    );
+
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("Failed to SetPermissions for guest on ChatControl: %s\n", GetErrorMessage(err));
+    }
 }
 
-void 
-NetworkManager::LeaveNetwork(
-    std::function<void(void)> callback
+void
+NetworkManager::AddLocalUser(
+    const std::string& entityId,
+    const std::string& entityToken,
+    const std::string& displayName
     )
 {
-    DEBUGLOG("NetworkManager::LeaveNetwork()\n");
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_localGuests.find(entityId) != m_localGuests.end())
+    {
+        return;
+    }
 
-    // Mute the microphone to save on processing.
-    setAudioInputEnabled(false);
-    m_isChatControlConnected = false;
-    m_isTextToSpeechProfileSet = false;
-    m_populateProfilesCompleted = false;
-    m_ttsProfileNeedsUpdate = false;
+    LocalGuest& guest = m_localGuests[entityId];
+    guest.entityToken = entityToken;
+    guest.displayName = displayName;
 
-    // Make sure we aren't already leaving or disconnected from a network.
-    if (m_state != NetworkManagerState::Leaving && m_network != nullptr)
+    // Before Initialize, the user is created there; chat controls only exist while in a network.
+    if (!m_partyInitialized || PARTY_FAILED(CreateGuestUser(entityId, guest)))
     {
-        //Change our local state and save the callback for once the leave operation completes.
-        m_state = NetworkManagerState::Leaving;
-        m_onNetworkLeft = callback;
+        return;
+    }
+    if (m_localChatControl == nullptr || PARTY_FAILED(CreateGuestChatControl(guest)))
+    {
+        return;
+    }
 
-        // Disconnect local chat control before leave network.
-        if (m_localChatControl != nullptr)
+    for (auto& item : m_sessions)
+    {
+        if (item.second->state == NetworkManagerState::NetworkConnected)
         {
-            m_network->DisconnectChatControl(m_localChatControl, nullptr);
-            m_localChatControl = nullptr;
+            ConnectGuest(item.second.get(), entityId, guest);
         }
+    }
+}
 
-        // Call leave on the Party APIs.
-        m_network->LeaveNetwork(nullptr);
+void
+NetworkManager::RemoveLocalUser(
+    const std::string& entityId
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    auto search = m_localGuests.find(entityId);
+    if (search == m_localGuests.end())
+    {
+        return;
     }
-    else
+
+    for (auto& item : m_sessions)
     {
-        // We're already leaving or don't have a network. Call the callback.
-        if (callback != nullptr)
+        item.second->guestEndpoints.erase(entityId);
+    }
+
+    // Destroying the user also takes its chat control and endpoints out of every network.
+    if (search->second.user != nullptr)
+    {
+        PartyError err = PartyManager::GetSingleton().DestroyLocalUser(search->second.user, nullptr);
+        if (PARTY_FAILED(err))
         {
-            callback();
+            DEBUGLOG("DestroyLocalUser failed for guest %s: %s\n", entityId.c_str(), GetErrorMessage(err));
         }
     }
+    m_localGuests.erase(search);
 }
 
-void
-NetworkManager::SetOnNetworkDestroyed(
-        std::function<void(bool)> callback
-)
+std::vector<std::string>
+NetworkManager::GetLocalUserIds()
 {
-    m_onNetworkDestroyed = callback;
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    std::vector<std::string> entityIds;
+    entityIds.reserve(m_localGuests.size());
+    for (auto& item : m_localGuests)
+    {
+        entityIds.push_back(item.first);
+    }
+    return entityIds;
 }
 
-bool
-NetworkManager::IsConnecting() const
+PartyLocalChatControl*
+NetworkManager::GetLocalChatControl(
+    const std::string& entityId
+    )
 {
-    return m_state == NetworkManagerState::WaitingForConnect ||
-            m_state == NetworkManagerState::WaitingForNetwork;
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    auto search = m_localGuests.find(entityId);
+    return search != m_localGuests.end() ? search->second.chatControl : nullptr;
 }
 
 void
-NetworkManager::ConnectAudioInput()
+NetworkManager::SendTextMessageAs(
+    const std::string& entityId,
+    PartyString chatText
+    )
 {
-    assert(m_localChatControl != nullptr);
-
-    m_localChatControl->SetAudioInput(
-            PartyAudioDeviceSelectionType::SystemDefault,
-            nullptr,
-            nullptr
-            );
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    PartyLocalChatControl* chatControl = GetLocalChatControl(entityId);
+    if (m_activeSession != nullptr && chatControl != nullptr)
+    {
+        SendTextMessage(m_activeSession, chatControl, chatText);
+    }
 }
 
 void
-NetworkManager::DisconnectAudioInput()
+NetworkManager::SendTextAsVoiceAs(
+    const std::string& entityId,
+    std::string text
+    )
 {
-    assert(m_localChatControl != nullptr);
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    PartyLocalChatControl* chatControl = GetLocalChatControl(entityId);
+    if (chatControl != nullptr)
+    {
+        PartyError err = chatControl->SynthesizeTextToSpeech(
+            PartySynthesizeTextToSpeechType::VoiceChat,
+            text.c_str(),                           // Text to synthesize
+            nullptr                                 // Async identifier
+        );
 
-    m_localChatControl->SetAudioInput(
-            PartyAudioDeviceSelectionType::None,
-            nullptr,
-            nullptr
-            );
+        if (PARTY_FAILED(err))
+        {
+            DEBUGLOG("Failed to SynthesizeTextToSpeech for guest: %s\n", GetErrorMessage(err));
+        }
+    }
 }
 
-// Convertss a State Change Result to a user friendly string message.
-std::string 
-PartyStateChangeResultToReasonString(
-    PartyStateChangeResult result
+void 
+NetworkManager::SendNetworkMessage(
+    const NetworkMessage & message
     )
 {
-    switch (result)
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_activeSession != nullptr)
     {
-    case PartyStateChangeResult::Succeeded: return "Succeeded";
-    case PartyStateChangeResult::UnknownError: return "An unknown error occured";
-    case PartyStateChangeResult::InternetConnectivityError: return "The local device has internet connectivity issues which caused the operation to fail";
-    case PartyStateChangeResult::PartyServiceError: return "The Party service is unable to create a new network at this time";
-    case PartyStateChangeResult::NoServersAvailable: return "There are no available servers in the regions specified by the call to PartyManager::CreateNewNetwork()";
-    case PartyStateChangeResult::CanceledByTitle: return "Operation canceled by title.";
-    case PartyStateChangeResult::UserCreateNetworkThrottled: return "The PartyLocalUser specified in the call to PartyManager::CreateNewNetwork() has created too many networks and cannot create new networks at this time";
-    case PartyStateChangeResult::TitleNotEnabledForParty: return "The title has not been configured properly in the Party portal";
-    case PartyStateChangeResult::NetworkLimitReached: return "The network is full and is not allowing new devices or users to join";
-    case PartyStateChangeResult::NetworkNoLongerExists: return "The network no longer exists";
-    case PartyStateChangeResult::NetworkNotJoinable: return "The network is not currently allowing new devices or users to join";
-    case PartyStateChangeResult::VersionMismatch: return "The network uses a version of the Party library that is incompatible with this library";
-    case PartyStateChangeResult::UserNotAuthorized: return "The specified user was not authorized";
-    case PartyStateChangeResult::LeaveNetworkCalled: return "The network was gracefully exited by the local device";
-    case PartyStateChangeResult::FailedToBindToLocalUdpSocket: return "The library could not bind to the local UDP socket specified in the PartyOption::LocalUdpSocketBindAddress option";
+        SendNetworkMessage(m_activeSession, message);
     }
-    return "Unknown enumeration value";
 }
 
-// Convertss an Audio Input State to a user friendly string message.
-std::string 
-PartyAudioInputStateToString(
-    PartyAudioInputState state
+void 
+NetworkManager::SendNetworkMessage(
+    NetworkSession* session,
+    const NetworkMessage & message
     )
 {
-    switch (state)
-    {
-    case PartyAudioInputState::Initialized: return "Initialized";
-    case PartyAudioInputState::NoInput: return "NoInput";
-    case PartyAudioInputState::NotFound: return "NotFound";
-    case PartyAudioInputState::UnknownError: return "UnknownError";
-    case PartyAudioInputState::UnsupportedFormat: return "UnsupportedFormat";
-    case PartyAudioInputState::UserConsentDenied: return "UserConsentDenied";
-    default: break;
-    }
-    return "Unknown enumeration value";
+    SendNetworkMessage(session, session->localEndpoint, message);
 }
 
-// Convertss an Audio Output State to a user friendly string message.
-std::string 
-PartyAudioOutputStateToString(
-    PartyAudioOutputState state
+void 
+NetworkManager::SendNetworkMessage(
+    NetworkSession* session,
+    PartyLocalEndpoint* endpoint,
+    const NetworkMessage & message
     )
 {
-    switch (state)
-    {
-    case PartyAudioOutputState::Initialized: return "Initialized";
-    case PartyAudioOutputState::NoOutput: return "NoOutput";
-    case PartyAudioOutputState::NotFound: return "NotFound";
-    case PartyAudioOutputState::UnknownError: return "UnknownError";
-    case PartyAudioOutputState::UnsupportedFormat: return "UnsupportedFormat";
-    default: break;
-    }
-    return "Unknown enumeration value";
+    SendNetworkMessage(session, endpoint, nullptr, message);
 }
 
-// Convertss an Audio Device Selection Type to a user friendly string message.
-std::string 
-PartyAudioDeviceSelectionTypeToString(
-    PartyAudioDeviceSelectionType type
+// Sends to one endpoint, or to every endpoint if target is null.
+void
+NetworkManager::SendNetworkMessage(
+    NetworkSession* session,
+    PartyLocalEndpoint* endpoint,
+    PartyEndpoint* target,
+    const NetworkMessage & message
     )
 {
-    switch (type)
+    if (endpoint && session->state == NetworkManagerState::NetworkConnected)
     {
-    case PartyAudioDeviceSelectionType::SystemDefault: return "SystemDefault";
-    case PartyAudioDeviceSelectionType::PlatformUserDefault: return "PlatformUserDefault";
-    case PartyAudioDeviceSelectionType::Manual: return "Manual";
-    case PartyAudioDeviceSelectionType::None: return "None";
-    }
-    return "Unknown enumeration value";
+        // Large messages come back compressed and, if still too big, as several fragments.
+        for (const std::vector<uint8_t>& packet : session->messages.Encode(message))
+        {
+            // Form the data packet into a data buffer structure
+            PartyDataBuffer data[] = {
+                {
+                    static_cast<const void*>(packet.data()),
+                    static_cast<uint32_t>(packet.size())
+                },
+            };
+
+            // Set delivery options for guaranteed and sequential delivery.
+            PartySendMessageOptions deliveryOptions =
+                PartySendMessageOptions::GuaranteedDelivery |
+                PartySendMessageOptions::SequentialDelivery;
+
+            // Send out the message to the target, or to all other peers
+            PartyError err = endpoint->SendMessage(
+                target != nullptr ? 1 : 0,              // endpoint count; 0 = broadcast
+                target != nullptr ? &target : nullptr,  // endpoint list
+                deliveryOptions,                        // send message options
+                nullptr,                                // configuration
+                1,                                      // buffer count
+                data,                                   // buffer
+                nullptr                                 // async identifier
+            );
+
+            if (PARTY_FAILED(err))
+            {
+                DEBUGLOG("Failed to SendMessage: %s\n", GetErrorMessage(err));
+                break;
+            }
+        }
+    }
+}
+
+void 
+NetworkManager::SendTextAsVoice(
+    std::string text
+    )
+{
+    if (m_localChatControl != nullptr)
+    {
+        DEBUGLOG("Requesting transcription of: %s\n", text.c_str());
+
+        // Synthesize the text to speech.
+        PartyError err = m_localChatControl->SynthesizeTextToSpeech(
+            PartySynthesizeTextToSpeechType::VoiceChat,
+            text.c_str(),                        // Text to synthesize
+            nullptr                                 // Async identifier
+        );
+
+        if (PARTY_FAILED(err))
+        {
+            DEBUGLOG("Failed to SynthesizeTextToSpeech: %s\n", GetErrorMessage(err));
+        }
+    }
+}
+
+void
+NetworkManager::SendTextMessage(
+    PartyString chatText
+    )
+{
+    // The recipients are every remote chat control in the network, kept up to date by DoWork,
+    // so the lock keeps the list from changing under us.
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_activeSession != nullptr)
+    {
+        SendTextMessage(m_activeSession, m_localChatControl, chatText);
+    }
+}
+
+void
+NetworkManager::SendTextMessage(
+    const std::string& networkId,
+    PartyString chatText
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    NetworkSession* session = FindSession(networkId);
+    if (session != nullptr)
+    {
+        SendTextMessage(session, m_localChatControl, chatText);
+    }
+}
+
+void
+NetworkManager::SendQuickPhrase(
+    uint32_t phraseId,
+    bool narrate
+    )
+{
+    DEBUGLOG("Sending quick phrase %u\n", phraseId);
+    SendNetworkMessage(NetworkMessage(NetworkMessageType::QuickPhrase, EncodeQuickPhrase(phraseId, narrate)));
+}
+
+void
+NetworkManager::SendTextMessage(
+    NetworkSession* session,
+    PartyLocalChatControl* sender,
+    PartyString chatText
+    )
+{
+    // Convert the message into a raw data.
+    Party::PartyDataBuffer dataBuffers[] = { NetworkMessage::PartyStringAsDataBuffer(chatText) };
+
+    // If the sending local user has a chat control, use it to send the data buffer to the remote chat controls.
+    if (sender != nullptr)
+    {
+        PartyError result = sender->SendText(
+            static_cast<uint32_t>(session->remoteChatControls.size()),
+            session->remoteChatControls.data(),
+            chatText,
+            _countof(dataBuffers),
+            dataBuffers
+            );
+
+        DEBUGLOG("Info: SendText and the result is:%d", result);
+    }
+    else
+    {
+        DEBUGLOG("Info: SendText NO local chat control");
+    }
+
+}
+
+// Adds a remote chat control to a network's text recipients if it is not already there.
+void
+NetworkManager::AddRemoteChatControl(
+    NetworkSession* session,
+    PartyChatControl* chatControl
+    )
+{
+    std::vector<PartyChatControl*>& members = session->remoteChatControls;
+    if (std::find(members.begin(), members.end(), chatControl) == members.end())
+    {
+        members.push_back(chatControl);
+    }
+}
+
+// Removes a chat control from a network's text recipients. Order does not matter, so the last entry fills the gap.
+// Returns whether the chat control was in the network.
+bool
+NetworkManager::RemoveRemoteChatControl(
+    NetworkSession* session,
+    PartyChatControl* chatControl
+    )
+{
+    std::vector<PartyChatControl*>& members = session->remoteChatControls;
+    auto it = std::find(members.begin(), members.end(), chatControl);
+    if (it == members.end())
+    {
+        return false;
+    }
+    *it = members.back();
+    members.pop_back();
+    return true;
+}
+
+// Drops a departed player's attenuation once they are in none of our networks, so a rejoin starts
+// unattenuated, as it does on the Java side. The chat control can outlive the departure, so its
+// render volume is restored too.
+void
+NetworkManager::ForgetPeerAttenuation(
+    const std::string& entityId,
+    PartyChatControl* chatControl
+    )
+{
+    for (auto& item : m_sessions)
+    {
+        const std::vector<PartyChatControl*>& members = item.second->remoteChatControls;
+        if (std::find(members.begin(), members.end(), chatControl) != members.end())
+        {
+            return;
+        }
+    }
+
+    if (m_peerAttenuations.erase(entityId) == 0 || m_localChatControl == nullptr || chatControl == m_localChatControl)
+    {
+        return;
+    }
+
+    PartyError err = m_localChatControl->SetAudioRenderVolume(chatControl, GetRenderVolume(entityId));
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("SetAudioRenderVolume failed for chat control 0x%p: %s\n", chatControl, GetErrorMessage(err));
+    }
+}
+
+void 
+NetworkManager::LeaveNetwork(
+    std::function<void(void)> callback
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    LeaveNetwork(m_activeSession, callback);
+}
+
+void 
+NetworkManager::LeaveNetwork(
+    const std::string& networkId,
+    std::function<void(void)> callback
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    LeaveNetwork(FindSession(networkId), callback);
+}
+
+void 
+NetworkManager::LeaveNetwork(
+    NetworkSession* session,
+    std::function<void(void)> callback
+    )
+{
+    DEBUGLOG("NetworkManager::LeaveNetwork()\n");
+
+    // The chat control is shared, so it is only muted with the last network.
+    bool isLastNetwork = true;
+    for (auto& item : m_sessions)
+    {
+        if (item.second.get() != session && item.second->state != NetworkManagerState::Leaving)
+        {
+            isLastNetwork = false;
+            break;
+        }
+    }
+
+    if (isLastNetwork)
+    {
+        // The warmed up chat control is kept, with its devices, profiles and transcription options,
+        // so the next create or join only has to connect it again. Mute it to save on processing.
+        setAudioInputEnabled(false);
+        m_isChatControlConnected = false;
+    }
+
+    // Make sure we aren't already leaving or disconnected from a network.
+    if (session != nullptr && session->state != NetworkManagerState::Leaving && session->network != nullptr)
+    {
+        //Change our local state and save the callback for once the leave operation completes.
+        session->state = NetworkManagerState::Leaving;
+        session->onNetworkLeft = callback;
+
+        // Disconnect local chat control before leave network.
+        if (m_localChatControl != nullptr)
+        {
+            session->network->DisconnectChatControl(m_localChatControl, nullptr);
+        }
+
+        // Call leave on the Party APIs.
+        session->network->LeaveNetwork(nullptr);
+    }
+    else
+    {
+        // We're already leaving or don't have a network. Call the callback.
+        if (callback != nullptr)
+        {
+            callback();
+        }
+    }
+}
+
+void
+NetworkManager::SetOnNetworkDestroyed(
+        std::function<void(std::string, bool)> callback
+)
+{
+    m_onNetworkDestroyed = callback;
+}
+
+bool
+NetworkManager::IsConnecting()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    for (auto& item : m_sessions)
+    {
+        if (item.second->state == NetworkManagerState::WaitingForConnect ||
+            item.second->state == NetworkManagerState::WaitingForNetwork)
+        {
+            return true;
+        }
+    }
+    return false;
+}
+
+void
+NetworkManager::ConnectAudioInput()
+{
+    // Focus can come back before Initialize has warmed up a chat control, or after Shutdown.
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_localChatControl == nullptr)
+    {
+        return;
+    }
+
+    m_localChatControl->SetAudioInput(
+            PartyAudioDeviceSelectionType::SystemDefault,
+            nullptr,
+            nullptr
+            );
+}
+
+void
+NetworkManager::DisconnectAudioInput()
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_localChatControl == nullptr)
+    {
+        return;
+    }
+
+    m_localChatControl->SetAudioInput(
+            PartyAudioDeviceSelectionType::None,
+            nullptr,
+            nullptr
+            );
+}
+
+void
+NetworkManager::SetAudioInputPaused(
+    bool paused
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    DEBUGLOG("Audio input %s\n", paused ? "paused" : "resumed");
+    m_audioInputPaused = paused;
+    setAudioInputEnabled(m_audioInputEnabled);
+}
+
+// Convertss a State Change Result to a user friendly string message.
+std::string 
+PartyStateChangeResultToReasonString(
+    PartyStateChangeResult result
+    )
+{
+    switch (result)
+    {
+    case PartyStateChangeResult::Succeeded: return "Succeeded";
+    case PartyStateChangeResult::UnknownError: return "An unknown error occured";
+    case PartyStateChangeResult::InternetConnectivityError: return "The local device has internet connectivity issues which caused the operation to fail";
+    case PartyStateChangeResult::PartyServiceError: return "The Party service is unable to create a new network at this time";
+    case PartyStateChangeResult::NoServersAvailable: return "There are no available servers in the regions specified by the call to PartyManager::CreateNewNetwork()";
+    case PartyStateChangeResult::CanceledByTitle: return "Operation canceled by title.";
+    case PartyStateChangeResult::UserCreateNetworkThrottled: return "The PartyLocalUser specified in the call to PartyManager::CreateNewNetwork() has created too many networks and cannot create new networks at this time";
+    case PartyStateChangeResult::TitleNotEnabledForParty: return "The title has not been configured properly in the Party portal";
+    case PartyStateChangeResult::NetworkLimitReached: return "The network is full and is not allowing new devices or users to join";
+    case PartyStateChangeResult::NetworkNoLongerExists: return "The network no longer exists";
+    case PartyStateChangeResult::NetworkNotJoinable: return "The network is not currently allowing new devices or users to join";
+    case PartyStateChangeResult::VersionMismatch: return "The network uses a version of the Party library that is incompatible with this library";
+    case PartyStateChangeResult::UserNotAuthorized: return "The specified user was not authorized";
+    case PartyStateChangeResult::LeaveNetworkCalled: return "The network was gracefully exited by the local device";
+    case PartyStateChangeResult::FailedToBindToLocalUdpSocket: return "The library could not bind to the local UDP socket specified in the PartyOption::LocalUdpSocketBindAddress option";
+    }
+    return "Unknown enumeration value";
+}
+
+// Convertss an Audio Input State to a user friendly string message.
+std::string 
+PartyAudioInputStateToString(
+    PartyAudioInputState state
+    )
+{
+    switch (state)
+    {
+    case PartyAudioInputState::Initialized: return "Initialized";
+    case PartyAudioInputState::NoInput: return "NoInput";
+    case PartyAudioInputState::NotFound: return "NotFound";
+    case PartyAudioInputState::UnknownError: return "UnknownError";
+    case PartyAudioInputState::UnsupportedFormat: return "UnsupportedFormat";
+    case PartyAudioInputState::UserConsentDenied: return "UserConsentDenied";
+    default: break;
+    }
+    return "Unknown enumeration value";
+}
+
+// Convertss an Audio Output State to a user friendly string message.
+std::string 
+PartyAudioOutputStateToString(
+    PartyAudioOutputState state
+    )
+{
+    switch (state)
+    {
+    case PartyAudioOutputState::Initialized: return "Initialized";
+    case PartyAudioOutputState::NoOutput: return "NoOutput";
+    case PartyAudioOutputState::NotFound: return "NotFound";
+    case PartyAudioOutputState::UnknownError: return "UnknownError";
+    case PartyAudioOutputState::UnsupportedFormat: return "UnsupportedFormat";
+    default: break;
+    }
+    return "Unknown enumeration value";
+}
+
+// Convertss an Audio Device Selection Type to a user friendly string message.
+std::string 
+PartyAudioDeviceSelectionTypeToString(
+    PartyAudioDeviceSelectionType type
+    )
+{
+    switch (type)
+    {
+    case PartyAudioDeviceSelectionType::SystemDefault: return "SystemDefault";
+    case PartyAudioDeviceSelectionType::PlatformUserDefault: return "PlatformUserDefault";
+    case PartyAudioDeviceSelectionType::Manual: return "Manual";
+    case PartyAudioDeviceSelectionType::None: return "None";
+    }
+    return "Unknown enumeration value";
 }
 
 // Gets a string version of a PartyError from PartyManager
@@ -736,8 +1685,8 @@ NetworkManager::GetErrorMessage(
 void 
 NetworkManager::DoWork()
 {
-    std::unique_lock<std::mutex> lock(m_networkLock);
-    if (m_state == NetworkManagerState::Initialize)
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    if (m_sessions.empty())
     {
         // Network isn't ready to receive state changes yet.
         return;
@@ -761,6 +1710,7 @@ NetworkManager::DoWork()
     for (uint32_t i = 0; i < count; i++)
     {
         auto change = changes[i];
+        TRACE_EVENT(TraceLevel::Debug, TraceEvent::StateChange, nullptr, change->stateChangeType);
 
         switch (change->stateChangeType)
         {
@@ -776,18 +1726,34 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::CreateNewNetworkCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::CreateNewNetworkCompleted\n");
             auto result = static_cast<const PartyCreateNewNetworkCompletedStateChange*>(change);
 
             DEBUGLOG("Created new network with: \n");
             DEBUGLOG("    identifier: %s\n", result->networkDescriptor.networkIdentifier);
             DEBUGLOG("    region    : %s\n", result->networkDescriptor.regionName);
 
+            // The network was created with its session as the async identifier; make sure it is still open.
+            NetworkSession* session = nullptr;
+            for (auto& item : m_sessions)
+            {
+                if (item.second.get() == result->asyncIdentifier)
+                {
+                    session = item.second.get();
+                    break;
+                }
+            }
+            if (session == nullptr)
+            {
+                DEBUGLOG("CreateNewNetworkCompleted for a network that is no longer open\n");
+                break;
+            }
+
             if (result->result == PartyStateChangeResult::Succeeded)
             {
                 DEBUGLOG("CreateNewNetworkCompleted:  SUCCESS\n");
-                m_state = NetworkManagerState::NetworkConnected;
-                if (m_onNetworkCreated)
+                session->state = NetworkManagerState::NetworkConnected;
+                m_activeSession = session;
+                if (session->onNetworkCreated)
                 {
                     char descriptor[c_maxSerializedNetworkDescriptorStringLength + 1] = {};
 
@@ -801,13 +1767,13 @@ NetworkManager::DoWork()
                     {
                         // Call the callback with an empty string to indicate an error.
                         DEBUGLOG("Failed to serialize network descriptor: %s\n", GetErrorMessage(err));
-                        m_onNetworkCreated(std::string());
+                        session->onNetworkCreated(std::string());
                     }
                     else
                     {
                         // Call the callback with network descriptor.
                         DEBUGLOG("Serialized value: %s\n", descriptor);
-                        m_onNetworkCreated(std::string(descriptor));
+                        session->onNetworkCreated(std::string(descriptor));
                     }
                 }
             }
@@ -819,17 +1785,21 @@ NetworkManager::DoWork()
                 DEBUGLOG("   Error Message string: %s\n", GetErrorMessage(result->errorDetail));
 
                 // Send error callback for the network being created.
-                if (m_onNetworkCreatedError)
+                if (session->onNetworkCreatedError)
                 {
-                    m_onNetworkCreatedError(result->errorDetail);
+                    session->onNetworkCreatedError(result->errorDetail);
                 }
             }
             break;
         }
         case PartyStateChangeType::ConnectToNetworkCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ConnectToNetworkCompleted\n");
             auto result = static_cast<const PartyConnectToNetworkCompletedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
 
             DEBUGLOG("connected to network with: \n");
             DEBUGLOG("    identifier: %s\n", result->networkDescriptor.networkIdentifier);
@@ -841,20 +1811,21 @@ NetworkManager::DoWork()
                 // Send a message to the chat indicating successs.
                 std::string sender("System");
                 std::string message("Connected to network.");
-                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(session->networkId, sender, message);
 
                 DEBUGLOG("ConnectToNetworkCompleted:  SUCCESS\n");
 
-                // Change our state to connected.
-                m_state = NetworkManagerState::NetworkConnected;
+                // Change our state to connected, and make the new network the active one.
+                session->state = NetworkManagerState::NetworkConnected;
+                m_activeSession = session;
 
                 // If we muted the microphone, unmute it.
                 setAudioInputEnabled(true);
 
                 // Issue the callback for successfully connecting to a network.
-                if (m_onNetworkConnected)
+                if (session->onNetworkConnected)
                 {
-                    m_onNetworkConnected();
+                    session->onNetworkConnected();
                 }
             }
             else
@@ -862,27 +1833,32 @@ NetworkManager::DoWork()
                 // register an error to the chat window.
                 std::string sender("System");
                 std::string message("unable to connect to network.");
-                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(session->networkId, sender, message);
 
                 // Log out the error.
                 DEBUGLOG("ConnectToNetworkCompleted:  FAIL:  %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
                 DEBUGLOG("ErrorDetail: %s\n", GetErrorMessage(result->errorDetail));
 
-                // Change our state back to Initialize
-                m_state = NetworkManagerState::Initialize;
+                // The network is not usable; forget it so its id can be joined again.
+                std::function<void(PartyError)> onNetworkConnectedError = session->onNetworkConnectedError;
+                CloseSession(session);
 
                 // Send the callback for a network connection error.
-                if (m_onNetworkConnectedError)
+                if (onNetworkConnectedError)
                 {
-                    m_onNetworkConnectedError(result->errorDetail);
+                    onNetworkConnectedError(result->errorDetail);
                 }
             }
             break;
         }
         case PartyStateChangeType::CreateEndpointCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::CreateEndpointCompleted\n");
             auto result = static_cast<const PartyCreateEndpointCompletedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
             if (result->result == PartyStateChangeResult::Succeeded)
             {
                 DEBUGLOG("CreateEndpointCompleted:  SUCCESS\n");
@@ -893,9 +1869,9 @@ NetworkManager::DoWork()
                 DEBUGLOG("ErrorDetail: %s\n", GetErrorMessage(result->errorDetail));
 
                 // Send error callback for the network being created.
-                if (m_onNetworkConnectedError)
+                if (session->onNetworkConnectedError)
                 {
-                    m_onNetworkConnectedError(result->errorDetail);
+                    session->onNetworkConnectedError(result->errorDetail);
                 }
             }
             break;
@@ -903,8 +1879,12 @@ NetworkManager::DoWork()
         case PartyStateChangeType::EndpointCreated:
         {
             // The user is connected to the network. We want to test we are on the endpoint and send our display name.
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::EndpointCreated\n");
             auto result = static_cast<const PartyEndpointCreatedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
             PartyString user = nullptr;
             err = result->endpoint->GetEntityId(&user);
             if (PARTY_FAILED(err))
@@ -913,14 +1893,27 @@ NetworkManager::DoWork()
             }
             else
             {
-                // Send the current users display name to the other chat controls.
-                std::string displayName = Managers::Get<PlayFabManager>()->displayName();
-                SendNetworkMessage(
-                    NetworkMessage(
-                        NetworkMessageType::UserDisplayName,
-                        displayName
-                    )
-                );
+                std::string userId(user);
+                PartyLocalEndpoint* localEndpoint = nullptr;
+                result->endpoint->GetLocal(&localEndpoint);
+                if (localEndpoint == nullptr)
+                {
+                    // A newcomer announces itself, and the users already here are in the roster we
+                    // asked for; anyone still unnamed after that is asked for again.
+                    session->roster.AddEndpoint(userId, MonotonicTimeMicros() / 1000);
+                }
+                else
+                {
+                    // Each of our endpoints announces its own user's display name once, to everyone already here.
+                    AnnounceDisplayName(session, localEndpoint, nullptr);
+
+                    // And one peer already here is asked for the names of the rest.
+                    if (localEndpoint == session->localEndpoint && !session->rosterRequested)
+                    {
+                        session->rosterRequested = true;
+                        RequestRosterSnapshot(session);
+                    }
+                }
 
                 DEBUGLOG("Established endpoint with user %s\n", user);
             }
@@ -928,17 +1921,32 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::EndpointDestroyed:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::EndpointDestroyed\n");
             auto result = static_cast<const PartyEndpointDestroyedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
 
-            DEBUGLOG("Endpoint is %s\n", result->endpoint == m_localEndpoint ? "local" : "remote");
+            DEBUGLOG("Endpoint is %s\n", result->endpoint == session->localEndpoint ? "local" : "remote");
             DEBUGLOG("Reason: %d\n", result->reason);
             DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
 
-            if (result->endpoint == m_localEndpoint)
+            // Forget a local guest's endpoint once it is gone.
+            for (auto it = session->guestEndpoints.begin(); it != session->guestEndpoints.end(); ++it)
+            {
+                if (it->second == result->endpoint)
+                {
+                    session->roster.Remove(it->first);
+                    session->guestEndpoints.erase(it);
+                    break;
+                }
+            }
+
+            if (result->endpoint == session->localEndpoint)
             {
                 // Our endpoint was disconnected
-                m_localEndpoint = nullptr;
+                session->localEndpoint = nullptr;
             }
             else
             {
@@ -953,30 +1961,62 @@ NetworkManager::DoWork()
                 }
 
                 std::string userId(user);
+                session->messages.RemoveSender(userId);
+                session->peerClocks.erase(userId);
+                session->roster.Remove(userId);
             }
             break;
         }
         case PartyStateChangeType::EndpointMessageReceived:
         {
             // A user has sent their display name to us. We can register them as having joined the network with this information.
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::EndpointMessageReceived\n");
             auto result = static_cast<const PartyEndpointMessageReceivedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
+
+            PartyString sender = nullptr;
+            err = result->senderEndpoint->GetEntityId(&sender);
+
+            if (PARTY_SUCCEEDED(err))
+            {
+                // Convert the data buffer into a network message; a fragment only yields one once the last piece is in.
+                std::string senderId(sender);
+                auto buffer = static_cast<const uint8_t*>(result->messageBuffer);
+                NetworkMessage packet;
+                if (!session->messages.Decode(senderId, buffer, result->messageSize, packet))
+                {
+                    break;
+                }
+
+                if (packet.MessageType() == NetworkMessageType::Ping || packet.MessageType() == NetworkMessageType::Pong)
+                {
+                    ProcessClockProbe(session, result->senderEndpoint, senderId, packet);
+                    break;
+                }
+
+                if (packet.MessageType() == NetworkMessageType::QuickPhrase)
+                {
+                    ProcessQuickPhrase(session, result->senderEndpoint, senderId, packet);
+                    break;
+                }
 
-            // Convert the data buffer into a network message
-            auto buffer = static_cast<PartyString>(result->messageBuffer);
-            auto packet = std::make_shared<NetworkMessage>(
-                std::vector<uint8_t>(buffer, buffer + result->messageSize)
-                );
+                if (packet.MessageType() == NetworkMessageType::RosterRequest || packet.MessageType() == NetworkMessageType::RosterSnapshot)
+                {
+                    ProcessRosterMessage(session, result, senderId, packet);
+                    break;
+                }
 
-            PartyString sender = nullptr;
-            err = result->senderEndpoint->GetEntityId(&sender);
+                if (packet.MessageType() != NetworkMessageType::UserDisplayName)
+                {
+                    DEBUGLOG("Unknown endpoint message type %d from %s\n", static_cast<int>(packet.MessageType()), senderId.c_str());
+                    break;
+                }
 
-            if (PARTY_SUCCEEDED(err))
-            {
                 // Send the relavent information to the manager in charge of responding to the display name.
-                std::string senderId(sender);
-                std::string message(packet->StringValue());
-                Managers::Get<INetworkStateChangeManager>()->ProcessEndpointMessage(senderId, message);
+                LearnDisplayName(session, senderId, packet.StringValue());
             }
             else
             {
@@ -986,8 +2026,12 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::ChatTextReceived:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ChatTextReceived\n");
             auto result = static_cast<const PartyChatTextReceivedStateChange*>(change);
+            NetworkSession* session = FindSessionForChatControl(result->senderChatControl);
+            if (session == nullptr)
+            {
+                break;
+            }
 
             PartyString sender = nullptr;
             err = result->senderChatControl->GetEntityId(&sender);
@@ -1006,7 +2050,7 @@ NetworkManager::DoWork()
                 }
 
                 // A text message has been received. Notify the relevant manager.
-                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(senderId, message);
+                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(session->networkId, senderId, message);
             }
             else
             {
@@ -1016,7 +2060,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::AuthenticateLocalUserCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::AuthenticateLocalUserCompleted\n");
             auto result = static_cast<const PartyAuthenticateLocalUserCompletedStateChange*>(change);
             if (result->result == PartyStateChangeResult::Succeeded)
             {
@@ -1031,8 +2074,9 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::LocalUserRemoved:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::LocalUserRemoved\n");
-            if (m_state != NetworkManagerState::Leaving)
+            auto result = static_cast<const PartyLocalUserRemovedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session != nullptr && session->state != NetworkManagerState::Leaving)
             {
                 DEBUGLOG("Unexpected local user removal!\n");
             }
@@ -1040,70 +2084,111 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::LeaveNetworkCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::LeaveNetworkCompleted\n");
-            m_state = NetworkManagerState::Initialize;
+            auto result = static_cast<const PartyLeaveNetworkCompletedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
+
             // If a callback exists for leaving the network, call it.
-            if (m_onNetworkLeft)
+            std::function<void(void)> onNetworkLeft = session->onNetworkLeft;
+            CloseSession(session);
+            if (onNetworkLeft)
             {
-                m_onNetworkLeft();
+                onNetworkLeft();
             }
             break;
         }
         case PartyStateChangeType::NetworkDestroyed:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::NetworkDestroyed\n");
-            // Clean up the network.
-            m_network = nullptr;
-            const bool destructionWasExpected = m_state == NetworkManagerState::Leaving;
+            auto result = static_cast<const PartyNetworkDestroyedStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr)
+            {
+                break;
+            }
+
+            // Clean up the network; every member still listed has left it with us.
+            while (!session->remoteChatControls.empty())
+            {
+                PartyChatControl* chatControl = session->remoteChatControls.back();
+                session->remoteChatControls.pop_back();
+                PartyString sender = nullptr;
+                if (PARTY_SUCCEEDED(chatControl->GetEntityId(&sender)))
+                {
+                    ForgetPeerAttenuation(sender, chatControl);
+                    Managers::Get<INetworkStateChangeManager>()->onPlayerLeft(session->networkId, sender);
+                }
+            }
+            const bool destructionWasExpected = session->state == NetworkManagerState::Leaving;
+            const std::string networkId = session->networkId;
             if (!destructionWasExpected)
             {
                 DEBUGLOG("Unexpected network destruction!\n");
+
+                // No LeaveNetworkCompleted follows, so the session goes now.
+                CloseSession(session);
             }
-            m_state = NetworkManagerState::Initialize;
             if (m_onNetworkDestroyed)
             {
-                m_onNetworkDestroyed(destructionWasExpected);
+                m_onNetworkDestroyed(networkId, destructionWasExpected);
             }
             break;
         }
         case PartyStateChangeType::NetworkConfigurationMadeAvailable:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::NetworkConfigurationMadeAvailable\n");
             break;
         }
         case PartyStateChangeType::RemoteDeviceCreated:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::RemoteDeviceCreated\n");
             break;
         }
         case PartyStateChangeType::RemoteDeviceJoinedNetwork:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::RemoteDeviceJoinedNetwork\n");
             break;
         }
         case PartyStateChangeType::RemoteDeviceDestroyed:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::RemoteDeviceDestroyed\n");
             break;
         }
         case PartyStateChangeType::RemoteDeviceLeftNetwork:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::RemoteDeviceLeftNetwork\n");
             break;
         }
         case PartyStateChangeType::ChatControlJoinedNetwork:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ChatControlJoinedNetwork\n");
+            auto result = static_cast<const PartyChatControlJoinedNetworkStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            PartyLocalChatControl* local = nullptr;
+            result->chatControl->GetLocal(&local);
+            if (session != nullptr && local == nullptr)
+            {
+                AddRemoteChatControl(session, result->chatControl);
+            }
             break;
         }
         case PartyStateChangeType::ChatControlLeftNetwork:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ChatControlLeftNetwork\n");
+            auto result = static_cast<const PartyChatControlLeftNetworkStateChange*>(change);
+            NetworkSession* session = FindSession(result->network);
+            if (session == nullptr || !RemoveRemoteChatControl(session, result->chatControl))
+            {
+                break;
+            }
+
+            PartyString sender = nullptr;
+            err = result->chatControl->GetEntityId(&sender);
+            if (PARTY_SUCCEEDED(err))
+            {
+                DEBUGLOG("ChatControl from %s left network %s\n", sender, session->networkId.c_str());
+                ForgetPeerAttenuation(sender, result->chatControl);
+                Managers::Get<INetworkStateChangeManager>()->onPlayerLeft(session->networkId, sender);
+            }
             break;
         }
         case PartyStateChangeType::ChatControlDestroyed:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ChatControlDestroyed\n");
             auto result = static_cast<const PartyChatControlDestroyedStateChange*>(change);
             PartyString sender = nullptr;
             err = result->chatControl->GetEntityId(&sender);
@@ -1111,18 +2196,30 @@ NetworkManager::DoWork()
             if (PARTY_FAILED(err))
             {
                 DEBUGLOG("GetUserIdentifier failed: %s\n", GetErrorMessage(err));
+                for (auto& item : m_sessions)
+                {
+                    RemoveRemoteChatControl(item.second.get(), result->chatControl);
+                }
             }
             else
             {
                 DEBUGLOG("Destroyed ChatControl from %s\n", sender);
-                Managers::Get<INetworkStateChangeManager>()->onPlayerLeft(sender);
+
+                // Report the player as gone from every network that did not already report it leaving.
+                for (auto& item : m_sessions)
+                {
+                    if (RemoveRemoteChatControl(item.second.get(), result->chatControl))
+                    {
+                        Managers::Get<INetworkStateChangeManager>()->onPlayerLeft(item.first, sender);
+                    }
+                }
                 m_chatControls.erase(sender);
+                m_peerAttenuations.erase(sender);
             }
             break;
         }
         case PartyStateChangeType::ChatControlCreated:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ChatControlCreated\n");
             auto result = static_cast<const PartyChatControlCreatedStateChange*>(change);
             PartyString sender = nullptr;
             err = result->chatControl->GetEntityId(&sender);
@@ -1158,7 +2255,12 @@ NetworkManager::DoWork()
                         DEBUGLOG("Failed to SetPermissions on ChatControl: %s\n", GetErrorMessage(err));
                     }
 
-                     err = m_localChatControl->SetAudioRenderVolume(result->chatControl, m_renderVolume);
+                    for (auto& item : m_localGuests)
+                    {
+                        SetGuestPermissions(item.second, result->chatControl);
+                    }
+
+                     err = m_localChatControl->SetAudioRenderVolume(result->chatControl, GetRenderVolume(sender));
                     if (PARTY_FAILED(err))
                     {
                         DEBUGLOG("Failed to SetAudioRenderVolume on incoming remote ChatControl: %s\n", GetErrorMessage(err));
@@ -1169,7 +2271,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::ConnectChatControlCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::ConnectChatControlCompleted\n");
             m_isChatControlConnected = true;
             auto result = static_cast<const PartyConnectChatControlCompletedStateChange*>(change);
             if (result->result == PartyStateChangeResult::Succeeded)
@@ -1185,7 +2286,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::CreateChatControlCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::CreateChatControlCompleted\n");
             auto result = static_cast<const PartyCreateChatControlCompletedStateChange*>(change);
             if (result->result == PartyStateChangeResult::Succeeded)
             {
@@ -1200,7 +2300,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::LocalChatAudioInputChanged:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::LocalChatAudioInputChanged\n");
             auto result = static_cast<const PartyLocalChatAudioInputChangedStateChange*>(change);
             if (PARTY_FAILED(result->errorDetail))
             {
@@ -1210,7 +2309,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::SetChatAudioInputCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::SetChatAudioInputCompleted\n");
             auto result = static_cast<const PartySetChatAudioInputCompletedStateChange*>(change);
             if (result->result == PartyStateChangeResult::Succeeded)
             {
@@ -1224,7 +2322,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::SetChatAudioOutputCompleted:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::SetChatAudioOutputCompleted\n");
             auto result = static_cast<const PartySetChatAudioOutputCompletedStateChange*>(change);
             if (result->result == PartyStateChangeResult::Succeeded)
             {
@@ -1239,7 +2336,6 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::LocalChatAudioOutputChanged:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::LocalChatAudioOutputChanged\n");
             auto result = static_cast<const PartyLocalChatAudioOutputChangedStateChange*>(change);
             if (PARTY_FAILED(result->errorDetail))
             {
@@ -1249,8 +2345,12 @@ NetworkManager::DoWork()
         }
         case PartyStateChangeType::VoiceChatTranscriptionReceived:
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::VoiceChatTranscriptionReceived\n");
             auto result = static_cast<const PartyVoiceChatTranscriptionReceivedStateChange*>(change);
+            NetworkSession* session = FindSessionForChatControl(result->senderChatControl);
+            if (session == nullptr)
+            {
+                break;
+            }
             PartyString sender = nullptr;
 
             err = result->senderChatControl->GetEntityId(&sender);
@@ -1260,11 +2360,13 @@ NetworkManager::DoWork()
             }
             else
             {
-                // Only add the transcription if it is a final phrase, and not a prediction phrase.
-                if (result->type == PartyVoiceChatTranscriptionPhraseType::Final)
-                {
-                    std::string senderId(sender);
+                std::string senderId(sender);
 
+                // Only add the transcription if it is a final phrase, and not a prediction phrase,
+                // from a speaker the transcription policy selects.
+                if (result->type == PartyVoiceChatTranscriptionPhraseType::Final &&
+                    IsTranscribed(result->senderChatControl, senderId))
+                {
                     // If we have translations, find the translation for our language code.
                     std::string message = findExpectedTranslation(result->translations, result->translationCount);
 
@@ -1277,110 +2379,640 @@ NetworkManager::DoWork()
                     if (!message.empty())
                     {
                         // A voice transcription has been received. Notify the relevant manager.
-                        Managers::Get<INetworkStateChangeManager>()->ProcessVoiceMessage(senderId, message);
+                        Managers::Get<INetworkStateChangeManager>()->ProcessVoiceMessage(session->networkId, senderId, message);
                     }
                 }
             }
 
             break;
         }
-        case PartyStateChangeType::SetTranscriptionOptionsCompleted:
+        case PartyStateChangeType::SetTranscriptionOptionsCompleted:
+        {
+            auto result = static_cast<const PartySetTranscriptionOptionsCompletedStateChange*>(change);
+            if (PARTY_FAILED(result->errorDetail))
+            {
+                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+            }
+            break;
+        }
+        case PartyStateChangeType::SetChatAudioEncoderBitrateCompleted:
+        {
+            auto result = static_cast<const PartySetChatAudioEncoderBitrateCompletedStateChange*>(change);
+            if (result->result != PartyStateChangeResult::Succeeded)
+            {
+                DEBUGLOG("SetChatAudioEncoderBitrate(%u) failed: %s\n", result->bitrate, GetErrorMessage(result->errorDetail));
+                m_voiceBitrateSupported = false;
+            }
+            break;
+        }
+        case PartyStateChangeType::SynthesizeTextToSpeechCompleted:
+        {
+            auto result = static_cast<const PartySynthesizeTextToSpeechCompletedStateChange*>(change);
+            if (PARTY_FAILED(result->errorDetail))
+            {
+                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+            }
+            if (result->result != PartyStateChangeResult::Succeeded)
+            {
+                DEBUGLOG("Failed: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
+            }
+            break;
+        }
+        case PartyStateChangeType::SetTextToSpeechProfileCompleted:
+        {
+            auto result = static_cast<const PartySetTextToSpeechProfileCompletedStateChange*>(change);
+            if (PARTY_FAILED(result->errorDetail))
+            {
+                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+            }
+            if (result->result != PartyStateChangeResult::Succeeded)
+            {
+                DEBUGLOG("Failed: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
+            }
+            else
+            {
+                DEBUGLOG("TTS Profile Set: %s \n", result->profileIdentifier);
+                if (result->type == PartySynthesizeTextToSpeechType::Narration)
+                {
+                    m_isNarrationProfileSet = result->localChatControl == m_localChatControl;
+                }
+                else
+                {
+                    m_isTextToSpeechProfileSet = true;
+                }
+            }
+            break;
+        }
+        case PartyStateChangeType::SetLanguageCompleted:
+        {
+            auto result = static_cast<const PartySetLanguageCompletedStateChange*>(change);
+            DEBUGLOG("setting language code: %s \n", result->languageCode);
+            if (PARTY_FAILED(result->errorDetail))
+            {
+                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+            }
+            break;
+        }
+        case PartyStateChangeType::InvitationCreated:
+        {
+            break;
+        }
+        case PartyStateChangeType::PopulateAvailableTextToSpeechProfilesCompleted:
+        {
+            auto result = static_cast<const PartyPopulateAvailableTextToSpeechProfilesCompletedStateChange*>(change);
+            if (result->result == PartyStateChangeResult::Succeeded)
+            {
+                CacheTextToSpeechProfiles();
+                m_populateProfilesCompleted = true;
+                m_ttsProfileNeedsUpdate = true;
+            }
+            else
+            {
+                DEBUGLOG("State Change Result: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
+                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+            }
+            break;
+        }
+        default:
+            DEBUGLOG("unknown state change \n");
+            DEBUGLOG("PartyStateChange: %d\n", change->stateChangeType);
+            break;
+        }
+    }
+
+    // Return the processed changes back to Party
+    err = PartyManager::GetSingleton().FinishProcessingStateChanges(count, changes);
+
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("FinishProcessingStateChanges failed: %s\n", GetErrorMessage(err));
+    }
+
+    if (m_ttsProfileNeedsUpdate.exchange(false))
+    {
+        setTextToSpeechProfile();
+    }
+
+    uint32_t statisticsIntervalMs = m_statisticsIntervalMs;
+    if (statisticsIntervalMs != 0 && m_activeSession != nullptr && m_activeSession->state == NetworkManagerState::NetworkConnected)
+    {
+        auto now = std::chrono::steady_clock::now();
+        if (now - m_lastStatisticsSample >= std::chrono::milliseconds(statisticsIntervalMs))
+        {
+            m_lastStatisticsSample = now;
+            SampleStatistics(m_activeSession);
+        }
+    }
+
+    uint32_t clockProbeIntervalMs = m_clockProbeIntervalMs;
+    if (clockProbeIntervalMs != 0)
+    {
+        auto now = std::chrono::steady_clock::now();
+        if (now - m_lastClockProbe >= std::chrono::milliseconds(clockProbeIntervalMs))
+        {
+            m_lastClockProbe = now;
+            for (auto& entry : m_sessions)
+            {
+                NetworkSession* session = entry.second.get();
+                if (session->state == NetworkManagerState::NetworkConnected)
+                {
+                    int64_t sentUs = MonotonicTimeMicros();
+                    uint32_t probe = ++session->clockProbes;
+                    std::vector<uint8_t> data(
+                        reinterpret_cast<const uint8_t*>(&sentUs),
+                        reinterpret_cast<const uint8_t*>(&sentUs) + sizeof(sentUs));
+                    data.insert(data.end(), reinterpret_cast<const uint8_t*>(&probe), reinterpret_cast<const uint8_t*>(&probe) + sizeof(probe));
+                    SendClockProbe(session, nullptr, NetworkMessage(NetworkMessageType::Ping, data));
+                }
+            }
+        }
+    }
+
+    for (auto& entry : m_sessions)
+    {
+        NetworkSession* session = entry.second.get();
+        if (session->state == NetworkManagerState::NetworkConnected && session->roster.HasUnnamed())
+        {
+            AskUnnamedEndpoints(session);
+        }
+    }
+}
+
+void
+NetworkManager::SetStatisticsSampleInterval(
+    uint32_t intervalMs
+    )
+{
+    m_statisticsIntervalMs = intervalMs;
+}
+
+void
+NetworkManager::SetClockProbeInterval(
+    uint32_t intervalMs
+    )
+{
+    m_clockProbeIntervalMs = intervalMs;
+}
+
+bool
+NetworkManager::GetPeerClock(
+    const std::string& entityId,
+    PeerClock& clock
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    for (auto& entry : m_sessions)
+    {
+        auto itr = entry.second->peerClocks.find(entityId);
+        if (itr != entry.second->peerClocks.end() && itr->second.HasEstimate())
+        {
+            clock = itr->second;
+            return true;
+        }
+    }
+    return false;
+}
+
+// Sends a ping to every endpoint when target is null, or a pong back to the one that pinged.
+// Probes are best effort and unordered: a lost probe is simply not counted, while a retransmitted
+// one would overstate the round trip.
+void
+NetworkManager::SendClockProbe(
+    NetworkSession* session,
+    PartyEndpoint* target,
+    const NetworkMessage& message
+    )
+{
+    if (session->localEndpoint == nullptr)
+    {
+        return;
+    }
+
+    auto packet = message.Serialize();
+    PartyDataBuffer data[] = {
+        {
+            static_cast<const void*>(packet.data()),
+            static_cast<uint32_t>(packet.size())
+        },
+    };
+
+    PartyError err = session->localEndpoint->SendMessage(
+        target != nullptr ? 1 : 0,
+        target != nullptr ? &target : nullptr,
+        PartySendMessageOptions::Default,
+        nullptr,
+        1,
+        data,
+        nullptr
+    );
+
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("Failed to send clock probe: %s\n", GetErrorMessage(err));
+    }
+}
+
+// Answers a ping with the local time, or turns a pong into a new sample for the peer that sent it.
+// A ping holds the local send time and the ping's number; the pong echoes both and adds the peer's time.
+void
+NetworkManager::ProcessClockProbe(
+    NetworkSession* session,
+    PartyEndpoint* sender,
+    const std::string& senderId,
+    NetworkMessage& message
+    )
+{
+    int64_t nowUs = MonotonicTimeMicros();
+
+    // Our own guests' endpoints hear our pings too; they share our clock.
+    PartyLocalEndpoint* localSender = nullptr;
+    sender->GetLocal(&localSender);
+    if (localSender != nullptr)
+    {
+        return;
+    }
+
+    const std::vector<uint8_t>& data = message.RawData();
+    if (message.MessageType() == NetworkMessageType::Ping)
+    {
+        if (data.size() != sizeof(int64_t) + sizeof(uint32_t))
+        {
+            return;
+        }
+
+        std::vector<uint8_t> reply(data);
+        reply.insert(reply.end(), reinterpret_cast<const uint8_t*>(&nowUs), reinterpret_cast<const uint8_t*>(&nowUs) + sizeof(nowUs));
+        SendClockProbe(session, sender, NetworkMessage(NetworkMessageType::Pong, reply));
+        return;
+    }
+
+    if (data.size() != 2 * sizeof(int64_t) + sizeof(uint32_t))
+    {
+        return;
+    }
+
+    int64_t sentUs = 0;
+    uint32_t probe = 0;
+    int64_t peerUs = 0;
+    CopyMemory(&sentUs, data.data(), sizeof(sentUs));
+    CopyMemory(&probe, data.data() + sizeof(sentUs), sizeof(probe));
+    CopyMemory(&peerUs, data.data() + sizeof(sentUs) + sizeof(probe), sizeof(peerUs));
+    if (sentUs > nowUs || probe == 0 || probe > session->clockProbes)
+    {
+        return;
+    }
+
+    PeerClock& clock = session->peerClocks[senderId];
+    clock.AddSample(sentUs, peerUs, nowUs);
+    clock.AddAnswer(probe);
+    Managers::Get<INetworkStateChangeManager>()->ProcessPeerClock(session->networkId, senderId, clock.RoundTripUs(), clock.OffsetUs());
+}
+
+// Sends the display name of the user an endpoint of ours belongs to, to one endpoint or to all of them.
+void
+NetworkManager::AnnounceDisplayName(
+    NetworkSession* session,
+    PartyLocalEndpoint* endpoint,
+    PartyEndpoint* target
+    )
+{
+    std::string displayName;
+    if (endpoint == session->localEndpoint)
+    {
+        displayName = Managers::Get<PlayFabManager>()->displayName();
+    }
+    else
+    {
+        for (auto& item : session->guestEndpoints)
+        {
+            auto guest = m_localGuests.find(item.first);
+            if (item.second == endpoint && guest != m_localGuests.end())
+            {
+                displayName = guest->second.displayName;
+                break;
+            }
+        }
+    }
+
+    if (!displayName.empty())
+    {
+        SendNetworkMessage(session, endpoint, target, NetworkMessage(NetworkMessageType::UserDisplayName, displayName));
+    }
+}
+
+// Answers a roster request with every name we know other than the requester's, or with the name of
+// each of our endpoints it was sent to; or takes in the names from a snapshot.
+void
+NetworkManager::ProcessRosterMessage(
+    NetworkSession* session,
+    const PartyEndpointMessageReceivedStateChange* received,
+    const std::string& senderId,
+    NetworkMessage& message
+    )
+{
+    if (message.MessageType() == NetworkMessageType::RosterRequest)
+    {
+        if (message.RawData().size() != sizeof(unsigned))
+        {
+            return;
+        }
+
+        if (message.UnsignedValue() == c_rosterRequestOwnName)
         {
-            DEBUGLOG("PartyStateChange: PartyStateChangeType::PartySetTranscriptionOptionsCompletedStateChange\n");
-            auto result = static_cast<const PartySetTranscriptionOptionsCompletedStateChange*>(change);
-            if (PARTY_FAILED(result->errorDetail))
+            for (uint32_t i = 0; i < received->receiverEndpointCount; ++i)
             {
-                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
+                AnnounceDisplayName(session, received->receiverEndpoints[i], received->senderEndpoint);
             }
-            break;
+            return;
         }
-        case PartyStateChangeType::SynthesizeTextToSpeechCompleted:
+
+        std::map<std::string, std::string> ownNames;
+        ownNames[Managers::Get<PlayFabManager>()->EntityId()] = Managers::Get<PlayFabManager>()->displayName();
+        for (auto& item : session->guestEndpoints)
         {
-            DEBUGLOG("PartyStateChangeType::SynthesizeTextToSpeechCompleted\n");
-            auto result = static_cast<const PartySynthesizeTextToSpeechCompletedStateChange*>(change);
-            if (PARTY_FAILED(result->errorDetail))
-            {
-                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
-            }
-            if (result->result != PartyStateChangeResult::Succeeded)
+            auto guest = m_localGuests.find(item.first);
+            if (guest != m_localGuests.end())
             {
-                DEBUGLOG("Failed: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
+                ownNames[item.first] = guest->second.displayName;
             }
-            break;
         }
-        case PartyStateChangeType::SetTextToSpeechProfileCompleted:
+        std::string snapshot = session->roster.Snapshot(ownNames, senderId);
+
+        // Large rosters go out compressed and, if need be, in fragments.
+        if (!snapshot.empty())
         {
-            DEBUGLOG("PartyStateChangeType::SetTextToSpeechProfileCompleted\n");
-            auto result = static_cast<const PartySetTextToSpeechProfileCompletedStateChange*>(change);
-            if (PARTY_FAILED(result->errorDetail))
-            {
-                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
-            }
-            if (result->result != PartyStateChangeResult::Succeeded)
-            {
-                DEBUGLOG("Failed: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
-            }
-            else
-            {
-                DEBUGLOG("TTS Profile Set: %s \n", result->profileIdentifier);
-                m_isTextToSpeechProfileSet = true;
-            }
-            break;
+            SendNetworkMessage(session, session->localEndpoint, received->senderEndpoint, NetworkMessage(NetworkMessageType::RosterSnapshot, snapshot));
         }
-        case PartyStateChangeType::SetLanguageCompleted:
+        return;
+    }
+
+    for (auto& name : Roster::ParseSnapshot(message.StringValue()))
+    {
+        LearnDisplayName(session, name.first, name.second);
+    }
+}
+
+// Records a user's display name for the network and reports it, unless the same name was already
+// known; an announcement and a snapshot can both carry it.
+void
+NetworkManager::LearnDisplayName(
+    NetworkSession* session,
+    const std::string& entityId,
+    const std::string& displayName
+    )
+{
+    if (!session->roster.Learn(entityId, displayName))
+    {
+        return;
+    }
+
+    std::string sender(entityId);
+    std::string message(displayName);
+    Managers::Get<INetworkStateChangeManager>()->ProcessEndpointMessage(session->networkId, sender, message);
+}
+
+// Asks again for the names of the remote users that have stayed unnamed too long: the first time
+// with one fresh roster snapshot, after that each endpoint for its own user's name.
+void
+NetworkManager::AskUnnamedEndpoints(
+    NetworkSession* session
+    )
+{
+    bool renewSnapshot = false;
+    std::vector<std::string> due = session->roster.TakeDue(MonotonicTimeMicros() / 1000, renewSnapshot);
+    if (renewSnapshot)
+    {
+        RequestRosterSnapshot(session);
+    }
+    if (due.empty())
+    {
+        return;
+    }
+
+    uint32_t endpointCount = 0;
+    PartyEndpointArray endpoints = nullptr;
+    PartyError err = session->network->GetEndpoints(&endpointCount, &endpoints);
+    for (uint32_t i = 0; PARTY_SUCCEEDED(err) && i < endpointCount; ++i)
+    {
+        PartyString entityId = nullptr;
+        if (PARTY_SUCCEEDED(endpoints[i]->GetEntityId(&entityId)) &&
+            std::find(due.begin(), due.end(), std::string(entityId)) != due.end())
         {
-            DEBUGLOG("PartyStateChangeType::SetLanguageCompleted\n");
-            auto result = static_cast<const PartySetLanguageCompletedStateChange*>(change);
-            DEBUGLOG("setting language code: %s \n", result->languageCode);
-            if (PARTY_FAILED(result->errorDetail))
-            {
-                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
-            }
-            break;
+            SendNetworkMessage(
+                session,
+                session->localEndpoint,
+                endpoints[i],
+                NetworkMessage(NetworkMessageType::RosterRequest, c_rosterRequestOwnName)
+            );
         }
-        case PartyStateChangeType::InvitationCreated:
+    }
+}
+
+// Asks the first remote endpoint Party lists for the names of everyone it knows. With endpoints
+// listed in the order they were created, that peer has been in the network longest and has heard
+// every later announcement.
+void
+NetworkManager::RequestRosterSnapshot(
+    NetworkSession* session
+    )
+{
+    uint32_t endpointCount = 0;
+    PartyEndpointArray endpoints = nullptr;
+    PartyError err = session->network->GetEndpoints(&endpointCount, &endpoints);
+    for (uint32_t i = 0; PARTY_SUCCEEDED(err) && i < endpointCount; ++i)
+    {
+        PartyLocalEndpoint* ours = nullptr;
+        endpoints[i]->GetLocal(&ours);
+        if (ours == nullptr)
         {
-            DEBUGLOG("PartyStateChangeType::InvitationCreated \n");
+            SendNetworkMessage(
+                session,
+                session->localEndpoint,
+                endpoints[i],
+                NetworkMessage(NetworkMessageType::RosterRequest, c_rosterRequestSnapshot)
+            );
             break;
         }
-        case PartyStateChangeType::PopulateAvailableTextToSpeechProfilesCompleted:
+    }
+}
+
+// Shows a quick phrase in our own language as a text message from the sender, and reads it aloud
+// with our own voice if the sender asked for that.
+void
+NetworkManager::ProcessQuickPhrase(
+    NetworkSession* session,
+    PartyEndpoint* sender,
+    const std::string& senderId,
+    NetworkMessage& message
+    )
+{
+    // The sender already shows its own quick phrases, and so do its guests' endpoints on this device.
+    PartyLocalEndpoint* localSender = nullptr;
+    sender->GetLocal(&localSender);
+    if (localSender != nullptr || message.RawData().size() != sizeof(unsigned))
+    {
+        return;
+    }
+
+    unsigned payload = message.UnsignedValue();
+    const char* text = QuickPhraseText(QuickPhraseId(payload), m_languageCode);
+    if (text == nullptr)
+    {
+        DEBUGLOG("Unknown quick phrase %u from %s\n", QuickPhraseId(payload), senderId.c_str());
+        return;
+    }
+
+    std::string sentBy(senderId);
+    std::string phrase(text);
+    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(session->networkId, sentBy, phrase);
+
+    // Narration plays to the local user only, which is what the sender's voice message would have sounded like here.
+    if (IsQuickPhraseNarrated(payload) && m_localChatControl != nullptr && m_isNarrationProfileSet)
+    {
+        PartyError err = m_localChatControl->SynthesizeTextToSpeech(
+            PartySynthesizeTextToSpeechType::Narration,
+            text,                                   // Text to synthesize
+            nullptr                                 // Async identifier
+        );
+
+        if (PARTY_FAILED(err))
         {
-            DEBUGLOG("PartyStateChangeType::PopulateAvailableTextToSpeechProfilesCompleted\n");
-            auto result = static_cast<const PartyPopulateAvailableTextToSpeechProfilesCompletedStateChange*>(change);
-            if (result->result == PartyStateChangeResult::Succeeded)
-            {
-                m_populateProfilesCompleted = true;
-                m_ttsProfileNeedsUpdate = true;
-            }
-            else
-            {
-                DEBUGLOG("State Change Result: %s\n", PartyStateChangeResultToReasonString(result->result).c_str());
-                DEBUGLOG("Error Detail: %s\n", GetErrorMessage(result->errorDetail));
-            }
-            break;
+            DEBUGLOG("Failed to SynthesizeTextToSpeech: %s\n", GetErrorMessage(err));
         }
-        default:
-            DEBUGLOG("unknown state change \n");
-            DEBUGLOG("PartyStateChange: %d\n", change->stateChangeType);
-            break;
+    }
+}
+
+// Reads the network-wide statistics and the statistics between the local endpoint and each remote
+// endpoint, then hands them to the state change manager. Called from DoWork with m_networkLock held.
+void
+NetworkManager::SampleStatistics(
+    NetworkSession* session
+    )
+{
+    if (session->network == nullptr || session->localEndpoint == nullptr)
+    {
+        return;
+    }
+
+    static const PartyNetworkStatistic c_networkStatistics[] =
+    {
+        PartyNetworkStatistic::AverageRelayServerRoundTripLatencyInMilliseconds,
+        PartyNetworkStatistic::SentProtocolPackets,
+        PartyNetworkStatistic::RetriedProtocolPackets,
+        PartyNetworkStatistic::DroppedProtocolPackets,
+        PartyNetworkStatistic::CurrentlyQueuedSendMessages
+    };
+    uint64_t networkValues[_countof(c_networkStatistics)];
+
+    PartyError err = session->network->GetNetworkStatistics(
+        _countof(c_networkStatistics),
+        c_networkStatistics,
+        networkValues);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("GetNetworkStatistics failed: %s\n", GetErrorMessage(err));
+        return;
+    }
+
+    // Packet counters are totals for the life of the network; report the change since the last sample.
+    NetworkStatisticsSample networkSample;
+    networkSample.relayRoundTripLatencyMs = networkValues[0];
+    networkSample.sentPackets = networkValues[1] >= session->lastSentPackets ? networkValues[1] - session->lastSentPackets : networkValues[1];
+    networkSample.retriedPackets = networkValues[2] >= session->lastRetriedPackets ? networkValues[2] - session->lastRetriedPackets : networkValues[2];
+    networkSample.droppedPackets = networkValues[3] >= session->lastDroppedPackets ? networkValues[3] - session->lastDroppedPackets : networkValues[3];
+    networkSample.queuedSendMessages = networkValues[4];
+    session->lastSentPackets = networkValues[1];
+    session->lastRetriedPackets = networkValues[2];
+    session->lastDroppedPackets = networkValues[3];
+    networkSample.messages = session->messages.TakeStatistics();
+
+    // Retried and dropped protocol packets are the loss signal; a sample with nothing sent has none.
+    if (networkSample.sentPackets > 0)
+    {
+        uint64_t lossPermille = std::min<uint64_t>(1000,
+            (networkSample.retriedPackets + networkSample.droppedPackets) * 1000 / networkSample.sentPackets);
+        VoiceQualityTier tier = m_voiceQuality.Tier();
+        if (m_voiceQuality.AddSample(lossPermille, networkSample.relayRoundTripLatencyMs, MonotonicTimeMicros() / 1000))
+        {
+            DEBUGLOG("Voice quality tier %d -> %d at %llu permille loss, %llu ms round trip\n",
+                static_cast<int>(tier),
+                static_cast<int>(m_voiceQuality.Tier()),
+                static_cast<unsigned long long>(lossPermille),
+                static_cast<unsigned long long>(networkSample.relayRoundTripLatencyMs));
+            ApplyVoiceBitrate();
         }
     }
+    if (networkSample.messages.sentMessages != 0 || networkSample.messages.reassembledMessages != 0)
+    {
+        DEBUGLOG("Endpoint messages: sent %llu (%llu of %llu bytes on the wire), reassembled %llu (max %llu ms), expired %llu, evicted %llu, dropped %llu\n",
+            static_cast<unsigned long long>(networkSample.messages.sentMessages),
+            static_cast<unsigned long long>(networkSample.messages.sentWireBytes),
+            static_cast<unsigned long long>(networkSample.messages.sentPayloadBytes),
+            static_cast<unsigned long long>(networkSample.messages.reassembledMessages),
+            static_cast<unsigned long long>(networkSample.messages.maxReassemblyMs),
+            static_cast<unsigned long long>(networkSample.messages.expiredReassemblies),
+            static_cast<unsigned long long>(networkSample.messages.evictedReassemblies),
+            static_cast<unsigned long long>(networkSample.messages.droppedPackets));
+    }
 
-    // Return the processed changes back to Party
-    err = PartyManager::GetSingleton().FinishProcessingStateChanges(count, changes);
+    static const PartyEndpointStatistic c_endpointStatistics[] =
+    {
+        PartyEndpointStatistic::AverageDeviceRoundTripLatencyInMilliseconds,
+        PartyEndpointStatistic::CurrentlyQueuedSendMessages
+    };
+    uint64_t endpointValues[_countof(c_endpointStatistics)];
 
+    uint32_t endpointCount = 0;
+    PartyEndpointArray endpoints = nullptr;
+    err = session->network->GetEndpoints(&endpointCount, &endpoints);
     if (PARTY_FAILED(err))
     {
-        DEBUGLOG("FinishProcessingStateChanges failed: %s\n", GetErrorMessage(err));
+        DEBUGLOG("GetEndpoints failed: %s\n", GetErrorMessage(err));
+        return;
     }
 
-    if (m_populateProfilesCompleted)
+    std::vector<EndpointStatisticsSample> endpointSamples;
+    endpointSamples.reserve(endpointCount);
+    for (uint32_t i = 0; i < endpointCount; ++i)
     {
-        if (m_ttsProfileNeedsUpdate.exchange(false))
+        PartyEndpoint* endpoint = endpoints[i];
+
+        PartyLocalEndpoint* localEndpoint = nullptr;
+        endpoint->GetLocal(&localEndpoint);
+        if (localEndpoint != nullptr)
+        {
+            continue;
+        }
+
+        PartyString entityId = nullptr;
+        err = endpoint->GetEntityId(&entityId);
+        if (PARTY_FAILED(err) || entityId == nullptr)
+        {
+            continue;
+        }
+
+        err = session->localEndpoint->GetEndpointStatistics(
+            1,
+            &endpoint,
+            _countof(c_endpointStatistics),
+            c_endpointStatistics,
+            endpointValues);
+        if (PARTY_FAILED(err))
         {
-            setTextToSpeechProfile();
+            DEBUGLOG("GetEndpointStatistics failed: %s\n", GetErrorMessage(err));
+            continue;
         }
+
+        EndpointStatisticsSample endpointSample;
+        endpointSample.entityId = entityId;
+        endpointSample.roundTripLatencyMs = endpointValues[0];
+        endpointSample.queuedSendMessages = endpointValues[1];
+        auto clock = session->peerClocks.find(entityId);
+        endpointSample.probeLossPermille = clock != session->peerClocks.end() ? clock->second.ProbeLossPermille(session->clockProbes) : 0;
+        endpointSamples.push_back(endpointSample);
     }
+
+    Managers::Get<INetworkStateChangeManager>()->ProcessNetworkStatistics(networkSample, endpointSamples);
 }
 
 // Searches the list of locally stored chat controls for the specified peer id 
@@ -1398,15 +3030,16 @@ NetworkManager::GetChatControl(
     return nullptr;
 }
 
-// Mutes or unmutes the local chat control if it exists.
+// Mutes or unmutes the local chat control if it exists. It stays muted while input is paused.
 void 
 NetworkManager::setAudioInputEnabled(
     bool enabled
     )
 {
+    m_audioInputEnabled = enabled;
     if (m_localChatControl != nullptr)
     {
-        m_localChatControl->SetAudioInputMuted(!enabled);
+        m_localChatControl->SetAudioInputMuted(!m_audioInputEnabled || m_audioInputPaused);
     }
 }
 
@@ -1426,75 +3059,178 @@ NetworkManager::getIsTextToSpeechProfileSet()
     return m_isTextToSpeechProfileSet;
 }
 
-// Used to set the text to speech profile after available 
-// profiles have been populated in the Chat Control.
+// Sets the profile for the current language on the local chat control, from the profiles Party
+// listed or, before it has, the ones cached by an earlier launch.
 void
 NetworkManager::setTextToSpeechProfile()
 {
-    // Get the list of availale profiles.
-    uint32_t profileCount;
-    PartyTextToSpeechProfileArray profiles;
-    PartyError err = m_localChatControl->GetAvailableTextToSpeechProfiles(&profileCount, &profiles);
+    if (m_localChatControl == nullptr)
+    {
+        return;
+    }
+
+    // Profiles come from the cache of an earlier launch until Party has listed them for this one.
+    auto profile = m_textToSpeechProfiles.find(m_languageCode);
+    if (profile == m_textToSpeechProfiles.end())
+    {
+        DEBUGLOG("Failed to find a TextToSpeech Profile. Current Language:%s Profile Count:%d\n", m_languageCode, static_cast<int>(m_textToSpeechProfiles.size()));
+        return;
+    }
+
+    const std::string& identifier = profile->second;
+    if (identifier == m_textToSpeechProfileId)
+    {
+        return;
+    }
+
+    DEBUGLOG("Setting TTS Profile: %s\n", identifier.c_str());
+
+    //Set text to speech profile to enable text to speech messages.
+    PartyError err = m_localChatControl->SetTextToSpeechProfile(
+        PartySynthesizeTextToSpeechType::VoiceChat,     // Text to Speech Type
+        identifier.c_str(),                             // Language profile
+        nullptr                                         // Async identifier
+    );
+
     if (PARTY_FAILED(err))
     {
-        DEBUGLOG("GetAvailableTextToSpeechProfiles failed: %s\n", GetErrorMessage(err));
+        DEBUGLOG("SetTextToSpeechProfile failed: %s\n", GetErrorMessage(err));
+        return;
     }
-    else
+    m_textToSpeechProfileId = identifier;
+
+    // Received quick phrases are narrated locally in the same voice.
+    err = m_localChatControl->SetTextToSpeechProfile(
+        PartySynthesizeTextToSpeechType::Narration,
+        identifier.c_str(),
+        nullptr
+    );
+
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("SetTextToSpeechProfile failed for narration: %s\n", GetErrorMessage(err));
+    }
+
+    // Local guests speak with the same profile.
+    for (auto& item : m_localGuests)
     {
-        // Get the first text to speech profile that matches the language code.
-        PartyTextToSpeechProfile * textToSpeechProfile = nullptr;
-        for (uint32_t i = 0; i < profileCount; ++i)
+        if (item.second.chatControl != nullptr)
         {
-            // Get the language code for the current profile.
-            PartyString languageCode;
-            profiles[i]->GetLanguageCode(&languageCode);
+            err = item.second.chatControl->SetTextToSpeechProfile(
+                PartySynthesizeTextToSpeechType::VoiceChat,
+                identifier.c_str(),
+                nullptr
+            );
+
             if (PARTY_FAILED(err))
             {
-                DEBUGLOG("TextToSpeechProfile GetLanguageCode failed: %s\n", GetErrorMessage(err));
-                continue;
+                DEBUGLOG("SetTextToSpeechProfile failed for guest: %s\n", GetErrorMessage(err));
             }
+        }
+    }
+}
 
-            // Compare the current profile language to the currently set language code.
-            if (strcmp(languageCode, m_languageCode) == 0)
-            {
-                // Use this profile.
-                textToSpeechProfile = profiles[i];
-                break;
-            }
+void
+NetworkManager::SetTextToSpeechProfileCachePath(
+    const std::string& path
+    )
+{
+    std::unique_lock<std::recursive_mutex> lock(m_networkLock);
+    m_textToSpeechProfileCachePath = path;
+    if (path.empty())
+    {
+        return;
+    }
+
+    // A version line, then one profile per line: the language code, a tab and the identifier.
+    std::ifstream file(path);
+    std::string line;
+    if (!std::getline(file, line) || line != c_textToSpeechProfileCacheVersion)
+    {
+        return;
+    }
+
+    std::map<std::string, std::string> profiles;
+    while (std::getline(file, line))
+    {
+        size_t separator = line.find('\t');
+        if (separator != std::string::npos && separator > 0 && separator + 1 < line.size())
+        {
+            // The first profile listed for a language is the one used, as when Party lists them.
+            profiles.emplace(line.substr(0, separator), line.substr(separator + 1));
         }
+    }
+
+    // A list Party already gave this launch is newer than the file.
+    if (!m_populateProfilesCompleted)
+    {
+        m_textToSpeechProfiles.swap(profiles);
+    }
+}
+
+// Replaces the cached profiles with the ones Party has listed for the local chat control, and
+// saves them for the next launch if they changed.
+void
+NetworkManager::CacheTextToSpeechProfiles()
+{
+    uint32_t profileCount;
+    PartyTextToSpeechProfileArray profiles;
+    PartyError err = m_localChatControl->GetAvailableTextToSpeechProfiles(&profileCount, &profiles);
+    if (PARTY_FAILED(err))
+    {
+        DEBUGLOG("GetAvailableTextToSpeechProfiles failed: %s\n", GetErrorMessage(err));
+        return;
+    }
 
-        // If we found a profile that matches our language code, set that profile.
-        if (textToSpeechProfile != nullptr)
+    std::map<std::string, std::string> listed;
+    for (uint32_t i = 0; i < profileCount; ++i)
+    {
+        PartyString languageCode;
+        PartyString identifier;
+        err = profiles[i]->GetLanguageCode(&languageCode);
+        if (PARTY_SUCCEEDED(err))
         {
-            // Get the identifier for the profile.
-            PartyString identifier;
-            err = textToSpeechProfile->GetIdentifier(&identifier);
-            if (PARTY_FAILED(err))
-            {
-                DEBUGLOG("TextToSpeechProfile GetIdentifier failed: %s\n", GetErrorMessage(err));
-            }
-            else
-            { 
-                DEBUGLOG("Setting TTS Profile: %s\n", identifier);
+            err = profiles[i]->GetIdentifier(&identifier);
+        }
+        if (PARTY_FAILED(err))
+        {
+            DEBUGLOG("Reading TextToSpeechProfile failed: %s\n", GetErrorMessage(err));
+            continue;
+        }
+        listed.emplace(languageCode, identifier);
+    }
+
+    if (listed == m_textToSpeechProfiles)
+    {
+        return;
+    }
+    m_textToSpeechProfiles.swap(listed);
 
-                //Set text to speech profile to enable text to speech messages.
-                err = m_localChatControl->SetTextToSpeechProfile(
-                    PartySynthesizeTextToSpeechType::VoiceChat,     // Text to Speech Type
-                    identifier,                                     // Language profile
-                    nullptr                                         // Async identifier
-                );
+    if (m_textToSpeechProfileCachePath.empty())
+    {
+        return;
+    }
 
-                if (PARTY_FAILED(err))
-                {
-                    DEBUGLOG("SetTextToSpeechProfile failed: %s\n", GetErrorMessage(err));
-                }
-            }
+    // Written to a temporary file that replaces the old one, so a crash mid-write leaves the previous list.
+    std::string tempPath = m_textToSpeechProfileCachePath + ".tmp";
+    {
+        std::ofstream file(tempPath, std::ios::out | std::ios::trunc);
+        file << c_textToSpeechProfileCacheVersion << '\n';
+        for (auto& item : m_textToSpeechProfiles)
+        {
+            file << item.first << '\t' << item.second << '\n';
         }
-        else
+        if (!file)
         {
-            DEBUGLOG("Failed to find a TextToSpeech Profile. Current Language:%s Profile Count:%d\n", m_languageCode, profileCount);
+            DEBUGLOG("Failed to write text to speech profile cache %s\n", tempPath.c_str());
+            return;
         }
     }
+
+    if (rename(tempPath.c_str(), m_textToSpeechProfileCachePath.c_str()) != 0)
+    {
+        DEBUGLOG("Failed to replace text to speech profile cache: %d\n", errno);
+    }
 }
 
 // This function compares the language code of the given translation
@@ -1,8 +1,33 @@
 #include "pch.h"
 #include "NetworkMessages.h"
 
+#include <zlib.h>
+
 using namespace PartySample;
 
+namespace
+{
+    // Payloads at least this large are deflated, and sent that way if it makes them smaller.
+    constexpr size_t c_compressionThreshold = 256;
+    // Largest packet handed to Party, so each one fits a single datagram.
+    constexpr size_t c_maxPacketSize = 1200;
+    // Largest payload sent or accepted, after reassembly and decompression.
+    constexpr size_t c_maxMessageSize = 256 * 1024;
+    // Largest whole packet accepted, whether it arrived in one piece or was reassembled.
+    constexpr size_t c_maxWholePacketSize = sizeof(NetworkMessageType) + c_maxMessageSize;
+    // Bytes held across every partial message of one network.
+    constexpr size_t c_maxReassemblyBytes = 1024 * 1024;
+    constexpr std::chrono::seconds c_reassemblyTimeout(10);
+
+    // Compressed: type, inner message type, uncompressed payload size, then the deflate stream.
+    constexpr size_t c_compressedHeaderSize = 2 * sizeof(NetworkMessageType) + sizeof(uint32_t);
+    // Fragment: type, message id, fragment index, fragment count, then a slice of the packet that was split.
+    constexpr size_t c_fragmentHeaderSize = sizeof(NetworkMessageType) + sizeof(uint32_t) + 2 * sizeof(uint16_t);
+    constexpr size_t c_fragmentPayloadSize = c_maxPacketSize - c_fragmentHeaderSize;
+    constexpr size_t c_maxFragmentCount =
+        (sizeof(NetworkMessageType) + c_maxMessageSize + c_fragmentPayloadSize - 1) / c_fragmentPayloadSize;
+}
+
 NetworkMessage::NetworkMessage() :
     m_type(NetworkMessageType::Unknown)
 {
@@ -40,7 +65,8 @@ NetworkMessage::NetworkMessage(NetworkMessageType type, const std::vector<uint8_
 
 NetworkMessage::NetworkMessage(
     const std::vector<uint8_t> &data
-    )
+    ) :
+    m_type(NetworkMessageType::Unknown)
 {
     if (data.size() < (sizeof(NetworkMessageType) + sizeof(uint8_t)))
     {
@@ -96,3 +122,336 @@ NetworkMessage::UnsignedValue()
     return 0;
 }
 
+
+NetworkMessageAssembler::NetworkMessageAssembler() :
+    m_reassemblyBytes(0),
+    m_nextMessageId(0)
+{
+}
+
+std::vector<std::vector<uint8_t>>
+NetworkMessageAssembler::Encode(
+    const NetworkMessage &message
+    )
+{
+    std::vector<std::vector<uint8_t>> packets;
+    std::vector<uint8_t> packet = message.Serialize();
+    if (packet.empty())
+    {
+        return packets;
+    }
+
+    size_t payloadSize = packet.size() - sizeof(NetworkMessageType);
+    if (payloadSize > c_maxMessageSize)
+    {
+        DEBUGLOG("Message of %zu bytes is over the %zu byte limit, not sending\n", payloadSize, c_maxMessageSize);
+        return packets;
+    }
+
+    m_statistics.sentMessages++;
+    m_statistics.sentPayloadBytes += packet.size();
+
+    if (payloadSize >= c_compressionThreshold)
+    {
+        uLongf compressedSize = compressBound(static_cast<uLong>(payloadSize));
+        std::vector<uint8_t> compressed(c_compressedHeaderSize + compressedSize);
+        int result = compress2(
+            compressed.data() + c_compressedHeaderSize,
+            &compressedSize,
+            packet.data() + sizeof(NetworkMessageType),
+            static_cast<uLong>(payloadSize),
+            Z_BEST_SPEED);
+
+        if (result == Z_OK && c_compressedHeaderSize + compressedSize < packet.size())
+        {
+            NetworkMessageType type = NetworkMessageType::Compressed;
+            uint32_t originalSize = static_cast<uint32_t>(payloadSize);
+            CopyMemory(compressed.data(), &type, sizeof(type));
+            CopyMemory(compressed.data() + sizeof(type), packet.data(), sizeof(type));
+            CopyMemory(compressed.data() + 2 * sizeof(type), &originalSize, sizeof(originalSize));
+            compressed.resize(c_compressedHeaderSize + compressedSize);
+            packet.swap(compressed);
+            m_statistics.compressedMessages++;
+        }
+    }
+
+    if (packet.size() <= c_maxPacketSize)
+    {
+        m_statistics.sentWireBytes += packet.size();
+        packets.push_back(std::move(packet));
+        return packets;
+    }
+
+    NetworkMessageType type = NetworkMessageType::Fragment;
+    uint32_t messageId = m_nextMessageId++;
+    uint16_t count = static_cast<uint16_t>((packet.size() + c_fragmentPayloadSize - 1) / c_fragmentPayloadSize);
+    packets.reserve(count);
+    for (uint16_t index = 0; index < count; ++index)
+    {
+        size_t offset = index * c_fragmentPayloadSize;
+        size_t length = std::min(c_fragmentPayloadSize, packet.size() - offset);
+
+        std::vector<uint8_t> fragment(c_fragmentHeaderSize + length);
+        uint8_t *header = fragment.data();
+        CopyMemory(header, &type, sizeof(type));
+        header += sizeof(type);
+        CopyMemory(header, &messageId, sizeof(messageId));
+        header += sizeof(messageId);
+        CopyMemory(header, &index, sizeof(index));
+        header += sizeof(index);
+        CopyMemory(header, &count, sizeof(count));
+        CopyMemory(fragment.data() + c_fragmentHeaderSize, packet.data() + offset, length);
+
+        m_statistics.sentWireBytes += fragment.size();
+        packets.push_back(std::move(fragment));
+    }
+    m_statistics.fragmentedMessages++;
+    return packets;
+}
+
+bool
+NetworkMessageAssembler::Decode(
+    const std::string &sender,
+    const uint8_t *data,
+    size_t size,
+    NetworkMessage &message
+    )
+{
+    auto now = std::chrono::steady_clock::now();
+    ExpireReassemblies(now);
+
+    NetworkMessageType type = NetworkMessageType::Unknown;
+    if (size < sizeof(type))
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    CopyMemory(&type, data, sizeof(type));
+    if (type != NetworkMessageType::Fragment)
+    {
+        return Unpack(data, size, message);
+    }
+
+    uint32_t messageId = 0;
+    uint16_t index = 0;
+    uint16_t count = 0;
+    if (size <= c_fragmentHeaderSize)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    const uint8_t *header = data + sizeof(type);
+    CopyMemory(&messageId, header, sizeof(messageId));
+    header += sizeof(messageId);
+    CopyMemory(&index, header, sizeof(index));
+    header += sizeof(index);
+    CopyMemory(&count, header, sizeof(count));
+
+    if (count < 2 || count > c_maxFragmentCount || index >= count)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    // No sender splits a packet into fragments larger than ours.
+    size_t length = size - c_fragmentHeaderSize;
+    if (length > c_fragmentPayloadSize)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    auto key = std::make_pair(sender, messageId);
+    auto itr = m_reassemblies.find(key);
+    if (itr == m_reassemblies.end())
+    {
+        itr = m_reassemblies.emplace(key, Reassembly()).first;
+        itr->second.fragments.resize(count);
+        itr->second.started = now;
+    }
+
+    Reassembly &reassembly = itr->second;
+    if (reassembly.fragments.size() != count || !reassembly.fragments[index].empty())
+    {
+        // A repeated fragment, or one that disagrees with the others about the message.
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    reassembly.fragments[index].assign(data + c_fragmentHeaderSize, data + size);
+    reassembly.received++;
+    reassembly.bytes += length;
+    m_reassemblyBytes += length;
+
+    if (reassembly.received < count)
+    {
+        while (m_reassemblyBytes > c_maxReassemblyBytes && !m_reassemblies.empty())
+        {
+            DropOldestReassembly();
+        }
+        return false;
+    }
+
+    // The fragment that completes a message is checked too, before anything is stitched together.
+    if (reassembly.bytes > c_maxWholePacketSize)
+    {
+        m_statistics.droppedPackets++;
+        m_reassemblyBytes -= reassembly.bytes;
+        m_reassemblies.erase(itr);
+        return false;
+    }
+
+    std::vector<uint8_t> packet;
+    packet.reserve(reassembly.bytes);
+    for (const std::vector<uint8_t> &fragment : reassembly.fragments)
+    {
+        packet.insert(packet.end(), fragment.begin(), fragment.end());
+    }
+
+    uint64_t latencyMs = static_cast<uint64_t>(
+        std::chrono::duration_cast<std::chrono::milliseconds>(now - reassembly.started).count());
+    m_statistics.reassembledMessages++;
+    m_statistics.totalReassemblyMs += latencyMs;
+    m_statistics.maxReassemblyMs = std::max(m_statistics.maxReassemblyMs, latencyMs);
+
+    m_reassemblyBytes -= reassembly.bytes;
+    m_reassemblies.erase(itr);
+
+    type = NetworkMessageType::Unknown;
+    CopyMemory(&type, packet.data(), std::min(packet.size(), sizeof(type)));
+    if (type == NetworkMessageType::Fragment)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+    return Unpack(packet.data(), packet.size(), message);
+}
+
+void
+NetworkMessageAssembler::RemoveSender(
+    const std::string &sender
+    )
+{
+    for (auto itr = m_reassemblies.begin(); itr != m_reassemblies.end();)
+    {
+        if (itr->first.first == sender)
+        {
+            m_reassemblyBytes -= itr->second.bytes;
+            itr = m_reassemblies.erase(itr);
+        }
+        else
+        {
+            ++itr;
+        }
+    }
+}
+
+MessageStatisticsSample
+NetworkMessageAssembler::TakeStatistics()
+{
+    MessageStatisticsSample sample = m_statistics;
+    m_statistics = MessageStatisticsSample();
+    return sample;
+}
+
+// Reads a whole packet that is not a fragment, inflating it if it was compressed.
+bool
+NetworkMessageAssembler::Unpack(
+    const uint8_t *data,
+    size_t size,
+    NetworkMessage &message
+    )
+{
+    // A compressed packet is only sent when it is smaller than the packet it replaces, so one
+    // limit covers both.
+    if (size > c_maxWholePacketSize)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    NetworkMessageType type = NetworkMessageType::Unknown;
+    CopyMemory(&type, data, sizeof(type));
+    if (type != NetworkMessageType::Compressed)
+    {
+        message = NetworkMessage(std::vector<uint8_t>(data, data + size));
+        return true;
+    }
+
+    NetworkMessageType innerType = NetworkMessageType::Unknown;
+    uint32_t originalSize = 0;
+    if (size <= c_compressedHeaderSize)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+    CopyMemory(&innerType, data + sizeof(type), sizeof(innerType));
+    CopyMemory(&originalSize, data + 2 * sizeof(type), sizeof(originalSize));
+
+    if (originalSize == 0 || originalSize > c_maxMessageSize ||
+        innerType == NetworkMessageType::Compressed || innerType == NetworkMessageType::Fragment)
+    {
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    std::vector<uint8_t> payload(originalSize);
+    uLongf length = originalSize;
+    int result = uncompress(
+        payload.data(),
+        &length,
+        data + c_compressedHeaderSize,
+        static_cast<uLong>(size - c_compressedHeaderSize));
+
+    if (result != Z_OK || length != originalSize)
+    {
+        DEBUGLOG("Failed to inflate message: %d\n", result);
+        m_statistics.droppedPackets++;
+        return false;
+    }
+
+    message = NetworkMessage(innerType, payload);
+    return true;
+}
+
+void
+NetworkMessageAssembler::ExpireReassemblies(
+    std::chrono::steady_clock::time_point now
+    )
+{
+    for (auto itr = m_reassemblies.begin(); itr != m_reassemblies.end();)
+    {
+        if (now - itr->second.started >= c_reassemblyTimeout)
+        {
+            m_statistics.expiredReassemblies++;
+            m_reassemblyBytes -= itr->second.bytes;
+            itr = m_reassemblies.erase(itr);
+        }
+        else
+        {
+            ++itr;
+        }
+    }
+}
+
+void
+NetworkMessageAssembler::DropOldestReassembly()
+{
+    auto oldest = m_reassemblies.begin();
+    for (auto itr = m_reassemblies.begin(); itr != m_reassemblies.end(); ++itr)
+    {
+        if (itr->second.started < oldest->second.started)
+        {
+            oldest = itr;
+        }
+    }
+
+    if (oldest != m_reassemblies.end())
+    {
+        m_statistics.evictedReassemblies++;
+        m_reassemblyBytes -= oldest->second.bytes;
+        m_reassemblies.erase(oldest);
+    }
+}
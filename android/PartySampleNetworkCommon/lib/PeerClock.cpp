@@ -0,0 +1,104 @@
+#include "pch.h"
+#include "PeerClock.h"
+
+using namespace PartySample;
+
+int64_t
+PartySample::MonotonicTimeMicros()
+{
+    return std::chrono::duration_cast<std::chrono::microseconds>(
+        std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
+PeerClock::PeerClock() :
+    m_sampleCount(0),
+    m_smoothedRoundTripUs(0),
+    m_offsetUs(0),
+    m_firstAnswered(0),
+    m_answered()
+{
+}
+
+void
+PeerClock::AddSample(
+    int64_t sentUs,
+    int64_t peerUs,
+    int64_t receivedUs
+    )
+{
+    Sample sample;
+    sample.roundTripUs = receivedUs - sentUs;
+    // Assumes the peer's clock was read halfway through the round trip.
+    sample.offsetUs = peerUs - (sentUs + sample.roundTripUs / 2);
+
+    if (m_sampleCount == 0)
+    {
+        m_smoothedRoundTripUs = sample.roundTripUs;
+    }
+    else
+    {
+        m_smoothedRoundTripUs += (sample.roundTripUs - m_smoothedRoundTripUs) / 8;
+    }
+
+    m_window[m_sampleCount % c_windowSize] = sample;
+    m_sampleCount++;
+
+    // The fastest recent probe was delayed least, so its path was the least lopsided and its
+    // offset the most trustworthy.
+    size_t count = m_sampleCount < c_windowSize ? m_sampleCount : c_windowSize;
+    const Sample* best = &m_window[0];
+    for (size_t i = 1; i < count; ++i)
+    {
+        if (m_window[i].roundTripUs < best->roundTripUs)
+        {
+            best = &m_window[i];
+        }
+    }
+    m_offsetUs = best->offsetUs;
+}
+
+void
+PeerClock::AddAnswer(
+    uint32_t probe
+    )
+{
+    if (m_firstAnswered == 0 || probe < m_firstAnswered)
+    {
+        m_firstAnswered = probe;
+    }
+
+    // A pong so late that a newer ping owns its slot is already counted as lost.
+    uint32_t& slot = m_answered[probe % c_lossWindow];
+    if (probe > slot)
+    {
+        slot = probe;
+    }
+}
+
+uint64_t
+PeerClock::ProbeLossPermille(
+    uint32_t lastProbe
+    ) const
+{
+    if (m_firstAnswered == 0 || lastProbe <= m_firstAnswered)
+    {
+        return 0;
+    }
+
+    uint32_t newest = lastProbe - 1;
+    uint32_t oldest = newest >= c_lossWindow ? newest - c_lossWindow + 1 : 1;
+    if (oldest < m_firstAnswered)
+    {
+        oldest = m_firstAnswered;
+    }
+
+    uint64_t missed = 0;
+    for (uint32_t probe = oldest; probe <= newest; ++probe)
+    {
+        if (m_answered[probe % c_lossWindow] != probe)
+        {
+            missed++;
+        }
+    }
+    return missed * 1000 / (newest - oldest + 1);
+}
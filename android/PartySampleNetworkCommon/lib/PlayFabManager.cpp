@@ -8,6 +8,9 @@
 #include "playfab/PlayFabMultiplayerApi.h"
 #include "playfab/PlayFabDataApi.h"
 
+#include <fstream>
+#include <sys/stat.h>
+
 using namespace PartySample;
 #ifdef USE_PUBLIC_PLAYFAB_SDK
 using namespace PlayFab;
@@ -16,7 +19,15 @@ using namespace PlayFabInternal;
 #endif
 using namespace ClientModels;
 
-PlayFabManager::PlayFabManager()
+PlayFabManager::PlayFabManager() :
+    m_tokenIssued(0),
+    m_tokenExpiration(0),
+    m_loginGeneration(0),
+    m_loginAttempt(0),
+    m_isLoginPending(false),
+    m_isRetryScheduled(false),
+    m_isRefreshing(false),
+    m_isSignedIn(false)
 {
 }
 
@@ -32,6 +43,19 @@ void PlayFabManager::Initialize(
     PlayFabSettings::titleId = titleId;
 }
 
+// Each login call gets this long before it is abandoned and, if attempts remain, retried.
+static const std::chrono::milliseconds c_loginTimeout(15000);
+// Delay before the second attempt, doubled for each attempt after it.
+static const std::chrono::milliseconds c_loginRetryDelay(1000);
+static const int c_maxLoginAttempts = 3;
+// How long to wait before trying again once a background refresh has used up its attempts.
+static const std::chrono::seconds c_refreshRetryInterval(60);
+// Login results normally carry the entity token expiration; this is the documented lifetime if not.
+static const time_t c_defaultTokenLifetime = 24 * 60 * 60;
+// A held session is only reused with at least this long left, so Party is not handed a token about to expire.
+static const time_t c_minimumReuseLifetime = 10 * 60;
+static const char* c_sessionCacheVersion = "1";
+
 // Authenticate the user with playfab using the specified custom id and setting the display name to that id.
 void 
 PlayFabManager::SignIn(
@@ -41,100 +65,380 @@ PlayFabManager::SignIn(
 {
     DEBUGLOG("PlayFabManager::SignIn()\n");
 
+    m_signInCallback = callback;
+
+    // Warm starts, and re-initializing after a shutdown, skip the round trip.
+    if (RestoreSession(userId))
+    {
+        DEBUGLOG("Reusing PlayFab session for %s\n", userId.c_str());
+        CompleteSignIn(true, std::string());
+        return;
+    }
+
+    m_userId = userId;
+    m_isSignedIn = false;
+    m_isRefreshing = false;
+    m_loginAttempt = 0;
+    StartLogin();
+}
+
+void
+PlayFabManager::SetSessionCachePath(
+    std::string path
+    )
+{
+    m_sessionCachePath = path;
+}
+
+void
+PlayFabManager::StartLogin()
+{
+    ++m_loginAttempt;
+    m_isLoginPending = true;
+    m_isRetryScheduled = false;
+    m_loginDeadline = std::chrono::steady_clock::now() + c_loginTimeout;
+    uint32_t generation = ++m_loginGeneration;
+
     // Create a login request with the userId as customId, creating an account if none exists.
     LoginWithCustomIDRequest loginRequest;
     loginRequest.CreateAccount = true;
-    loginRequest.CustomId = userId.c_str();
+    loginRequest.CustomId = m_userId.c_str();
 
     // Request player data with the sign in request to check the display name.
-    GetPlayerCombinedInfoRequestParams reqParams;
-    reqParams.GetUserAccountInfo = true;
-    loginRequest.InfoRequestParameters = reqParams;
+    // A refresh keeps the display name it already has.
+    if (!m_isRefreshing)
+    {
+        GetPlayerCombinedInfoRequestParams reqParams;
+        reqParams.GetUserAccountInfo = true;
+        loginRequest.InfoRequestParameters = reqParams;
+    }
 
     // Try to login.
-    DEBUGLOG("Login with custom id called %s\n", userId.c_str());
+    DEBUGLOG("Login with custom id called %s, attempt %d\n", m_userId.c_str(), m_loginAttempt);
 
     PlayFabClientAPI::LoginWithCustomID(
         loginRequest,
-        [this, callback, userId](const LoginResult& loginResult, void*)
+        [this, generation](const LoginResult& loginResult, void*)
         {
-            // Sign in was successful.
-            DEBUGLOG("Playfab::signin -- Login with custom id callback\n");
-
-            // Save the PlayFab id and entity data for Party authentication.
-            m_playfabId = loginResult.PlayFabId;
-            if (loginResult.EntityToken.notNull() && loginResult.EntityToken->Entity.notNull())
+            if (generation == m_loginGeneration)
             {
-                m_entityKey = loginResult.EntityToken->Entity;
-                m_entityToken = loginResult.EntityToken->EntityToken;
+                OnLoginSucceeded(loginResult);
             }
-
-            // Attempt to get the display name.
-            if (loginResult.InfoResultPayload.notNull() &&
-                loginResult.InfoResultPayload->AccountInfo.notNull() &&
-                loginResult.InfoResultPayload->AccountInfo->TitleInfo.notNull())
+        },
+        [this, generation](const PlayFabError& error, void*)
+        {
+            if (generation == m_loginGeneration)
             {
-                m_displayName = loginResult.InfoResultPayload->AccountInfo->TitleInfo->DisplayName;
+                OnLoginFailed(error);
             }
+        }
+    );
+}
+
+void
+PlayFabManager::OnLoginSucceeded(
+    const LoginResult& loginResult
+    )
+{
+    // Sign in was successful.
+    DEBUGLOG("Playfab::signin -- Login with custom id callback\n");
+    m_isLoginPending = false;
+
+    // Save the PlayFab id and entity data for Party authentication.
+    SaveSession(loginResult);
+
+    if (m_isRefreshing)
+    {
+        m_isRefreshing = false;
+        WriteSessionCache();
+        DEBUGLOG("PlayFab session refreshed\n");
+        if (m_onEntityTokenRefreshed != nullptr)
+        {
+            m_onEntityTokenRefreshed(m_entityToken);
+        }
+        return;
+    }
+
+    // Attempt to get the display name.
+    m_displayName.clear();
+    if (loginResult.InfoResultPayload.notNull() &&
+        loginResult.InfoResultPayload->AccountInfo.notNull() &&
+        loginResult.InfoResultPayload->AccountInfo->TitleInfo.notNull())
+    {
+        m_displayName = loginResult.InfoResultPayload->AccountInfo->TitleInfo->DisplayName;
+    }
 
-            // Save the display name locally if it is not empty.
-            if (m_displayName.empty())
+    // Save the display name locally if it is not empty.
+    if (m_displayName.empty())
+    {
+        m_displayName = m_entityKey.Id;
+    }
+
+    // If the display name does not match the user id, update the display name on PlayFab.
+    if (m_displayName.empty() || m_displayName != m_userId)
+    {
+        // Create a request to update the display name to the userId
+        UpdateUserTitleDisplayNameRequest updateDisplayNameRequest;
+        updateDisplayNameRequest.DisplayName = m_userId.c_str();
+
+        //Attempt to update the display name.
+        PlayFabClientAPI::UpdateUserTitleDisplayName(
+            updateDisplayNameRequest,
+            [this](const UpdateUserTitleDisplayNameResult& result, void*)
+            {
+                // We were able to update the display name.
+                m_displayName = result.DisplayName;
+                WriteSessionCache();
+                CompleteSignIn(true, std::string());
+            },
+            [this](const PlayFabError& error, void*)
             {
-                m_displayName = m_entityKey.Id;
+                // We were unable to update the user display name.
+                CompleteSignIn(false, error.ErrorMessage);
             }
+        );
+    }
+    else
+    {
+        // Sign in was successful and the display name is already set.
+        WriteSessionCache();
+        CompleteSignIn(true, std::string());
+    }
+}
+
+void
+PlayFabManager::OnLoginFailed(
+    const PlayFabError& error
+    )
+{
+    m_isLoginPending = false;
+    DEBUGLOG("Login attempt %d failed: %s\n", m_loginAttempt, error.ErrorMessage.c_str());
+
+    // Only transport failures, throttling and server errors are worth another attempt.
+    bool isTransient = error.HttpCode == 0 || error.HttpCode == 429 || error.HttpCode >= 500;
+    if (isTransient && m_loginAttempt < c_maxLoginAttempts)
+    {
+        m_isRetryScheduled = true;
+        m_nextLoginAttempt = std::chrono::steady_clock::now() + c_loginRetryDelay * (1 << (m_loginAttempt - 1));
+        return;
+    }
+
+    if (m_isRefreshing)
+    {
+        // The held session stays in use until it expires; try again later.
+        m_isRefreshing = false;
+        m_nextRefreshCheck = std::chrono::steady_clock::now() + c_refreshRetryInterval;
+        return;
+    }
+
+    CompleteSignIn(false, error.ErrorMessage);
+}
+
+void
+PlayFabManager::CompleteSignIn(
+    bool isSuccess,
+    std::string message
+    )
+{
+    m_isSignedIn = isSuccess;
+
+    // Clear the callback first, since it may start another sign in.
+    auto callback = m_signInCallback;
+    m_signInCallback = nullptr;
+    if (callback != nullptr)
+    {
+        callback(isSuccess, message);
+    }
+}
+
+// Logs in again in the background. The session ticket and entity token in use stay valid until the new ones arrive.
+void
+PlayFabManager::StartRefresh()
+{
+    DEBUGLOG("Refreshing PlayFab session\n");
+    m_isRefreshing = true;
+    m_loginAttempt = 0;
+    StartLogin();
+}
+
+void
+PlayFabManager::SaveSession(
+    const LoginResult& loginResult
+    )
+{
+    m_titleId = PlayFabSettings::titleId;
+    m_playfabId = loginResult.PlayFabId;
+    m_sessionTicket = loginResult.SessionTicket;
+    m_tokenIssued = time(nullptr);
+    m_tokenExpiration = m_tokenIssued + c_defaultTokenLifetime;
+    if (loginResult.EntityToken.notNull() && loginResult.EntityToken->Entity.notNull())
+    {
+        m_entityKey = loginResult.EntityToken->Entity;
+        m_entityToken = loginResult.EntityToken->EntityToken;
+        if (loginResult.EntityToken->TokenExpiration.notNull())
+        {
+            m_tokenExpiration = loginResult.EntityToken->TokenExpiration;
+        }
+    }
+}
+
+// Makes the session held in memory, or failing that the one in the session cache, the current one
+// if it belongs to this user and title and has enough time left.
+bool
+PlayFabManager::RestoreSession(
+    const std::string& userId
+    )
+{
+    bool isHeld = !m_entityToken.empty() && m_userId == userId && m_titleId == PlayFabSettings::titleId;
+    if (!isHeld && !ReadSessionCache(userId))
+    {
+        return false;
+    }
+
+    if (m_tokenExpiration - time(nullptr) < c_minimumReuseLifetime)
+    {
+        return false;
+    }
+
+    PlayFabSettings::clientSessionTicket = m_sessionTicket;
+    PlayFabSettings::entityToken = m_entityToken;
+    return true;
+}
+
+// The cache is one value per line, written to a temporary file that replaces the old one, so a
+// crash mid-write leaves the previous session intact. Only the app can read it.
+void
+PlayFabManager::WriteSessionCache()
+{
+    if (m_sessionCachePath.empty())
+    {
+        return;
+    }
+
+    std::string tempPath = m_sessionCachePath + ".tmp";
+    {
+        std::ofstream file(tempPath, std::ios::out | std::ios::trunc);
+        if (!file)
+        {
+            DEBUGLOG("Failed to open session cache %s\n", tempPath.c_str());
+            return;
+        }
+        chmod(tempPath.c_str(), S_IRUSR | S_IWUSR);
+
+        file << c_sessionCacheVersion << '\n'
+             << m_titleId << '\n'
+             << m_userId << '\n'
+             << m_playfabId << '\n'
+             << m_entityKey.Id << '\n'
+             << m_entityKey.Type << '\n'
+             << m_displayName << '\n'
+             << m_sessionTicket << '\n'
+             << m_entityToken << '\n'
+             << static_cast<long long>(m_tokenIssued) << '\n'
+             << static_cast<long long>(m_tokenExpiration) << '\n';
+        if (!file)
+        {
+            DEBUGLOG("Failed to write session cache\n");
+            return;
+        }
+    }
+
+    if (rename(tempPath.c_str(), m_sessionCachePath.c_str()) != 0)
+    {
+        DEBUGLOG("Failed to replace session cache: %d\n", errno);
+    }
+}
+
+bool
+PlayFabManager::ReadSessionCache(
+    const std::string& userId
+    )
+{
+    if (m_sessionCachePath.empty())
+    {
+        return false;
+    }
+
+    std::ifstream file(m_sessionCachePath);
+    std::string lines[11];
+    for (auto& line : lines)
+    {
+        if (!std::getline(file, line))
+        {
+            return false;
+        }
+    }
 
-            // If the display name does not match the user id, update the display name on PlayFab.
-            if (m_displayName.empty() || m_displayName != userId)
+    if (lines[0] != c_sessionCacheVersion || lines[1] != PlayFabSettings::titleId || lines[2] != userId)
+    {
+        return false;
+    }
+
+    m_titleId = lines[1];
+    m_userId = lines[2];
+    m_playfabId = lines[3];
+    m_entityKey.Id = lines[4];
+    m_entityKey.Type = lines[5];
+    m_displayName = lines[6];
+    m_sessionTicket = lines[7];
+    m_entityToken = lines[8];
+    m_tokenIssued = static_cast<time_t>(strtoll(lines[9].c_str(), nullptr, 10));
+    m_tokenExpiration = static_cast<time_t>(strtoll(lines[10].c_str(), nullptr, 10));
+    return true;
+}
+
+// Authenticate a further local user with the specified custom id. The login goes through a client
+// instance with its own authentication context, so the signed in user's session ticket, which the
+// descriptor cloud scripts run as, is not replaced. The display name is announced over the network
+// rather than stored with PlayFab.
+void
+PlayFabManager::SignInLocalUser(
+    std::string userId,
+    std::function<void(bool, const PlayFabEntityCredentials&, std::string&)> callback
+    )
+{
+    DEBUGLOG("PlayFabManager::SignInLocalUser()\n");
+
+    auto client = std::make_shared<PlayFabClientInstanceAPI>(std::make_shared<PlayFabAuthenticationContext>());
+    m_localUserClients[userId] = client;
+
+    LoginWithCustomIDRequest loginRequest;
+    loginRequest.CreateAccount = true;
+    loginRequest.CustomId = userId.c_str();
+
+    // A failed sign-in leaves nothing behind, so the same name can be tried again.
+    PlayFabClientInstanceAPI* clientPtr = client.get();
+    auto forgetClient = [this, userId, clientPtr]()
+    {
+        m_failedLocalUserClients.emplace_back(userId, clientPtr);
+    };
+
+    client->LoginWithCustomID(
+        loginRequest,
+        [callback, forgetClient](const LoginResult& loginResult, void*)
+        {
+            PlayFabEntityCredentials credentials;
+            if (loginResult.EntityToken.notNull() && loginResult.EntityToken->Entity.notNull())
             {
-                // Create a request to update the display name to the userId
-                UpdateUserTitleDisplayNameRequest updateDisplayNameRequest;
-                updateDisplayNameRequest.DisplayName = userId.c_str();
-
-                //Attempt to update the display name.
-                PlayFabClientAPI::UpdateUserTitleDisplayName(
-                    updateDisplayNameRequest,
-                    [this, callback](const UpdateUserTitleDisplayNameResult& result, void*)
-                    {
-                        // We were able to update the display name.
-                        // Call the callback with success and an empty error message.
-                        if (callback != nullptr)
-                        {
-                            m_displayName = result.DisplayName;
-                            std::string message;
-                            callback(true, message);
-                        }
-                    },
-                    [callback](const PlayFabError& error, void*)
-                    {
-                        // We were unable to update the user display name.
-                        // Call the callback with an error message.
-                        if (callback != nullptr)
-                        {
-                            std::string message(error.ErrorMessage);
-                            callback(false, message);
-                        }
-                    }
-                );
+                const EntityKey& entity = loginResult.EntityToken->Entity;
+                credentials.entityId = entity.Id;
+                credentials.entityToken = loginResult.EntityToken->EntityToken;
             }
-            else
+
+            std::string message;
+            if (credentials.entityId.empty())
             {
-                // Sign in was successful and the display name is already set.
-                // Call the callback if it exists.
-                if (callback != nullptr)
-                {
-                    std::string message;
-                    callback(true, message);
-                }
+                message = "No entity token in login result";
+                forgetClient();
             }
+            callback(!credentials.entityId.empty(), credentials, message);
         },
-        [callback](const PlayFabError& error, void*)
+        [callback, forgetClient](const PlayFabError& error, void*)
         {
-            // On failure, send an error message to the callback if it exists.
-            if (callback != nullptr)
-            {
-                std::string message = error.ErrorMessage;
-                callback(false, message);
-            }
+            PlayFabEntityCredentials credentials;
+            std::string message = error.ErrorMessage;
+            forgetClient();
+            callback(false, credentials, message);
         }
     );
 }
@@ -146,6 +450,43 @@ PlayFabManager::Tick()
     PlayFabClientAPI::Update();
     PlayFabMultiplayerAPI::Update();
     PlayFabDataAPI::Update();
+
+    for (const auto& failed : m_failedLocalUserClients)
+    {
+        // A later sign-in under the same name may have replaced the client already.
+        auto search = m_localUserClients.find(failed.first);
+        if (search != m_localUserClients.end() && search->second.get() == failed.second)
+        {
+            m_localUserClients.erase(search);
+        }
+    }
+    m_failedLocalUserClients.clear();
+
+    auto now = std::chrono::steady_clock::now();
+    if (m_isLoginPending && now >= m_loginDeadline)
+    {
+        // Abandon the attempt; bumping the generation drops its response should it still arrive.
+        ++m_loginGeneration;
+        PlayFabError timeout;
+        timeout.HttpCode = 0;
+        timeout.ErrorMessage = "Login timed out";
+        OnLoginFailed(timeout);
+    }
+
+    if (m_isRetryScheduled && now >= m_nextLoginAttempt)
+    {
+        StartLogin();
+    }
+
+    // Party recommends a new entity token once the current one is halfway through its lifetime.
+    if (m_isSignedIn && !m_isLoginPending && !m_isRetryScheduled && now >= m_nextRefreshCheck)
+    {
+        time_t refreshAt = m_tokenIssued + (m_tokenExpiration - m_tokenIssued) / 2;
+        if (time(nullptr) >= refreshAt)
+        {
+            StartRefresh();
+        }
+    }
 }
 
 void 
@@ -160,7 +501,7 @@ PlayFabManager::onSetDescriptorSuccess(
     // Send a message to the chat window indicating succeess
     std::string sender("System");
     std::string message("Network data saved.");
-    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
     // Call the callback function.
     m_onCompletedSettingDescriptor();
@@ -178,7 +519,7 @@ PlayFabManager::onSetDescriptorFailed(
     //Send a message to the chat window indicating failure.
     std::string sender("System");
     std::string message("Failed to set network.");
-    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
     // Call the callback function.
     m_onCompletedSettingDescriptor();
@@ -228,7 +569,7 @@ PartySample::PlayFabManager::SetDescriptor(
     sprintf(messageBuffer, "Saving out network data: %s.", descriptor.c_str());
     std::string sender("System");
     std::string message(messageBuffer);
-    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
     // Execute the above cloud script.
     PlayFabClientAPI::ExecuteCloudScript(request, onSetDescriptorSuccessCallback, onSetDescriptorFailCallback);
@@ -252,7 +593,7 @@ PartySample::PlayFabManager::onGetDescriptorSuccess(
             // Send an error message to the chat window.
             std::string sender("System");
             std::string message("No network id found.");
-            Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+            Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
             // Call the callback with an empty network descriptor to indicate an error.
             m_onCompletedGettingDescriptor(networkDescriptor);
@@ -268,7 +609,7 @@ PartySample::PlayFabManager::onGetDescriptorSuccess(
                 // Send an error message to the chat window.
                 std::string sender("System");
                 std::string message("No network id found.");
-                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
                 // Call the callback with an empty network descriptor to indicate an error.
                 m_onCompletedGettingDescriptor(networkDescriptor);
@@ -287,7 +628,7 @@ PartySample::PlayFabManager::onGetDescriptorSuccess(
                 sprintf(messageBuffer, "Network found: %s.", networkDescriptor.c_str());
                 std::string sender("System");
                 std::string message(messageBuffer);
-                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+                Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
                 // Call the callback with the retrieved network descriptor.
                 m_onCompletedGettingDescriptor(networkDescriptor);
@@ -305,7 +646,7 @@ PartySample::PlayFabManager::onGetDescriptorFail(
     // Post a system message indicating failure to the chat window.
     std::string sender("System");
     std::string message("Failed to get network.");
-    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(sender, message);
+    Managers::Get<INetworkStateChangeManager>()->ProcessTextMessage(std::string(), sender, message);
 
     // Log the failure.
     DEBUGLOG("Fail setting object\n");
@@ -0,0 +1,89 @@
+#include "pch.h"
+#include "QuickPhrases.h"
+
+using namespace PartySample;
+
+namespace
+{
+    struct QuickPhraseTranslation
+    {
+        const char* languageCode;
+        const char* phrases[static_cast<uint32_t>(QuickPhrase::Count)];
+    };
+
+    // One entry per language in LanguageOptions that needs its own wording; English comes first as the fallback.
+    const QuickPhraseTranslation c_quickPhrases[] =
+    {
+        { "en-US", { "Hey team!", "I'm scared.", "Good luck!" } },
+        { "ar-EG", { "مرحبا يا فريق!", "أنا خائف.", "حظا سعيدا!" } },
+        { "ca-ES", { "Ei, equip!", "Tinc por.", "Bona sort!" } },
+        { "zh-CN", { "嘿，队友们！", "我好害怕。", "祝你好运！" } },
+        { "zh-HK", { "喂，隊友！", "我好驚呀。", "祝你好運！" } },
+        { "zh-TW", { "嘿，隊友們！", "我好害怕。", "祝你好運！" } },
+        { "da-DK", { "Hej hold!", "Jeg er bange.", "Held og lykke!" } },
+        { "nl-NL", { "Hé team!", "Ik ben bang.", "Veel succes!" } },
+        { "fi-FI", { "Hei tiimi!", "Minua pelottaa.", "Onnea!" } },
+        { "fr-FR", { "Salut l'équipe !", "J'ai peur.", "Bonne chance !" } },
+        { "de-DE", { "Hey Team!", "Ich habe Angst.", "Viel Glück!" } },
+        { "hi-IN", { "अरे टीम!", "मुझे डर लग रहा है।", "शुभकामनाएँ!" } },
+        { "it-IT", { "Ehi squadra!", "Ho paura.", "Buona fortuna!" } },
+        { "ja-JP", { "やあ、みんな！", "怖いよ。", "幸運を祈る！" } },
+        { "ko-KR", { "팀원들, 안녕!", "무서워요.", "행운을 빌어요!" } },
+        { "nb-NO", { "Hei lag!", "Jeg er redd.", "Lykke til!" } },
+        { "pl-PL", { "Hej drużyno!", "Boję się.", "Powodzenia!" } },
+        { "pt-BR", { "Ei, time!", "Estou com medo.", "Boa sorte!" } },
+        { "pt-PT", { "Olá, equipa!", "Tenho medo.", "Boa sorte!" } },
+        { "ru-RU", { "Привет, команда!", "Мне страшно.", "Удачи!" } },
+        { "es-ES", { "¡Hola, equipo!", "Tengo miedo.", "¡Buena suerte!" } },
+        { "sv-SE", { "Hej laget!", "Jag är rädd.", "Lycka till!" } },
+        { "th-TH", { "หวัดดีทีม!", "ฉันกลัว", "โชคดีนะ!" } }
+    };
+
+    // Length of the language subtag, e.g. 2 for both "fr-CA" and "fr-FR".
+    size_t
+    LanguageLength(
+        const char* languageCode
+        )
+    {
+        const char* separator = strchr(languageCode, '-');
+        return separator != nullptr ? static_cast<size_t>(separator - languageCode) : strlen(languageCode);
+    }
+}
+
+const char*
+PartySample::QuickPhraseText(
+    uint32_t phraseId,
+    const char* languageCode
+    )
+{
+    if (phraseId >= static_cast<uint32_t>(QuickPhrase::Count))
+    {
+        return nullptr;
+    }
+
+    const QuickPhraseTranslation* match = &c_quickPhrases[0];
+    if (languageCode != nullptr)
+    {
+        size_t languageLength = LanguageLength(languageCode);
+        bool sameLanguageFound = false;
+        for (const QuickPhraseTranslation& translation : c_quickPhrases)
+        {
+            if (strcmp(translation.languageCode, languageCode) == 0)
+            {
+                match = &translation;
+                break;
+            }
+
+            // The first region listed for a language stands in for the others, e.g. fr-FR for fr-CA.
+            if (!sameLanguageFound &&
+                LanguageLength(translation.languageCode) == languageLength &&
+                strncmp(translation.languageCode, languageCode, languageLength) == 0)
+            {
+                match = &translation;
+                sameLanguageFound = true;
+            }
+        }
+    }
+
+    return match->phrases[phraseId];
+}
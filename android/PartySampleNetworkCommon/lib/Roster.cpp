@@ -0,0 +1,129 @@
+#include "pch.h"
+#include "Roster.h"
+
+using namespace PartySample;
+
+Roster::Roster() :
+    m_snapshotRenewed(false)
+{
+}
+
+bool
+Roster::Learn(
+    const std::string& entityId,
+    const std::string& displayName
+    )
+{
+    m_unnamed.erase(entityId);
+    auto known = m_names.find(entityId);
+    if (known != m_names.end() && known->second == displayName)
+    {
+        return false;
+    }
+    m_names[entityId] = displayName;
+    return true;
+}
+
+void
+Roster::AddEndpoint(
+    const std::string& entityId,
+    int64_t nowMs
+    )
+{
+    if (m_names.find(entityId) == m_names.end())
+    {
+        m_unnamed[entityId] = nowMs + c_nameTimeoutMs;
+    }
+}
+
+void
+Roster::Remove(
+    const std::string& entityId
+    )
+{
+    m_names.erase(entityId);
+    m_unnamed.erase(entityId);
+}
+
+std::vector<std::string>
+Roster::TakeDue(
+    int64_t nowMs,
+    bool& renewSnapshot
+    )
+{
+    renewSnapshot = false;
+    std::vector<std::string> due;
+    for (auto& item : m_unnamed)
+    {
+        if (item.second <= nowMs)
+        {
+            due.push_back(item.first);
+        }
+    }
+
+    if (!due.empty() && !m_snapshotRenewed)
+    {
+        // Everyone unnamed gets the same extra timeout to be named by the fresh snapshot.
+        m_snapshotRenewed = true;
+        renewSnapshot = true;
+        for (auto& item : m_unnamed)
+        {
+            item.second = nowMs + c_nameTimeoutMs;
+        }
+        return std::vector<std::string>();
+    }
+
+    for (const std::string& entityId : due)
+    {
+        m_unnamed[entityId] = nowMs + c_nameTimeoutMs;
+    }
+    return due;
+}
+
+std::string
+Roster::Snapshot(
+    const std::map<std::string, std::string>& ownNames,
+    const std::string& requesterId
+    ) const
+{
+    std::map<std::string, std::string> roster(m_names);
+    for (auto& item : ownNames)
+    {
+        roster[item.first] = item.second;
+    }
+    roster.erase(requesterId);
+
+    std::string snapshot;
+    for (auto& item : roster)
+    {
+        std::string displayName(item.second);
+        displayName.erase(std::remove(displayName.begin(), displayName.end(), '\n'), displayName.end());
+        snapshot += item.first + '\t' + displayName + '\n';
+    }
+    return snapshot;
+}
+
+std::vector<std::pair<std::string, std::string>>
+Roster::ParseSnapshot(
+    const std::string& snapshot
+    )
+{
+    std::vector<std::pair<std::string, std::string>> names;
+    size_t start = 0;
+    while (start < snapshot.size())
+    {
+        size_t end = snapshot.find('\n', start);
+        if (end == std::string::npos)
+        {
+            end = snapshot.size();
+        }
+
+        size_t separator = snapshot.find('\t', start);
+        if (separator != std::string::npos && separator > start && separator < end)
+        {
+            names.emplace_back(snapshot.substr(start, separator - start), snapshot.substr(separator + 1, end - separator - 1));
+        }
+        start = end + 1;
+    }
+    return names;
+}
@@ -0,0 +1,100 @@
+#include "pch.h"
+#include <chrono>
+#include "Trace.h"
+
+using namespace PartySample;
+
+namespace
+{
+    constexpr uint32_t c_traceRingSize = 1024;
+    constexpr size_t c_traceTextSize = 40;
+
+    struct TraceRecord
+    {
+        uint64_t timestampUs;
+        int64_t arg;
+        uint16_t event;
+        uint8_t level;
+        char text[c_traceTextSize];
+    };
+
+    const char* s_traceEventNames[] =
+    {
+        "StateChange",
+        "LocalChatIndicator",
+        "RemoteChatIndicator",
+        "JavaCallback",
+    };
+
+    static_assert(
+        _countof(s_traceEventNames) == static_cast<size_t>(TraceEvent::Count),
+        "s_traceEventNames is out of sync with TraceEvent");
+
+    TraceRecord s_traceRing[c_traceRingSize];
+    std::atomic<uint32_t> s_traceNext(0);
+}
+
+#ifdef NDEBUG
+std::atomic<int> Trace::s_level(static_cast<int>(TraceLevel::Error));
+#else
+std::atomic<int> Trace::s_level(static_cast<int>(TraceLevel::Debug));
+#endif
+
+void
+Trace::SetLevel(
+    TraceLevel level
+    )
+{
+    s_level.store(static_cast<int>(level), std::memory_order_relaxed);
+}
+
+void
+Trace::Record(
+    TraceLevel level,
+    TraceEvent event,
+    const char* text,
+    int64_t arg
+    )
+{
+    // Writers claim slots with a single atomic increment. A writer that laps a slower one can
+    // tear a record; that is acceptable for diagnostics and keeps the hot path lock-free.
+    uint32_t index = s_traceNext.fetch_add(1, std::memory_order_relaxed) % c_traceRingSize;
+    TraceRecord& record = s_traceRing[index];
+
+    record.timestampUs = static_cast<uint64_t>(std::chrono::duration_cast<std::chrono::microseconds>(
+        std::chrono::steady_clock::now().time_since_epoch()).count());
+    record.arg = arg;
+    record.event = static_cast<uint16_t>(event);
+    record.level = static_cast<uint8_t>(level);
+    if (text != nullptr)
+    {
+        strncpy(record.text, text, c_traceTextSize - 1);
+        record.text[c_traceTextSize - 1] = '\0';
+    }
+    else
+    {
+        record.text[0] = '\0';
+    }
+}
+
+void
+Trace::Dump()
+{
+    uint32_t next = s_traceNext.load(std::memory_order_relaxed);
+    uint32_t count = next < c_traceRingSize ? next : c_traceRingSize;
+
+    DEBUGLOG("Trace dump: %u records\n", count);
+    for (uint32_t i = next - count; i != next; ++i)
+    {
+        const TraceRecord& record = s_traceRing[i % c_traceRingSize];
+        const char* eventName = record.event < _countof(s_traceEventNames) ?
+            s_traceEventNames[record.event] : "Unknown";
+        DEBUGLOG(
+            "%llu L%u %s %s %lld\n",
+            static_cast<unsigned long long>(record.timestampUs),
+            static_cast<unsigned>(record.level),
+            eventName,
+            record.text,
+            static_cast<long long>(record.arg));
+    }
+}
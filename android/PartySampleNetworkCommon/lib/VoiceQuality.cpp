@@ -0,0 +1,96 @@
+#include "pch.h"
+#include "VoiceQuality.h"
+
+using namespace PartySample;
+
+uint32_t
+PartySample::VoiceQualityBitrate(
+    VoiceQualityTier tier
+    )
+{
+    // Speech stays intelligible down to the lowest of these.
+    switch (tier)
+    {
+    case VoiceQualityTier::Minimum:
+        return 12000;
+    case VoiceQualityTier::Low:
+        return 16000;
+    case VoiceQualityTier::Medium:
+        return 24000;
+    case VoiceQualityTier::High:
+    default:
+        return 32000;
+    }
+}
+
+VoiceQualityController::VoiceQualityController() :
+    m_tier(VoiceQualityTier::High),
+    m_badSamples(0),
+    m_goodSamples(0),
+    m_lastChangeMs(0)
+{
+}
+
+bool
+VoiceQualityController::AddSample(
+    uint64_t lossPermille,
+    uint64_t roundTripMs,
+    int64_t nowMs
+    )
+{
+    bool bad = lossPermille > c_badLossPermille || roundTripMs > c_badRoundTripMs;
+    bool good = lossPermille <= c_goodLossPermille && roundTripMs <= c_goodRoundTripMs;
+
+    // A sample in between holds the tier and breaks either run.
+    m_badSamples = bad ? m_badSamples + 1 : 0;
+    m_goodSamples = good ? m_goodSamples + 1 : 0;
+
+    if (m_badSamples >= c_samplesToStepDown && m_tier != VoiceQualityTier::Minimum)
+    {
+        Change(static_cast<VoiceQualityTier>(static_cast<int>(m_tier) - 1), lossPermille, roundTripMs, nowMs);
+        return true;
+    }
+
+    if (m_goodSamples >= c_samplesToStepUp &&
+        m_tier != VoiceQualityTier::High &&
+        nowMs - m_lastChangeMs >= c_stepUpDwellMs)
+    {
+        Change(static_cast<VoiceQualityTier>(static_cast<int>(m_tier) + 1), lossPermille, roundTripMs, nowMs);
+        return true;
+    }
+
+    return false;
+}
+
+void
+VoiceQualityController::ResetSamples()
+{
+    m_badSamples = 0;
+    m_goodSamples = 0;
+}
+
+void
+VoiceQualityController::Change(
+    VoiceQualityTier tier,
+    uint64_t lossPermille,
+    uint64_t roundTripMs,
+    int64_t nowMs
+    )
+{
+    VoiceQualityTransition transition;
+    transition.timeMs = nowMs;
+    transition.from = m_tier;
+    transition.to = tier;
+    transition.lossPermille = lossPermille;
+    transition.roundTripMs = roundTripMs;
+    if (m_history.size() == c_historySize)
+    {
+        m_history.pop_front();
+    }
+    m_history.push_back(transition);
+
+    m_tier = tier;
+    m_lastChangeMs = nowMs;
+    // Each further step needs a fresh run of samples at the new tier.
+    ResetSamples();
+}
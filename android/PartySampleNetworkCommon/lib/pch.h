@@ -1,6 +1,14 @@
 //Include storage primitives
 #include <string>
 #include <queue>
+#include <chrono>
+#include <vector>
+#include <memory>
+#include <unordered_map>
+#include <map>
+#include <mutex>
+#include <cstring>
+#include <algorithm>
 #include <errno.h>
 
 //Include the Party Libraries
@@ -14,6 +22,7 @@
 //#include "Managers.h"
 #include "PlayFabManager.h"
 #include "INetworkStateChangeManager.h"
+#include "Trace.h"
 
 
 #if defined(__ANDROID__)
@@ -0,0 +1,406 @@
+#include "pch.h"
+#include "Roster.h"
+
+#include <cassert>
+#include <cstdio>
+
+using namespace PartySample;
+
+// Runs the display name exchange of NetworkManager over a simulated network: peers join within a
+// short window, every link has its own random latency but keeps its messages in order, as Party
+// endpoint messages do, and the work loop of each peer runs every c_tickMs. Counts what is sent
+// and delivered until every peer has every other peer's name.
+
+namespace
+{
+    const int64_t c_tickMs = 50;
+    const int64_t c_minLatencyMs = 20;
+    const int64_t c_maxLatencyMs = 250;
+
+    // Small deterministic generator, so a failure can be replayed.
+    class Random
+    {
+    public:
+        explicit Random(uint32_t seed) : m_state(seed) {}
+
+        int64_t Between(int64_t low, int64_t high)
+        {
+            m_state = m_state * 1664525u + 1013904223u;
+            return low + static_cast<int64_t>((m_state >> 8) % static_cast<uint32_t>(high - low + 1));
+        }
+
+    private:
+        uint32_t m_state;
+    };
+
+    enum class Event
+    {
+        // Party reporting a remote endpoint; it comes before any message from that endpoint.
+        EndpointCreated,
+        Message
+    };
+
+    struct Delivery
+    {
+        int64_t atMs;
+        uint64_t order;
+        int from;
+        int to;
+        Event event;
+        NetworkMessageType type;
+        unsigned request;
+        std::string payload;
+
+        bool operator>(const Delivery& other) const
+        {
+            return atMs != other.atMs ? atMs > other.atMs : order > other.order;
+        }
+    };
+
+    struct Peer
+    {
+        std::string entityId;
+        std::string displayName;
+        int64_t joinMs;
+        bool joined;
+        // Position in the order the endpoints were created.
+        int joinOrder;
+        Roster roster;
+    };
+
+    struct Counts
+    {
+        // Endpoint messages handed to Party; a message to every endpoint counts once.
+        uint64_t sends = 0;
+        // Endpoint messages that reached a peer.
+        uint64_t deliveries = 0;
+        uint64_t announcements = 0;
+        uint64_t snapshotRequests = 0;
+        uint64_t snapshots = 0;
+        uint64_t nameRequests = 0;
+        int64_t settledMs = 0;
+    };
+
+    class Simulation
+    {
+    public:
+        Simulation(int peerCount, int64_t joinWindowMs, uint32_t seed) :
+            m_random(seed),
+            m_order(0),
+            m_joinCount(0),
+            m_lastArrival(peerCount, std::vector<int64_t>(peerCount, 0))
+        {
+            for (int i = 0; i < peerCount; i++)
+            {
+                Peer peer;
+                peer.entityId = "entity" + std::to_string(i);
+                peer.displayName = "Player " + std::to_string(i);
+                peer.joinMs = m_random.Between(0, joinWindowMs);
+                peer.joined = false;
+                peer.joinOrder = 0;
+                m_peers.push_back(peer);
+            }
+        }
+
+        Counts Run()
+        {
+            int64_t nowMs = 0;
+            while (!Settled())
+            {
+                // Party endpoint events and messages due by this tick, then each peer's work loop.
+                for (size_t i = 0; i < m_peers.size(); i++)
+                {
+                    if (!m_peers[i].joined && m_peers[i].joinMs <= nowMs)
+                    {
+                        Join(static_cast<int>(i), nowMs);
+                    }
+                }
+                while (!m_queue.empty() && m_queue.top().atMs <= nowMs)
+                {
+                    Delivery delivery = m_queue.top();
+                    m_queue.pop();
+                    Deliver(delivery, nowMs);
+                }
+                for (size_t i = 0; i < m_peers.size(); i++)
+                {
+                    if (m_peers[i].joined)
+                    {
+                        AskUnnamedEndpoints(static_cast<int>(i), nowMs);
+                    }
+                }
+
+                nowMs += c_tickMs;
+                assert(nowMs < 60000);
+            }
+            m_counts.settledMs = nowMs;
+            return m_counts;
+        }
+
+    private:
+        bool Settled() const
+        {
+            for (auto& peer : m_peers)
+            {
+                if (!peer.joined || peer.roster.Names().size() != m_peers.size() - 1 || peer.roster.HasUnnamed())
+                {
+                    return false;
+                }
+            }
+            return m_queue.empty();
+        }
+
+        // EndpointCreated for our own endpoint: note the endpoints already here, announce our
+        // name to them and ask the first of them for the roster.
+        void Join(int self, int64_t nowMs)
+        {
+            Peer& peer = m_peers[self];
+            peer.joined = true;
+            peer.joinOrder = m_joinCount++;
+
+            std::vector<int> present;
+            for (size_t i = 0; i < m_peers.size(); i++)
+            {
+                if (static_cast<int>(i) != self && m_peers[i].joined)
+                {
+                    present.push_back(static_cast<int>(i));
+                    peer.roster.AddEndpoint(m_peers[i].entityId, nowMs);
+                    Post(self, static_cast<int>(i), Event::EndpointCreated, NetworkMessageType::Unknown, 0, std::string(), nowMs);
+                }
+            }
+
+            if (present.empty())
+            {
+                return;
+            }
+
+            m_counts.sends++;
+            m_counts.announcements++;
+            for (int other : present)
+            {
+                Post(self, other, Event::Message, NetworkMessageType::UserDisplayName, 0, peer.displayName, nowMs);
+            }
+
+            RequestSnapshot(self, nowMs);
+        }
+
+        // Asks the first other endpoint in the network for its roster. Party lists endpoints in the
+        // order they were created, so that is the one that has been here longest.
+        void RequestSnapshot(int self, int64_t nowMs)
+        {
+            int oldest = -1;
+            for (size_t i = 0; i < m_peers.size(); i++)
+            {
+                if (static_cast<int>(i) != self && m_peers[i].joined && (oldest < 0 || m_peers[i].joinOrder < m_peers[oldest].joinOrder))
+                {
+                    oldest = static_cast<int>(i);
+                }
+            }
+            if (oldest >= 0)
+            {
+                m_counts.sends++;
+                m_counts.snapshotRequests++;
+                Post(self, oldest, Event::Message, NetworkMessageType::RosterRequest, c_rosterRequestSnapshot, std::string(), nowMs);
+            }
+        }
+
+        void Deliver(const Delivery& delivery, int64_t nowMs)
+        {
+            Peer& peer = m_peers[delivery.to];
+            const std::string& senderId = m_peers[delivery.from].entityId;
+            if (delivery.event == Event::EndpointCreated)
+            {
+                peer.roster.AddEndpoint(senderId, nowMs);
+                return;
+            }
+
+            m_counts.deliveries++;
+            switch (delivery.type)
+            {
+            case NetworkMessageType::UserDisplayName:
+                peer.roster.Learn(senderId, delivery.payload);
+                break;
+            case NetworkMessageType::RosterRequest:
+                if (delivery.request == c_rosterRequestOwnName)
+                {
+                    m_counts.sends++;
+                    m_counts.announcements++;
+                    Post(delivery.to, delivery.from, Event::Message, NetworkMessageType::UserDisplayName, 0, peer.displayName, nowMs);
+                }
+                else
+                {
+                    std::map<std::string, std::string> ownNames;
+                    ownNames[peer.entityId] = peer.displayName;
+                    m_counts.sends++;
+                    m_counts.snapshots++;
+                    Post(delivery.to, delivery.from, Event::Message, NetworkMessageType::RosterSnapshot, 0, peer.roster.Snapshot(ownNames, senderId), nowMs);
+                }
+                break;
+            case NetworkMessageType::RosterSnapshot:
+                for (auto& name : Roster::ParseSnapshot(delivery.payload))
+                {
+                    peer.roster.Learn(name.first, name.second);
+                }
+                break;
+            default:
+                assert(false);
+            }
+        }
+
+        void AskUnnamedEndpoints(int self, int64_t nowMs)
+        {
+            bool renewSnapshot = false;
+            for (const std::string& entityId : m_peers[self].roster.TakeDue(nowMs, renewSnapshot))
+            {
+                m_counts.sends++;
+                m_counts.nameRequests++;
+                Post(self, Index(entityId), Event::Message, NetworkMessageType::RosterRequest, c_rosterRequestOwnName, std::string(), nowMs);
+            }
+            if (renewSnapshot)
+            {
+                RequestSnapshot(self, nowMs);
+            }
+        }
+
+        int Index(const std::string& entityId) const
+        {
+            for (size_t i = 0; i < m_peers.size(); i++)
+            {
+                if (m_peers[i].entityId == entityId)
+                {
+                    return static_cast<int>(i);
+                }
+            }
+            assert(false);
+            return -1;
+        }
+
+        void Post(int from, int to, Event event, NetworkMessageType type, unsigned request, const std::string& payload, int64_t nowMs)
+        {
+            // A link never reorders, so nothing arrives before what was sent on it earlier.
+            int64_t atMs = std::max(nowMs + m_random.Between(c_minLatencyMs, c_maxLatencyMs), m_lastArrival[from][to]);
+            m_lastArrival[from][to] = atMs;
+
+            Delivery delivery;
+            delivery.atMs = atMs;
+            delivery.order = m_order++;
+            delivery.from = from;
+            delivery.to = to;
+            delivery.event = event;
+            delivery.type = type;
+            delivery.request = request;
+            delivery.payload = payload;
+            m_queue.push(delivery);
+        }
+
+        Random m_random;
+        uint64_t m_order;
+        int m_joinCount;
+        std::vector<Peer> m_peers;
+        std::vector<std::vector<int64_t>> m_lastArrival;
+        std::priority_queue<Delivery, std::vector<Delivery>, std::greater<Delivery>> m_queue;
+        Counts m_counts;
+    };
+
+    void
+    CheckSnapshotText()
+    {
+        Roster roster;
+        roster.Learn("b", "Bee");
+        roster.Learn("c", "Line\nbreak");
+        std::map<std::string, std::string> ownNames;
+        ownNames["a"] = "Ay";
+        std::string snapshot = roster.Snapshot(ownNames, "b");
+        assert(snapshot == "a\tAy\nc\tLinebreak\n");
+
+        auto names = Roster::ParseSnapshot(snapshot + "junk\n\tnoid\nd\t\n");
+        assert(names.size() == 3);
+        assert(names[0].first == "a" && names[0].second == "Ay");
+        assert(names[1].first == "c" && names[1].second == "Linebreak");
+        assert(names[2].first == "d" && names[2].second.empty());
+    }
+
+    void
+    CheckUnnamedTimeout()
+    {
+        Roster roster;
+        roster.AddEndpoint("a", 0);
+        roster.AddEndpoint("b", 0);
+        roster.Learn("c", "See");
+        roster.AddEndpoint("c", 0);
+        bool renewSnapshot = false;
+        assert(roster.TakeDue(Roster::c_nameTimeoutMs - 1, renewSnapshot).empty());
+        assert(!renewSnapshot);
+
+        // The first timeout asks for a fresh snapshot rather than each endpoint.
+        roster.Learn("a", "Ay");
+        assert(!roster.Learn("a", "Ay"));
+        assert(roster.TakeDue(Roster::c_nameTimeoutMs, renewSnapshot).empty());
+        assert(renewSnapshot);
+
+        // Whoever that leaves unnamed is asked directly, once per timeout.
+        assert(roster.TakeDue(Roster::c_nameTimeoutMs * 2 - 1, renewSnapshot).empty());
+        std::vector<std::string> due = roster.TakeDue(Roster::c_nameTimeoutMs * 2, renewSnapshot);
+        assert(!renewSnapshot);
+        assert(due.size() == 1 && due[0] == "b");
+        assert(roster.TakeDue(Roster::c_nameTimeoutMs * 3 - 1, renewSnapshot).empty());
+        assert(roster.TakeDue(Roster::c_nameTimeoutMs * 3, renewSnapshot).size() == 1);
+
+        roster.Remove("b");
+        assert(!roster.HasUnnamed());
+    }
+
+    // Every peer count from 2 to 64 joins within the window, a few times over with different
+    // latencies. Before the roster protocol each EndpointCreated made every peer announce itself
+    // to everyone, N * N sends for a room of N; now each peer sends a bounded number, and the only
+    // per-pair traffic left is each newcomer's name reaching the peers already there.
+    void
+    CheckJoinStorm(
+        int64_t joinWindowMs
+        )
+    {
+        printf("Joining within %lldms\n", static_cast<long long>(joinWindowMs));
+        printf("%6s %8s %10s %10s %10s %10s\n", "peers", "sends", "per peer", "delivered", "asked", "settled");
+        for (int peers = 2; peers <= 64; peers++)
+        {
+            for (uint32_t seed = 1; seed <= 3; seed++)
+            {
+                Simulation simulation(peers, joinWindowMs, seed);
+                Counts counts = simulation.Run();
+                const uint64_t n = static_cast<uint64_t>(peers);
+
+                // An announcement, a roster request and perhaps its renewal from each peer, and an
+                // answer to each request.
+                assert(counts.announcements - counts.nameRequests <= n - 1);
+                assert(counts.snapshotRequests <= 2 * (n - 1));
+                assert(counts.snapshots == counts.snapshotRequests);
+                assert(counts.sends <= 5 * n);
+                assert(counts.deliveries <= n * (n - 1) / 2 + 4 * n);
+
+                if (seed == 1 && (peers & (peers - 1)) == 0)
+                {
+                    printf("%6d %8llu %10.2f %10llu %10llu %8lldms\n", peers,
+                        static_cast<unsigned long long>(counts.sends),
+                        static_cast<double>(counts.sends) / peers,
+                        static_cast<unsigned long long>(counts.deliveries),
+                        static_cast<unsigned long long>(counts.nameRequests),
+                        static_cast<long long>(counts.settledMs));
+                }
+            }
+        }
+    }
+}
+
+int
+main()
+{
+    CheckSnapshotText();
+    CheckUnnamedTimeout();
+
+    // Everyone at once, within a second as when a room opens, and spread out.
+    CheckJoinStorm(0);
+    CheckJoinStorm(1000);
+    CheckJoinStorm(10000);
+
+    printf("RosterSimulationTest passed\n");
+    return 0;
+}
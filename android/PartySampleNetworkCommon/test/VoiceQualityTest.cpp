@@ -0,0 +1,197 @@
+#include "pch.h"
+#include "VoiceQuality.h"
+
+#include <cassert>
+#include <cstdio>
+
+using namespace PartySample;
+
+// Feeds synthetic loss and round trip traces to VoiceQualityController, one sample per second like
+// the statistics timer, and checks when the tier moves.
+
+namespace
+{
+    const uint64_t c_badLoss = 80;
+    const uint64_t c_goodLoss = 0;
+    const uint64_t c_middleLoss = 35;
+    const uint64_t c_goodRoundTrip = 50;
+    const uint64_t c_badRoundTrip = 400;
+    const int64_t c_sampleIntervalMs = 1000;
+
+    // Feeds count copies of one sample starting at nowMs, and returns how many of them changed the tier.
+    int
+    Feed(
+        VoiceQualityController& controller,
+        uint64_t lossPermille,
+        uint64_t roundTripMs,
+        int count,
+        int64_t& nowMs
+        )
+    {
+        int changes = 0;
+        for (int i = 0; i < count; i++)
+        {
+            nowMs += c_sampleIntervalMs;
+            if (controller.AddSample(lossPermille, roundTripMs, nowMs))
+            {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    void
+    StepsDownAfterThreeBadSamples()
+    {
+        VoiceQualityController controller;
+        int64_t nowMs = 0;
+        assert(controller.Tier() == VoiceQualityTier::High);
+
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 2, nowMs) == 0);
+        assert(controller.Tier() == VoiceQualityTier::High);
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 1, nowMs) == 1);
+        assert(controller.Tier() == VoiceQualityTier::Medium);
+
+        // Latency alone is as bad as loss, and each step needs a fresh run.
+        assert(Feed(controller, c_goodLoss, c_badRoundTrip, 2, nowMs) == 0);
+        assert(Feed(controller, c_goodLoss, c_badRoundTrip, 1, nowMs) == 1);
+        assert(controller.Tier() == VoiceQualityTier::Low);
+
+        // It never goes below the minimum tier.
+        assert(Feed(controller, c_badLoss, c_badRoundTrip, 30, nowMs) == 1);
+        assert(controller.Tier() == VoiceQualityTier::Minimum);
+
+        const std::deque<VoiceQualityTransition>& history = controller.History();
+        assert(history.size() == 3);
+        assert(history[0].from == VoiceQualityTier::High && history[0].to == VoiceQualityTier::Medium);
+        assert(history[0].timeMs == 3 * c_sampleIntervalMs);
+        assert(history[0].lossPermille == c_badLoss);
+        assert(history[1].roundTripMs == c_badRoundTrip);
+        assert(history[2].to == VoiceQualityTier::Minimum);
+    }
+
+    void
+    MiddleSampleBreaksRun()
+    {
+        VoiceQualityController controller;
+        int64_t nowMs = 0;
+
+        // Bad, bad, in between, bad, bad never reaches three in a row.
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 2, nowMs) == 0);
+        assert(Feed(controller, c_middleLoss, c_goodRoundTrip, 1, nowMs) == 0);
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 2, nowMs) == 0);
+        assert(controller.Tier() == VoiceQualityTier::High);
+
+        // A link hovering around the bad threshold stays put.
+        assert(Feed(controller, c_middleLoss, c_goodRoundTrip, 1, nowMs) == 0);
+        for (int i = 0; i < 100; i++)
+        {
+            assert(Feed(controller, i % 3 == 2 ? c_middleLoss : c_badLoss, c_goodRoundTrip, 1, nowMs) == 0);
+        }
+        assert(controller.Tier() == VoiceQualityTier::High);
+        assert(controller.History().empty());
+    }
+
+    void
+    HoldsBeforeSteppingUp()
+    {
+        VoiceQualityController controller;
+        int64_t nowMs = 0;
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 3, nowMs) == 1);
+        const int64_t changedMs = nowMs;
+        assert(controller.Tier() == VoiceQualityTier::Medium);
+
+        // Ten good samples are not enough while the tier is younger than the dwell time.
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 10, nowMs) == 0);
+        assert(controller.Tier() == VoiceQualityTier::Medium);
+
+        // The step up comes on the first good sample once the dwell time has passed.
+        while (nowMs + c_sampleIntervalMs - changedMs < 15000)
+        {
+            assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 1, nowMs) == 0);
+        }
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 1, nowMs) == 1);
+        assert(controller.Tier() == VoiceQualityTier::High);
+        assert(nowMs - changedMs == 15000);
+
+        // Past the dwell time, a run shorter than ten samples still holds the tier.
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 3, nowMs) == 1);
+        nowMs += 60000;
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 9, nowMs) == 0);
+        assert(Feed(controller, c_middleLoss, c_goodRoundTrip, 1, nowMs) == 0);
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 9, nowMs) == 0);
+        assert(controller.Tier() == VoiceQualityTier::Medium);
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 1, nowMs) == 1);
+        assert(controller.Tier() == VoiceQualityTier::High);
+
+        // Already at the top, good samples change nothing.
+        nowMs += 60000;
+        assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 50, nowMs) == 0);
+        assert(controller.History().size() == 4);
+    }
+
+    void
+    ResetSamplesDropsRun()
+    {
+        VoiceQualityController controller;
+        int64_t nowMs = 0;
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 2, nowMs) == 0);
+        controller.ResetSamples();
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 2, nowMs) == 0);
+        assert(controller.Tier() == VoiceQualityTier::High);
+        assert(Feed(controller, c_badLoss, c_goodRoundTrip, 1, nowMs) == 1);
+    }
+
+    void
+    KeepsSixteenTransitions()
+    {
+        VoiceQualityController controller;
+        int64_t nowMs = 0;
+
+        // Flap between High and Medium: every down step takes 3 bad samples and every up step
+        // 15 good ones, which covers both the run length and the dwell time.
+        const int cycles = 12;
+        for (int i = 0; i < cycles; i++)
+        {
+            assert(Feed(controller, c_badLoss, c_goodRoundTrip, 3, nowMs) == 1);
+            assert(Feed(controller, c_goodLoss, c_goodRoundTrip, 15, nowMs) == 1);
+        }
+
+        const std::deque<VoiceQualityTransition>& history = controller.History();
+        assert(history.size() == 16);
+
+        // The oldest ones were dropped, and the rest are in order.
+        const int64_t cycleMs = 18 * c_sampleIntervalMs;
+        const int dropped = cycles * 2 - 16;
+        assert(history.front().timeMs == (dropped / 2) * cycleMs + 3 * c_sampleIntervalMs);
+        assert(history.back().timeMs == nowMs);
+        for (size_t i = 1; i < history.size(); i++)
+        {
+            assert(history[i - 1].timeMs < history[i].timeMs);
+            assert(history[i - 1].to == history[i].from);
+        }
+        assert(history.back().to == VoiceQualityTier::High);
+    }
+
+    void
+    MapsTiersToBitrates()
+    {
+        assert(VoiceQualityBitrate(VoiceQualityTier::Minimum) == 12000);
+        assert(VoiceQualityBitrate(VoiceQualityTier::Low) == 16000);
+        assert(VoiceQualityBitrate(VoiceQualityTier::Medium) == 24000);
+        assert(VoiceQualityBitrate(VoiceQualityTier::High) == 32000);
+    }
+}
+
+int
+main()
+{
+    StepsDownAfterThreeBadSamples();
+    MiddleSampleBreaksRun();
+    HoldsBeforeSteppingUp();
+    ResetSamplesDropsRun();
+    KeepsSixteenTransitions();
+    MapsTiersToBitrates();
+    printf("VoiceQualityTest passed\n");
+    return 0;
+}